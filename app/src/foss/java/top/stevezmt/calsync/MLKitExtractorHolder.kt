@@ -0,0 +1,8 @@
+package top.stevezmt.calsync
+
+/* dummy implementation for FOSS build: no ML Kit, nothing to load or release */
+internal object MLKitExtractorHolder {
+    fun warmUp() {}
+
+    fun onTrimMemory(level: Int) {}
+}
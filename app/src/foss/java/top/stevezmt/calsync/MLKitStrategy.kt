@@ -11,5 +11,7 @@ internal class MLKitStrategy(private val context: Context) : ParsingStrategy {
 
     fun tryParseWithBase(sentence: String, baseMillis: Long): DateTimeParser.ParseResult? = null
 
+    suspend fun parseAll(sentences: List<String>, baseMillis: Long): Map<String, DateTimeParser.ParseResult?> = emptyMap()
+
     fun extractTitleAndLocation(sentence: String): Pair<String?, String?> = Pair(null, null)
 }
@@ -0,0 +1,147 @@
+package top.stevezmt.calsync
+
+import android.content.ComponentCallbacks2
+import android.util.Log
+import com.google.android.gms.tasks.Task
+import com.google.mlkit.nl.entityextraction.EntityAnnotation
+import com.google.mlkit.nl.entityextraction.EntityExtraction
+import com.google.mlkit.nl.entityextraction.EntityExtractionParams
+import com.google.mlkit.nl.entityextraction.EntityExtractor
+import com.google.mlkit.nl.entityextraction.EntityExtractorOptions
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
+import java.util.concurrent.Executor
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * Process-wide ML Kit entity extractor.
+ *
+ * 1. 整个进程只创建一个 EntityExtractor，模型只在首次使用前下载/检查一次（[warmUp] 在启动和选择 ML Kit 引擎时提前做）；
+ * 2. [annotate] 一次提交多句文本的全部请求再一起等待，挂起而不是阻塞调用线程；
+ * 3. 内存紧张时 [onTrimMemory] 关闭提取器，下次使用时重新创建；还有 annotate 在进行时推迟到最后一个结束后再关闭。
+ */
+internal object MLKitExtractorHolder {
+    private const val TAG = "MLKitExtractor"
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    // guards extractor / modelReady / inFlight / closePending; annotate requests themselves run outside the lock
+    private val mutex = Mutex()
+    private var extractor: EntityExtractor? = null
+    private var modelReady = false
+    // annotate calls using extractor right now; close() waits for them via closePending
+    private var inFlight = 0
+    private var closePending = false
+
+    // completion listeners run on the thread finishing the task instead of the main looper
+    private val direct = Executor { it.run() }
+
+    /** Creates the extractor and downloads the model in the background; no-op when already done. */
+    fun warmUp() {
+        scope.launch {
+            try {
+                acquire()
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                Log.w(TAG, "warmUp failed: ${e.message}")
+            }
+        }
+    }
+
+    /**
+     * Annotates every text in [texts] (one result list per text, same order).
+     * [referenceTime] anchors relative expressions (明天、下周三); null = ML Kit's own clock.
+     */
+    suspend fun annotate(texts: List<String>, referenceTime: Long?): List<List<EntityAnnotation>> {
+        if (texts.isEmpty()) return emptyList()
+        val ex = mutex.withLock {
+            acquireLocked().also { inFlight++ }
+        }
+        try {
+            val startMs = System.currentTimeMillis()
+            // submit all requests first, then wait: ML Kit works through them while we are suspended
+            val tasks = texts.map { text ->
+                val params = EntityExtractionParams.Builder(text)
+                if (referenceTime != null) params.setReferenceTime(referenceTime)
+                ex.annotate(params.build())
+            }
+            val results = tasks.map { it.await() }
+            Log.d(TAG, "annotate: ${texts.size} texts in ${System.currentTimeMillis() - startMs}ms")
+            return results
+        } finally {
+            // also when cancelled: a close requested meanwhile must still happen
+            withContext(NonCancellable) {
+                mutex.withLock {
+                    inFlight--
+                    if (inFlight == 0 && closePending) closeLocked()
+                }
+            }
+        }
+    }
+
+    /** ComponentCallbacks2 hook (see CalSyncApp): the extractor is cheap to recreate, so drop it on real pressure. */
+    fun onTrimMemory(level: Int) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) return
+        scope.launch { close() }
+    }
+
+    /** Closes the extractor now, or once the annotate calls still using it have finished. */
+    suspend fun close() {
+        mutex.withLock {
+            if (inFlight > 0) {
+                Log.i(TAG, "close deferred: $inFlight annotate calls in flight")
+                closePending = true
+            } else {
+                closeLocked()
+            }
+        }
+    }
+
+    private fun closeLocked() {
+        closePending = false
+        val ex = extractor ?: return
+        Log.i(TAG, "closing extractor")
+        extractor = null
+        modelReady = false
+        try { ex.close() } catch (e: Exception) { Log.w(TAG, "close failed: ${e.message}") }
+    }
+
+    private suspend fun acquire(): EntityExtractor = mutex.withLock { acquireLocked() }
+
+    private suspend fun acquireLocked(): EntityExtractor {
+        val ex = extractor ?: EntityExtraction.getClient(
+            EntityExtractorOptions.Builder(EntityExtractorOptions.CHINESE).build()
+        ).also {
+            extractor = it
+            modelReady = false
+        }
+        if (!modelReady) {
+            // May require Google Play Services to download the model on first run
+            val startMs = System.currentTimeMillis()
+            ex.downloadModelIfNeeded().await()
+            modelReady = true
+            Log.d(TAG, "model ready in ${System.currentTimeMillis() - startMs}ms")
+        }
+        return ex
+    }
+
+    private suspend fun <T> Task<T>.await(): T = suspendCancellableCoroutine { cont ->
+        addOnCompleteListener(direct) { task ->
+            val e = task.exception
+            when {
+                e != null -> cont.resumeWithException(e)
+                task.isCanceled -> cont.cancel()
+                else -> cont.resume(task.result)
+            }
+        }
+    }
+}
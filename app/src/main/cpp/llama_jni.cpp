@@ -2,14 +2,21 @@
 #include <string>
 #include <vector>
 #include <cstring>
+#include <cstdlib>
 #include <algorithm>
 #include <chrono>
 #include <android/log.h>
 #include <memory>
 #include <mutex>
+#include <functional>
+#include <deque>
+#include <cstdio>
+#include <sys/resource.h>
+#include <unistd.h>
 
 // llama.cpp headers (modern API)
 #include "llama.h"
+#include "ggml-cpu.h"
 
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, "llama_jni", __VA_ARGS__)
 #define LOGW(...) __android_log_print(ANDROID_LOG_WARN, "llama_jni", __VA_ARGS__)
@@ -19,12 +26,51 @@ namespace {
     constexpr size_t kMaxOutputChars = 4096;
     constexpr int64_t kMaxGenMillis = 10000;  // 10s timeout
     constexpr int kMinContextSize = 256;
+    // Batched completion: sequence 0 holds the shared prompt prefix, prompts run as sequences 1..kMaxBatchSeqs
+    constexpr int kMaxBatchSeqs = 4;
+    // Speculative decoding: tokens proposed by the draft model per verification batch
+    constexpr int kMaxDraftTokens = 6;
+    constexpr int kMinDraftTokens = 2;
     
     // Static init guard
     static bool g_backend_initialized = false;
     static std::mutex g_backend_mutex;
 }
 
+/**
+ * Timings of one completion, or their sum over all completions of a handle (see nativeGetStats).
+ * Measured around our own calls, so batched completions count the same way as single ones.
+ */
+struct PerfStats {
+    int64_t completions = 0;
+    double tokenize_ms = 0;
+    int64_t prompt_tokens = 0;   // decoded this time
+    int64_t prompt_reused = 0;   // served from the prefix cache
+    double prompt_ms = 0;
+    int64_t gen_tokens = 0;
+    double gen_ms = 0;
+    int64_t draft_tokens = 0;    // proposed by the draft model
+    int64_t draft_accepted = 0;  // of those, confirmed by the main model
+    
+    void add(const PerfStats& o) {
+        completions += o.completions;
+        tokenize_ms += o.tokenize_ms;
+        prompt_tokens += o.prompt_tokens;
+        prompt_reused += o.prompt_reused;
+        prompt_ms += o.prompt_ms;
+        gen_tokens += o.gen_tokens;
+        gen_ms += o.gen_ms;
+        draft_tokens += o.draft_tokens;
+        draft_accepted += o.draft_accepted;
+    }
+};
+
+using PerfClock = std::chrono::steady_clock;
+
+static double msSince(PerfClock::time_point t0) {
+    return std::chrono::duration<double, std::milli>(PerfClock::now() - t0).count();
+}
+
 /**
  * LlamaContext: manages both model and context lifecycle safely.
  * Holds unique ownership of both resources.
@@ -33,10 +79,101 @@ class LlamaContext {
 public:
     llama_model* model = nullptr;
     llama_context* ctx = nullptr;
+    // Tokens whose KV entries are currently held in sequence 0, in position order.
+    // The next prompt only decodes what follows its longest common prefix with this list.
+    std::vector<llama_token> kv_tokens;
+    // Pinned CPU thread pools (decode / prompt batch), attached via llama_attach_threadpool; null = llama's own threads
+    ggml_threadpool* threadpool = nullptr;
+    ggml_threadpool* threadpool_batch = nullptr;
+    // What ensureContext needs to recreate ctx after releaseContext
+    llama_context_params cparams = llama_context_default_params();
+    int n_threads = 1;
+    int n_threads_batch = 1;
+    // Optional draft model for speculative decoding (same vocabulary, much smaller); its own context and prefix cache
+    llama_model* draft_model = nullptr;
+    llama_context* draft_ctx = nullptr;
+    std::vector<llama_token> draft_kv_tokens;
+    
+    void freeDraft() {
+        if (draft_ctx) llama_free(draft_ctx);
+        if (draft_model) llama_model_free(draft_model);
+        draft_ctx = nullptr;
+        draft_model = nullptr;
+        draft_kv_tokens.clear();
+    }
+    
+    // Performance counters: model load time, last completion, all completions since load
+    double load_ms = 0;
+    PerfStats last_perf;
+    PerfStats total_perf;
+    
+    void recordPerf(const PerfStats& p) {
+        last_perf = p;
+        total_perf.add(p);
+    }
+    
+    void freeThreadpools() {
+        if (ctx && (threadpool || threadpool_batch)) llama_detach_threadpool(ctx);
+        if (threadpool_batch && threadpool_batch != threadpool) ggml_threadpool_free(threadpool_batch);
+        if (threadpool) ggml_threadpool_free(threadpool);
+        threadpool = nullptr;
+        threadpool_batch = nullptr;
+    }
+    
+    void clearKv() {
+        if (ctx) llama_memory_seq_rm(llama_get_memory(ctx), 0, -1, -1);
+        kv_tokens.clear();
+    }
+    
+    // Memory pressure: free the KV cache and compute buffers, keep the (mmapped) weights and thread pools
+    void releaseContext() {
+        if (!ctx) return;
+        if (threadpool || threadpool_batch) llama_detach_threadpool(ctx);
+        llama_free(ctx);
+        ctx = nullptr;
+        kv_tokens.clear();
+        if (draft_ctx) llama_free(draft_ctx);
+        draft_ctx = nullptr;
+        draft_kv_tokens.clear();
+    }
+    
+    // Recreates the context freed by releaseContext with the same parameters and threads
+    bool ensureContext() {
+        if (ctx) return true;
+        if (!model) return false;
+        ctx = llama_init_from_model(model, cparams);
+        if (!ctx) {
+            LOGE("ensureContext: failed to recreate llama context");
+            return false;
+        }
+        if (threadpool && threadpool_batch) llama_attach_threadpool(ctx, threadpool, threadpool_batch);
+        llama_set_n_threads(ctx, n_threads, n_threads_batch);
+        LOGD("ensureContext: context recreated");
+        return true;
+    }
+    
+    // Draft context on demand (after loading the draft, or after releaseContext); false = decode without speculation
+    bool ensureDraftContext() {
+        if (draft_ctx) return true;
+        if (!draft_model) return false;
+        llama_context_params dparams = cparams;
+        dparams.n_seq_max = 1;
+        dparams.kv_unified = false;
+        draft_ctx = llama_init_from_model(draft_model, dparams);
+        if (!draft_ctx) {
+            LOGW("ensureDraftContext: failed to create draft context");
+            return false;
+        }
+        // the draft runs between main decodes, never concurrently: same thread counts, llama's own threads
+        llama_set_n_threads(draft_ctx, n_threads, n_threads_batch);
+        return true;
+    }
     
     LlamaContext() = default;
     
     ~LlamaContext() {
+        freeDraft();
+        freeThreadpools();
         if (ctx) {
             llama_free(ctx);
             ctx = nullptr;
@@ -91,6 +228,7 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeInit(JNIEnv* env, jclass, jstring j
         int nThreadsClamped = (int)std::max((jint)1, std::min(nThreads, (jint)16));
         
         LOGD("nativeInit: model=%s ctx=%d threads=%d", modelPath.c_str(), nCtxClamped, nThreadsClamped);
+        const auto t_load_start = PerfClock::now();
         
         // Load model (CPU-only)
         llama_model_params mparams = llama_model_default_params();
@@ -110,6 +248,9 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeInit(JNIEnv* env, jclass, jstring j
         cparams.n_batch = std::min((uint32_t)nCtxClamped, (uint32_t)2048);
         cparams.n_ubatch = std::min(cparams.n_batch, (uint32_t)512);
         cparams.no_perf = false;     // enable perf stats for debugging
+        // one KV buffer shared by all sequences, so the prefix copied with llama_memory_seq_cp costs no extra cells
+        cparams.n_seq_max = kMaxBatchSeqs + 1;
+        cparams.kv_unified = true;
         
         llama_context* ctx = llama_init_from_model(model, cparams);
         if (!ctx) {
@@ -122,6 +263,10 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeInit(JNIEnv* env, jclass, jstring j
         auto* llama_ctx = new LlamaContext();
         llama_ctx->model = model;
         llama_ctx->ctx = ctx;
+        llama_ctx->cparams = cparams;
+        llama_ctx->n_threads = nThreadsClamped;
+        llama_ctx->n_threads_batch = nThreadsClamped;
+        llama_ctx->load_ms = msSince(t_load_start);
         
         // Warmup: run a small decode to initialize caches
         LOGD("nativeInit: performing warmup...");
@@ -177,20 +322,446 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeFree(JNIEnv*, jclass, jlong handle)
     }
 }
 
-// Complete: generates text using the loaded model with proper error handling
-extern "C" JNIEXPORT jstring JNICALL
-Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong handle, jstring jPrompt, jint maxTokens) {
+// Draft and main model must tokenize identically: same vocabulary type, special tokens and (sampled) token texts
+static bool vocabsCompatible(const llama_vocab* a, const llama_vocab* b) {
+    if (llama_vocab_type(a) != llama_vocab_type(b)) return false;
+    if (llama_vocab_bos(a) != llama_vocab_bos(b) || llama_vocab_eos(a) != llama_vocab_eos(b)) return false;
+    const int n_a = llama_vocab_n_tokens(a);
+    const int n_b = llama_vocab_n_tokens(b);
+    // models of one family may differ only in a few trailing (added) tokens
+    if (std::abs(n_a - n_b) > 128) return false;
+    const int n = std::min(n_a, n_b);
+    const int step = std::max(1, n / 2048);
+    for (int i = 0; i < n; i += step) {
+        const char* ta = llama_vocab_get_text(a, i);
+        const char* tb = llama_vocab_get_text(b, i);
+        if (!ta || !tb || std::strcmp(ta, tb) != 0) return false;
+    }
+    return true;
+}
+
+// Loads (or replaces) the draft model for speculative decoding; false if it cannot be loaded or does not share
+// the main model's vocabulary. Must not run concurrently with a completion on the same handle.
+extern "C" JNIEXPORT jboolean JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeLoadDraft(JNIEnv* env, jclass, jlong handle, jstring jPath) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    const std::string path = jstringToUtf8(env, jPath);
+    if (!llama_ctx || !llama_ctx->model || path.empty()) return JNI_FALSE;
+    try {
+        llama_ctx->freeDraft();
+        llama_model* draft = llama_model_load_from_file(path.c_str(), llama_model_default_params());
+        if (!draft) {
+            LOGE("nativeLoadDraft: failed to load %s", path.c_str());
+            return JNI_FALSE;
+        }
+        if (!vocabsCompatible(llama_model_get_vocab(llama_ctx->model), llama_model_get_vocab(draft))) {
+            LOGW("nativeLoadDraft: draft vocabulary differs from the main model, not used");
+            llama_model_free(draft);
+            return JNI_FALSE;
+        }
+        llama_ctx->draft_model = draft;
+        if (!llama_ctx->ensureDraftContext()) {
+            llama_ctx->freeDraft();
+            return JNI_FALSE;
+        }
+        LOGD("nativeLoadDraft: %s loaded", path.c_str());
+        return JNI_TRUE;
+    } catch (...) {
+        LOGE("nativeLoadDraft: exception");
+        llama_ctx->freeDraft();
+        return JNI_FALSE;
+    }
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeFreeDraft(JNIEnv*, jclass, jlong handle) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (llama_ctx) llama_ctx->freeDraft();
+}
+
+extern "C" JNIEXPORT void JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeReleaseContext(JNIEnv*, jclass, jlong handle) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (!llama_ctx) return;
+    try {
+        llama_ctx->releaseContext();
+        LOGD("nativeReleaseContext: handle=%p", (void*)llama_ctx);
+    } catch (...) {
+        LOGE("nativeReleaseContext: exception");
+    }
+}
+
+// Thread pool of n threads pinned (strictly) to the first n entries of cpus
+static ggml_threadpool* newPinnedThreadpool(int n, const std::vector<int>& cpus) {
+    ggml_threadpool_params params = ggml_threadpool_params_default(n);
+    std::fill(std::begin(params.cpumask), std::end(params.cpumask), false);
+    for (int i = 0; i < n && i < (int)cpus.size(); ++i) {
+        if (cpus[i] >= 0 && cpus[i] < GGML_MAX_N_THREADS) params.cpumask[cpus[i]] = true;
+    }
+    params.strict_cpu = true;
+    return ggml_threadpool_new(&params);
+}
+
+// Sets decode (n_threads) and prompt batch (n_threads_batch) thread counts.
+// A non-empty cpus array (fastest core first) pins the threads of each pool to the fastest cores.
+extern "C" JNIEXPORT jboolean JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeConfigureThreads(JNIEnv* env, jclass, jlong handle, jint nThreads, jint nThreadsBatch, jintArray jCpus) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (!llama_ctx || !llama_ctx->ensureContext()) return JNI_FALSE;
+    const int n = std::max(1, std::min((int)nThreads, 16));
+    const int nb = std::max(1, std::min((int)nThreadsBatch, 16));
+    std::vector<int> cpus;
+    if (jCpus) {
+        const jsize len = env->GetArrayLength(jCpus);
+        cpus.resize((size_t)len);
+        if (len > 0) env->GetIntArrayRegion(jCpus, 0, len, cpus.data());
+    }
+    try {
+        llama_ctx->freeThreadpools();
+        if (!cpus.empty()) {
+            llama_ctx->threadpool = newPinnedThreadpool(std::min(n, (int)cpus.size()), cpus);
+            llama_ctx->threadpool_batch = nb == n ? llama_ctx->threadpool : newPinnedThreadpool(std::min(nb, (int)cpus.size()), cpus);
+            if (!llama_ctx->threadpool || !llama_ctx->threadpool_batch) {
+                LOGW("nativeConfigureThreads: failed to create pinned thread pools, using unpinned threads");
+                llama_ctx->freeThreadpools();
+            } else {
+                llama_attach_threadpool(llama_ctx->ctx, llama_ctx->threadpool, llama_ctx->threadpool_batch);
+            }
+        }
+        llama_set_n_threads(llama_ctx->ctx, n, nb);
+        llama_ctx->n_threads = n;
+        llama_ctx->n_threads_batch = nb;
+        if (llama_ctx->draft_ctx) llama_set_n_threads(llama_ctx->draft_ctx, n, nb);
+        LOGD("nativeConfigureThreads: n_threads=%d n_threads_batch=%d pinned=%d", n, nb, llama_ctx->threadpool ? 1 : 0);
+        return JNI_TRUE;
+    } catch (...) {
+        LOGE("nativeConfigureThreads: exception");
+        return JNI_FALSE;
+    }
+}
+
+// Calibration: one prompt batch of nPrompt tokens, then nGen single-token decodes.
+// Returns {promptMs, genMs} ({-1, -1} on failure); the KV cache is cleared afterwards.
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeBenchmark(JNIEnv* env, jclass, jlong handle, jint nPrompt, jint nGen) {
+    jlong out[2] = {-1, -1};
     auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (llama_ctx && llama_ctx->ensureContext()) {
+        try {
+            llama_context* ctx = llama_ctx->ctx;
+            const llama_vocab* vocab = llama_model_get_vocab(llama_ctx->model);
+            const int n_vocab = llama_vocab_n_tokens(vocab);
+            const int n_p = std::max(1, std::min((int)nPrompt, (int)llama_n_batch(ctx)));
+            const int n_g = std::max(1, std::min((int)nGen, (int)llama_n_ctx(ctx) - n_p - 1));
+            llama_ctx->clearKv();
+            // token ids do not matter for timing; spread them over the vocabulary
+            auto tok = [n_vocab](int i) { return (llama_token)((i * 7919 + 17) % std::max(1, n_vocab)); };
+            llama_batch batch = llama_batch_init(n_p, 0, 1);
+            batch.n_tokens = n_p;
+            for (int i = 0; i < n_p; ++i) {
+                batch.token[i] = tok(i);
+                batch.pos[i] = i;
+                batch.n_seq_id[i] = 1;
+                batch.seq_id[i][0] = 0;
+                batch.logits[i] = i == n_p - 1;
+            }
+            const auto t0 = std::chrono::steady_clock::now();
+            bool ok = llama_decode(ctx, batch) == 0;
+            llama_synchronize(ctx);
+            const auto t1 = std::chrono::steady_clock::now();
+            for (int i = 0; ok && i < n_g; ++i) {
+                llama_token t = tok(n_p + i);
+                ok = llama_decode(ctx, llama_batch_get_one(&t, 1)) == 0;
+            }
+            llama_synchronize(ctx);
+            const auto t2 = std::chrono::steady_clock::now();
+            llama_batch_free(batch);
+            llama_ctx->clearKv();
+            if (ok) {
+                out[0] = std::chrono::duration_cast<std::chrono::milliseconds>(t1 - t0).count();
+                out[1] = std::chrono::duration_cast<std::chrono::milliseconds>(t2 - t1).count();
+            }
+            LOGD("nativeBenchmark: prompt=%d tokens %lldms, gen=%d tokens %lldms ok=%d", n_p, (long long)out[0], n_g, (long long)out[1], ok ? 1 : 0);
+        } catch (...) {
+            LOGE("nativeBenchmark: exception");
+            llama_ctx->clearKv();
+        }
+    }
+    jlongArray result = env->NewLongArray(2);
+    if (result) env->SetLongArrayRegion(result, 0, 2, out);
+    return result;
+}
+
+/**
+ * Tracks whether the generated text has closed its first top-level JSON object
+ * (braces inside strings are ignored). Used to stop grammar-constrained generation right away.
+ */
+struct JsonObjectTracker {
+    int depth = 0;
+    bool started = false;
+    bool in_string = false;
+    bool escape = false;
+
+    // returns true once the first top-level object is complete
+    bool feed(const char* s, size_t n) {
+        for (size_t i = 0; i < n; ++i) {
+            const char c = s[i];
+            if (in_string) {
+                if (escape) escape = false;
+                else if (c == '\\') escape = true;
+                else if (c == '"') in_string = false;
+                continue;
+            }
+            if (c == '"') in_string = true;
+            else if (c == '{') { depth++; started = true; }
+            else if (c == '}' && depth > 0) {
+                if (--depth == 0 && started) return true;
+            }
+        }
+        return false;
+    }
+};
+
+// Length of the longest prefix of s that does not end inside a multi-byte UTF-8 sequence
+static size_t completeUtf8Prefix(const std::string& s, size_t end) {
+    size_t i = end;
+    // walk back over at most 3 continuation bytes to the lead byte of the last sequence
+    int back = 0;
+    while (i > 0 && back < 4 && (static_cast<unsigned char>(s[i - 1]) & 0xC0) == 0x80) { i--; back++; }
+    if (i == 0) return end;
+    const unsigned char lead = static_cast<unsigned char>(s[i - 1]);
+    size_t need = 1;
+    if ((lead & 0xE0) == 0xC0) need = 2;
+    else if ((lead & 0xF0) == 0xE0) need = 3;
+    else if ((lead & 0xF8) == 0xF0) need = 4;
+    return (size_t)back + 1 >= need ? end : i - 1;
+}
+
+static std::vector<llama_token> tokenizePrompt(const llama_vocab* vocab, const std::string& prompt) {
+    std::vector<llama_token> tokens(std::max(prompt.size() + 32, (size_t)64));
+    int n_tok = llama_tokenize(vocab, prompt.c_str(), (int)prompt.size(), tokens.data(), (int)tokens.size(), true, true);
+    if (n_tok < 0) {
+        tokens.resize((size_t)(-n_tok));
+        n_tok = llama_tokenize(vocab, prompt.c_str(), (int)prompt.size(), tokens.data(), (int)tokens.size(), true, true);
+    }
+    tokens.resize((size_t)std::max(0, n_tok));
+    return tokens;
+}
+
+// Makes sequence 0 of ctx hold exactly tokens[0, n) in the KV cache; kv_tokens mirrors what it holds.
+// Prefix cache: the longest common prefix with what the sequence already holds (system prompt + fixed
+// instructions) is kept, only the rest is decoded, in chunks. With want_logits the last token is always
+// decoded again so its logits are available for sampling (index -1).
+// Returns false when decoding fails or the caller cancels; decoded chunks stay valid in kv_tokens.
+static bool syncSeq(llama_context* ctx, std::vector<llama_token>& kv_tokens, const std::vector<llama_token>& tokens, int n,
+                    bool want_logits, const std::function<bool()>& cancelled, int* n_reused = nullptr) {
+    auto clearKv = [&]() {
+        llama_memory_seq_rm(llama_get_memory(ctx), 0, -1, -1);
+        kv_tokens.clear();
+    };
+    int n_keep = 0;
+    const int n_cached = (int)kv_tokens.size();
+    while (n_keep < n_cached && n_keep < n && kv_tokens[n_keep] == tokens[n_keep]) n_keep++;
+    // fresh logits need the last prompt token decoded again
+    if (want_logits && n_keep >= n) n_keep = n - 1;
+    if (n_keep > 0 && llama_memory_seq_rm(llama_get_memory(ctx), 0, n_keep, -1)) {
+        kv_tokens.resize((size_t)n_keep);
+    } else {
+        // partial removal unsupported (or nothing to keep): start from an empty sequence
+        n_keep = 0;
+        clearKv();
+    }
+    llama_synchronize(ctx);
+    LOGD("syncSeq: prefix cache reused %d/%d prompt tokens", n_keep, n);
+    if (n_reused) *n_reused = n_keep;
+    
+    // Process prompt in smaller chunks to avoid hanging
+    const int n_batch = llama_n_batch(ctx);
+    const int chunk_size = std::min(256, n_batch);  // Smaller chunks for mobile device
+    if (n_keep >= n) return true;
+    LOGD("syncSeq: decoding %d tokens in chunks of %d (n_batch=%d)", n - n_keep, chunk_size, n_batch);
+    
+    llama_batch batch = llama_batch_init(chunk_size, 0, 1);
+    for (int i = n_keep; i < n; i += chunk_size) {
+        const int n_eval = std::min(chunk_size, n - i);
+        if (cancelled && cancelled()) {
+            LOGD("syncSeq: cancelled during prompt at %d/%d", i, n);
+            llama_batch_free(batch);
+            return false;
+        }
+        
+        if ((i - n_keep) % (chunk_size * 2) == 0 || i + n_eval >= n) {
+            LOGD("syncSeq: chunk %d-%d/%d", i, i + n_eval - 1, n);
+        }
+        
+        // Fill batch manually with correct positions
+        batch.n_tokens = n_eval;
+        for (int j = 0; j < n_eval; ++j) {
+            batch.token[j] = tokens[i + j];
+            batch.pos[j] = i + j;
+            batch.n_seq_id[j] = 1;
+            batch.seq_id[j][0] = 0;
+            batch.logits[j] = false;
+        }
+        // Only compute logits for last token of last chunk
+        if (want_logits && i + n_eval >= n) {
+            batch.logits[n_eval - 1] = true;
+        }
+        
+        int decode_res = llama_decode(ctx, batch);
+        if (decode_res != 0) {
+            LOGE("syncSeq: decode failed at chunk %d-%d with code %d", i, i + n_eval - 1, decode_res);
+            llama_batch_free(batch);
+            clearKv();
+            return false;
+        }
+        kv_tokens.insert(kv_tokens.end(), tokens.begin() + i, tokens.begin() + i + n_eval);
+    }
+    llama_batch_free(batch);
+    return true;
+}
+
+static bool syncSeq0(LlamaContext* llama_ctx, const std::vector<llama_token>& tokens, int n, bool want_logits,
+                     const std::function<bool()>& cancelled, int* n_reused = nullptr) {
+    return syncSeq(llama_ctx->ctx, llama_ctx->kv_tokens, tokens, n, want_logits, cancelled, n_reused);
+}
+
+/**
+ * Options of one completion call.
+ *  - grammar: optional GBNF (root rule "root"); a constrained call always stops when the JSON object closes
+ *  - stops: stop sequences, cut from the output (e.g. "\n")
+ *  - stop_at_json_end: stop once the first top-level JSON object is closed ("}" at depth 0)
+ *  - on_piece: streaming callback with complete UTF-8 text; returning false stops generation
+ *  - cancelled: polled between prompt chunks and before every sampled token
+ */
+struct GenOptions {
+    std::string grammar;
+    std::vector<std::string> stops;
+    bool stop_at_json_end = false;
+    std::function<bool(const std::string&)> on_piece;
+    std::function<bool()> cancelled;
+};
+
+/**
+ * Token source of runCompletion, with optional speculative decoding.
+ * With a draft model loaded, advance() does not decode the sampled token alone: the draft model proposes up to
+ * n_draft tokens after it, the main model decodes the token and the proposals in one batch, and its own sampler
+ * (grammar + greedy) keeps the longest prefix it agrees with plus its own next token. The output is the same as
+ * plain greedy decoding; only the number of main-model decodes drops. Without a draft it is the plain loop.
+ */
+struct TokenSource {
+    LlamaContext* lc;
+    llama_sampler* sampler;
+    const llama_vocab* vocab;
+    PerfStats& perf;
+    int n_draft = kMaxDraftTokens;
+    // verified tokens waiting to be handed out; second = already in the main KV cache
+    std::deque<std::pair<llama_token, bool>> ready;
+    bool cur_decoded = false;
+    
+    llama_token next() {
+        if (!ready.empty()) {
+            const auto e = ready.front();
+            ready.pop_front();
+            cur_decoded = e.second;
+            return e.first;
+        }
+        cur_decoded = false;
+        return llama_sampler_sample(sampler, lc->ctx, -1);
+    }
     
-    if (!llama_ctx || !llama_ctx->isValid()) {
+    // Puts token t (just returned by next()) into the main KV cache and makes the following token available
+    bool advance(llama_token t, int n_pos, int n_ctx) {
+        if (cur_decoded) return true;
+        const int room = n_ctx - 3 - n_pos;
+        if (room > 0 && lc->ensureDraftContext()) {
+            const int r = speculate(t, std::min(n_draft, room));
+            if (r != 0) return r > 0;
+        }
+        llama_token tt = t;
+        const int res = llama_decode(lc->ctx, llama_batch_get_one(&tt, 1));
+        if (res != 0) {
+            LOGE("nativeComplete: llama_decode(gen token) failed with code %d", res);
+            return false;
+        }
+        lc->kv_tokens.push_back(t);
+        return true;
+    }
+    
+    // 1 = verified batch decoded, 0 = nothing drafted (decode t alone), -1 = decode failed
+    int speculate(llama_token t, int k) {
+        // the draft continues the accepted text (main KV + t), reusing its own prefix cache
+        std::vector<llama_token> hist(lc->kv_tokens);
+        hist.push_back(t);
+        if (!syncSeq(lc->draft_ctx, lc->draft_kv_tokens, hist, (int)hist.size(), true, nullptr)) return 0;
+        // a clone of the main sampler carries the grammar state, so proposals are always grammatical
+        llama_sampler* ds = llama_sampler_clone(sampler);
+        std::vector<llama_token> drafts;
+        for (int j = 0; ds && j < k; ++j) {
+            const llama_token d = llama_sampler_sample(ds, lc->draft_ctx, -1);
+            if (llama_vocab_is_eog(vocab, d)) break;
+            drafts.push_back(d);
+            if (j + 1 == k) break;
+            llama_token dd = d;
+            if (llama_decode(lc->draft_ctx, llama_batch_get_one(&dd, 1)) != 0) break;
+            lc->draft_kv_tokens.push_back(d);
+        }
+        if (ds) llama_sampler_free(ds);
+        if (drafts.empty()) return 0;
+        
+        const int n = 1 + (int)drafts.size();
+        const int pos0 = (int)lc->kv_tokens.size();
+        llama_batch batch = llama_batch_init(n, 0, 1);
+        batch.n_tokens = n;
+        for (int i = 0; i < n; ++i) {
+            batch.token[i] = i == 0 ? t : drafts[(size_t)i - 1];
+            batch.pos[i] = pos0 + i;
+            batch.n_seq_id[i] = 1;
+            batch.seq_id[i][0] = 0;
+            batch.logits[i] = true;
+        }
+        const int res = llama_decode(lc->ctx, batch);
+        llama_batch_free(batch);
+        if (res != 0) {
+            LOGE("nativeComplete: verification decode failed with code %d", res);
+            return -1;
+        }
+        lc->kv_tokens.push_back(t);
+        int accepted = 0;
+        for (int i = 0; i < n; ++i) {
+            const llama_token v = llama_sampler_sample(sampler, lc->ctx, i);
+            const bool match = i < (int)drafts.size() && v == drafts[(size_t)i];
+            ready.emplace_back(v, match);
+            if (!match) break;
+            lc->kv_tokens.push_back(v);
+            accepted++;
+        }
+        // rejected proposals leave the main KV cache; the draft cache is trimmed by the next syncSeq
+        if (accepted < (int)drafts.size() && !llama_memory_seq_rm(llama_get_memory(lc->ctx), 0, pos0 + 1 + accepted, -1)) {
+            LOGE("nativeComplete: cannot trim rejected draft tokens");
+            return -1;
+        }
+        perf.draft_tokens += (int64_t)drafts.size();
+        perf.draft_accepted += accepted;
+        // fixed-format JSON is mostly accepted: grow the proposal while it is, shrink it when it is not
+        if (accepted == (int)drafts.size()) n_draft = std::min(kMaxDraftTokens, n_draft + 1);
+        else if (accepted * 2 < (int)drafts.size()) n_draft = std::max(kMinDraftTokens, n_draft - 1);
+        return 1;
+    }
+};
+
+// Complete: generates text using the loaded model with proper error handling.
+// With a non-empty GBNF grammar the sampler is constrained to it and generation stops at the closing brace.
+static std::string runCompletion(LlamaContext* llama_ctx, const std::string& prompt, jint maxTokens, const GenOptions& opts) {
+    const std::string& grammar = opts.grammar;
+    if (!llama_ctx || !llama_ctx->ensureContext()) {
         LOGE("nativeComplete: invalid context handle");
-        return env->NewStringUTF("");
+        return {};
     }
     
-    const std::string prompt = jstringToUtf8(env, jPrompt);
     if (prompt.empty()) {
         LOGW("nativeComplete: empty prompt");
-        return env->NewStringUTF("");
+        return {};
     }
     
     try {
@@ -200,83 +771,36 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong
         
         if (!vocab) {
             LOGE("nativeComplete: failed to get vocab");
-            return env->NewStringUTF("");
+            return {};
         }
         
         const int n_ctx = llama_n_ctx(ctx);
         LOGD("nativeComplete: start prompt_len=%zu ctx=%d maxTokens=%d", prompt.length(), n_ctx, (int)maxTokens);
         
-        // Tokenize input
-        std::vector<llama_token> tokens;
-        tokens.resize(std::max((size_t)prompt.size() + 32, (size_t)64));
-        
-        int n_tok = llama_tokenize(vocab, prompt.c_str(), (int)prompt.size(), tokens.data(), (int)tokens.size(), true, true);
-        
-        // Resize if needed
-        if (n_tok < 0) {
-            tokens.resize((size_t)(-n_tok));
-            n_tok = llama_tokenize(vocab, prompt.c_str(), (int)prompt.size(), tokens.data(), (int)tokens.size(), true, true);
-        }
-        
+        PerfStats perf;
+        perf.completions = 1;
+        const auto t_tokenize_start = PerfClock::now();
+        std::vector<llama_token> tokens = tokenizePrompt(vocab, prompt);
+        perf.tokenize_ms = msSince(t_tokenize_start);
+        const int n_tok = (int)tokens.size();
         if (n_tok <= 0) {
-            LOGW("nativeComplete: tokenization failed, n_tok=%d", n_tok);
-            return env->NewStringUTF("");
+            LOGW("nativeComplete: tokenization failed");
+            return {};
         }
         
-        tokens.resize((size_t)n_tok);
-        
         if (n_tok >= n_ctx - 8) {
             LOGW("nativeComplete: prompt too long for context, n_tok=%d ctx=%d", n_tok, n_ctx);
-            return env->NewStringUTF("");
+            return {};
         }
         
         LOGD("nativeComplete: tokenized n_tok=%d", n_tok);
         
-        // Clear sequence 0 before new inference (removes all KV cache)
-        llama_memory_seq_rm(llama_get_memory(ctx), 0, -1, -1);
-        llama_synchronize(ctx);
-        LOGD("nativeComplete: KV cache cleared");
-        
-        // Process prompt in smaller chunks to avoid hanging
         const auto t_prompt_start = std::chrono::steady_clock::now();
-        const int n_batch = llama_n_batch(ctx);
-        const int chunk_size = std::min(256, n_batch);  // Smaller chunks for mobile device
-        
-        LOGD("nativeComplete: decoding %d tokens in chunks of %d (n_batch=%d)", n_tok, chunk_size, n_batch);
-        
-        llama_batch batch = llama_batch_init(chunk_size, 0, 1);
-        
-        for (int i = 0; i < n_tok; i += chunk_size) {
-            const int n_eval = std::min(chunk_size, n_tok - i);
-            
-            if (i % (chunk_size * 2) == 0 || i + n_eval >= n_tok) {
-                LOGD("nativeComplete: chunk %d-%d/%d", i, i + n_eval - 1, n_tok);
-            }
-            
-            // Fill batch manually with correct positions
-            batch.n_tokens = n_eval;
-            for (int j = 0; j < n_eval; ++j) {
-                batch.token[j] = tokens[i + j];
-                batch.pos[j] = i + j;
-                batch.n_seq_id[j] = 1;
-                batch.seq_id[j][0] = 0;
-                batch.logits[j] = false;
-            }
-            // Only compute logits for last token of last chunk
-            if (i + n_eval >= n_tok) {
-                batch.logits[n_eval - 1] = true;
-            }
-            
-            int decode_res = llama_decode(ctx, batch);
-            if (decode_res != 0) {
-                LOGE("nativeComplete: decode failed at chunk %d-%d with code %d", i, i + n_eval - 1, decode_res);
-                llama_batch_free(batch);
-                return env->NewStringUTF("");
-            }
-        }
-        
-        llama_batch_free(batch);
-
+        int n_reused = 0;
+        if (!syncSeq0(llama_ctx, tokens, n_tok, true, opts.cancelled, &n_reused)) return {};
+        perf.prompt_ms = msSince(t_prompt_start);
+        perf.prompt_reused = n_reused;
+        perf.prompt_tokens = n_tok - n_reused;
         
         const auto prompt_ms = std::chrono::duration_cast<std::chrono::milliseconds>(
             std::chrono::steady_clock::now() - t_prompt_start
@@ -290,15 +814,41 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong
         int n_pos = n_tok;
         const int capped_max_tokens = (int)std::min((jint)256, std::max((jint)1, maxTokens));
         
-        // Create sampler (greedy)
-        llama_sampler* sampler = llama_sampler_init_greedy();
+        // Create sampler: optional grammar constraint, then greedy
+        llama_sampler* sampler = llama_sampler_chain_init(llama_sampler_chain_default_params());
         if (!sampler) {
             LOGE("nativeComplete: failed to create sampler");
-            return env->NewStringUTF("");
+            return {};
+        }
+        bool constrained = false;
+        if (!grammar.empty()) {
+            llama_sampler* gs = llama_sampler_init_grammar(vocab, grammar.c_str(), "root");
+            if (gs) {
+                llama_sampler_chain_add(sampler, gs);
+                constrained = true;
+            } else {
+                LOGW("nativeComplete: invalid grammar, sampling unconstrained");
+            }
         }
+        llama_sampler_chain_add(sampler, llama_sampler_init_greedy());
+        JsonObjectTracker json_tracker;
+        const bool stop_at_json_end = constrained || opts.stop_at_json_end;
+        size_t max_stop_len = 0;
+        for (const auto& st : opts.stops) max_stop_len = std::max(max_stop_len, st.size());
+        // output[0, emitted) has been passed to on_piece; the tail that could still start a stop sequence is held back
+        size_t emitted = 0;
+        bool stopped_by_callback = false;
+        auto emit = [&](size_t end) {
+            if (!opts.on_piece || stopped_by_callback) return;
+            end = completeUtf8Prefix(output, end);
+            if (end <= emitted) return;
+            if (!opts.on_piece(output.substr(emitted, end - emitted))) stopped_by_callback = true;
+            emitted = end;
+        };
         
         const auto t_gen_start = std::chrono::steady_clock::now();
         int tokens_generated = 0;
+        TokenSource source{llama_ctx, sampler, vocab, perf};
         
         for (int i = 0; i < capped_max_tokens; i++) {
             // Check time limit
@@ -323,8 +873,13 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong
                 break;
             }
             
-            // Sample next token
-            const llama_token next_token = llama_sampler_sample(sampler, ctx, -1);
+            if (stopped_by_callback || (opts.cancelled && opts.cancelled())) {
+                LOGD("nativeComplete: stopped by caller after %d tokens", tokens_generated);
+                break;
+            }
+            
+            // Sample next token (or take the next one already verified against the draft model)
+            const llama_token next_token = source.next();
             
             // Check for end-of-generation
             if (llama_vocab_is_eog(vocab, next_token)) {
@@ -341,17 +896,36 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong
                 piece_len = llama_token_to_piece(vocab, next_token, piece_buf.data(), (int)piece_buf.size(), 0, true);
             }
             
+            bool json_done = false;
+            bool stop_hit = false;
             if (piece_len > 0) {
+                const size_t before = output.size();
                 output.append(piece_buf.data(), (size_t)piece_len);
+                if (stop_at_json_end) json_done = json_tracker.feed(piece_buf.data(), (size_t)piece_len);
+                // a stop sequence may straddle the previous piece
+                for (const auto& st : opts.stops) {
+                    if (st.empty()) continue;
+                    const size_t from = before >= st.size() ? before - st.size() + 1 : 0;
+                    const size_t at = output.find(st, from);
+                    if (at != std::string::npos) {
+                        output.resize(at);
+                        stop_hit = true;
+                        break;
+                    }
+                }
             }
+            if (json_done || stop_hit) {
+                // output complete: no need to decode the last token or sample anything else
+                LOGD("nativeComplete: %s after %d tokens", stop_hit ? "stop sequence" : "JSON object closed", i + 1);
+                tokens_generated++;
+                break;
+            }
+            emit(max_stop_len > 0 ? output.size() - std::min(output.size(), max_stop_len - 1) : output.size());
             
-            // Eval next token (need mutable token for llama_batch_get_one)
-            llama_token mutable_next = next_token;
-            batch = llama_batch_get_one(&mutable_next, 1);
-            
-            int decode_res = llama_decode(ctx, batch);
-            if (decode_res != 0) {
-                LOGE("nativeComplete: llama_decode(gen token) failed with code %d at step %d", decode_res, i);
+            // Eval next token (speculatively together with the draft model's proposals when one is loaded)
+            if (!source.advance(next_token, n_pos, n_ctx)) {
+                LOGE("nativeComplete: decode failed at step %d", i);
+                llama_ctx->clearKv();
                 break;
             }
             
@@ -367,20 +941,358 @@ Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong
         }
         
         llama_sampler_free(sampler);
+        emit(output.size());
         
         const auto total_ms = std::chrono::duration_cast<std::chrono::milliseconds>(
             std::chrono::steady_clock::now() - t_gen_start
         ).count();
         
-        LOGD("nativeComplete: done tokens_gen=%d time=%lldms output_len=%zu", tokens_generated, (long long)total_ms, output.size());
+        LOGD("nativeComplete: done tokens_gen=%d time=%lldms output_len=%zu kv_tokens=%zu", tokens_generated, (long long)total_ms, output.size(), llama_ctx->kv_tokens.size());
+        if (perf.draft_tokens > 0) {
+            LOGD("nativeComplete: speculative accepted %lld/%lld draft tokens", (long long)perf.draft_accepted, (long long)perf.draft_tokens);
+        }
+        perf.gen_tokens = tokens_generated;
+        perf.gen_ms = msSince(t_gen_start);
+        llama_ctx->recordPerf(perf);
         
-        return env->NewStringUTF(output.c_str());
+        return output;
         
     } catch (const std::exception& e) {
         LOGE("nativeComplete: exception: %s", e.what());
-        return env->NewStringUTF("");
+        llama_ctx->clearKv();
+        return {};
     } catch (...) {
         LOGE("nativeComplete: unknown exception");
-        return env->NewStringUTF("");
+        llama_ctx->clearKv();
+        return {};
+    }
+}
+
+// Batched completion: all prompts share the longest common token prefix, decoded once into sequence 0 (and kept
+// there as the prefix cache). Each prompt continues as its own sequence (1..N) copied from it; the prompt tails go
+// into one llama_batch and every generation step decodes one token per unfinished sequence in a single llama_decode.
+// Returns an empty vector when the prompts do not fit (the caller falls back to one completion per prompt).
+static std::vector<std::string> runBatchCompletion(LlamaContext* llama_ctx, const std::vector<std::string>& prompts, jint maxTokens, const std::string& grammar) {
+    const int n_seqs = (int)prompts.size();
+    if (!llama_ctx || n_seqs == 0 || n_seqs > kMaxBatchSeqs || !llama_ctx->ensureContext()) return {};
+    llama_context* ctx = llama_ctx->ctx;
+    llama_memory_t mem = llama_get_memory(ctx);
+    const llama_vocab* vocab = llama_model_get_vocab(llama_ctx->model);
+    const int n_ctx = llama_n_ctx(ctx);
+    const int n_batch = llama_n_batch(ctx);
+    const int capped_max_tokens = (int)std::min((jint)256, std::max((jint)1, maxTokens));
+    
+    PerfStats perf;
+    perf.completions = n_seqs;
+    const auto t_tokenize_start = PerfClock::now();
+    std::vector<std::vector<llama_token>> seq_tokens;
+    for (const auto& p : prompts) {
+        seq_tokens.push_back(tokenizePrompt(vocab, p));
+        if (seq_tokens.back().empty()) return {};
     }
+    perf.tokenize_ms = msSince(t_tokenize_start);
+    // shared prefix; every sequence keeps at least its last token to get its own logits
+    int n_shared = (int)seq_tokens[0].size();
+    for (const auto& t : seq_tokens) {
+        int k = 0;
+        while (k < n_shared && k < (int)t.size() && t[k] == seq_tokens[0][k]) k++;
+        n_shared = std::min(k, (int)t.size() - 1);
+    }
+    int n_tail = 0;
+    for (const auto& t : seq_tokens) n_tail += (int)t.size() - n_shared;
+    if (n_tail > n_batch || n_shared + n_tail + n_seqs * capped_max_tokens >= n_ctx - 8) {
+        LOGW("nativeCompleteBatch: %d prompts do not fit (shared=%d tail=%d n_batch=%d n_ctx=%d)", n_seqs, n_shared, n_tail, n_batch, n_ctx);
+        return {};
+    }
+    
+    std::vector<llama_sampler*> samplers;
+    std::vector<JsonObjectTracker> trackers((size_t)n_seqs);
+    std::vector<std::string> outputs((size_t)n_seqs);
+    llama_batch batch = llama_batch_init(std::max(n_tail, n_seqs), 0, 1);
+    auto cleanup = [&]() {
+        for (auto* smpl : samplers) llama_sampler_free(smpl);
+        llama_batch_free(batch);
+        for (int s = 1; s <= n_seqs; ++s) llama_memory_seq_rm(mem, s, -1, -1);
+    };
+    try {
+        const auto t_start = std::chrono::steady_clock::now();
+        int n_reused = 0;
+        if (!syncSeq0(llama_ctx, seq_tokens[0], n_shared, false, nullptr, &n_reused)) {
+            cleanup();
+            return {};
+        }
+        
+        bool constrained = false;
+        for (int s = 0; s < n_seqs; ++s) {
+            llama_sampler* smpl = llama_sampler_chain_init(llama_sampler_chain_default_params());
+            if (!grammar.empty()) {
+                llama_sampler* gs = llama_sampler_init_grammar(vocab, grammar.c_str(), "root");
+                if (gs) {
+                    llama_sampler_chain_add(smpl, gs);
+                    constrained = true;
+                }
+            }
+            llama_sampler_chain_add(smpl, llama_sampler_init_greedy());
+            samplers.push_back(smpl);
+        }
+        
+        // prompt tails of all sequences in one batch; logits only for each sequence's last token
+        std::vector<int> logit_idx((size_t)n_seqs, -1);
+        std::vector<int> n_pos((size_t)n_seqs);
+        batch.n_tokens = 0;
+        for (int s = 0; s < n_seqs; ++s) {
+            llama_memory_seq_rm(mem, s + 1, -1, -1);
+            if (n_shared > 0) llama_memory_seq_cp(mem, 0, s + 1, -1, -1);
+            const auto& t = seq_tokens[(size_t)s];
+            for (int i = n_shared; i < (int)t.size(); ++i) {
+                const int b = batch.n_tokens++;
+                batch.token[b] = t[(size_t)i];
+                batch.pos[b] = i;
+                batch.n_seq_id[b] = 1;
+                batch.seq_id[b][0] = s + 1;
+                batch.logits[b] = i == (int)t.size() - 1;
+                if (batch.logits[b]) logit_idx[(size_t)s] = b;
+            }
+            n_pos[(size_t)s] = (int)t.size();
+        }
+        if (llama_decode(ctx, batch) != 0) {
+            LOGE("nativeCompleteBatch: prompt decode failed");
+            cleanup();
+            return {};
+        }
+        const auto prompt_ms = std::chrono::duration_cast<std::chrono::milliseconds>(std::chrono::steady_clock::now() - t_start).count();
+        LOGD("nativeCompleteBatch: %d prompts, shared=%d tail=%d decoded in %lldms", n_seqs, n_shared, n_tail, (long long)prompt_ms);
+        perf.prompt_ms = msSince(t_start);
+        perf.prompt_reused = n_reused;
+        perf.prompt_tokens = n_shared - n_reused + n_tail;
+        
+        const auto t_gen_start = std::chrono::steady_clock::now();
+        std::vector<bool> done((size_t)n_seqs, false);
+        int steps = 0;
+        for (; steps < capped_max_tokens; ++steps) {
+            const auto elapsed_ms = std::chrono::duration_cast<std::chrono::milliseconds>(std::chrono::steady_clock::now() - t_gen_start).count();
+            if (elapsed_ms > kMaxGenMillis) {
+                LOGD("nativeCompleteBatch: generation timeout after %lldms", (long long)elapsed_ms);
+                break;
+            }
+            batch.n_tokens = 0;
+            for (int s = 0; s < n_seqs; ++s) {
+                if (done[(size_t)s]) continue;
+                const llama_token tok = llama_sampler_sample(samplers[(size_t)s], ctx, logit_idx[(size_t)s]);
+                if (llama_vocab_is_eog(vocab, tok)) {
+                    done[(size_t)s] = true;
+                    continue;
+                }
+                char piece[64];
+                const int len = llama_token_to_piece(vocab, tok, piece, (int)sizeof(piece), 0, true);
+                if (len > 0) {
+                    std::string& out = outputs[(size_t)s];
+                    out.append(piece, (size_t)len);
+                    // schema complete: this sequence needs no further decode
+                    if ((constrained && trackers[(size_t)s].feed(piece, (size_t)len)) || out.size() >= kMaxOutputChars) {
+                        done[(size_t)s] = true;
+                        continue;
+                    }
+                }
+                const int b = batch.n_tokens++;
+                perf.gen_tokens++;
+                batch.token[b] = tok;
+                batch.pos[b] = n_pos[(size_t)s]++;
+                batch.n_seq_id[b] = 1;
+                batch.seq_id[b][0] = s + 1;
+                batch.logits[b] = true;
+                logit_idx[(size_t)s] = b;
+            }
+            if (batch.n_tokens == 0) break;
+            if (llama_decode(ctx, batch) != 0) {
+                LOGE("nativeCompleteBatch: decode failed at step %d", steps);
+                break;
+            }
+        }
+        const auto total_ms = std::chrono::duration_cast<std::chrono::milliseconds>(std::chrono::steady_clock::now() - t_gen_start).count();
+        LOGD("nativeCompleteBatch: %d steps in %lldms", steps, (long long)total_ms);
+        perf.gen_ms = msSince(t_gen_start);
+        llama_ctx->recordPerf(perf);
+        // sequence 0 (the shared prefix) stays as the prefix cache for the next call
+        cleanup();
+        return outputs;
+    } catch (...) {
+        LOGE("nativeCompleteBatch: exception");
+        cleanup();
+        llama_ctx->clearKv();
+        return {};
+    }
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeComplete(JNIEnv* env, jclass, jlong handle, jstring jPrompt, jint maxTokens) {
+    const std::string out = runCompletion(reinterpret_cast<LlamaContext*>(handle), jstringToUtf8(env, jPrompt), maxTokens, GenOptions());
+    return env->NewStringUTF(out.c_str());
+}
+
+extern "C" JNIEXPORT jstring JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeCompleteWithGrammar(JNIEnv* env, jclass, jlong handle, jstring jPrompt, jint maxTokens, jstring jGrammar) {
+    GenOptions opts;
+    opts.grammar = jstringToUtf8(env, jGrammar);
+    const std::string out = runCompletion(reinterpret_cast<LlamaContext*>(handle), jstringToUtf8(env, jPrompt), maxTokens, opts);
+    return env->NewStringUTF(out.c_str());
+}
+
+// Streaming variant: listener is a LlamaCpp.TokenListener (onToken(String): Boolean, isCancelled(): Boolean),
+// called on the inference thread. Grammar, stop sequences and listener are all optional.
+extern "C" JNIEXPORT jstring JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeCompleteStreaming(JNIEnv* env, jclass, jlong handle, jstring jPrompt, jint maxTokens,
+                                                              jstring jGrammar, jobjectArray jStops, jboolean stopAtJsonEnd, jobject listener) {
+    GenOptions opts;
+    opts.grammar = jstringToUtf8(env, jGrammar);
+    opts.stop_at_json_end = stopAtJsonEnd == JNI_TRUE;
+    if (jStops) {
+        const jsize n = env->GetArrayLength(jStops);
+        for (jsize i = 0; i < n; ++i) {
+            auto js = (jstring) env->GetObjectArrayElement(jStops, i);
+            std::string st = jstringToUtf8(env, js);
+            if (js) env->DeleteLocalRef(js);
+            if (!st.empty()) opts.stops.push_back(std::move(st));
+        }
+    }
+    if (listener) {
+        jclass cls = env->GetObjectClass(listener);
+        jmethodID onToken = env->GetMethodID(cls, "onToken", "(Ljava/lang/String;)Z");
+        jmethodID isCancelled = env->GetMethodID(cls, "isCancelled", "()Z");
+        env->DeleteLocalRef(cls);
+        if (!onToken || !isCancelled) {
+            env->ExceptionClear();
+            LOGE("nativeCompleteStreaming: listener lacks onToken/isCancelled");
+            return env->NewStringUTF("");
+        }
+        // a throwing callback stops generation; the exception is logged and cleared here
+        auto failed = [env](const char* what) {
+            if (!env->ExceptionCheck()) return false;
+            LOGW("nativeCompleteStreaming: %s threw", what);
+            env->ExceptionClear();
+            return true;
+        };
+        opts.on_piece = [env, listener, onToken, failed](const std::string& piece) {
+            jstring jp = env->NewStringUTF(piece.c_str());
+            const jboolean more = env->CallBooleanMethod(listener, onToken, jp);
+            if (jp) env->DeleteLocalRef(jp);
+            return !failed("onToken") && more == JNI_TRUE;
+        };
+        opts.cancelled = [env, listener, isCancelled, failed]() {
+            const jboolean c = env->CallBooleanMethod(listener, isCancelled);
+            return failed("isCancelled") || c == JNI_TRUE;
+        };
+    }
+    const std::string out = runCompletion(reinterpret_cast<LlamaContext*>(handle), jstringToUtf8(env, jPrompt), maxTokens, opts);
+    return env->NewStringUTF(out.c_str());
+}
+
+// Completes up to kMaxBatchSeqs prompts in one batch; null when they cannot be batched (see runBatchCompletion)
+extern "C" JNIEXPORT jobjectArray JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeCompleteBatch(JNIEnv* env, jclass, jlong handle, jobjectArray jPrompts, jint maxTokens, jstring jGrammar) {
+    if (!jPrompts) return nullptr;
+    std::vector<std::string> prompts;
+    const jsize n = env->GetArrayLength(jPrompts);
+    for (jsize i = 0; i < n; ++i) {
+        auto js = (jstring) env->GetObjectArrayElement(jPrompts, i);
+        prompts.push_back(jstringToUtf8(env, js));
+        if (js) env->DeleteLocalRef(js);
+    }
+    const std::vector<std::string> outs = runBatchCompletion(reinterpret_cast<LlamaContext*>(handle), prompts, maxTokens, jstringToUtf8(env, jGrammar));
+    if (outs.size() != prompts.size()) return nullptr;
+    jclass stringClass = env->FindClass("java/lang/String");
+    jobjectArray result = env->NewObjectArray(n, stringClass, nullptr);
+    for (jsize i = 0; result && i < n; ++i) {
+        jstring js = env->NewStringUTF(outs[(size_t)i].c_str());
+        env->SetObjectArrayElement(result, i, js);
+        if (js) env->DeleteLocalRef(js);
+    }
+    return result;
+}
+
+// Persist the current KV state (and the tokens it holds) so the prompt prefix survives a process restart
+extern "C" JNIEXPORT jboolean JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeSaveState(JNIEnv* env, jclass, jlong handle, jstring jPath) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (!llama_ctx || !llama_ctx->isValid() || llama_ctx->kv_tokens.empty()) return JNI_FALSE;
+    const std::string path = jstringToUtf8(env, jPath);
+    if (path.empty()) return JNI_FALSE;
+    try {
+        const bool ok = llama_state_save_file(llama_ctx->ctx, path.c_str(), llama_ctx->kv_tokens.data(), llama_ctx->kv_tokens.size());
+        LOGD("nativeSaveState: %s tokens=%zu ok=%d", path.c_str(), llama_ctx->kv_tokens.size(), ok ? 1 : 0);
+        return ok ? JNI_TRUE : JNI_FALSE;
+    } catch (...) {
+        LOGE("nativeSaveState: exception");
+        return JNI_FALSE;
+    }
+}
+
+extern "C" JNIEXPORT jboolean JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeLoadState(JNIEnv* env, jclass, jlong handle, jstring jPath) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (!llama_ctx || !llama_ctx->ensureContext()) return JNI_FALSE;
+    const std::string path = jstringToUtf8(env, jPath);
+    if (path.empty()) return JNI_FALSE;
+    try {
+        std::vector<llama_token> loaded((size_t)llama_n_ctx(llama_ctx->ctx));
+        size_t n_loaded = 0;
+        if (!llama_state_load_file(llama_ctx->ctx, path.c_str(), loaded.data(), loaded.size(), &n_loaded)) {
+            LOGW("nativeLoadState: failed to load %s", path.c_str());
+            llama_ctx->clearKv();
+            return JNI_FALSE;
+        }
+        loaded.resize(n_loaded);
+        llama_ctx->kv_tokens = std::move(loaded);
+        LOGD("nativeLoadState: %s tokens=%zu", path.c_str(), n_loaded);
+        return JNI_TRUE;
+    } catch (...) {
+        LOGE("nativeLoadState: exception");
+        llama_ctx->clearKv();
+        return JNI_FALSE;
+    }
+}
+
+static void putPerf(std::vector<jdouble>& out, const PerfStats& p) {
+    out.push_back((jdouble)p.completions);
+    out.push_back(p.tokenize_ms);
+    out.push_back((jdouble)p.prompt_tokens);
+    out.push_back((jdouble)p.prompt_reused);
+    out.push_back(p.prompt_ms);
+    out.push_back((jdouble)p.gen_tokens);
+    out.push_back(p.gen_ms);
+    out.push_back((jdouble)p.draft_tokens);
+    out.push_back((jdouble)p.draft_accepted);
+}
+
+// Resident set size of this process in KiB (/proc/self/statm), -1 if unreadable
+static long currentRssKb() {
+    long pages_total = 0, pages_resident = 0;
+    FILE* f = fopen("/proc/self/statm", "r");
+    if (!f) return -1;
+    const int n = fscanf(f, "%ld %ld", &pages_total, &pages_resident);
+    fclose(f);
+    if (n != 2) return -1;
+    return pages_resident * (sysconf(_SC_PAGESIZE) / 1024);
+}
+
+// Flat stats array, decoded by LlamaCpp.decodeStats:
+// [loadMs, kvUsed, nCtx, peakRssKb, rssKb] + last completion (9) + all completions (9), see putPerf.
+// Call it between inferences: the counters are not synchronized with a running completion.
+extern "C" JNIEXPORT jdoubleArray JNICALL
+Java_top_stevezmt_calsync_llm_LlamaCpp_nativeGetStats(JNIEnv* env, jclass, jlong handle) {
+    auto* llama_ctx = reinterpret_cast<LlamaContext*>(handle);
+    if (!llama_ctx) return nullptr;
+    std::vector<jdouble> out;
+    out.push_back(llama_ctx->load_ms);
+    out.push_back((jdouble)llama_ctx->kv_tokens.size());
+    out.push_back((jdouble)(llama_ctx->ctx ? llama_n_ctx(llama_ctx->ctx) : llama_ctx->cparams.n_ctx));
+    struct rusage usage {};
+    // ru_maxrss is in KiB on Linux
+    out.push_back(getrusage(RUSAGE_SELF, &usage) == 0 ? (jdouble)usage.ru_maxrss : -1.0);
+    out.push_back((jdouble)currentRssKb());
+    putPerf(out, llama_ctx->last_perf);
+    putPerf(out, llama_ctx->total_perf);
+    jdoubleArray result = env->NewDoubleArray((jsize)out.size());
+    if (result) env->SetDoubleArrayRegion(result, 0, (jsize)out.size(), out.data());
+    return result;
 }
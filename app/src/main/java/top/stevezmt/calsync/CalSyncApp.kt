@@ -8,6 +8,7 @@ import android.util.Log
 import android.view.View
 import androidx.core.view.isNotEmpty
 import com.google.android.material.color.DynamicColors
+import top.stevezmt.calsync.llm.ModelLifecycle
 
 class CalSyncApp : Application() {
     @SuppressLint("MissingPermission")
@@ -94,4 +95,18 @@ class CalSyncApp : Application() {
             }
         }
     }
+
+    // A resident GGUF model makes the listener process an early kill candidate: give memory back under pressure
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        try { ModelLifecycle.onTrimMemory(level) } catch (_: Throwable) {}
+        try { MLKitExtractorHolder.onTrimMemory(level) } catch (_: Throwable) {}
+    }
+
+    @Deprecated("Deprecated in Java")
+    override fun onLowMemory() {
+        super.onLowMemory()
+        try { ModelLifecycle.onTrimMemory(android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE) } catch (_: Throwable) {}
+        try { MLKitExtractorHolder.onTrimMemory(android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE) } catch (_: Throwable) {}
+    }
 }
@@ -1,8 +1,9 @@
 package top.stevezmt.calsync
 
+import android.content.ContentProviderOperation
+import android.content.ContentUris
 import android.content.ContentValues
 import android.content.Context
-import android.net.Uri
 import android.provider.CalendarContract
 import android.util.Log
 import java.util.TimeZone
@@ -10,105 +11,127 @@ import java.util.TimeZone
 object CalendarHelper {
     private const val TAG = "CalendarHelper"
 
-    fun insertEvent(context: Context, title: String, description: String, startMillis: Long, endMillis: Long?, location: String? = null): Long? {
+    fun insertEvent(context: Context, title: String, description: String, startMillis: Long, endMillis: Long?, location: String? = null): Long? =
+        insertEvent(context, SettingsStore.snapshot(context), title, description, startMillis, endMillis, location)
+
+    fun insertEvent(context: Context, settings: SettingsSnapshot, title: String, description: String, startMillis: Long, endMillis: Long?, location: String? = null): Long? =
+        insertEvents(context, settings, listOf(EventDraft(title, description, startMillis, endMillis, location)))?.firstOrNull()
+
+    data class EventDraft(val title: String, val description: String, val startMillis: Long, val endMillis: Long?, val location: String? = null)
+
+    /**
+     * Inserts all [drafts] and their reminders in one applyBatch transaction (reminders reference their event
+     * via back-references). Returns the new event ids in the order of [drafts], or null if nothing was written.
+     */
+    fun insertEvents(context: Context, settings: SettingsSnapshot, drafts: List<EventDraft>): List<Long>? {
+        if (drafts.isEmpty()) return emptyList()
         try {
             val cr = context.contentResolver
-            val selected = SettingsStore.getSelectedCalendarId(context)
-            val calendarId = selected ?: getPrimaryCalendarId(cr)
+            // cached Calendars metadata: no provider query per insert, never a read-only target
+            val calendarId = CalendarMetadataCache.resolveTargetCalendarId(context, settings.selectedCalendarId)
             if (calendarId == null) {
                 Log.w(TAG, "No writable calendar found")
                 return null
             }
 
-            val values = ContentValues().apply {
-                put(CalendarContract.Events.DTSTART, startMillis)
-                put(CalendarContract.Events.DTEND, endMillis ?: (startMillis + 60 * 60 * 1000L))
-                put(CalendarContract.Events.TITLE, title)
-                put(CalendarContract.Events.DESCRIPTION, description)
-                put(CalendarContract.Events.CALENDAR_ID, calendarId)
-                if (!location.isNullOrBlank()) put(CalendarContract.Events.EVENT_LOCATION, location)
-                put(CalendarContract.Events.EVENT_TIMEZONE, TimeZone.getDefault().id)
-                // Set HAS_ALARM to 1 if we have a reminder configured
-                if (SettingsStore.getReminderMinutes(context) >= 0) {
-                    put(CalendarContract.Events.HAS_ALARM, 1)
-                }
-            }
-            val uri: Uri? = cr.insert(CalendarContract.Events.CONTENT_URI, values)
-            if (uri != null) {
-                Log.i(TAG, "Inserted event: $uri")
-                val eventId = try {
-                    android.content.ContentUris.parseId(uri)
-                } catch (_: Exception) {
-                    null
-                }
-
-                if (eventId != null) {
-                    val reminderMinutes = SettingsStore.getReminderMinutes(context)
-                    if (reminderMinutes >= 0) {
-                        try {
-                            val reminderValues = ContentValues().apply {
-                                put(CalendarContract.Reminders.EVENT_ID, eventId)
-                                put(CalendarContract.Reminders.MINUTES, reminderMinutes)
-                                put(CalendarContract.Reminders.METHOD, CalendarContract.Reminders.METHOD_ALERT)
-                            }
-                            cr.insert(CalendarContract.Reminders.CONTENT_URI, reminderValues)
-                            Log.i(TAG, "Added reminder: $reminderMinutes minutes before")
-                        } catch (e: Exception) {
-                            Log.w(TAG, "Failed to add reminder", e)
+            val reminderMinutes = settings.reminderMinutes
+            val plan = planBatch(drafts.size, reminderMinutes >= 0)
+            val ops = plan.mapTo(ArrayList(plan.size)) { op ->
+                if (op.isReminder) {
+                    ContentProviderOperation.newInsert(CalendarContract.Reminders.CONTENT_URI)
+                        .withValueBackReference(CalendarContract.Reminders.EVENT_ID, op.eventOpIndex)
+                        .withValue(CalendarContract.Reminders.MINUTES, reminderMinutes)
+                        .withValue(CalendarContract.Reminders.METHOD, CalendarContract.Reminders.METHOD_ALERT)
+                        .build()
+                } else {
+                    val d = drafts[op.draftIndex]
+                    val values = ContentValues().apply {
+                        put(CalendarContract.Events.DTSTART, d.startMillis)
+                        put(CalendarContract.Events.DTEND, endMillisOf(d))
+                        put(CalendarContract.Events.TITLE, d.title)
+                        put(CalendarContract.Events.DESCRIPTION, d.description)
+                        put(CalendarContract.Events.CALENDAR_ID, calendarId)
+                        if (!d.location.isNullOrBlank()) put(CalendarContract.Events.EVENT_LOCATION, d.location)
+                        put(CalendarContract.Events.EVENT_TIMEZONE, TimeZone.getDefault().id)
+                        // Set HAS_ALARM to 1 if we have a reminder configured
+                        if (reminderMinutes >= 0) {
+                            put(CalendarContract.Events.HAS_ALARM, 1)
                         }
                     }
+                    ContentProviderOperation.newInsert(CalendarContract.Events.CONTENT_URI).withValues(values).build()
                 }
-                return eventId
-            } else {
-                Log.w(TAG, "Failed to insert event")
             }
+            val eventOpIndex = plan.withIndex().filter { !it.value.isReminder }.map { it.index }
+            // the provider notifies its root URI for this write: not a calendar change
+            val results = CalendarMetadataCache.ownWrite { cr.applyBatch(CalendarContract.AUTHORITY, ops) }
+            val ids = eventOpIndex.map { idx ->
+                val uri = results.getOrNull(idx)?.uri ?: run {
+                    Log.w(TAG, "Failed to insert event")
+                    CalendarMetadataCache.invalidate()
+                    return null
+                }
+                ContentUris.parseId(uri)
+            }
+            Log.i(TAG, "Inserted ${ids.size} event(s) in one batch: $ids" + if (reminderMinutes >= 0) ", reminder $reminderMinutes minutes before" else "")
+            return ids
         } catch (e: SecurityException) {
             Log.e(TAG, "Missing calendar permissions", e)
             try { NotificationUtils.sendError(context, e) } catch (_: Throwable) {}
         } catch (e: Exception) {
             Log.e(TAG, "Failed to insert event", e)
+            // the target calendar may be gone or read-only by now: re-read the list next time
+            CalendarMetadataCache.invalidate()
             try { NotificationUtils.sendError(context, e) } catch (_: Throwable) {}
         }
         return null
     }
 
-    data class CalendarInfo(val id: Long, val name: String)
+    /** One operation of an insert batch: the event of draft [draftIndex], or its reminder referencing [eventOpIndex]. */
+    internal data class PlannedOp(val draftIndex: Int, val isReminder: Boolean, val eventOpIndex: Int)
 
-    fun listWritableCalendars(context: Context): List<CalendarInfo> {
-        val cr = context.contentResolver
-        val result = mutableListOf<CalendarInfo>()
+    // Each event op is directly followed by its reminder op, whose EVENT_ID back-references the event's result
+    internal fun planBatch(draftCount: Int, withReminders: Boolean): List<PlannedOp> {
+        val plan = ArrayList<PlannedOp>(if (withReminders) draftCount * 2 else draftCount)
+        for (i in 0 until draftCount) {
+            val eventOp = plan.size
+            plan.add(PlannedOp(i, false, eventOp))
+            if (withReminders) plan.add(PlannedOp(i, true, eventOp))
+        }
+        return plan
+    }
+
+    // No end time parsed: one hour
+    internal fun endMillisOf(d: EventDraft): Long = d.endMillis ?: (d.startMillis + 60 * 60 * 1000L)
+
+    /**
+     * Looks for an existing calendar instance (created by anyone) with the same normalized title starting in the
+     * same minute. Returns its event id, or null when none is found or the calendar cannot be read.
+     */
+    fun findDuplicateInstance(context: Context, title: String, startMillis: Long): Long? {
         try {
-            val uri = CalendarContract.Calendars.CONTENT_URI
-            val projection = arrayOf(
-                CalendarContract.Calendars._ID,
-                CalendarContract.Calendars.CALENDAR_DISPLAY_NAME,
-                CalendarContract.Calendars.ACCOUNT_NAME,
-                CalendarContract.Calendars.OWNER_ACCOUNT,
-                CalendarContract.Calendars.VISIBLE
-            )
-            val cursor = cr.query(uri, projection, "(${CalendarContract.Calendars.VISIBLE}=1)", null, null)
-            cursor?.use { c ->
+            val minuteStart = startMillis / 60_000L * 60_000L
+            val builder = CalendarContract.Instances.CONTENT_URI.buildUpon()
+            ContentUris.appendId(builder, minuteStart)
+            ContentUris.appendId(builder, minuteStart + 60_000L)
+            val projection = arrayOf(CalendarContract.Instances.EVENT_ID, CalendarContract.Instances.TITLE, CalendarContract.Instances.BEGIN)
+            val wanted = CreatedEventIndex.normalize(title)
+            context.contentResolver.query(builder.build(), projection, null, null, null)?.use { c ->
                 while (c.moveToNext()) {
-                    val id = c.getLong(0)
-                    val display = c.getString(1) ?: c.getString(2) ?: c.getString(3) ?: "(未命名)"
-                    result.add(CalendarInfo(id, display))
+                    if (c.getLong(2) / 60_000L != startMillis / 60_000L) continue
+                    if (CreatedEventIndex.normalize(c.getString(1)) == wanted) return c.getLong(0)
                 }
             }
         } catch (e: SecurityException) {
-            Log.e(TAG, "No permission to read calendars", e)
+            Log.w(TAG, "No permission to read instances", e)
+        } catch (e: Exception) {
+            Log.w(TAG, "Failed to query instances", e)
         }
-        return result
+        return null
     }
 
-    private fun getPrimaryCalendarId(cr: android.content.ContentResolver): Long? {
-        val uri = CalendarContract.Calendars.CONTENT_URI
-        val projection = arrayOf(CalendarContract.Calendars._ID, CalendarContract.Calendars.CALENDAR_DISPLAY_NAME, CalendarContract.Calendars.VISIBLE)
-        val cursor = cr.query(uri, projection, "((${CalendarContract.Calendars.VISIBLE}=1))", null, null)
-        cursor?.use {
-            if (it.moveToFirst()) {
-                return it.getLong(0)
-            }
-        }
-        return null
+    data class CalendarInfo(val id: Long, val name: String, val accessLevel: Int = CalendarContract.Calendars.CAL_ACCESS_OWNER) {
+        val isWritable: Boolean get() = accessLevel >= CalendarContract.Calendars.CAL_ACCESS_CONTRIBUTOR
     }
+
+    fun listWritableCalendars(context: Context): List<CalendarInfo> = CalendarMetadataCache.writableCalendars(context)
 }
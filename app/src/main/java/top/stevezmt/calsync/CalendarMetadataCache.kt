@@ -0,0 +1,161 @@
+package top.stevezmt.calsync
+
+import android.content.Context
+import android.database.ContentObserver
+import android.net.Uri
+import android.provider.CalendarContract
+import android.util.Log
+
+/**
+ * Cached view of CalendarContract.Calendars (id, display name, access level).
+ *
+ * 首次使用时查询一次并注册 ContentObserver，日历增删/权限变化时自动失效；
+ * 插入事件时不再每次查询 Calendars 表，且只会写入有写权限（CONTRIBUTOR 及以上）的日历。
+ * CalendarProvider2 的所有变化（包括日历本身）都通知根 URI（content://com.android.calendar），
+ * 所以根 URI 的通知照样失效缓存，只跳过本应用 [ownWrite] 期间及之后 [OWN_WRITE_GRACE_MS] 内的——那是自己插入事件引起的。
+ * 这段窗口里恰好发生的日历变化靠 [MAX_AGE_MS] 兜底，插入失败时 CalendarHelper 也会主动 [invalidate]。
+ * 每次失效都会递增代数，查询期间发生过失效时结果不写入缓存，避免存下过期的列表。
+ * 没有日历权限时不缓存结果，授权后下一次调用会重新查询。
+ */
+object CalendarMetadataCache {
+    private const val TAG = "CalendarMetadataCache"
+    private const val CALENDARS_URI = "content://" + CalendarContract.AUTHORITY + "/calendars"
+    internal const val MAX_AGE_MS = 10 * 60_000L
+    internal const val OWN_WRITE_GRACE_MS = 2_000L
+
+    private class Loaded(val calendars: List<CalendarHelper.CalendarInfo>, val atMs: Long)
+
+    @Volatile
+    private var loaded: Loaded? = null
+    // bumped by every invalidate(), guarded by this
+    @Volatile
+    private var generation = 0L
+    @Volatile
+    private var observerRegistered = false
+    // own event writes in progress, and until when their change notifications may still arrive; guarded by this
+    private var ownWrites = 0
+    private var ownWriteUntilMs = 0L
+
+    private val observer by lazy {
+        object : ContentObserver(null) {
+            override fun onChange(selfChange: Boolean) {
+                invalidate()
+            }
+
+            override fun onChange(selfChange: Boolean, uri: Uri?) {
+                if (invalidatedBy(uri?.toString(), nowMs())) invalidate()
+            }
+        }
+    }
+
+    fun invalidate() {
+        synchronized(this) {
+            generation++
+            loaded = null
+        }
+    }
+
+    /** All visible calendars, including read-only ones. */
+    fun calendars(context: Context): List<CalendarHelper.CalendarInfo> {
+        val now = nowMs()
+        cached(now)?.let { return it }
+        val app = context.applicationContext ?: context
+        ensureObserver(app)
+        val gen = generation
+        val result = query(app) ?: return emptyList()
+        publish(gen, result, now)
+        return result
+    }
+
+    /** Runs [block] (an event insert of this app) so that its change notifications do not invalidate the cache. */
+    fun <T> ownWrite(block: () -> T): T {
+        synchronized(this) { ownWrites++ }
+        try {
+            return block()
+        } finally {
+            synchronized(this) {
+                ownWrites--
+                ownWriteUntilMs = nowMs() + OWN_WRITE_GRACE_MS
+            }
+        }
+    }
+
+    // Calendars URIs always mean a calendar change; root / other notifications too, unless our own insert caused them
+    internal fun invalidatedBy(uri: String?, nowMs: Long): Boolean {
+        if (uri == null || uri.startsWith(CALENDARS_URI)) return true
+        return synchronized(this) { ownWrites == 0 && nowMs >= ownWriteUntilMs }
+    }
+
+    internal fun currentGeneration(): Long = generation
+
+    internal fun cached(nowMs: Long): List<CalendarHelper.CalendarInfo>? =
+        loaded?.takeIf { nowMs - it.atMs < MAX_AGE_MS }?.calendars
+
+    // Stores a query result unless the cache was invalidated while the query ran (the list may predate the change)
+    internal fun publish(gen: Long, calendars: List<CalendarHelper.CalendarInfo>, nowMs: Long): Boolean = synchronized(this) {
+        if (gen != generation) return false
+        loaded = Loaded(calendars, nowMs)
+        true
+    }
+
+    fun writableCalendars(context: Context): List<CalendarHelper.CalendarInfo> = calendars(context).filter { it.isWritable }
+
+    /** Calendar to insert into: the selected one if writable, otherwise the first writable calendar. */
+    fun resolveTargetCalendarId(context: Context, selectedId: Long?): Long? = chooseTarget(calendars(context), selectedId)
+
+    internal fun chooseTarget(calendars: List<CalendarHelper.CalendarInfo>, selectedId: Long?): Long? {
+        if (selectedId != null) {
+            val selected = calendars.firstOrNull { it.id == selectedId }
+            // not listed (hidden, or the list could not be read): keep the user's choice as before
+            if (selected == null || selected.isWritable) return selectedId
+            Log.w(TAG, "selected calendar $selectedId is read-only (access=${selected.accessLevel}), falling back")
+        }
+        return calendars.firstOrNull { it.isWritable }?.id
+    }
+
+    private fun ensureObserver(context: Context) {
+        if (observerRegistered) return
+        synchronized(this) {
+            if (observerRegistered) return
+            try {
+                context.contentResolver.registerContentObserver(CalendarContract.Calendars.CONTENT_URI, true, observer)
+                observerRegistered = true
+            } catch (e: Exception) {
+                Log.w(TAG, "failed to observe calendars", e)
+            }
+        }
+    }
+
+    private fun nowMs() = System.nanoTime() / 1_000_000L
+
+    private fun query(context: Context): List<CalendarHelper.CalendarInfo>? {
+        val result = mutableListOf<CalendarHelper.CalendarInfo>()
+        try {
+            val projection = arrayOf(
+                CalendarContract.Calendars._ID,
+                CalendarContract.Calendars.CALENDAR_DISPLAY_NAME,
+                CalendarContract.Calendars.ACCOUNT_NAME,
+                CalendarContract.Calendars.OWNER_ACCOUNT,
+                CalendarContract.Calendars.CALENDAR_ACCESS_LEVEL
+            )
+            val cursor = context.contentResolver.query(
+                CalendarContract.Calendars.CONTENT_URI, projection, "(${CalendarContract.Calendars.VISIBLE}=1)", null, null
+            )
+            cursor?.use { c ->
+                while (c.moveToNext()) {
+                    val id = c.getLong(0)
+                    val display = c.getString(1) ?: c.getString(2) ?: c.getString(3) ?: "(未命名)"
+                    val access = if (c.isNull(4)) CalendarContract.Calendars.CAL_ACCESS_OWNER else c.getInt(4)
+                    result.add(CalendarHelper.CalendarInfo(id, display, access))
+                }
+            } ?: return null
+        } catch (e: SecurityException) {
+            Log.e(TAG, "No permission to read calendars", e)
+            return null
+        } catch (e: Exception) {
+            Log.w(TAG, "failed to query calendars", e)
+            return null
+        }
+        return result
+    }
+}
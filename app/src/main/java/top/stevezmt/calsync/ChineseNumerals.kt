@@ -0,0 +1,128 @@
+package top.stevezmt.calsync
+
+/**
+ * Chinese numeral conversion shared by all parsing engines.
+ *
+ * 规则（三个引擎原先各写一份，行为不一致，现在统一到这里）：
+ *  - 零/〇 = 0，一…九，两 = 2；十/百/千 是单位：“二十五”=25、“一百零五”=105、“两千”=2000；
+ *  - 开头的“十”省略了一：“十五”=15；
+ *  - 没有单位的连续数字按位拼接：“二零二五”=2025；
+ *  - [translate] 不转换紧跟在“周”/“星期”后面的那一个数字（“周五”“星期三”保持原样）。
+ * 查表：码点 [TABLE_START, TABLE_END] 范围内一张 ByteArray，每个字符一次数组访问；解析和转换过程中不分配对象。
+ */
+object ChineseNumerals {
+    private const val NONE = -1
+    private const val TEN = 10
+    private const val HUNDRED = 11
+    private const val THOUSAND = 12
+
+    // 〇 (U+3007) is the lowest numeral code point, 零 (U+96F6) the highest
+    private const val TABLE_START = '〇'.code
+    private const val TABLE_END = '零'.code
+
+    private val TABLE = ByteArray(TABLE_END - TABLE_START + 1) { NONE.toByte() }.also { t ->
+        fun put(c: Char, code: Int) { t[c.code - TABLE_START] = code.toByte() }
+        put('零', 0); put('〇', 0); put('一', 1); put('二', 2); put('两', 2)
+        put('三', 3); put('四', 4); put('五', 5); put('六', 6); put('七', 7)
+        put('八', 8); put('九', 9); put('十', TEN); put('百', HUNDRED); put('千', THOUSAND)
+    }
+
+    /** Receives every converted numeral of [translate]: source span, output span and value. */
+    fun interface SpanListener {
+        fun onNumber(srcStart: Int, srcEnd: Int, outStart: Int, outEnd: Int, value: Long)
+    }
+
+    // 0..9 for a digit, TEN / HUNDRED / THOUSAND for a unit, NONE for anything else
+    private fun code(c: Char): Int {
+        val i = c.code - TABLE_START
+        return if (i < 0 || i >= TABLE.size) NONE else TABLE[i].toInt()
+    }
+
+    private fun unitValue(code: Int): Long = when (code) {
+        TEN -> 10L
+        HUNDRED -> 100L
+        else -> 1000L
+    }
+
+    @JvmStatic
+    fun isNumeral(c: Char): Boolean = code(c) != NONE
+
+    /**
+     * Value of [s] in [from, to): Chinese numerals plus decimal digits ("15"、"十五"、"1十"), other chars are skipped.
+     * 0 when there is no numeral at all.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun parse(s: CharSequence, from: Int = 0, to: Int = s.length): Int =
+        valueOf(s, from, to, true).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+    private fun valueOf(s: CharSequence, from: Int, to: Int, decimalDigits: Boolean): Long {
+        var section = 0L
+        var number = 0L
+        for (k in from until to) {
+            val c = s[k]
+            var code = code(c)
+            if (code == NONE) {
+                // \d on Android (ICU) also matches full-width and other Unicode digits
+                if (!decimalDigits || !Character.isDigit(c)) continue
+                code = Character.digit(c, 10)
+            }
+            if (code < TEN) {
+                number = number * 10 + code
+            } else {
+                if (number == 0L && code == TEN) number = 1 // "十五" -> 1*10 + 5
+                section += number * unitValue(code)
+                number = 0
+            }
+        }
+        return section + number
+    }
+
+    // The single digit right after 周 / 星期 is a weekday, not a number
+    private fun isWeekdayDigit(s: CharSequence, i: Int): Boolean {
+        if (i == 0) return false
+        val prev = s[i - 1]
+        return (prev == '周' || prev == '期') && code(s[i]) in 0..9
+    }
+
+    /**
+     * Appends [src] to [out] with every run of Chinese numerals replaced by its Arabic value
+     * ("二十三" -> "23", "二零二五年" -> "2025年"); ASCII digits and the weekday digit after 周/星期 are copied as is.
+     * [listener] gets the source and output offsets of each converted run.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun translate(src: CharSequence, out: StringBuilder, listener: SpanListener? = null): StringBuilder {
+        val n = src.length
+        var i = 0
+        while (i < n) {
+            val c = src[i]
+            if (code(c) == NONE || isWeekdayDigit(src, i)) {
+                out.append(c)
+                i++
+                continue
+            }
+            val start = i
+            while (i < n && code(src[i]) != NONE) i++
+            val outStart = out.length
+            val value = valueOf(src, start, i, false)
+            out.append(value)
+            listener?.onNumber(start, i, outStart, out.length, value)
+        }
+        return out
+    }
+
+    /** [translate] into a new string; returns [src] itself when it contains no Chinese numeral. */
+    @JvmStatic
+    fun translate(src: String): String {
+        var found = false
+        for (i in src.indices) {
+            if (code(src[i]) != NONE && !isWeekdayDigit(src, i)) {
+                found = true
+                break
+            }
+        }
+        if (!found) return src
+        return translate(src, StringBuilder(src.length), null).toString()
+    }
+}
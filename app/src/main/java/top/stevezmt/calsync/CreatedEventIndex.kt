@@ -0,0 +1,184 @@
+package top.stevezmt.calsync
+
+import android.content.ContentValues
+import android.content.Context
+import android.provider.CalendarContract
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import android.util.Log
+
+/**
+ * Local index of events this app created recently, used to avoid inserting the same announcement twice
+ * (reposted, or received through several apps).
+ *
+ * 键为 “规范化标题 | 开始时间(分钟) | 规范化地点”，持久化在一个小 SQLite 表里，
+ * 首次使用时整体载入内存 HashMap，之后的查重是 O(1)。开始时间早于 [RETENTION_MS] 之前的记录会被清理。
+ * 用户在通知里点“删除”时由 EventActionReceiver 同步移除对应记录；在日历里直接删掉的事件，
+ * 命中时按 _ID 查一次 Events 表确认还在，不在了就丢掉这条记录，不会因此漏建日程。
+ */
+object CreatedEventIndex {
+    private const val TAG = "CreatedEventIndex"
+    private const val DB_NAME = "created_events.db"
+    private const val DB_VERSION = 1
+    private const val TABLE = "created_events"
+    private const val COL_KEY = "event_key"
+    private const val COL_EVENT_ID = "event_id"
+    private const val COL_START = "start_millis"
+    internal const val RETENTION_MS = 30L * 24 * 60 * 60 * 1000
+
+    private class Helper(context: Context) : SQLiteOpenHelper(context, DB_NAME, null, DB_VERSION) {
+        override fun onCreate(db: SQLiteDatabase) {
+            db.execSQL("CREATE TABLE $TABLE ($COL_KEY TEXT PRIMARY KEY, $COL_EVENT_ID INTEGER NOT NULL, $COL_START INTEGER NOT NULL)")
+            db.execSQL("CREATE INDEX idx_${TABLE}_event ON $TABLE($COL_EVENT_ID)")
+        }
+
+        override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+            db.execSQL("DROP TABLE IF EXISTS $TABLE")
+            onCreate(db)
+        }
+    }
+
+    /** In-memory mirror of the table; callers synchronize. */
+    internal class Entries(private val retentionMs: Long = RETENTION_MS) {
+        private class Entry(val eventId: Long, val startMillis: Long)
+
+        private val map = HashMap<String, Entry>()
+        // keys whose event is being inserted right now (see claim)
+        private val claimed = HashSet<String>()
+
+        fun put(key: String, eventId: Long, startMillis: Long) {
+            map[key] = Entry(eventId, startMillis)
+        }
+
+        fun removeEvent(eventId: Long) {
+            map.values.removeAll { it.eventId == eventId }
+        }
+
+        fun contains(key: String): Boolean = map.containsKey(key)
+
+        /** Reserves [key] for an insert; false when it is recorded already or another caller holds it. */
+        fun claim(key: String): Boolean = !map.containsKey(key) && claimed.add(key)
+
+        fun release(key: String) {
+            claimed.remove(key)
+        }
+
+        /**
+         * Event id recorded for [key], or null. An entry that is past retention, or whose event
+         * no longer [exists] in the calendar, is removed and not returned.
+         */
+        fun find(key: String, nowMillis: Long, exists: (Long) -> Boolean): Long? {
+            val e = map[key] ?: return null
+            if (e.startMillis < nowMillis - retentionMs || !exists(e.eventId)) {
+                map.remove(key)
+                return null
+            }
+            return e.eventId
+        }
+    }
+
+    @Volatile
+    private var helper: Helper? = null
+    private val entries = Entries()
+    private var loaded = false
+
+    private fun helper(context: Context): Helper =
+        helper ?: synchronized(this) { helper ?: Helper(context.applicationContext ?: context).also { helper = it } }
+
+    private fun ensureLoaded(context: Context) {
+        if (loaded) return
+        try {
+            val db = helper(context).writableDatabase
+            db.delete(TABLE, "$COL_START < ?", arrayOf((System.currentTimeMillis() - RETENTION_MS).toString()))
+            db.query(TABLE, arrayOf(COL_KEY, COL_EVENT_ID, COL_START), null, null, null, null, null).use { c ->
+                while (c.moveToNext()) entries.put(c.getString(0), c.getLong(1), c.getLong(2))
+            }
+        } catch (e: Exception) {
+            Log.w(TAG, "failed to load index", e)
+        }
+        loaded = true
+    }
+
+    /** Event id previously created for [key] that still exists in the calendar, or null. */
+    fun find(context: Context, key: String): Long? = synchronized(this) {
+        ensureLoaded(context)
+        if (!entries.contains(key)) return null
+        val id = entries.find(key, System.currentTimeMillis()) { eventExists(context, it) }
+        if (id == null) {
+            try {
+                helper(context).writableDatabase.delete(TABLE, "$COL_KEY = ?", arrayOf(key))
+            } catch (e: Exception) {
+                Log.w(TAG, "failed to drop stale entry", e)
+            }
+        }
+        id
+    }
+
+    // Deleted in the calendar app (or pending deletion by the sync adapter); unknown counts as existing
+    private fun eventExists(context: Context, eventId: Long): Boolean = try {
+        context.contentResolver.query(
+            CalendarContract.Events.CONTENT_URI,
+            arrayOf(CalendarContract.Events._ID),
+            "${CalendarContract.Events._ID} = ? AND ${CalendarContract.Events.DELETED} = 0",
+            arrayOf(eventId.toString()),
+            null
+        )?.use { it.moveToFirst() } ?: true
+    } catch (e: Exception) {
+        Log.w(TAG, "failed to check event $eventId", e)
+        true
+    }
+
+    /**
+     * Reserves [key] right before its event is inserted, so two workers handling the same announcement
+     * (e.g. received through two apps) cannot both insert it. false = recorded or being inserted elsewhere.
+     * Always followed by [release], after [record] when the insert succeeded.
+     */
+    fun claim(context: Context, key: String): Boolean = synchronized(this) {
+        ensureLoaded(context)
+        entries.claim(key)
+    }
+
+    fun release(key: String) {
+        synchronized(this) { entries.release(key) }
+    }
+
+    fun record(context: Context, key: String, eventId: Long, startMillis: Long) {
+        synchronized(this) {
+            ensureLoaded(context)
+            entries.put(key, eventId, startMillis)
+            try {
+                val values = ContentValues().apply {
+                    put(COL_KEY, key)
+                    put(COL_EVENT_ID, eventId)
+                    put(COL_START, startMillis)
+                }
+                helper(context).writableDatabase.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+            } catch (e: Exception) {
+                Log.w(TAG, "failed to record event $eventId", e)
+            }
+        }
+    }
+
+    fun removeEvent(context: Context, eventId: Long) {
+        synchronized(this) {
+            ensureLoaded(context)
+            entries.removeEvent(eventId)
+            try {
+                helper(context).writableDatabase.delete(TABLE, "$COL_EVENT_ID = ?", arrayOf(eventId.toString()))
+            } catch (e: Exception) {
+                Log.w(TAG, "failed to remove event $eventId", e)
+            }
+        }
+    }
+
+    fun keyOf(title: String, startMillis: Long, location: String?): String =
+        normalize(title) + "|" + (startMillis / 60_000L) + "|" + normalize(location)
+
+    // lower-case, letters/digits only: "明天 开会！" and "明天开会" are the same event
+    internal fun normalize(s: String?): String {
+        if (s.isNullOrEmpty()) return ""
+        val sb = StringBuilder(s.length)
+        for (ch in s) if (Character.isLetterOrDigit(ch)) sb.append(Character.toLowerCase(ch))
+        return sb.toString()
+    }
+}
@@ -0,0 +1,108 @@
+package top.stevezmt.calsync
+
+import android.content.Context
+import android.util.Log
+import java.util.regex.Pattern
+import java.util.regex.PatternSyntaxException
+
+/**
+ * Compiled form of the user's custom date rules (设置页 “自定义规则”).
+ *
+ * 规则列表只在内容变化时编译一次（SettingsStore.setCustomRules 会主动 invalidate），
+ * 有效规则合并成一个 `(?:r1)|(?:r2)|...` 交替匹配器，每个句子只跑一次 find()；
+ * 无效规则在编译时记录一次日志并被忽略，设置页保存时通过 [validate] 提示用户。
+ */
+internal object CustomRuleEngine {
+    private const val TAG = "CustomRuleEngine"
+
+    data class InvalidRule(val rule: String, val error: String)
+
+    class RuleSet internal constructor(
+        internal val raw: String?,
+        private val combined: Pattern?,
+        private val isolated: List<Pattern>,
+        val invalid: List<InvalidRule>
+    ) {
+        val isEmpty: Boolean get() = combined == null && isolated.isEmpty()
+
+        fun find(s: CharSequence): Boolean {
+            if (combined != null && combined.matcher(s).find()) return true
+            for (p in isolated) if (p.matcher(s).find()) return true
+            return false
+        }
+    }
+
+    private val EMPTY = RuleSet(null, null, emptyList(), emptyList())
+
+    // Constructs that change meaning once wrapped into a shared alternation: backreferences (group numbers shift),
+    // \Q..\E quoting and comments mode (both can swallow the wrapper). Such rules keep their own matcher.
+    private val needsIsolation = Regex("\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?[a-zA-Z-]*x")
+
+    @Volatile
+    private var current: RuleSet = EMPTY
+
+    fun invalidate() {
+        current = EMPTY
+    }
+
+    fun get(context: Context): RuleSet = get(SettingsStore.snapshot(context))
+
+    fun get(settings: SettingsSnapshot): RuleSet {
+        val raw = settings.customRulesRaw
+        val c = current
+        if (c.raw == raw) return c
+        val compiled = compile(settings.customRules, raw)
+        for (bad in compiled.invalid) {
+            Log.w(TAG, "invalid custom rule ignored: ${bad.rule} (${bad.error})")
+        }
+        current = compiled
+        return compiled
+    }
+
+    fun hasRules(context: Context): Boolean = !get(context).isEmpty
+
+    fun matches(context: Context, s: CharSequence): Boolean = get(context).find(s)
+
+    fun matches(settings: SettingsSnapshot, s: CharSequence): Boolean = get(settings).find(s)
+
+    /** Rules that fail to compile, for reporting in the settings UI. */
+    fun validate(rules: List<String>): List<InvalidRule> = rules.mapNotNull { rule ->
+        try {
+            Pattern.compile(rule)
+            null
+        } catch (e: PatternSyntaxException) {
+            InvalidRule(rule, e.description ?: e.message ?: "syntax error")
+        } catch (e: Exception) {
+            InvalidRule(rule, e.message ?: e.javaClass.simpleName)
+        }
+    }
+
+    internal fun compile(rules: List<String>, raw: String? = rules.joinToString(",")): RuleSet {
+        if (rules.isEmpty()) return RuleSet(raw, null, emptyList(), emptyList())
+        val invalid = mutableListOf<InvalidRule>()
+        val shareable = mutableListOf<Pair<String, Pattern>>()
+        val isolated = mutableListOf<Pattern>()
+        for (rule in rules) {
+            val p = try {
+                Pattern.compile(rule)
+            } catch (e: Exception) {
+                invalid += InvalidRule(rule, (e as? PatternSyntaxException)?.description ?: e.message ?: e.javaClass.simpleName)
+                continue
+            }
+            if (needsIsolation.containsMatchIn(rule)) isolated += p else shareable += rule to p
+        }
+        var combined: Pattern? = null
+        if (shareable.size == 1) {
+            combined = shareable[0].second
+        } else if (shareable.size > 1) {
+            try {
+                combined = Pattern.compile(shareable.joinToString("|") { "(?:${it.first})" })
+            } catch (e: Exception) {
+                // should not happen for individually valid rules; fall back to one matcher per rule
+                Log.w(TAG, "failed to combine custom rules: ${e.message}")
+                shareable.mapTo(isolated) { it.second }
+            }
+        }
+        return RuleSet(raw, combined, isolated, invalid)
+    }
+}
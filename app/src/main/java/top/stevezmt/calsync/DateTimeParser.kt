@@ -2,6 +2,9 @@ package top.stevezmt.calsync
 
 import android.util.Log
 import com.xkzhangsan.time.nlp.TimeNLPUtil
+import top.stevezmt.calsync.llm.CancellationToken
+import top.stevezmt.calsync.llm.EventJsonSchema
+import top.stevezmt.calsync.llm.EventSlotSchema
 import java.text.SimpleDateFormat
 import java.util.Calendar
 import java.util.Date
@@ -29,25 +32,21 @@ object DateTimeParser {
     @JvmStatic
     fun extractTitleAndLocationFromText(context: android.content.Context, text: String): Pair<String?, String?> = extractTitleAndLocation(context, text)
 
-    // Patterns for Chinese-style dates/times. These are examples and should be extended.
-    // Accept both ASCII colon and fullwidth colon
-    private const val colon = "[:：]"
-    private val monthDayPattern = Pattern.compile("(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?")
-    // Require end part to have '日/号' and not be followed by letter to avoid matching like '到21B6教室'
-    private val monthDayRangePattern = Pattern.compile("(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?\\s*[~-至到]+\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月?(\\d{1,2}|[一二三四五六七八九十]+)[日号](?![A-Za-z])")
-    // unified time pattern: optional am/pm token, hour (arabic or chinese numerals), optional minute
-    // Added 今晚 / 明晚 to capture evening context directly so "今晚8点" 不再被误判为上午 8 点
-    private val timePattern = Pattern.compile("(上午|下午|中午|晚上|凌晨|今晚|明晚)?\\s*([0-9]{1,2}|[一二三四五六七八九十百]+)(?:${colon}([0-5]?\\d))?点?")
-    private val weekdayTimePattern = Pattern.compile("((?:周|星期)[一二三四五六日天])(?:[上下午]|上午|下午)?\\s*(\\d{1,2})${colon}(\\d{1,2})")
+    fun extractTitleAndLocationFromText(context: android.content.Context, text: String, settings: SettingsSnapshot): Pair<String?, String?> =
+        extractTitleAndLocation(context, text, settings)
+
+    // Patterns for Chinese-style dates/times live in DateTimeRules (compiled once, shared by all paths).
 
     // Extract ALL sentences (segments bounded by punctuation) that contain date/time-like info
-    fun extractAllSentencesContainingDate(context: android.content.Context, text: String): List<String> {
-    val delimiters = Regex("[。！？.!?；;，,]\\s*")
-        val parts = delimiters.split(text)
+    fun extractAllSentencesContainingDate(context: android.content.Context, text: String): List<String> =
+        extractAllSentencesContainingDate(text, SettingsStore.snapshot(context))
+
+    fun extractAllSentencesContainingDate(text: String, settings: SettingsSnapshot): List<String> {
+        val parts = DateTimeRules.sentenceDelimiters.split(text)
         val out = mutableListOf<String>()
         for (p in parts) {
             if (p.isBlank()) continue
-            if (containsDateLike(context, p)) out.add(p.trim())
+            if (containsDateLike(settings, p)) out.add(p.trim())
         }
         return out
     }
@@ -55,66 +54,94 @@ object DateTimeParser {
     /**
      * Lightweight check: whether the text *might* contain a date/time expression.
      * Used for battery-saver prefilter before running full parsing.
+     * Built-in tokens are detected by a single pass of [DateTimeTokenScanner] over the whole text.
      */
-    fun guessContainsDateTime(context: android.content.Context, text: String): Boolean {
-        val delimiters = Regex("[。！？.!?；;，,]\\s*")
-        val parts = delimiters.split(text)
+    fun guessContainsDateTime(context: android.content.Context, text: String): Boolean =
+        guessContainsDateTime(text, SettingsStore.snapshot(context))
+
+    fun guessContainsDateTime(text: String, settings: SettingsSnapshot): Boolean {
+        if (DateTimeTokenScanner.containsDateTimeToken(text)) return true
+        // custom rules are arbitrary user regexes: keep the per-sentence semantics for them
+        val rules = CustomRuleEngine.get(settings)
+        if (rules.isEmpty) return false
+        val parts = DateTimeRules.sentenceDelimiters.split(text)
         for (p in parts) {
             if (p.isBlank()) continue
-            if (containsDateLike(context, p)) return true
+            if (rules.find(p)) return true
         }
         return false
     }
 
-    private fun containsDateLike(context: android.content.Context, s: String): Boolean {
-        // check custom rules first
-        val custom = SettingsStore.getCustomRules(context)
-        for (rule in custom) {
-            try {
-                val p = Pattern.compile(rule)
-                if (p.matcher(s).find()) return true
-            } catch (_: Exception) {
-            }
-        }
-        // Countdown style (超星): 还有X天 / 还有X个小时 / 还有X分钟 / 还有X分 / 还有X秒
-        if (Regex("还有[一二三四五六七八九十百零0-9]+(个)?天").containsMatchIn(s)
-            || Regex("还有[一二三四五六七八九十百零0-9]+(个)?小时").containsMatchIn(s)
-            || Regex("还有[一二三四五六七八九十百零0-9]+(个)?分钟?").containsMatchIn(s)
-            || Regex("还有[一二三四五六七八九十百零0-9]+(个)?秒").containsMatchIn(s)) {
-            return true
-        }
-        // First check date-related explicit patterns (exclude timePattern for additional validation)
-        val dateLike = listOf(monthDayPattern, monthDayRangePattern, weekdayTimePattern)
-        for (pat in dateLike) {
-            if (pat.matcher(s).find()) return true
-        }
-        // Refined time detection: ensure a time match has explicit indicator (ampm token / colon / 点 / minutes) and valid hour 0-23
-        val tm = timePattern.matcher(s)
-        while (tm.find()) {
-            val matched = tm.group()
-            val ampm = tm.group(1)
-            val hourStr = tm.group(2)
-            val minuteStr = tm.group(3)
-            val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: -1
-            val hasIndicator = ampm != null || minuteStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-            // Guard: avoid matching inside longer numbers like "下午104" (treat as '10' followed by '4')
-            val hourEnd = try { tm.end(2) } catch (_: Throwable) { -1 }
-            val nextCh = if (hourEnd in 0 until s.length) s[hourEnd] else null
-            val followedByDigitWithoutDelimiter = nextCh?.isDigit() == true && !matched.contains(":") && !matched.contains("：") && !matched.contains("点")
-            if (hasIndicator && hour in 0..23 && !followedByDigitWithoutDelimiter) return true
-        }
-        return false
+    private fun containsDateLike(settings: SettingsSnapshot, s: String): Boolean {
+        // check custom rules first (compiled once into a single alternation by CustomRuleEngine)
+        if (CustomRuleEngine.matches(settings, s)) return true
+        // Countdown (还有X天/小时/分钟/秒), month/day, weekday+time and guarded time tokens
+        return DateTimeTokenScanner.containsDateTimeToken(s)
     }
 
     // === Public APIs (unchanged signature) ===
     fun parseDateTime(sentence: String): ParseResult? = RuleBasedStrategy.tryParseStandalone(sentence)
 
     // Overload: allow passing a fixed baseMillis so all calculations in this call share the same "now"
-    fun parseDateTime(context: android.content.Context, sentence: String, baseMillis: Long): ParseResult? {
-        when (SettingsStore.getParsingEngine(context)) {
+    fun parseDateTime(context: android.content.Context, sentence: String, baseMillis: Long): ParseResult? =
+        parseDateTime(context, sentence, baseMillis, SettingsStore.snapshot(context))
+
+    // Overload used by the notification pipeline: all settings come from one snapshot per processing run
+    fun parseDateTime(context: android.content.Context, sentence: String, baseMillis: Long, settings: SettingsSnapshot): ParseResult? =
+        parseDateTime(context, sentence, baseMillis, settings, null)
+
+    /**
+     * Run the AI engine over several sentences at once (batched inference) for [parseDateTime]'s precomputed results.
+     * Empty unless the AI engine is selected.
+     */
+    fun parseAiBatch(context: android.content.Context, sentences: List<String>, baseMillis: Long, settings: SettingsSnapshot): Map<String, ParseResult?> {
+        if (settings.parsingEngine != ParseEngine.AI_GGUF || sentences.isEmpty()) return emptyMap()
+        return AiGgufStrategy(context, settings).tryParseBatch(sentences, baseMillis)
+    }
+
+    /**
+     * ML Kit counterpart of [parseAiBatch]: all sentences annotated by the shared extractor, suspending instead of blocking.
+     * Empty unless the ML Kit engine is selected (always empty in the FOSS build).
+     */
+    suspend fun parseMlKitBatch(context: android.content.Context, sentences: List<String>, baseMillis: Long, settings: SettingsSnapshot): Map<String, ParseResult?> {
+        if (settings.parsingEngine != ParseEngine.ML_KIT || sentences.isEmpty()) return emptyMap()
+        return MLKitStrategy(context).parseAll(sentences, baseMillis)
+    }
+
+    // precomputed: engine answers computed beforehand by parseAiBatch / parseMlKitBatch (same baseMillis);
+    // sentences missing from it run the engine here.
+    // Results (including "no result" of the rule engines) are shared through ParseResultCache: the same sentence within the same minute
+    // and settings version is parsed once, whichever notification it came from.
+    fun parseDateTime(
+        context: android.content.Context,
+        sentence: String,
+        baseMillis: Long,
+        settings: SettingsSnapshot,
+        precomputed: Map<String, ParseResult?>?
+    ): ParseResult? {
+        val key = ParseResultCache.keyOf(settings, sentence, baseMillis)
+        ParseResultCache.shared.lookup(key)?.let { return it.result }
+        val result = parseDateTimeUncached(context, sentence, baseMillis, settings, precomputed)
+        // an AI / ML Kit miss may be transient: let the next attempt run the engine again
+        if (result != null || ParseResultCache.cachesMisses(settings.parsingEngine)) ParseResultCache.shared.put(key, result)
+        return result
+    }
+
+    /** True when [parseDateTime] would answer [sentence] from the cache (batch callers skip the engine for it). */
+    fun isParseCached(sentence: String, baseMillis: Long, settings: SettingsSnapshot): Boolean =
+        ParseResultCache.shared.contains(ParseResultCache.keyOf(settings, sentence, baseMillis))
+
+    private fun parseDateTimeUncached(
+        context: android.content.Context,
+        sentence: String,
+        baseMillis: Long,
+        settings: SettingsSnapshot,
+        precomputed: Map<String, ParseResult?>?
+    ): ParseResult? {
+        when (settings.parsingEngine) {
             ParseEngine.XK_TIME -> {
                 try {
-                    XkTimeStrategy(context).tryParseWithBase(sentence, baseMillis)?.let { return it }
+                    XkTimeStrategy(context, settings).tryParseWithBase(sentence, baseMillis)?.let { return it }
                 } catch (t: Throwable) {
                     // xk-time (3rd party) may throw Error (e.g., NoClassDefFoundError on some devices).
                     Log.w(TAG, "xk-time crashed: ${t.message}")
@@ -122,10 +149,14 @@ object DateTimeParser {
                 }
             }
             ParseEngine.AI_GGUF -> {
-                AiGgufStrategy(context).tryParseWithBase(sentence, baseMillis)?.let { return it }
+                val ai = if (precomputed != null && sentence in precomputed) precomputed[sentence]
+                    else AiGgufStrategy(context, settings).tryParseWithBase(sentence, baseMillis)
+                ai?.let { return it }
             }
             ParseEngine.ML_KIT -> {
-                MLKitStrategy(context).tryParseWithBase(sentence, baseMillis)?.let { return it }
+                val ml = if (precomputed != null && sentence in precomputed) precomputed[sentence]
+                    else MLKitStrategy(context).tryParseWithBase(sentence, baseMillis)
+                ml?.let { return it }
             }
             ParseEngine.BUILTIN -> {
                 // fall through to built-in pipeline below
@@ -133,7 +164,7 @@ object DateTimeParser {
         }
         // Prefer explicit rule-based parsing first (handles tokens like 周五/本周五 reliably).
         try {
-            val rule = RuleBasedStrategyWithContext(context)
+            val rule = RuleBasedStrategyWithContext(context, settings)
             val r = rule.tryParseWithBase(sentence, baseMillis)
             if (r != null) return r
         } catch (e: Exception) {
@@ -142,11 +173,11 @@ object DateTimeParser {
         }
 
         // Fallback to TimeNLP only if enabled and rule-based didn't match
-        if (SettingsStore.isTimeNLPEnabled(context)) {
+        if (settings.timeNLPEnabled) {
             // Heuristic: 如果像“下午10·的课挪至207进行”这类仅有地点/教室变更且没有明确时间/日期，不要回退到 TimeNLP，避免误触发
             if (shouldSkipTimeNLPFallback(sentence)) return null
             try {
-                val nlp = TimeNLPStrategy(context)
+                val nlp = TimeNLPStrategy(context, settings)
                 val r2 = nlp.tryParseWithBase(sentence, baseMillis)
                 if (r2 != null) return r2
             } catch (e: Exception) {
@@ -160,25 +191,25 @@ object DateTimeParser {
     // === Strategy implementations ===
 
     // TimeNLP-based strategy
-    private class TimeNLPStrategy(private val context: android.content.Context): ParsingStrategy {
+    private class TimeNLPStrategy(private val context: android.content.Context, private val settings: SettingsSnapshot? = null): ParsingStrategy {
         override fun name() = "TimeNLP"
         override fun tryParse(sentence: String): ParseResult? {
             val slots = TimeNLPAdapter.parse(sentence)
             if (slots.isEmpty()) return null
             val s = slots.first()
-            val (t, loc) = extractTitleAndLocation(context, sentence)
+            val (t, loc) = extractTitleAndLocation(context, sentence, settings)
             return ParseResult(s.startMillis, s.endMillis, t, loc)
         }
         fun tryParseWithBase(sentence: String, baseMillis: Long): ParseResult? {
             val slots = TimeNLPAdapter.parse(sentence, baseMillis)
             if (slots.isEmpty()) return null
             val s = slots.first()
-            val (t, loc) = extractTitleAndLocation(context, sentence)
+            val (t, loc) = extractTitleAndLocation(context, sentence, settings)
             return ParseResult(s.startMillis, s.endMillis, t, loc)
         }
     }
 
-    private class XkTimeStrategy(private val context: android.content.Context): ParsingStrategy {
+    private class XkTimeStrategy(private val context: android.content.Context, private val settings: SettingsSnapshot? = null): ParsingStrategy {
         override fun name() = "xk-time"
         override fun tryParse(sentence: String): ParseResult? = tryParseWithBase(sentence, getNowMillis())
 
@@ -199,7 +230,7 @@ object DateTimeParser {
                 val endMillis = listOfNotNull(endMillisFromSecond, endMillisFromField)
                     .firstOrNull { it > startMillis }
 
-                val (t, loc) = extractTitleAndLocation(context, sentence)
+                val (t, loc) = extractTitleAndLocation(context, sentence, settings)
                 val defaultDuration = if (first.getIsAllDayTime() == true) 12 * 60 * 60 * 1000L else 60 * 60 * 1000L
                 ParseResult(startMillis, endMillis ?: (startMillis + defaultDuration), t, loc)
             } catch (t: Throwable) {
@@ -236,68 +267,148 @@ object DateTimeParser {
         }
     }
 
-    private class AiGgufStrategy(private val context: android.content.Context): ParsingStrategy {
+    private class AiGgufStrategy(private val context: android.content.Context, settings: SettingsSnapshot? = null): ParsingStrategy {
+        private val settings = settings ?: SettingsStore.snapshot(context)
         override fun name() = "AI(GGUF)"
         override fun tryParse(sentence: String): ParseResult? = tryParseWithBase(sentence, getNowMillis())
 
+        // Slot schema: the model only copies date/time fields, millis are computed by resolveAiSlots
+        private val slots get() = settings.aiStructuredSlots
+        private val maxTokens get() = if (slots) EventSlotSchema.MAX_TOKENS else EventJsonSchema.MAX_TOKENS
+        private val grammar get() = if (slots) EventSlotSchema.GBNF else EventJsonSchema.GBNF
+
         fun tryParseWithBase(sentence: String, baseMillis: Long): ParseResult? {
-            val uri = SettingsStore.getAiGgufModelUri(context)
+            val uri = settings.aiGgufModelUri
             if (uri.isNullOrBlank()) return null
+            val prompt = buildPrompt(sentence, baseMillis)
+
+            return try {
+                // idle unload is suspended while the model is in use (see ModelLifecycle)
+                top.stevezmt.calsync.llm.ModelLifecycle.inUse(settings.aiIdleUnloadMinutes) { completeOne(uri, prompt) }
+                    ?.let { toResult(it, baseMillis) }
+            } catch (t: Throwable) {
+                Log.w(TAG, "AI GGUF parse failed: ${t.message}")
+                try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
+                null
+            }
+        }
+
+        // Raw model output for one prompt; null when the model could not be loaded
+        private fun completeOne(uri: String, prompt: String): String? {
+            val handle = loadHandle(uri)
+            if (handle == 0L) return null
+
+            val startMs = android.os.SystemClock.elapsedRealtime()
+            // Output is constrained to the event JSON schema, so the token budget only has to cover one object
+            NotificationUtils.sendDebugLog(context, "[AI] 即将调用 nativeComplete（JSON 语法约束，${if (slots) "槽位" else "毫秒"}），maxTokens=$maxTokens")
+            // Streamed: stop as soon as the JSON object closes; cancelled together with the listener service
+            var firstTokenMs = -1L
+            var pieces = 0
+            val raw = top.stevezmt.calsync.llm.LlamaCpp.complete(
+                handle, prompt, maxTokens, grammar,
+                stop = top.stevezmt.calsync.llm.LlamaCpp.StopSpec.JSON_OBJECT,
+                cancel = CancellationToken()
+            ) { _ ->
+                if (pieces++ == 0) firstTokenMs = android.os.SystemClock.elapsedRealtime() - startMs
+                true
+            }
+            NotificationUtils.sendDebugLog(context, "[AI] nativeComplete 返回，raw.length=${raw.length}，首 token ${firstTokenMs}ms，共 $pieces 段")
+            val cost = android.os.SystemClock.elapsedRealtime() - startMs
+            if (raw.isEmpty()) {
+                NotificationUtils.sendDebugLog(context, "[AI] 生成结束，但无输出，耗时 ${cost}ms")
+            } else {
+                NotificationUtils.sendDebugLog(context, "[AI] 生成完成，耗时 ${cost}ms")
+            }
+            return raw
+        }
 
+        /**
+         * Parse several sentences with one batched inference (see LlamaCpp.completeBatch).
+         * Every sentence gets an entry; null means the AI could not parse it.
+         */
+        fun tryParseBatch(sentences: List<String>, baseMillis: Long): Map<String, ParseResult?> {
+            val uri = settings.aiGgufModelUri
+            val distinct = sentences.distinct()
+            if (uri.isNullOrBlank() || distinct.isEmpty()) return emptyMap()
+            return try {
+                val raws = top.stevezmt.calsync.llm.ModelLifecycle.inUse(settings.aiIdleUnloadMinutes) {
+                    val handle = loadHandle(uri)
+                    if (handle == 0L) return@inUse null
+                    val startMs = android.os.SystemClock.elapsedRealtime()
+                    NotificationUtils.sendDebugLog(context, "[AI] 批量推理 ${distinct.size} 句，maxTokens=$maxTokens")
+                    top.stevezmt.calsync.llm.LlamaCpp.completeBatch(handle, distinct.map { buildPrompt(it, baseMillis) }, maxTokens, grammar).also {
+                        NotificationUtils.sendDebugLog(context, "[AI] 批量推理完成，耗时 ${android.os.SystemClock.elapsedRealtime() - startMs}ms")
+                    }
+                } ?: return emptyMap()
+                distinct.zip(raws).associate { (sentence, raw) -> sentence to toResult(raw, baseMillis) }
+            } catch (t: Throwable) {
+                Log.w(TAG, "AI GGUF batch parse failed: ${t.message}")
+                try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
+                emptyMap()
+            }
+        }
+
+        private fun buildPrompt(sentence: String, baseMillis: Long): String {
             // Tell LLM the current time (requirement): baseMillis is the single source of truth for this parsing run.
             val nowStr = try {
                 SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(Date(baseMillis))
             } catch (_: Throwable) { baseMillis.toString() }
 
-            val system = SettingsStore.getAiSystemPrompt(context)
             // Guard: avoid extremely long prompts that slow native decode; cap at ~1200 chars.
             val cappedSentence = if (sentence.length > 1200) sentence.take(1200) else sentence
-            val prompt = buildString {
-                appendLine(system)
-                appendLine()
+            // Fixed part first, so the native prefix cache can reuse its KV state across calls;
+            // only the "now" line and the user sentence change between calls.
+            return buildString {
+                append(promptPrefix())
                 appendLine("当前时间(now)为：$nowStr。请以此作为相对时间计算基准。")
+                appendLine("用户句子：$cappedSentence")
+            }
+        }
+
+        // The part of every prompt that only changes with the settings; also keys the model's saved KV state
+        private fun promptPrefix(): String = buildString {
+            appendLine(settings.aiSystemPrompt)
+            appendLine()
+            if (slots) {
+                appendLine(EventSlotSchema.INSTRUCTIONS)
+            } else {
                 appendLine("你需要从用户句子中抽取日程信息，并只输出一段 JSON（不要多余文字）：")
                 appendLine("{\"startMillis\":number,\"endMillis\":number|null,\"title\":string|null,\"location\":string|null}")
                 appendLine("- startMillis/endMillis 为 Unix 毫秒时间戳")
                 appendLine("- 如果缺少结束时间，endMillis 输出 null")
                 appendLine("- 如果无法解析，输出空对象 {}")
-                appendLine()
-                appendLine("用户句子：$cappedSentence")
             }
+            appendLine()
+        }
 
-            return try {
-                NotificationUtils.sendDebugLog(context, "[AI] 物化模型并加载中…")
-                // Temporarily force 1 thread to avoid native hangs; tune later if stable.
-                val threads = 1
-                val handle = top.stevezmt.calsync.llm.LlamaCpp.getOrInitHandle(context, uri, 2048, threads)
-                if (handle == 0L) {
-                    NotificationUtils.sendDebugLog(context, "[AI] 模型加载失败：handle=0")
-                    return null
-                }
-                NotificationUtils.sendDebugLog(context, "[AI] 模型就绪，threads=$threads，开始生成…")
-
-                val startMs = android.os.SystemClock.elapsedRealtime()
-                NotificationUtils.sendDebugLog(context, "[AI] 即将调用 nativeComplete，maxTokens=64")
-                val raw = top.stevezmt.calsync.llm.LlamaCpp.complete(handle, prompt, 64)
-                NotificationUtils.sendDebugLog(context, "[AI] nativeComplete 返回，raw.length=${raw.length}")
-                val cost = android.os.SystemClock.elapsedRealtime() - startMs
-                if (raw.isEmpty()) {
-                    NotificationUtils.sendDebugLog(context, "[AI] 生成结束，但无输出，耗时 ${cost}ms")
-                } else {
-                    NotificationUtils.sendDebugLog(context, "[AI] 生成完成，耗时 ${cost}ms")
+        private fun loadHandle(uri: String): Long {
+            NotificationUtils.sendDebugLog(context, "[AI] 物化模型并加载中…")
+            // Thread counts are calibrated per model on first load (see ThreadTuner)
+            var lastPercent = -1L
+            val handle = top.stevezmt.calsync.llm.LlamaCpp.getOrInitHandle(context, uri, 2048, draftUri = settings.aiDraftModelUri, promptPrefix = promptPrefix()) { copied, total ->
+                // only when the provider cannot be mapped directly and the model is copied
+                val percent = if (total > 0) copied * 100 / total else -1L
+                if (percent >= lastPercent + 10) {
+                    lastPercent = percent
+                    NotificationUtils.sendDebugLog(context, "[AI] 正在复制模型 $percent%（${copied shr 20}/${total shr 20} MB）")
                 }
-                try {
-                    val short = if (raw.length > 800) raw.take(800) + "..." else raw
-                    NotificationUtils.sendDebugLog(context, "[AI raw] $short")
-                } catch (_: Throwable) {}
-
-                val json = extractFirstJsonObject(raw) ?: return null
-                parseAiJsonToResult(json)
-            } catch (t: Throwable) {
-                Log.w(TAG, "AI GGUF parse failed: ${t.message}")
-                try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
-                null
             }
+            if (handle == 0L) {
+                NotificationUtils.sendDebugLog(context, "[AI] 模型加载失败：handle=0")
+                return 0L
+            }
+            val state = top.stevezmt.calsync.llm.LlamaCpp.getModelState()
+            NotificationUtils.sendDebugLog(context, "[AI] 模型就绪，threads=${state["nThreads"]}/${state["nThreadsBatch"]}，草稿模型=${state["draftLoaded"]}，开始生成…")
+            return handle
+        }
+
+        private fun toResult(raw: String, baseMillis: Long): ParseResult? {
+            try {
+                val short = if (raw.length > 800) raw.take(800) + "..." else raw
+                NotificationUtils.sendDebugLog(context, "[AI raw] $short")
+            } catch (_: Throwable) {}
+            val json = extractFirstJsonObject(raw) ?: return null
+            return if (slots) parseAiSlots(json)?.let { resolveAiSlots(it, baseMillis) } else parseAiJsonToResult(json)
         }
     }
 
@@ -333,6 +444,82 @@ object DateTimeParser {
         }
     }
 
+    private fun parseAiSlots(json: String): EventSlotSchema.Slots? {
+        return try {
+            val obj = org.json.JSONObject(json)
+            if (obj.length() == 0) return null
+            fun int(key: String): Int? = if (obj.has(key) && !obj.isNull(key)) obj.optInt(key) else null
+            fun str(key: String): String? = if (obj.isNull(key)) null else obj.optString(key, "").takeIf { it.isNotBlank() }
+            EventSlotSchema.Slots(
+                dayOffset = int("dayOffset"),
+                weekOffset = int("weekOffset"),
+                weekday = int("weekday"),
+                month = int("month"),
+                day = int("day"),
+                hour = int("hour"),
+                minute = int("minute"),
+                ampm = str("ampm"),
+                durationMin = int("durationMin"),
+                title = str("title"),
+                location = str("location")
+            )
+        } catch (_: Throwable) {
+            null
+        }
+    }
+
+    /**
+     * Turn the AI slot output into millis relative to [baseMillis].
+     * 日期优先级：月/日 > 星期 > 相对天数；只给了时间时取今天，已过则顺延一天（与规则引擎一致）。
+     */
+    internal fun resolveAiSlots(slots: EventSlotSchema.Slots, baseMillis: Long): ParseResult? {
+        if (!slots.hasDate && slots.hour == null && slots.ampm == null) return null
+        val cal = Calendar.getInstance()
+        cal.timeInMillis = baseMillis
+        val month = slots.month
+        val day = slots.day
+        val weekday = slots.weekday
+        when {
+            month != null && day != null -> {
+                if (month !in 1..12 || day !in 1..31) return null
+                val today = cal.get(Calendar.YEAR) * 10000 + (cal.get(Calendar.MONTH) + 1) * 100 + cal.get(Calendar.DAY_OF_MONTH)
+                // no year in the sentence: a date already past this year means next year
+                if (cal.get(Calendar.YEAR) * 10000 + month * 100 + day < today) cal.add(Calendar.YEAR, 1)
+                cal.set(Calendar.DAY_OF_MONTH, 1)
+                cal.set(Calendar.MONTH, month - 1)
+                cal.set(Calendar.DAY_OF_MONTH, day.coerceAtMost(cal.getActualMaximum(Calendar.DAY_OF_MONTH)))
+            }
+            weekday != null -> {
+                if (weekday !in 1..7) return null
+                // slots count Monday=1 … Sunday=7
+                val target = if (weekday == 7) Calendar.SUNDAY else weekday + 1
+                val weekOffset = slots.weekOffset
+                if (weekOffset == null) {
+                    cal.timeInMillis = nextWeekdayInCalendar(target, baseMillis).timeInMillis
+                } else {
+                    val sinceMonday = (cal.get(Calendar.DAY_OF_WEEK) + 5) % 7
+                    cal.add(Calendar.DAY_OF_MONTH, -sinceMonday + weekOffset * 7 + (weekday - 1))
+                }
+            }
+            slots.dayOffset != null -> cal.add(Calendar.DAY_OF_MONTH, slots.dayOffset)
+        }
+        val pm = slots.ampm == "pm"
+        val hour = slots.hour
+        if (hour != null) {
+            cal.set(Calendar.HOUR_OF_DAY, adjustHourByAmPm(hour, slots.ampm?.uppercase(Locale.ROOT)).coerceIn(0, 23))
+            cal.set(Calendar.MINUTE, (slots.minute ?: 0).coerceIn(0, 59))
+        } else {
+            cal.set(Calendar.HOUR_OF_DAY, if (pm) 19 else 9)
+            cal.set(Calendar.MINUTE, 0)
+        }
+        cal.set(Calendar.SECOND, 0)
+        cal.set(Calendar.MILLISECOND, 0)
+        if (!slots.hasDate && cal.timeInMillis < baseMillis) cal.add(Calendar.DAY_OF_MONTH, 1)
+        val start = cal.timeInMillis
+        val end = slots.durationMin?.takeIf { it > 0 }?.let { start + it * 60_000L }
+        return ParseResult(start, end, slots.title, slots.location)
+    }
+
     private fun extractMillisFromXkTimeResult(result: Any): Long? {
         // Known API from xk-time: getTime() / time: Date
         try {
@@ -380,7 +567,7 @@ object DateTimeParser {
         override fun tryParse(sentence: String): ParseResult? = parseDateTimeInternal(
             null,
             sentence,
-            relativeMap = buildDefaultRelativeTokenMap(),
+            relativeTokens = RelativeTokenMatcher.DEFAULT,
             baseMillis = null,
             preferFutureOpt = null
         )
@@ -388,77 +575,20 @@ object DateTimeParser {
     }
 
     // Rule-based with custom settings context
-    private class RuleBasedStrategyWithContext(private val ctx: android.content.Context): ParsingStrategy {
+    private class RuleBasedStrategyWithContext(private val ctx: android.content.Context, settings: SettingsSnapshot? = null): ParsingStrategy {
+        private val settings = settings ?: SettingsStore.snapshot(ctx)
         override fun name() = "RuleBaseCtx"
         override fun tryParse(sentence: String): ParseResult? {
-            val map = buildRelativeTokenMap(ctx)
-            // read preferFuture tri-state from settings (null=auto, true=prefer future, false=disable)
-            val prefer = SettingsStore.getPreferFutureBoolean(ctx)
-            return parseDateTimeInternal(ctx, sentence, map, baseMillis = null, preferFutureOpt = prefer)
+            val map = RelativeTokenMatcher.get(settings.relativeDateWords)
+            // preferFuture tri-state from settings (null=auto, true=prefer future, false=disable)
+            return parseDateTimeInternal(ctx, sentence, map, baseMillis = null, preferFutureOpt = settings.preferFuture, settings = settings)
         }
         fun tryParseWithBase(sentence: String, baseMillis: Long): ParseResult? {
-            val map = buildRelativeTokenMap(ctx)
-            val prefer = SettingsStore.getPreferFutureBoolean(ctx)
-            return parseDateTimeInternal(ctx, sentence, map, baseMillis, prefer)
+            val map = RelativeTokenMatcher.get(settings.relativeDateWords)
+            return parseDateTimeInternal(ctx, sentence, map, baseMillis, settings.preferFuture, settings)
         }
     }
 
-    private data class RelativeSpec(val offsetDays: Int, val ampm: String?)
-
-    private fun buildRelativeTokenMap(context: android.content.Context): LinkedHashMap<String, RelativeSpec> {
-        // User now inputs tokens in a structured string list in Settings (we still store plain list for compatibility)
-        // Expected format each item: token[:offset[:ampm]] or JSON-like ["今晚":0,pm]; but to keep backward compat we parse heuristically.
-        val rawList = SettingsStore.getRelativeDateWords(context)
-        val map = linkedMapOf<String, RelativeSpec>()
-        for (raw in rawList.sortedByDescending { it.length }) { // prefer longer first
-            val cleaned = raw.trim().trim('[',']',';')
-            // patterns: "今晚":0,pm or 今晚:0:pm or 今晚:0 or 今晚
-            val colonSplit = cleaned.split(':')
-            var token = cleaned
-            var offset = 0
-            var ampm: String? = null
-            try {
-                if (colonSplit.isNotEmpty()) token = colonSplit[0].substringAfter('"').substringBeforeLast('"').ifBlank { colonSplit[0] }
-                if (colonSplit.size >= 2) offset = colonSplit[1].split(',')[0].filter { it.isDigit() || it == '-' }.toIntOrNull() ?: 0
-                // find am/pm marker (am/pm) after comma or third part
-                if (colonSplit.size >= 3) {
-                    ampm = colonSplit[2].lowercase().takeIf { it == "am" || it == "pm" }
-                } else if (cleaned.contains(",pm", true)) ampm = "pm" else if (cleaned.contains(",am", true)) ampm = "am"
-            } catch (_: Exception) {}
-            if (token.isNotBlank()) map[token] = RelativeSpec(offset, ampm)
-        }
-        // defaults if user list empty
-        if (map.isEmpty()) {
-            map["今天"] = RelativeSpec(0,null)
-            map["今晚"] = RelativeSpec(0,"pm")
-            map["明天"] = RelativeSpec(1,null)
-            map["明晚"] = RelativeSpec(1,"pm")
-            map["后天"] = RelativeSpec(2,null)
-            map["大后天"] = RelativeSpec(3,null)
-            map["明早"] = RelativeSpec(1,"am")
-            map["明晨"] = RelativeSpec(1,"am")
-            map["明午"] = RelativeSpec(1,"pm")
-        }
-        return map
-    }
-
-    // Default relative tokens when no Settings context is available (for standalone API)
-    private fun buildDefaultRelativeTokenMap(): LinkedHashMap<String, RelativeSpec> {
-        val map = linkedMapOf<String, RelativeSpec>()
-        // Order matters: prefer specific time-of-day tokens first, then day tokens
-        map["今晚"] = RelativeSpec(0, "pm")
-        map["明晚"] = RelativeSpec(1, "pm")
-        map["下午"] = RelativeSpec(0, "pm")
-        map["上午"] = RelativeSpec(0, "am")
-        map["中午"] = RelativeSpec(0, "pm")
-        map["凌晨"] = RelativeSpec(0, null)
-        map["今天"] = RelativeSpec(0, null)
-        map["明天"] = RelativeSpec(1, null)
-        map["后天"] = RelativeSpec(2, null)
-        map["大后天"] = RelativeSpec(3, null)
-        return map
-    }
-
     // Create Calendar with optional fixed base time
     private fun newCal(baseMillis: Long?): Calendar {
         val c = Calendar.getInstance()
@@ -469,17 +599,17 @@ object DateTimeParser {
     private fun parseDateTimeInternal(
         ctx: android.content.Context?,
         sentence: String,
-        relativeMap: LinkedHashMap<String, RelativeSpec>? = null,
+        relativeTokens: RelativeTokenMatcher.Automaton? = null,
         baseMillis: Long? = null,
         preferFutureOpt: Boolean? = null,
+        settings: SettingsSnapshot? = null,
     ): ParseResult? {
         Log.d(TAG, "parseDateTimeInternal - input: '$sentence'")
         try {
             val now = newCal(baseMillis)
             // -1) Deadline style: "截止到/截至(到) 10月27日( HH:mm)?" -> end at that time (default 23:59), start = end - 30min
             run {
-                val deadRe = Regex("(截止(?:到)?|截至(?:到)?)\\s*(?:于)?\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?(?:\\s*(上午|下午|中午|晚上|凌晨)?\\s*([0-2]?\\d)(?:$colon([0-5]?\\d))?)?")
-                val dm = deadRe.find(sentence)
+                val dm = DateTimeRules.deadlineShort.find(sentence)
                 if (dm != null) {
                     val mo = toArabic(dm.groupValues[2])
                     val dd = toArabic(dm.groupValues[3])
@@ -502,7 +632,7 @@ object DateTimeParser {
                     endCal.set(Calendar.SECOND, 0)
                     val end = endCal.timeInMillis
                     val start = end - 30 * 60 * 1000L
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     return ParseResult(start, end, t ?: "截止", loc)
                 }
             }
@@ -519,7 +649,7 @@ object DateTimeParser {
             // --- (A) 相对偏移解析 参考 xk-time TimeNLP 中 normBaseRelated / normBaseTimeRelated / normCurRelated 的语义思想 ---
             // 支持: 3天后 / 2小时后 / 1个半小时后 / 30分钟后 / 10分钟30秒后 / 半小时后 / 45秒后 / 2天3小时20分钟后
             // 以及 X天前 / X小时前 / X分钟前 / X秒前
-            parseRelativeOffset(ctx, sentence, baseMillis)?.let { return it }
+            parseRelativeOffset(ctx, sentence, baseMillis, settings)?.let { return it }
 
             // Chaoxing style countdown: 还有24个小时 / 还有2天3小时 / 还有90分钟 / 还有1天2小时30分钟5秒
             // Use a simple, balanced regex to quickly detect countdown phrases (we parse units sequentially below).
@@ -540,11 +670,10 @@ object DateTimeParser {
                         remain = remain.removeRange(idx, end)
                     }
                 }
-                extract(Regex("还有([一二三四五六七八九十百零0-9]+)个?天")) { days = it }
-                extract(Regex("([一二三四五六七八九十百零0-9]+)个?小时")) { hours = it }
-                extract(Regex("([一二三四五六七八九十百零0-9]+)个?分" +
-                        "钟?")) { minutes = it }
-                extract(Regex("([一二三四五六七八九十百零0-9]+)个?秒")) { seconds = it }
+                extract(DateTimeRules.countdownDays) { days = it }
+                extract(DateTimeRules.countdownHours) { hours = it }
+                extract(DateTimeRules.countdownMinutes) { minutes = it }
+                extract(DateTimeRules.countdownSeconds) { seconds = it }
                 // 还有24个小时 -> days=0 hours=24
                 if (days + hours + minutes + seconds > 0) {
                     Log.d(TAG, "countdown detected: days=$days hours=$hours minutes=$minutes seconds=$seconds")
@@ -555,7 +684,7 @@ object DateTimeParser {
                         add(Calendar.SECOND, seconds)
                     }
                     val start = deadline.timeInMillis - 30*60*1000L // arbitrary start: deadline 前 30 分钟
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     val title = t ?: "截止" // Provide a neutral title if none
                     Log.d(TAG, "countdown parsed: start=${Date(start)} end=${Date(deadline.timeInMillis)} title=$title loc=$loc")
                     return ParseResult(start, deadline.timeInMillis, title, loc)
@@ -566,10 +695,8 @@ object DateTimeParser {
             // 开始时间：2025-09-16 10:49
             // 结束时间：2025-09-19 10:49
             try {
-                val startRe = Regex("开始(?:时间)?\\s*[:：]\\s*(\\d{4}-\\d{1,2}-\\d{1,2})\\s*([0-2]?\\d[:：][0-5]\\d)")
-                val endRe = Regex("结束(?:时间)?\\s*[:：]\\s*(\\d{4}-\\d{1,2}-\\d{1,2})\\s*([0-2]?\\d[:：][0-5]\\d)")
-                val sMatch = startRe.find(sentence)
-                val eMatch = endRe.find(sentence)
+                val sMatch = DateTimeRules.explicitStart.find(sentence)
+                val eMatch = DateTimeRules.explicitEnd.find(sentence)
                 if (sMatch != null && eMatch != null) {
                     val sDate = sMatch.groupValues[1].trim()
                     val sTime = sMatch.groupValues[2].replace('：', ':').trim()
@@ -590,7 +717,7 @@ object DateTimeParser {
                         val endDt = fmt.parse(endStr)
                         if (startDt != null && endDt != null) {
                             Log.d(TAG, "explicit datetime range parsed: start=$startStr end=$endStr")
-                            val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                            val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                             return ParseResult(startDt.time, endDt.time, t, loc)
                         }
                     } catch (e: Exception) {
@@ -608,7 +735,7 @@ object DateTimeParser {
                     val fmt = SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault())
                     val dt = fmt.parse(dtStr)
                     if (dt != null) {
-                        val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                        val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                         return ParseResult(dt.time, dt.time + 60 * 60 * 1000L, t, loc)
                     }
                 }
@@ -618,7 +745,7 @@ object DateTimeParser {
 
             // 0.5) 截止到/至 XX-月-日( 时间)? -> 采用当天 23:59（若无时间），作为 end；start 取 end - 1h
             run {
-                val deadlineRe = Regex("截止(?:到|至)\\s*(?:(\\d{4})年)?\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?\\s*(?:(上午|下午|中午|晚上|凌晨)?\\s*([0-9]{1,2})(?:$colon([0-5]?\\d))?点?)?")
+                val deadlineRe = DateTimeRules.deadlineFull
                 val m = deadlineRe.find(sentence)
                 if (m != null) {
                     val yearStr = m.groupValues.getOrNull(1)
@@ -646,7 +773,7 @@ object DateTimeParser {
                     }
                     val end = cal.timeInMillis
                     val start = end - 60*60*1000L
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     val title = t ?: "截止"
                     return ParseResult(start, end, title, loc)
                 }
@@ -654,8 +781,7 @@ object DateTimeParser {
 
             // 0.7) 相对月份 + 日: 上/本/这/下 个月X日
             run {
-                val relMonthDayRe = Regex("(上|本|这|下)个?月\\s*([0-9一二三四五六七八九十零两]{1,2})[日号]?")
-                val rm = relMonthDayRe.find(sentence)
+                val rm = DateTimeRules.relativeMonthDay.find(sentence)
                 if (rm != null) {
                     val flag = rm.groupValues.getOrNull(1) ?: "本"
                     val dayStr = rm.groupValues.getOrNull(2)
@@ -675,7 +801,7 @@ object DateTimeParser {
                     cal.set(Calendar.MINUTE, 0)
                     cal.set(Calendar.SECOND, 0)
                     run {
-                        val timeM = timePattern.matcher(sentence)
+                        val timeM = DateTimeRules.timePattern.matcher(sentence)
                         var chosenHour: Int? = null
                         var chosenMinute = 0
                         while (timeM.find()) {
@@ -684,7 +810,7 @@ object DateTimeParser {
                             val hourStr = timeM.group(2)
                             val minStr = timeM.group(3)
                             val hasIndicator = ampm != null || minStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-                            val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+                            val hour = hourStr?.let { parseHour(it) } ?: continue
                             val hourEnd = try { timeM.end(2) } catch (_: Throwable) { -1 }
                             val nextCh = if (hourEnd in 0 until sentence.length) sentence[hourEnd] else null
                             val followedByDigitWithoutDelimiter = nextCh?.isDigit() == true && !matched.contains(":") && !matched.contains("：") && !matched.contains("点")
@@ -700,14 +826,14 @@ object DateTimeParser {
                     }
                     val start = cal.timeInMillis
                     val end = start + 60 * 60 * 1000L
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     Log.d(TAG, "relative month+day matched: ${Date(start)}")
                     return ParseResult(start, end, t, loc)
                 }
             }
             // 1) Try explicit month/day range
             run {
-                val range = monthDayRangePattern.matcher(sentence)
+                val range = DateTimeRules.monthDayRangePattern.matcher(sentence)
                 while (range.find()) {
                     val matchedStr = range.group()
                     // 若使用了“到”作为分隔，但右侧不包含“月/日/号”，多半是“到XX教室/地点”，忽略该 range
@@ -735,14 +861,14 @@ object DateTimeParser {
                     endCal.set(Calendar.MINUTE, 0)
                     endCal.set(Calendar.SECOND, 0)
 
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     Log.d(TAG, "month/day range matched: start=${Date(startCal.timeInMillis)} end=${Date(endCal.timeInMillis)}")
                     return ParseResult(startCal.timeInMillis, endCal.timeInMillis, t, loc)
                 }
             }
 
             // 2) Try month/day
-            val m = monthDayPattern.matcher(sentence)
+            val m = DateTimeRules.monthDayPattern.matcher(sentence)
             if (m.find()) {
                 val month = toArabic(m.group(1))
                 val day = toArabic(m.group(2))
@@ -755,7 +881,7 @@ object DateTimeParser {
                 cal.set(Calendar.SECOND, 0)
                 // try find a valid time-of-day in same sentence (must have indicator; skip false positives like "10月"/"下午104")
                 run {
-                    val timeM = timePattern.matcher(sentence)
+                    val timeM = DateTimeRules.timePattern.matcher(sentence)
                     var chosenHour: Int? = null
                     var chosenMinute = 0
                     while (timeM.find()) {
@@ -764,7 +890,7 @@ object DateTimeParser {
                         val hourStr = timeM.group(2)
                         val minStr = timeM.group(3)
                         val hasIndicator = ampm != null || minStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-                        val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+                        val hour = hourStr?.let { parseHour(it) } ?: continue
                         val hourEnd = try { timeM.end(2) } catch (_: Throwable) { -1 }
                         val nextCh = if (hourEnd in 0 until sentence.length) sentence[hourEnd] else null
                         val followedByDigitWithoutDelimiter = nextCh?.isDigit() == true && !matched.contains(":") && !matched.contains("：") && !matched.contains("点")
@@ -792,13 +918,13 @@ object DateTimeParser {
                     }
                 }
                 val end = cal.timeInMillis + 60 * 60 * 1000L
-                val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                 Log.d(TAG, "month/day matched: ${Date(cal.timeInMillis)}")
                 return ParseResult(cal.timeInMillis, end, t, loc)
             }
 
             // 3) weekday + time
-            val w = weekdayTimePattern.matcher(sentence)
+            val w = DateTimeRules.weekdayTimePattern.matcher(sentence)
             if (w.find()) {
                 val dayToken = w.group(1)
                 val hourStr = w.group(2)
@@ -813,7 +939,7 @@ object DateTimeParser {
                         next.set(Calendar.MINUTE, minute)
                         next.set(Calendar.SECOND, 0)
                         val start = next.timeInMillis
-                        val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                        val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                         Log.d(TAG, "weekday matched: start=${Date(start)}")
                         return ParseResult(start, start + 60 * 60 * 1000L, t, loc)
                     }
@@ -823,14 +949,14 @@ object DateTimeParser {
             // 4) time only — scan for first valid time (must have indicator and valid hour)
             val skipTimeOnly = containsWeekScopedHint(sentence)
             if (!skipTimeOnly) {
-                val timeOnlyM = timePattern.matcher(sentence)
+                val timeOnlyM = DateTimeRules.timePattern.matcher(sentence)
                 while (timeOnlyM.find()) {
                     val matched = timeOnlyM.group()
                     val ampm = timeOnlyM.group(1)
                     val hourStr = timeOnlyM.group(2)
                     val minStr = timeOnlyM.group(3)
                     val hasIndicator = ampm != null || minStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-                    val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+                    val hour = hourStr?.let { parseHour(it) } ?: continue
                     // Guard against partial numeric like "下午104" -> skip if hour directly followed by another digit and no delimiter
                     val hourEnd = try { timeOnlyM.end(2) } catch (_: Throwable) { -1 }
                     val nextCh = if (hourEnd in 0 until sentence.length) sentence[hourEnd] else null
@@ -838,7 +964,7 @@ object DateTimeParser {
                     if (!hasIndicator || hour !in 0..23 || followedByDigitWithoutDelimiter) continue
                     val minute = minStr?.toIntOrNull() ?: 0
                     val cal = newCal(baseMillis)
-                    val dayOffset = resolveRelativeDayOffset(relativeMap, sentence)
+                    val dayOffset = relativeTokens?.scan(sentence)?.dayOffset ?: 0
                     if (dayOffset != 0) cal.add(Calendar.DAY_OF_MONTH, dayOffset)
                     cal.set(Calendar.HOUR_OF_DAY, adjustHourByAmPm(hour, ampm))
                     cal.set(Calendar.MINUTE, minute)
@@ -854,27 +980,27 @@ object DateTimeParser {
                             }
                         }
                     }
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     Log.d(TAG, "time-only matched: ${Date(cal.timeInMillis)}")
                     return ParseResult(cal.timeInMillis, cal.timeInMillis + 60 * 60 * 1000L, t, loc)
                 }
             }
 
             // 5) relative tokens mapping
-            if (relativeMap != null) {
+            if (relativeTokens != null) {
                 // Guard: 如果句子中包含显式的“(下下周|下周|本周|这周)+周几”，则优先交由后面的“本周/下周 family”处理，
                 // 避免这里因为匹配到“下午/上午/今晚”等相对词而将日期错误地解析为今天。
-                val hasExplicitWeekday = Regex("(?:下下周|下周|本周|这周)(?:周|星期)?[一二三四五六日天]").containsMatchIn(sentence)
+                val hasExplicitWeekday = DateTimeRules.weekScopedWeekday.containsMatchIn(sentence)
                 if (!hasExplicitWeekday) {
                     // 合并所有命中的相对词：日偏移取最大值，时间段(am/pm)取显式时间优先，否则取第一个提供 am/pm 的相对词
-                    val matches = relativeMap.entries.filter { sentence.contains(it.key) }
-                    if (matches.isNotEmpty()) {
+                    val matches = relativeTokens.scan(sentence)
+                    if (matches != null) {
                         val cal = newCal(baseMillis)
-                        val dayOffset = matches.maxOf { it.value.offsetDays }
+                        val dayOffset = matches.maxOffset
                         cal.add(Calendar.DAY_OF_MONTH, dayOffset)
 
                         // 查找句中的显式时间
-                        val t2 = timePattern.matcher(sentence)
+                        val t2 = DateTimeRules.timePattern.matcher(sentence)
                         var hour: Int? = null
                         var minute = 0
                         var explicitAmpm: String? = null
@@ -884,7 +1010,7 @@ object DateTimeParser {
                             val hourStr = t2.group(2)
                             val minStr = t2.group(3)
                             val hasIndicator = ampm2 != null || minStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-                            val hCand = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+                            val hCand = hourStr?.let { parseHour(it) } ?: continue
                             // Guard: skip partial numeric matches like "下午104"
                             val hgEnd = try { t2.end(2) } catch (_: Throwable) { -1 }
                             val nextC = if (hgEnd in 0 until sentence.length) sentence[hgEnd] else null
@@ -898,7 +1024,7 @@ object DateTimeParser {
 
                         // 如无显式时间，依据相对词提供的 am/pm 设定默认时间
                         if (hour == null) {
-                            val ampmFromToken = matches.firstOrNull { it.value.ampm != null }?.value?.ampm
+                            val ampmFromToken = matches.ampm
                             hour = when (ampmFromToken) {
                                 "pm" -> 19
                                 "am" -> 9
@@ -906,7 +1032,7 @@ object DateTimeParser {
                             }
                         }
 
-                        val ampmEffective = explicitAmpm ?: matches.firstOrNull { it.value.ampm != null }?.value?.ampm
+                        val ampmEffective = explicitAmpm ?: matches.ampm
                         val finalHour = if (explicitAmpm != null) adjustHourByAmPm(hour, explicitAmpm) else when (ampmEffective) {
                             "pm" -> if (hour < 12) hour + 12 else hour
                             "am" -> if (hour == 12) 0 else hour
@@ -915,8 +1041,8 @@ object DateTimeParser {
                         cal.set(Calendar.HOUR_OF_DAY, finalHour)
                         cal.set(Calendar.MINUTE, minute)
                         cal.set(Calendar.SECOND, 0)
-                        val (t, loc) = extractTitleAndLocation(ctx, sentence)
-                        Log.d(TAG, "relative tokens matched ${matches.map { it.key }} -> ${Date(cal.timeInMillis)}")
+                        val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
+                        Log.d(TAG, "relative tokens matched ${matches.tokens()} -> ${Date(cal.timeInMillis)}")
                         return ParseResult(cal.timeInMillis, cal.timeInMillis + 60 * 60 * 1000L, t, loc)
                     }
                 }
@@ -941,7 +1067,7 @@ object DateTimeParser {
                     wk.set(Calendar.SECOND, 0)
                     // 若句子包含明确的上午/下午/晚上/具体时间，按语义调整
                     run {
-                        val tm = timePattern.matcher(sentence)
+                        val tm = DateTimeRules.timePattern.matcher(sentence)
                         var chosenHour: Int? = null
                         var chosenMinute = 0
                         var ampm: String? = null
@@ -949,7 +1075,7 @@ object DateTimeParser {
                             ampm = tm.group(1)
                             val hourStr = tm.group(2)
                             val minStr = tm.group(3)
-                            val h = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+                            val h = hourStr?.let { parseHour(it) } ?: continue
                             chosenHour = h
                             chosenMinute = minStr?.toIntOrNull() ?: 0
                             break
@@ -965,7 +1091,7 @@ object DateTimeParser {
                     }
                     val start = wk.timeInMillis
                     val end = start + 60*60*1000L
-                    val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                    val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                     Log.d(TAG, "weekend matched: ${Date(start)}")
                     return ParseResult(start, end, t, loc)
                 }
@@ -985,8 +1111,7 @@ object DateTimeParser {
                 // check weekday token
                 val weekdayMap = mapOf("一" to Calendar.MONDAY, "二" to Calendar.TUESDAY, "三" to Calendar.WEDNESDAY, "四" to Calendar.THURSDAY, "五" to Calendar.FRIDAY, "六" to Calendar.SATURDAY, "日" to Calendar.SUNDAY, "天" to Calendar.SUNDAY)
                 var targetCal = weekCal
-                val wkRegex = Regex("(?:下周|本周|这周)([一二三四五六日天])")
-                val wkMatch = wkRegex.find(sentence)
+                val wkMatch = DateTimeRules.weekScopedWeekdayDay.find(sentence)
                 if (wkMatch != null) {
                     val dow = weekdayMap[wkMatch.groupValues[1]]
                     if (dow != null) {
@@ -1003,7 +1128,7 @@ object DateTimeParser {
                     }
                 }
                 // time
-                val t2 = timePattern.matcher(sentence)
+                val t2 = DateTimeRules.timePattern.matcher(sentence)
                 var hour = 9
                 var minute = 0
                 var ampmToken: String? = null
@@ -1011,13 +1136,13 @@ object DateTimeParser {
                     ampmToken = t2.group(1)
                     val hourStr = t2.group(2)
                     minute = t2.group(3)?.toIntOrNull() ?: 0
-                    hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: 9
+                    hour = hourStr?.let { parseHour(it) } ?: 9
                 }
                 val finalHour = adjustHourByAmPm(hour, ampmToken ?: if (sentence.contains("晚上")) "晚上" else if (sentence.contains("早")|| sentence.contains("上午")) "上午" else null)
                 targetCal.set(Calendar.HOUR_OF_DAY, finalHour)
                 targetCal.set(Calendar.MINUTE, minute)
                 targetCal.set(Calendar.SECOND, 0)
-                val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                 Log.d(TAG, "next-week matched: ${Date(targetCal.timeInMillis)}")
                 return ParseResult(targetCal.timeInMillis, targetCal.timeInMillis + 60*60*1000L, t, loc)
             }
@@ -1026,7 +1151,7 @@ object DateTimeParser {
         }
         // 兜底：通知/公告/通告/安排/提醒 等管理类信息，可能不含明确时间；为了给用户一个提醒，默认从“现在+10分钟”开始 1 小时
         run {
-            if (Regex("(通知|公告|通告|安排|提醒)").containsMatchIn(sentence)) {
+            if (DateTimeRules.noticeWords.containsMatchIn(sentence)) {
                 // 保护：若是仅地点/教室变更、且没有明确时间，不应创建事件（否则会误报）
                 if (shouldSkipTimeNLPFallback(sentence)) {
                     Log.d(TAG, "fallback notice skipped due to room-change without time")
@@ -1036,7 +1161,7 @@ object DateTimeParser {
                 now.add(Calendar.MINUTE, 10)
                 val start = now.timeInMillis
                 val end = start + 60*60*1000L
-                val (t, loc) = extractTitleAndLocation(ctx, sentence)
+                val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
                 Log.d(TAG, "fallback notice matched: ${Date(start)}")
                 return ParseResult(start, end, t ?: "通知", loc)
             }
@@ -1049,32 +1174,19 @@ object DateTimeParser {
         if (sentence.contains("周末") || sentence.contains("本周末") || sentence.contains("这周末") || sentence.contains("这个周末")) return true
         if (sentence.contains("下下周")) return true
         if (sentence.contains("下周") || sentence.contains("本周") || sentence.contains("这周")) return true
-        return Regex("(?:下下周|下周|本周|这周)(?:周|星期)?[一二三四五六日天]").containsMatchIn(sentence)
-    }
-
-    private fun resolveRelativeDayOffset(relativeMap: LinkedHashMap<String, RelativeSpec>?, sentence: String): Int {
-        if (relativeMap == null) return 0
-        val matches = relativeMap.entries.filter { sentence.contains(it.key) && it.value.offsetDays != 0 }
-        if (matches.isEmpty()) return 0
-        val positives = matches.map { it.value.offsetDays }.filter { it > 0 }
-        val maxPositive = positives.maxOrNull()
-        if (maxPositive != null) return maxPositive
-        val negatives = matches.map { it.value.offsetDays }.filter { it < 0 }
-        val minNegative = negatives.minOrNull()
-        if (minNegative != null) return minNegative
-        return 0
+        return DateTimeRules.weekScopedWeekday.containsMatchIn(sentence)
     }
 
     // Strict check: does sentence contain a safe time token (with indicator and without trailing digits)?
     private fun hasSafeTimeToken(sentence: String): Boolean {
-        val m = timePattern.matcher(sentence)
+        val m = DateTimeRules.timePattern.matcher(sentence)
         while (m.find()) {
             val matched = m.group()
             val ampm = m.group(1)
             val hourStr = m.group(2)
             val minStr = m.group(3)
             val hasIndicator = ampm != null || minStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
-            val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: continue
+            val hour = hourStr?.let { parseHour(it) } ?: continue
             val hourEnd = try { m.end(2) } catch (_: Throwable) { -1 }
             val nextCh = if (hourEnd in 0 until sentence.length) sentence[hourEnd] else null
             val followedByDigitWithoutDelimiter = nextCh?.isDigit() == true && !matched.contains(":") && !matched.contains("：") && !matched.contains("点")
@@ -1085,23 +1197,23 @@ object DateTimeParser {
 
     private fun looksLikeRoomChange(sentence: String): Boolean {
         // e.g., "下午104的课挪至207进行" / "原104教室的课改到207教室"
-        if (!Regex("(挪|改|调整|换|移).{0,8}(至|到)").containsMatchIn(sentence)) return false
-        if (!Regex("(教室|机房|实验室|报告厅|会议室|课)").containsMatchIn(sentence)) return false
+        if (!DateTimeRules.roomChangeVerb.containsMatchIn(sentence)) return false
+        if (!DateTimeRules.roomChangePlace.containsMatchIn(sentence)) return false
         // avoid matching obvious date phrases
-        if (monthDayPattern.matcher(sentence).find()) return false
+        if (DateTimeRules.monthDayPattern.matcher(sentence).find()) return false
         return true
     }
 
     // 解析相对偏移: 将『X天后』、『2小时30分钟后』等转为绝对时间 (start=end-1h 默认)；返回 null 表示不匹配
-    private fun parseRelativeOffset(ctx: android.content.Context?, sentence: String, baseMillis: Long?): ParseResult? {
+    private fun parseRelativeOffset(ctx: android.content.Context?, sentence: String, baseMillis: Long?, settings: SettingsSnapshot? = null): ParseResult? {
         // 触发词: 后, 之后, 以后, 前, 之前, 以前
         if (!sentence.contains("后") && !sentence.contains("前")) return null
         // 快速正则: 捕获形如 2天3小时20分钟10秒后 / 1个半小时后 / 半小时后
-        val tailMatcher = Regex("(后|之后|以后|前|之前|以前)").find(sentence) ?: return null
+        val tailMatcher = DateTimeRules.relativeDirection.find(sentence) ?: return null
         val directionWord = tailMatcher.value
         val direction = if (directionWord.contains("后") || directionWord.contains("之后") || directionWord.contains("以后")) 1 else -1
         // 抽取单位链
-        val unitRegex = Regex("((?:[一二三四五六七八九十百零两0-9]+)?个?半|[一二三四五六七八九十百零两0-9]+|半)个?(年|个月|月|周|星期|天|日|小时|分钟|分|秒)")
+        val unitRegex = DateTimeRules.relativeUnit
         val segment = sentence.substring(0, tailMatcher.range.first + tailMatcher.value.length)
         val matches = unitRegex.findAll(segment).toList()
         if (matches.isEmpty()) return null
@@ -1112,7 +1224,7 @@ object DateTimeParser {
             if (r.endsWith("半")) { half = true; r = r.removeSuffix("半") }
             val value = when {
                 r == "半" || r.isBlank() -> 0.5
-                r.matches(Regex("[0-9]+")) -> r.toDouble()
+                DateTimeRules.isAsciiDigits(r) -> r.toDouble()
                 else -> toArabic(r).toDouble()
             }
             return value + if (half) 0.5 else 0.0
@@ -1142,7 +1254,7 @@ object DateTimeParser {
         val base = newCal(baseMillis)
         val target = base.timeInMillis + direction * totalMillis
         val start = if (direction > 0) target - 60 * 60 * 1000L else target // 未来: 以截止视角, 过去: 直接事件时刻
-        val (t, loc) = extractTitleAndLocation(ctx, sentence)
+        val (t, loc) = extractTitleAndLocation(ctx, sentence, settings)
         val title = t ?: if (direction > 0) "提醒" else "事件"
         return ParseResult(start, target, title, loc)
     }
@@ -1172,59 +1284,24 @@ object DateTimeParser {
         return cal
     }
 
-    private fun toArabic(s: String?): Int {
-        if (s == null) return 0
-        val trimmed = s.trim()
-        // try parse as integer first
-        try {
-            return trimmed.toInt()
-        } catch (_: Exception) {
-        }
-        // chinese numerals basic mapping for 0-99
-        val map = mapOf('零' to 0, '一' to 1, '二' to 2, '三' to 3, '四' to 4, '五' to 5, '六' to 6, '七' to 7, '八' to 8, '九' to 9)
-        var result = 0
-        var temp = 0
-        var lastUnit = 1
-        for (ch in trimmed) {
-            when (ch) {
-                '十' -> {
-                    if (temp == 0) temp = 1
-                    temp *= 10
-                    lastUnit = 10
-                }
-                '百' -> {
-                    if (temp == 0) temp = 1
-                    temp *= 100
-                    lastUnit = 100
-                }
-                else -> {
-                    val v = map[ch] ?: 0
-                    if (lastUnit > 1) {
-                        temp += v * lastUnit
-                        lastUnit = 1
-                    } else {
-                        temp = temp * 10 + v
-                    }
-                }
-            }
-        }
-        if (temp != 0) result += temp
-        return if (result == 0) trimmed.filter { it.isDigit() }.toIntOrNull() ?: 0 else result
-    }
+    // Hour group is either ASCII digits or Chinese numerals (see DateTimeRules.timePattern)
+    private fun parseHour(hourStr: String): Int = if (DateTimeRules.isAsciiDigits(hourStr)) hourStr.toInt() else toArabic(hourStr)
+
+    private fun toArabic(s: String?): Int = if (s == null) 0 else ChineseNumerals.parse(s)
 
     // Try to extract a concise title and a location from the sentence.
     // Heuristics:
     // - If sentence contains keywords like "地点" or "地点:", take following chunk as location
     // - If sentence contains a short noun phrase following a time verb (开展/举办/召集/报名/招/招募/开展/进行/开展), treat that noun as title
     // - Otherwise fallback to first few meaningful words (exclude words like 请、注意、@全体成员)
-    internal fun extractTitleAndLocation(context: android.content.Context?, sentence: String?): Pair<String?, String?> {
+    internal fun extractTitleAndLocation(context: android.content.Context?, sentence: String?, settings: SettingsSnapshot? = null): Pair<String?, String?> {
         if (sentence.isNullOrBlank()) return Pair(null, null)
 
         var title: String? = null
         var location: String? = null
 
         if (context != null) {
-            val engine = SettingsStore.getEventParsingEngine(context)
+            val engine = settings?.eventParsingEngine ?: SettingsStore.getEventParsingEngine(context)
             if (engine == EventParseEngine.ML_KIT) {
                 val res = MLKitStrategy(context).extractTitleAndLocation(sentence)
                 title = res.first
@@ -1242,13 +1319,13 @@ object DateTimeParser {
 
         // location patterns（在原文上）
         if (location == null) {
-            val locRegex = Regex("(?:地点|地址|场地|地点：|地点:|位置|集合地点)\\s*[:：]?\\s*([\\u4e00-\\u9fa5A-Za-z0-9\\-—–,，。、\\s]{2,60})")
+            val locRegex = DateTimeRules.locationLabel
             val locMatch = locRegex.find(sentence)
             if (locMatch != null) {
                 location = locMatch.groupValues.getOrNull(1)?.trim()?.trimEnd('。', '，', ',')
             } else {
                 // Also handle '到/在 XX教室|机房|实验室|报告厅|会议室' 模式
-                val locRegex2 = Regex("(?:到|在|于)\\s*([A-Za-z0-9\\-]{1,8}[A-Za-z]?\\d{0,4}|[\\u4e00-\\u9fa5A-Za-z0-9\\-]{1,20})\\s*(教室|机房|实验室|报告厅|会议室|办公室)")
+                val locRegex2 = DateTimeRules.locationRoomSuffix
                 val m2 = locRegex2.find(sentence)
                 if (m2 != null) {
                     val b = m2.groupValues.getOrNull(1)?.trim() ?: ""
@@ -1260,12 +1337,7 @@ object DateTimeParser {
         }
         // 额外：'到XX教室' / '到XX机房' / '到教室XX' / '在21B6教室' 模式提取
         if (location.isNullOrBlank()) {
-            val toRoom = Regex("到\\s*([A-Za-z0-9\\-]{1,8}\\s*[\\u4e00-\\u9fa5]{0,6}?教室)").find(sentence)
-                ?: Regex("到\\s*(教室[0-9A-Za-z\\-]{1,8})").find(sentence)
-                ?: Regex("在\\s*([0-9A-Za-z\\-]{1,8}\\s*教室)").find(sentence)
-                ?: Regex("在\\s*(教室[0-9A-Za-z\\-]{1,8})").find(sentence)
-                ?: Regex("到\\s*([A-Za-z0-9]{1,8}\u0020?机房)").find(sentence)
-                ?: Regex("(?:到|在|于)\\s*([\\u4e00-\\u9fa5A-Za-z0-9\\-]{1,12}?办公室)").find(sentence)
+            val toRoom = DateTimeRules.locationToRoom.firstNotNullOfOrNull { it.find(sentence) }
             if (toRoom != null) {
                 location = toRoom.groupValues.getOrNull(1)?.trim()
             }
@@ -1288,7 +1360,7 @@ object DateTimeParser {
                     if (jiebaCands.isNotEmpty()) {
                         for (c in jiebaCands) {
                             val cand = c.trim()
-                            if (cand.length in 2..60 && !cand.matches(Regex("^[0-9\\-:年月日点]+$"))) {
+                            if (cand.length in 2..60 && !cand.matches(DateTimeRules.numericDateOnly)) {
                                 title = cand
                                 break
                             }
@@ -1302,19 +1374,19 @@ object DateTimeParser {
 
         // Strengthen: if cleaned sentence contains common event nouns, prefer those (e.g., 班会/会议/考试/答辩/讲座/活动/团课/聚会/晚会)
         try {
-            val eventPat = Regex("([\\u4e00-\\u9fa5A-Za-z0-9]{0,12}?)(班会|会议|考试|答辩|讲座|研讨会|活动|团课|聚餐|聚会|晚会)")
+            val eventPat = DateTimeRules.eventNoun
             val match = eventPat.find(cleanedForTitle)
             if (match != null) {
                 val cand = (match.groupValues.getOrNull(1)?.trim() ?: "") + match.groupValues.getOrNull(2).orEmpty()
                 val c2 = cand.trim().trimEnd('。','，',',','：',':')
                 if (c2.length in 2..40) {
                     // If current title already has a strong event word (体检/接种/疫苗/考试/讲座/会议/答辩/汇报/评审)，不要被泛化词“活动”覆盖
-                    val hasStrongEventWord = title?.let { Regex("(体检|接种|疫苗|考试|讲座|研讨会|会议|答辩|汇报|评审)").containsMatchIn(it) } ?: false
+                    val hasStrongEventWord = title?.let { DateTimeRules.strongEventWord.containsMatchIn(it) } ?: false
                     val candSuffix = match.groupValues.getOrNull(2) ?: ""
                     val isGenericActivity = candSuffix == "活动"
                     val looksLikeLocationActivity = isGenericActivity && (sentence.contains("活动中心") || sentence.contains("学生活动中心"))
                     // Current has suffix?
-                    val hasEventSuffix = title?.let { Regex("(班会|会议|考试|答辩|讲座|活动|团课|聚餐|聚会|晚会)").containsMatchIn(it) } ?: false
+                    val hasEventSuffix = title?.let { DateTimeRules.eventSuffix.containsMatchIn(it) } ?: false
                     // 覆盖条件：没有强事件词，且不是地点型“活动中心”，且（原本无事件后缀或候选更短更精确）
                     if (!hasStrongEventWord && !looksLikeLocationActivity) {
                         if (!hasEventSuffix || (c2.length > (title?.length ?: 0) && c2.length <= 40)) {
@@ -1327,16 +1399,16 @@ object DateTimeParser {
 
         // title heuristics: look for verb + noun patterns
         run {
-            val verbNoun = Regex("(举办|召集|报名|招募|招|进行|开展|通知|请|组织|召开|申请|发起|开展本学期第一次)([一-龥A-Za-z0-9]{1,20})")
+            val verbNoun = DateTimeRules.verbNoun
             val vn = verbNoun.find(cleanedForTitle)
             if (vn != null) {
                 val noun = vn.groupValues.getOrNull(2)?.trim().orEmpty()
                 if (noun.isNotBlank()) {
                     // 避免用“请到/在 XX地点”覆盖已有更好的事件名，如“体检”
                     val looksLikeLocationLead = noun.startsWith("到") || noun.startsWith("在") || noun.startsWith("于")
-                    val locHint = Regex("(教室|机房|实验室|报告厅|会议室|体育馆|图书馆|礼堂|餐厅|食堂|医院|卫生院|校医院|门诊|门诊部|办公室)").containsMatchIn(noun)
+                    val locHint = DateTimeRules.locationHint.containsMatchIn(noun)
                     val isLocationish = looksLikeLocationLead || locHint
-                    val hasEventWord = Regex("(会议|开会|班会|团课|考试|答辩|讲座|活动|聚餐|聚会|晚会|汇报|评审|体检|面谈|面试)").containsMatchIn(title ?: "")
+                    val hasEventWord = DateTimeRules.eventWord.containsMatchIn(title ?: "")
                     if (!isLocationish || !hasEventWord) {
                         title = noun
                     }
@@ -1358,14 +1430,14 @@ object DateTimeParser {
         // fallback: try extract short meaningful phrase before location or before time
         if (title == null) {
             // remove leading polite tokens and mentions
-            val s = cleanedForTitle.replace(Regex("@全体成员|@所有人|请大家|各位|各位同学|各位老师|各位班主任|各位学委"), "")
+            val s = cleanedForTitle.replace(DateTimeRules.politeMentions, "")
             // split by punctuation and newlines
-            val parts = s.split(Regex("[，,。.!！?？；;\\n\\r]"))
+            val parts = s.split(DateTimeRules.clauseDelimiters)
             for (p in parts) {
                 val cleaned = p.trim()
-                if (cleaned.length in 2..40 && !Regex("(请|注意|提醒|网址|链接|查看|详情|报名|要求)").containsMatchIn(cleaned)) {
+                if (cleaned.length in 2..40 && !DateTimeRules.titleNoise.containsMatchIn(cleaned)) {
                     // if contains a location marker, skip as title
-                    if (Regex("地点|地址|时间|时间：|时间:").containsMatchIn(cleaned)) continue
+                    if (DateTimeRules.fieldLabel.containsMatchIn(cleaned)) continue
                     // if contains date/time, skip
 //                    if (Regex("\\d{1,2}[:：\\.]\\d{1,2}|上午|下午|中午|晚上|明天|后天|今天|周|星期").containsMatchIn(cleaned)) {
 //                        // still might contain title before time, try split by spaces
@@ -1379,7 +1451,7 @@ object DateTimeParser {
         // If still no title, try common connector patterns like '为XXX' or '是XXX' at sentence tail
         if (title == null) {
             try {
-                val forMatch = Regex("为\\s*([^，,。；;\\n\\r]{2,60})").find(sentence)
+                val forMatch = DateTimeRules.forConnector.find(sentence)
                 if (forMatch != null) {
                     val cand = forMatch.groupValues.getOrNull(1)?.trim()
                     if (!cand.isNullOrBlank()) title = cand
@@ -1391,11 +1463,11 @@ object DateTimeParser {
         if (title == null) {
             try {
                 var lastEnd = -1
-                val tm = timePattern.matcher(cleanedForTitle)
+                val tm = DateTimeRules.timePattern.matcher(cleanedForTitle)
                 while (tm.find()) lastEnd = maxOf(lastEnd, tm.end())
-                val md = monthDayPattern.matcher(cleanedForTitle)
+                val md = DateTimeRules.monthDayPattern.matcher(cleanedForTitle)
                 while (md.find()) lastEnd = maxOf(lastEnd, md.end())
-                val wd = weekdayTimePattern.matcher(cleanedForTitle)
+                val wd = DateTimeRules.weekdayTimePattern.matcher(cleanedForTitle)
                 while (wd.find()) lastEnd = maxOf(lastEnd, wd.end())
                 // also consider explicit '开始'/'结束' timestamps
                 val startIdx = cleanedForTitle.indexOf("开始时间")
@@ -1405,10 +1477,10 @@ object DateTimeParser {
                 if (lastEnd >= 0 && lastEnd < cleanedForTitle.length - 1) {
                     var tail = cleanedForTitle.substring(lastEnd).trim()
                     // drop leading connectors
-                    tail = tail.replaceFirst(Regex("^[\":：\\-—\\s]*(为|是|为期|：|:)") , "").trim()
+                    tail = tail.replaceFirst(DateTimeRules.leadingConnector, "").trim()
                     // cut at punctuation
-                    tail = tail.split(Regex("[，,。.!！?？；;\\n\\r]"))[0].trim()
-                    if (tail.length in 2..60 && !Regex("\\d{1,2}[:：.]\\d{1,2}|上午|下午|中午|晚上|明天|后天|今天|周|星期").containsMatchIn(tail)) {
+                    tail = tail.split(DateTimeRules.clauseDelimiters)[0].trim()
+                    if (tail.length in 2..60 && !DateTimeRules.timeLikeTail.containsMatchIn(tail)) {
                         title = tail.take(60)
                     }
                 }
@@ -1419,7 +1491,7 @@ object DateTimeParser {
         // 最终兜底：若标题为残缺序数（如“本学期第”或仅“第X”），尝试回落为句中出现的强事件词（如 团课/考试/讲座/会议 等）
         run {
             val t = title?.trim()
-            val isOrdinalOnly = t == "本学期第" || (t != null && Regex("^第[一二三四五六七八九十零两0-9]+$").matches(t))
+            val isOrdinalOnly = t == "本学期第" || (t != null && DateTimeRules.ordinalOnly.matches(t))
             if (isOrdinalOnly) {
                 val strong = listOf("团课", "考试", "讲座", "会议", "答辩", "汇报", "评审", "体检", "聚餐", "读书会")
                 val hit = strong.firstOrNull { sentence.contains(it) }
@@ -1437,27 +1509,27 @@ object DateTimeParser {
         // 规则1：若是“调课/挪至/改到/换至 ...”类语义，且不含“安全时间 token”（例如只有“下午/早上”或“104/207”这类不完整数字），则直接跳过回退
         if (looksLikeRoomChange(s) && !hasSafeTimeToken(s)) return true
         // 规则2：较保守的兜底（保持兼容现有行为）：包含调课关键词、没有任何日期时间指示、且出现教室样式 token
-        val roomChange = Regex("(挪至|挪到|改到|改至|换到|换至|调整到|调整至)").containsMatchIn(s)
+        val roomChange = DateTimeRules.roomChangeTarget.containsMatchIn(s)
         val hasDateTime = containsAnyDateTimeToken(s)
-        val hasRoomLike = Regex("(教室|机房|实验室|[A-Za-z]?[0-9]{2,4})").containsMatchIn(s)
+        val hasRoomLike = DateTimeRules.roomLike.containsMatchIn(s)
         return roomChange && !hasDateTime && hasRoomLike
     }
 
     private fun containsAnyDateTimeToken(s: String): Boolean {
         // fast-check tokens
-        if (Regex("(\\d{1,2}[:：][0-5]\\d|上午|下午|中午|晚上|凌晨|周[一二三四五六日天]|星期[一二三四五六日天]|[一二三四五六七八九十百]+月[一二三四五六七八九十]+(日|号)?)").containsMatchIn(s))
+        if (DateTimeRules.anyDateTimeToken.containsMatchIn(s))
             return true
         // also our main patterns
-        if (monthDayPattern.matcher(s).find()) return true
-        if (monthDayRangePattern.matcher(s).find()) return true
-        if (weekdayTimePattern.matcher(s).find()) return true
-        val tm = timePattern.matcher(s)
+        if (DateTimeRules.monthDayPattern.matcher(s).find()) return true
+        if (DateTimeRules.monthDayRangePattern.matcher(s).find()) return true
+        if (DateTimeRules.weekdayTimePattern.matcher(s).find()) return true
+        val tm = DateTimeRules.timePattern.matcher(s)
         while (tm.find()) {
             val matched = tm.group()
             val ampm = tm.group(1)
             val hourStr = tm.group(2)
             val minuteStr = tm.group(3)
-            val hour = hourStr?.let { if (it.matches(Regex("\\d+"))) it.toInt() else toArabic(it) } ?: -1
+            val hour = hourStr?.let { parseHour(it) } ?: -1
             val hasIndicator = ampm != null || minuteStr != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
             if (hasIndicator && hour in 0..23) return true
         }
@@ -1471,36 +1543,35 @@ object DateTimeParser {
         fun rmAll(pattern: Pattern) { s = pattern.matcher(s).replaceAll(" ") }
 
         // 1) 显式开始/结束时间戳
-        rm(Regex("开始(?:时间)?\\s*[:：]\\s*\\d{4}-\\d{1,2}-\\d{1,2}\\s*[0-2]?\\d[:：][0-5]\\d"))
-        rm(Regex("结束(?:时间)?\\s*[:：]\\s*\\d{4}-\\d{1,2}-\\d{1,2}\\s*[0-2]?\\d[:：][0-5]\\d"))
+        rm(DateTimeRules.explicitStartStamp)
+        rm(DateTimeRules.explicitEndStamp)
 
         // 2) 月日范围、月日、周几时间、纯时间
-        rmAll(monthDayRangePattern)
-        rmAll(monthDayPattern)
-        rmAll(weekdayTimePattern)
-        rmAll(timePattern)
+        rmAll(DateTimeRules.monthDayRangePattern)
+        rmAll(DateTimeRules.monthDayPattern)
+        rmAll(DateTimeRules.weekdayTimePattern)
+        rmAll(DateTimeRules.timePattern)
 
         // 3) 时间范围：3点到5点 / 7:30-9:00
-        val colonClass = "[:：]"
-        rm(Regex("([0-9一二三四五六七八九十]{1,2})(?:$colonClass([0-5]?\\d))?点?\\s*(?:到|至|-)\\s*([0-9一二三四五六七八九十]{1,2})(?:$colonClass([0-5]?\\d))?点?"))
+        rm(DateTimeRules.timeRange)
 
         // 4) 相对时间：X天/小时/分钟/秒 后/前
-        rm(Regex("(还有)?[一二三四五六七八九十百零两0-9个半半]+(年|个月|月|周|星期|天|日|小时|分钟|分|秒)([一二三四五六七八九十百零两0-9个半半]*(年|个月|月|周|星期|天|日|小时|分钟|分|秒))*\\s*(后|之前|以后|之后|前)"))
+        rm(DateTimeRules.relativeOffsetPhrase)
         // Chaoxing 倒计时：还有X天/小时/分钟/秒
-        rm(Regex("还有[一二三四五六七八九十百零两0-9个半半]+(天|个?小时|个?分钟|分|个?秒)"))
+        rm(DateTimeRules.countdownPhrase)
 
         // 5) 本周/下周/这周 + 周几
-        rm(Regex("(?:本周|这周|下周)(?:[一二三四五六日天])?"))
+        rm(DateTimeRules.weekScopeToken)
 
         // 6) 单独相对词：今天/明天/后天/大后天/今晚/明晚/今早/明早/中午/下午/上午/晚上/凌晨
-        rm(Regex("今天|明天|后天|大后天|今晚|明晚|今早|明早|中午|下午|上午|晚上|凌晨|本周|这周|下周"))
+        rm(DateTimeRules.relativeDayWord)
 
         // 7) 清理多余空白和分隔符
-        s = s.replace(Regex("[\t\r\n]+"), " ")
-            .replace(Regex("\u3000+"), " ")
-        s = s.replace(Regex("\\s{2,}"), " ").trim()
+        s = s.replace(DateTimeRules.controlWhitespace, " ")
+            .replace(DateTimeRules.ideographicSpace, " ")
+        s = s.replace(DateTimeRules.multiSpace, " ").trim()
         // 去掉可能留下的孤立标点
-        s = s.replace(Regex("^[，,。:：;；]+"), "").replace(Regex("[，,。:：;；]+$"), "")
+        s = s.replace(DateTimeRules.leadingPunct, "").replace(DateTimeRules.trailingPunct, "")
         return s
     }
 
@@ -0,0 +1,107 @@
+package top.stevezmt.calsync
+
+import java.util.regex.Pattern
+
+/**
+ * Precompiled rule table shared by [DateTimeParser].
+ *
+ * 所有规则在类加载时编译一次；Pattern/Regex 均为不可变且线程安全，可在通知处理线程间共享。
+ * 解析路径里不要再写 `Regex("...")` 字面量，新增规则请加到这里。
+ */
+internal object DateTimeRules {
+    // Accept both ASCII colon and fullwidth colon
+    const val colon = "[:：]"
+
+    // ---- sentence splitting ----
+    val sentenceDelimiters = Regex("[。！？.!?；;，,]\\s*")
+
+    // ---- core date/time patterns ----
+    val monthDayPattern: Pattern = Pattern.compile("(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?")
+    // Require end part to have '日/号' and not be followed by letter to avoid matching like '到21B6教室'
+    val monthDayRangePattern: Pattern = Pattern.compile("(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?\\s*[~-至到]+\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月?(\\d{1,2}|[一二三四五六七八九十]+)[日号](?![A-Za-z])")
+    // unified time pattern: optional am/pm token, hour (arabic or chinese numerals), optional minute
+    // Added 今晚 / 明晚 to capture evening context directly so "今晚8点" 不再被误判为上午 8 点
+    val timePattern: Pattern = Pattern.compile("(上午|下午|中午|晚上|凌晨|今晚|明晚)?\\s*([0-9]{1,2}|[一二三四五六七八九十百]+)(?:${colon}([0-5]?\\d))?点?")
+    val weekdayTimePattern: Pattern = Pattern.compile("((?:周|星期)[一二三四五六日天])(?:[上下午]|上午|下午)?\\s*(\\d{1,2})${colon}(\\d{1,2})")
+
+    // ---- countdown (超星): 还有X天 / 还有X个小时 / 还有X分钟 / 还有X秒 ----
+    val countdownDays = Regex("还有([一二三四五六七八九十百零0-9]+)个?天")
+    val countdownHours = Regex("([一二三四五六七八九十百零0-9]+)个?小时")
+    val countdownMinutes = Regex("([一二三四五六七八九十百零0-9]+)个?分钟?")
+    val countdownSeconds = Regex("([一二三四五六七八九十百零0-9]+)个?秒")
+
+    // ---- deadlines / explicit ranges ----
+    val deadlineShort = Regex("(截止(?:到)?|截至(?:到)?)\\s*(?:于)?\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?(?:\\s*(上午|下午|中午|晚上|凌晨)?\\s*([0-2]?\\d)(?:$colon([0-5]?\\d))?)?")
+    val deadlineFull = Regex("截止(?:到|至)\\s*(?:(\\d{4})年)?\\s*(\\d{1,2}|[一二三四五六七八九十百]+)月(\\d{1,2}|[一二三四五六七八九十]+)[日号]?\\s*(?:(上午|下午|中午|晚上|凌晨)?\\s*([0-9]{1,2})(?:$colon([0-5]?\\d))?点?)?")
+    val explicitStart = Regex("开始(?:时间)?\\s*[:：]\\s*(\\d{4}-\\d{1,2}-\\d{1,2})\\s*([0-2]?\\d[:：][0-5]\\d)")
+    val explicitEnd = Regex("结束(?:时间)?\\s*[:：]\\s*(\\d{4}-\\d{1,2}-\\d{1,2})\\s*([0-2]?\\d[:：][0-5]\\d)")
+    val relativeMonthDay = Regex("(上|本|这|下)个?月\\s*([0-9一二三四五六七八九十零两]{1,2})[日号]?")
+
+    // ---- week scoped ----
+    val weekScopedWeekday = Regex("(?:下下周|下周|本周|这周)(?:周|星期)?[一二三四五六日天]")
+    val weekScopedWeekdayDay = Regex("(?:下周|本周|这周)([一二三四五六日天])")
+
+    // ---- relative offsets: 3天后 / 2小时30分钟后 ----
+    val relativeDirection = Regex("(后|之后|以后|前|之前|以前)")
+    val relativeUnit = Regex("((?:[一二三四五六七八九十百零两0-9]+)?个?半|[一二三四五六七八九十百零两0-9]+|半)个?(年|个月|月|周|星期|天|日|小时|分钟|分|秒)")
+
+    // ---- fallback / room change guards ----
+    val noticeWords = Regex("(通知|公告|通告|安排|提醒)")
+    val roomChangeVerb = Regex("(挪|改|调整|换|移).{0,8}(至|到)")
+    val roomChangePlace = Regex("(教室|机房|实验室|报告厅|会议室|课)")
+    val roomChangeTarget = Regex("(挪至|挪到|改到|改至|换到|换至|调整到|调整至)")
+    val roomLike = Regex("(教室|机房|实验室|[A-Za-z]?[0-9]{2,4})")
+    val anyDateTimeToken = Regex("(\\d{1,2}[:：][0-5]\\d|上午|下午|中午|晚上|凌晨|周[一二三四五六日天]|星期[一二三四五六日天]|[一二三四五六七八九十百]+月[一二三四五六七八九十]+(日|号)?)")
+
+    // ---- location extraction ----
+    val locationLabel = Regex("(?:地点|地址|场地|地点：|地点:|位置|集合地点)\\s*[:：]?\\s*([\\u4e00-\\u9fa5A-Za-z0-9\\-—–,，。、\\s]{2,60})")
+    val locationRoomSuffix = Regex("(?:到|在|于)\\s*([A-Za-z0-9\\-]{1,8}[A-Za-z]?\\d{0,4}|[\\u4e00-\\u9fa5A-Za-z0-9\\-]{1,20})\\s*(教室|机房|实验室|报告厅|会议室|办公室)")
+    // '到XX教室' / '到XX机房' / '到教室XX' / '在21B6教室'，按顺序尝试
+    val locationToRoom = listOf(
+        Regex("到\\s*([A-Za-z0-9\\-]{1,8}\\s*[\\u4e00-\\u9fa5]{0,6}?教室)"),
+        Regex("到\\s*(教室[0-9A-Za-z\\-]{1,8})"),
+        Regex("在\\s*([0-9A-Za-z\\-]{1,8}\\s*教室)"),
+        Regex("在\\s*(教室[0-9A-Za-z\\-]{1,8})"),
+        Regex("到\\s*([A-Za-z0-9]{1,8}\u0020?机房)"),
+        Regex("(?:到|在|于)\\s*([\\u4e00-\\u9fa5A-Za-z0-9\\-]{1,12}?办公室)")
+    )
+
+    // ---- title extraction ----
+    val numericDateOnly = Regex("^[0-9\\-:年月日点]+$")
+    val eventNoun = Regex("([\\u4e00-\\u9fa5A-Za-z0-9]{0,12}?)(班会|会议|考试|答辩|讲座|研讨会|活动|团课|聚餐|聚会|晚会)")
+    val strongEventWord = Regex("(体检|接种|疫苗|考试|讲座|研讨会|会议|答辩|汇报|评审)")
+    val eventSuffix = Regex("(班会|会议|考试|答辩|讲座|活动|团课|聚餐|聚会|晚会)")
+    val verbNoun = Regex("(举办|召集|报名|招募|招|进行|开展|通知|请|组织|召开|申请|发起|开展本学期第一次)([一-龥A-Za-z0-9]{1,20})")
+    val locationHint = Regex("(教室|机房|实验室|报告厅|会议室|体育馆|图书馆|礼堂|餐厅|食堂|医院|卫生院|校医院|门诊|门诊部|办公室)")
+    val eventWord = Regex("(会议|开会|班会|团课|考试|答辩|讲座|活动|聚餐|聚会|晚会|汇报|评审|体检|面谈|面试)")
+    val politeMentions = Regex("@全体成员|@所有人|请大家|各位|各位同学|各位老师|各位班主任|各位学委")
+    val clauseDelimiters = Regex("[，,。.!！?？；;\\n\\r]")
+    val titleNoise = Regex("(请|注意|提醒|网址|链接|查看|详情|报名|要求)")
+    val fieldLabel = Regex("地点|地址|时间|时间：|时间:")
+    val forConnector = Regex("为\\s*([^，,。；;\\n\\r]{2,60})")
+    val leadingConnector = Regex("^[\":：\\-—\\s]*(为|是|为期|：|:)")
+    val timeLikeTail = Regex("\\d{1,2}[:：.]\\d{1,2}|上午|下午|中午|晚上|明天|后天|今天|周|星期")
+    val ordinalOnly = Regex("^第[一二三四五六七八九十零两0-9]+$")
+
+    // ---- removeDateTimePhrases ----
+    val explicitStartStamp = Regex("开始(?:时间)?\\s*[:：]\\s*\\d{4}-\\d{1,2}-\\d{1,2}\\s*[0-2]?\\d[:：][0-5]\\d")
+    val explicitEndStamp = Regex("结束(?:时间)?\\s*[:：]\\s*\\d{4}-\\d{1,2}-\\d{1,2}\\s*[0-2]?\\d[:：][0-5]\\d")
+    // 时间范围：3点到5点 / 7:30-9:00
+    val timeRange = Regex("([0-9一二三四五六七八九十]{1,2})(?:$colon([0-5]?\\d))?点?\\s*(?:到|至|-)\\s*([0-9一二三四五六七八九十]{1,2})(?:$colon([0-5]?\\d))?点?")
+    val relativeOffsetPhrase = Regex("(还有)?[一二三四五六七八九十百零两0-9个半半]+(年|个月|月|周|星期|天|日|小时|分钟|分|秒)([一二三四五六七八九十百零两0-9个半半]*(年|个月|月|周|星期|天|日|小时|分钟|分|秒))*\\s*(后|之前|以后|之后|前)")
+    val countdownPhrase = Regex("还有[一二三四五六七八九十百零两0-9个半半]+(天|个?小时|个?分钟|分|个?秒)")
+    val weekScopeToken = Regex("(?:本周|这周|下周)(?:[一二三四五六日天])?")
+    val relativeDayWord = Regex("今天|明天|后天|大后天|今晚|明晚|今早|明早|中午|下午|上午|晚上|凌晨|本周|这周|下周")
+    val controlWhitespace = Regex("[\t\r\n]+")
+    val ideographicSpace = Regex("\u3000+")
+    val multiSpace = Regex("\\s{2,}")
+    val leadingPunct = Regex("^[，,。:：;；]+")
+    val trailingPunct = Regex("[，,。:：;；]+$")
+
+    /** Equivalent of `s.matches(Regex("\\d+"))` without building a pattern (ASCII digits only, like java.util.regex `\d`). */
+    fun isAsciiDigits(s: CharSequence): Boolean {
+        if (s.isEmpty()) return false
+        for (ch in s) if (ch !in '0'..'9') return false
+        return true
+    }
+}
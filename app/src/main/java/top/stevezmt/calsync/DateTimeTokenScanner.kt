@@ -0,0 +1,164 @@
+package top.stevezmt.calsync
+
+/**
+ * Single-pass, allocation-free scanner answering "does this text contain a date/time token?".
+ *
+ * It is a hand-compiled automaton over the same lexicon the regex prefilter used
+ * (countdown 还有X天/小时/分钟/秒, DateTimeRules.monthDayPattern, monthDayRangePattern, weekdayTimePattern, timePattern
+ * with the indicator / 0..23 / "下午104" guards) and gives the same yes/no answer in one linear walk.
+ *
+ * 说明：
+ *  - monthDayRangePattern 的起始部分就是 monthDayPattern，因此无需单独匹配。
+ *  - 以上 token 都不包含分句标点，所以整段扫描与逐句扫描结果一致，不需要先 split。
+ *  - timePattern 需要保留 Matcher.find() 的“从上次匹配结尾继续”语义，否则 "下午104" 之类的判断会不同。
+ *  - 字符类按设备上的 ICU 正则语义：`\d` 为任意 Unicode 数字，`\s` 包含全角空格；显式写成 [0-9] 的位置仍只认 ASCII。
+ */
+internal object DateTimeTokenScanner {
+
+    fun containsDateTimeToken(s: CharSequence): Boolean {
+        val n = s.length
+        var timeResume = 0
+        var i = 0
+        while (i < n) {
+            when (s[i]) {
+                '还' -> if (countdownAt(s, i)) return true
+                '月' -> if (i > 0 && i + 1 < n && isMonthNumeral(s[i - 1]) && isDayNumeral(s[i + 1])) return true
+                '周' -> if (weekdayTimeAt(s, i + 1)) return true
+                '星' -> if (i + 1 < n && s[i + 1] == '期' && weekdayTimeAt(s, i + 2)) return true
+            }
+            if (i >= timeResume) {
+                val end = timeTokenAt(s, i)
+                if (end == FOUND) return true
+                if (end > 0) timeResume = end
+            }
+            i++
+        }
+        return false
+    }
+
+    private const val FOUND = -2
+    private const val NO_MATCH = -1
+
+    // 还有[一二三四五六七八九十百零0-9]+个?(天|小时|分|秒)
+    private fun countdownAt(s: CharSequence, start: Int): Boolean {
+        val n = s.length
+        if (start + 1 >= n || s[start + 1] != '有') return false
+        var j = start + 2
+        val numStart = j
+        while (j < n && isCountdownNumeral(s[j])) j++
+        if (j == numStart || j >= n) return false
+        if (s[j] == '个') { j++; if (j >= n) return false }
+        return when (s[j]) {
+            '天', '分', '秒' -> true
+            '小' -> j + 1 < n && s[j + 1] == '时'
+            else -> false
+        }
+    }
+
+    // (周|星期)[一二三四五六日天](?:[上下午]|上午|下午)?\s*\d{1,2}[:：]\d
+    private fun weekdayTimeAt(s: CharSequence, dayIdx: Int): Boolean {
+        val n = s.length
+        if (dayIdx >= n || !isWeekdayChar(s[dayIdx])) return false
+        val p = dayIdx + 1
+        // candidate end positions of the optional am/pm part: "", 上/下/午, 上午/下午
+        if (clockAfter(s, p)) return true
+        if (p < n && (s[p] == '上' || s[p] == '下' || s[p] == '午')) {
+            if (clockAfter(s, p + 1)) return true
+            if ((s[p] == '上' || s[p] == '下') && p + 1 < n && s[p + 1] == '午' && clockAfter(s, p + 2)) return true
+        }
+        return false
+    }
+
+    private fun clockAfter(s: CharSequence, from: Int): Boolean {
+        val n = s.length
+        var j = from
+        while (j < n && isRegexSpace(s[j])) j++
+        if (j >= n || !isRegexDigit(s[j])) return false
+        val colonIdx = when {
+            j + 1 < n && isColon(s[j + 1]) -> j + 1
+            j + 2 < n && isRegexDigit(s[j + 1]) && isColon(s[j + 2]) -> j + 2
+            else -> return false
+        }
+        return colonIdx + 1 < n && isRegexDigit(s[colonIdx + 1])
+    }
+
+    /**
+     * Equivalent of one timePattern.find() attempt anchored at [start]:
+     * (上午|下午|中午|晚上|凌晨|今晚|明晚)?\s*([0-9]{1,2}|[一二三四五六七八九十百]+)(?:[:：]([0-5]?\d))?点?
+     * Returns [FOUND] if the match passes the prefilter guards, the match end if it matched but was rejected,
+     * or [NO_MATCH].
+     */
+    private fun timeTokenAt(s: CharSequence, start: Int): Int {
+        val n = s.length
+        var hasAmPm = false
+        var hourStart = -1
+        if (isAmPmAt(s, start)) {
+            var j = start + 2
+            while (j < n && isRegexSpace(s[j])) j++
+            if (j < n && isHourStartChar(s[j])) { hasAmPm = true; hourStart = j }
+        }
+        if (hourStart < 0) {
+            var j = start
+            while (j < n && isRegexSpace(s[j])) j++
+            if (j < n && isHourStartChar(s[j])) hourStart = j else return NO_MATCH
+        }
+        // hour
+        var j = hourStart
+        var hour: Int
+        if (isAsciiDigit(s[j])) {
+            hour = s[j] - '0'
+            j++
+            if (j < n && isAsciiDigit(s[j])) { hour = hour * 10 + (s[j] - '0'); j++ }
+        } else {
+            while (j < n && isHourNumeral(s[j])) j++
+            hour = ChineseNumerals.parse(s, hourStart, j)
+        }
+        val hourEnd = j
+        // minute: [:：]([0-5]?\d)
+        var hasMinute = false
+        if (j < n && isColon(s[j])) {
+            val c1 = if (j + 1 < n) s[j + 1] else ' '
+            val c2 = if (j + 2 < n) s[j + 2] else ' '
+            if (c1 in '0'..'5' && isRegexDigit(c2)) { hasMinute = true; j += 3 }
+            else if (isRegexDigit(c1)) { hasMinute = true; j += 2 }
+        }
+        var hasDian = false
+        if (j < n && s[j] == '点') { hasDian = true; j++ }
+        val hasIndicator = hasAmPm || hasMinute || hasDian
+        // Guard: avoid matching inside longer numbers like "下午104"
+        val followedByDigit = !hasMinute && !hasDian && hourEnd < n && Character.isDigit(s[hourEnd])
+        return if (hasIndicator && hour in 0..23 && !followedByDigit) FOUND else j
+    }
+
+    private fun isAmPmAt(s: CharSequence, i: Int): Boolean {
+        if (i + 1 >= s.length) return false
+        val a = s[i]
+        val b = s[i + 1]
+        return when (a) {
+            '上', '下', '中' -> b == '午'
+            '晚' -> b == '上'
+            '凌' -> b == '晨'
+            '今', '明' -> b == '晚'
+            else -> false
+        }
+    }
+
+    private fun digitValue(ch: Char): Int = when (ch) {
+        '一' -> 1; '二' -> 2; '三' -> 3; '四' -> 4; '五' -> 5
+        '六' -> 6; '七' -> 7; '八' -> 8; '九' -> 9
+        else -> 0
+    }
+
+    private fun isAsciiDigit(ch: Char) = ch in '0'..'9'
+    private fun isColon(ch: Char) = ch == ':' || ch == '：'
+    // `\d` / `\s` as matched by the platform regex engine (ICU on Android)
+    private fun isRegexDigit(ch: Char) = Character.isDigit(ch)
+    private fun isRegexSpace(ch: Char) = ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\u000C' || ch == '\r' || Character.isSpaceChar(ch)
+    private fun isSmallNumeral(ch: Char) = digitValue(ch) != 0 || ch == '十'
+    private fun isHourNumeral(ch: Char) = isSmallNumeral(ch) || ch == '百'
+    private fun isHourStartChar(ch: Char) = isAsciiDigit(ch) || isHourNumeral(ch)
+    private fun isMonthNumeral(ch: Char) = isRegexDigit(ch) || isHourNumeral(ch)
+    private fun isDayNumeral(ch: Char) = isRegexDigit(ch) || isSmallNumeral(ch)
+    private fun isCountdownNumeral(ch: Char) = isAsciiDigit(ch) || isHourNumeral(ch) || ch == '零'
+    private fun isWeekdayChar(ch: Char) = ch == '日' || ch == '天' || (digitValue(ch) in 1..6)
+}
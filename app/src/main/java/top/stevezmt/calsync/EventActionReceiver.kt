@@ -23,6 +23,7 @@ class EventActionReceiver : BroadcastReceiver() {
                     val uri = Uri.withAppendedPath(CalendarContract.Events.CONTENT_URI, id.toString())
                     val rows = context.contentResolver.delete(uri, null, null)
                     if (rows > 0) {
+                        CreatedEventIndex.removeEvent(context, id)
                         NotificationUtils.cancelEventNotifications(context, id)
                         Toast.makeText(context, "已删除事件", Toast.LENGTH_SHORT).show()
                     } else {
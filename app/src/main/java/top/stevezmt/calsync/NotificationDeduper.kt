@@ -0,0 +1,120 @@
+package top.stevezmt.calsync
+
+/**
+ * Dedup / update-coalescing stage in front of NotificationProcessor.
+ *
+ * 聊天类应用（QQ/微信群）会用同一个 sbn.key 反复更新通知，EXTRA_TEXT_LINES / MESSAGES 越积越长。
+ *  - [newLines]：按 (包名, sbn.key) 记住已转发过的行，内容哈希不变时直接跳过，否则只返回新追加的行；
+ *    这些行最终没被处理（入队被丢弃、排队时被挤掉）时用 [forgetLines] 撤销，下次更新会重新转发；
+ *    通知被移除时 [forgetKey] 丢掉该 key 的全部记录（群聊会复用同一个 key）；
+ *  - [isSentenceProcessed] / [markSentenceProcessed]：按 (包名, 句子) 指纹的有界 LRU，避免同一句话被重复解析、重复建日程。
+ * 行记录和句子指纹都带同一个有效期（[SENTENCE_TTL_MS]），同样的相对时间句子隔天再发仍会被处理。
+ */
+object NotificationDeduper {
+    private const val MAX_KEYS = 128
+    private const val MAX_LINES_PER_KEY = 200
+    private const val MAX_SENTENCES = 512
+    const val SENTENCE_TTL_MS = 12 * 60 * 60 * 1000L
+
+    private class KeyState(var contentHash: Long, var contentAt: Long) {
+        // line hash -> last time the line was seen in this notification
+        val lines = object : LinkedHashMap<Long, Long>(32, 0.75f, false) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Long>?) = size > MAX_LINES_PER_KEY
+        }
+    }
+
+    private val keys = object : LinkedHashMap<String, KeyState>(32, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, KeyState>?) = size > MAX_KEYS
+    }
+
+    // fingerprint -> time it was processed
+    private val sentences = object : LinkedHashMap<Long, Long>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Long>?) = size > MAX_SENTENCES
+    }
+
+    /**
+     * Returns the parts of this notification not forwarded within [SENTENCE_TTL_MS] for the same (pkg, key), in order;
+     * empty when nothing changed. A line still shown in the notification stays known; one reposted after the TTL is new again.
+     */
+    fun newLines(pkg: String, key: String?, title: String, parts: List<String>, nowMillis: Long = System.currentTimeMillis()): List<String> {
+        val id = pkg + "|" + (key ?: title)
+        var h = fnv64(title)
+        for (p in parts) h = fnv64(p, h xor 0x0AL)
+        synchronized(keys) {
+            val state = keys[id]
+            if (state != null && state.contentHash == h && nowMillis - state.contentAt <= SENTENCE_TTL_MS) return emptyList()
+            val st = state ?: KeyState(h, nowMillis).also { keys[id] = it }
+            st.contentHash = h
+            st.contentAt = nowMillis
+            val out = ArrayList<String>(parts.size)
+            for (p in parts) {
+                val seenAt = st.lines.put(fnv64(p), nowMillis)
+                if (seenAt == null || nowMillis - seenAt > SENTENCE_TTL_MS) out.add(p)
+            }
+            return out
+        }
+    }
+
+    /** Drops everything remembered for (pkg, key), e.g. when the notification was removed. */
+    fun forgetKey(pkg: String, key: String?, title: String) {
+        synchronized(keys) { keys.remove(pkg + "|" + (key ?: title)) }
+    }
+
+    /** Undoes [newLines] for [lines] that were never processed (dropped or evicted from the work queue). */
+    fun forgetLines(pkg: String, key: String?, title: String, lines: List<String>) {
+        val id = pkg + "|" + (key ?: title)
+        synchronized(keys) {
+            val st = keys[id] ?: return
+            // the same content must not be skipped as unchanged next time
+            st.contentHash = 0L
+            for (line in lines) st.lines.remove(fnv64(line))
+        }
+    }
+
+    fun isSentenceProcessed(pkg: String, sentence: String, nowMillis: Long = System.currentTimeMillis()): Boolean {
+        val fp = sentenceFingerprint(pkg, sentence)
+        synchronized(sentences) {
+            val at = sentences[fp] ?: return false
+            if (nowMillis - at > SENTENCE_TTL_MS) {
+                sentences.remove(fp)
+                return false
+            }
+            return true
+        }
+    }
+
+    fun markSentenceProcessed(pkg: String, sentence: String, nowMillis: Long = System.currentTimeMillis()) {
+        val fp = sentenceFingerprint(pkg, sentence)
+        synchronized(sentences) { sentences[fp] = nowMillis }
+    }
+
+    fun clear() {
+        synchronized(keys) { keys.clear() }
+        synchronized(sentences) { sentences.clear() }
+    }
+
+    private fun sentenceFingerprint(pkg: String, sentence: String): Long {
+        var h = fnv64(pkg)
+        var lastSpace = true
+        // whitespace-insensitive so re-wrapped lines still match
+        for (ch in sentence) {
+            if (ch.isWhitespace()) {
+                if (!lastSpace) h = (h xor ' '.code.toLong()) * FNV_PRIME
+                lastSpace = true
+            } else {
+                h = (h xor ch.code.toLong()) * FNV_PRIME
+                lastSpace = false
+            }
+        }
+        return h
+    }
+
+    private const val FNV_OFFSET = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+    private const val FNV_PRIME = 0x100000001b3L
+
+    private fun fnv64(s: String, seed: Long = FNV_OFFSET): Long {
+        var h = seed
+        for (ch in s) h = (h xor ch.code.toLong()) * FNV_PRIME
+        return h
+    }
+}
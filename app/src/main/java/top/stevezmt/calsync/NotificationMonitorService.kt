@@ -13,6 +13,7 @@ import android.util.Log
 import android.widget.Toast
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancel
 import kotlinx.coroutines.launch
 
 // ...existing imports...
@@ -21,10 +22,43 @@ import kotlinx.coroutines.launch
 class NotificationMonitorService : NotificationListenerService() {
     private val TAG = "NotificationMonitor"
     private val scope = CoroutineScope(Dispatchers.Default)
+    // Bounded worker pool instead of one coroutine per notification (see NotificationWorkQueue)
+    private val queue: NotificationWorkQueue by lazy {
+        NotificationWorkQueue(scope) { item ->
+            try {
+                processNotifications(listOf(item))
+            } catch (e: Exception) {
+                Log.e(TAG, "processNotification failed", e)
+                sendErrorNotification("处理通知失败: ${e.message}")
+            }
+        }.also {
+            // AI engine: drain bursts in groups so their sentences share one batched inference
+            it.batchHandler = { items ->
+                try {
+                    processNotifications(items)
+                } catch (e: Exception) {
+                    Log.e(TAG, "processNotifications failed", e)
+                    sendErrorNotification("处理通知失败: ${e.message}")
+                }
+            }
+            // an evicted item was never processed: let its lines through again on the next update
+            it.onEvicted = { item -> NotificationDeduper.forgetLines(item.pkg, item.sbnKey, item.title, item.content.split('\n')) }
+            it.batchSize = {
+                if (SettingsStore.snapshot(applicationContext).parsingEngine == ParseEngine.AI_GGUF) top.stevezmt.calsync.llm.LlamaCpp.MAX_BATCH else 1
+            }
+            it.setWorkers(SettingsStore.getQueueWorkers(applicationContext))
+            NotificationWorkQueue.current = it
+        }
+    }
 
     override fun onListenerConnected() {
         super.onListenerConnected()
         Log.i(TAG, "Notification listener connected")
+        // ML Kit: create the shared extractor and fetch its model now, not on the first notification
+        try {
+            val settings = SettingsStore.snapshot(applicationContext)
+            if (settings.parsingEngine == ParseEngine.ML_KIT || settings.eventParsingEngine == EventParseEngine.ML_KIT) MLKitExtractorHolder.warmUp()
+        } catch (_: Throwable) {}
             // Log notification permission and channel states to help diagnose ROM-level suppression
             try {
                 val nm = applicationContext.getSystemService(NotificationManager::class.java)
@@ -118,19 +152,29 @@ class NotificationMonitorService : NotificationListenerService() {
                     } else null
                 } else null
             } ?: emptyList()
-            val content = (listOfNotNull(primary, bigText, subText, summary) + lines + messages)
+            val parts = (listOfNotNull(primary, bigText, subText, summary) + lines + messages)
                 .filter { it.isNotBlank() }
                 .distinct()
-                .joinToString("\n")
+            val content = parts.joinToString("\n")
+            // Chat apps repost the same key with a growing message list: only forward lines not seen for this key
+            val freshParts = NotificationDeduper.newLines(pkg, sbn.key, title, parts)
 
             // Avoid showing debug toasts and avoid logging full notification content or extras
 
-            scope.launch {
-                try {
-                    processNotification(pkg, title, content)
-                } catch (e: Exception) {
-                    Log.e(TAG, "processNotification failed", e)
-                    sendErrorNotification("处理通知失败: ${e.message}")
+            if (freshParts.isEmpty()) {
+                Log.d(TAG, "no new lines for key, skip")
+            } else {
+                val freshContent = freshParts.joinToString("\n")
+                val settings = SettingsStore.snapshot(applicationContext)
+                // keywords may sit in an earlier line of the conversation: match on the whole text
+                val highPriority = NotificationProcessor.matchesKeywords(settings.keywords, title, content)
+                val offer = queue.offer(NotificationWorkQueue.Item("$pkg|${sbn.key}", pkg, title, freshContent, highPriority, sbnKey = sbn.key, fullContent = content))
+                if (offer != NotificationWorkQueue.Offer.QUEUED) Log.d(TAG, "queue offer=$offer high=$highPriority")
+                if (offer == NotificationWorkQueue.Offer.DROPPED) NotificationDeduper.forgetLines(pkg, sbn.key, title, freshParts)
+                // Looks date-like: start loading the model now, while the item waits in the queue
+                if (settings.parsingEngine == ParseEngine.AI_GGUF && offer != NotificationWorkQueue.Offer.DROPPED &&
+                    DateTimeParser.guessContainsDateTime("$title。$freshContent", settings)) {
+                    top.stevezmt.calsync.llm.ModelLifecycle.preload(applicationContext, settings.aiGgufModelUri, settings.aiDraftModelUri, settings.aiIdleUnloadMinutes)
                 }
             }
             // add to recent notifications cache
@@ -145,35 +189,59 @@ class NotificationMonitorService : NotificationListenerService() {
         }
     }
 
-    private fun processNotification(pkg: String, title: String, content: String) {
-        val res = NotificationProcessor.process(applicationContext, NotificationProcessor.ProcessInput(pkg, title, content), object: NotificationProcessor.ConfirmationNotifier{
-            override fun onEventCreated(eventId: Long, title: String, startMillis: Long, endMillis: Long, location: String?) {
-                // Do not post the extra "已添加...日程" confirmation notification here.
-                // The event-created notification is already posted by NotificationProcessor -> NotificationUtils.sendEventCreated.
+    override fun onNotificationRemoved(sbn: StatusBarNotification) {
+        super.onNotificationRemoved(sbn)
+        try {
+            // the chat was read / dismissed: a later message on the same key starts from scratch
+            val pkg = sbn.packageName ?: return
+            val title = sbn.notification?.extras?.getCharSequence(Notification.EXTRA_TITLE)?.toString() ?: ""
+            NotificationDeduper.forgetKey(pkg, sbn.key, title)
+        } catch (_: Throwable) {}
+    }
+
+    override fun onDestroy() {
+        try {
+            if (NotificationWorkQueue.current === queue) NotificationWorkQueue.current = null
+            queue.stop()
+            // abandon AI inferences of the stopped queue instead of letting them run to maxTokens
+            top.stevezmt.calsync.llm.CancellationToken.cancelAll()
+        } catch (_: Throwable) {}
+        scope.cancel()
+        super.onDestroy()
+    }
+
+    private suspend fun processNotifications(items: List<NotificationWorkQueue.Item>) {
+        val inputs = items.map { NotificationProcessor.ProcessInput(it.pkg, it.title, it.content, fullContent = it.fullContent) }
+        val results = NotificationProcessor.processBatch(applicationContext, inputs) { confirmationNotifier }
+        Log.d(TAG, if (items.size == 1) "process result: ${results.firstOrNull()}" else "process results (${items.size} batched): $results")
+    }
+
+    private val confirmationNotifier = object: NotificationProcessor.ConfirmationNotifier{
+        override fun onEventCreated(eventId: Long, title: String, startMillis: Long, endMillis: Long, location: String?) {
+            // Do not post the extra "已添加...日程" confirmation notification here.
+            // The event-created notification is already posted by NotificationProcessor -> NotificationUtils.sendEventCreated.
+            try {
+                // also log created events into NotificationCache and broadcast to UI
+                val ts = java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())
+                val entry = "[$ts] event_created id=$eventId title=$title start=${startMillis}"
+                NotificationCache.add(applicationContext, entry)
                 try {
-                    // also log created events into NotificationCache and broadcast to UI
-                    val ts = java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault()).format(java.util.Date())
-                    val entry = "[$ts] event_created id=$eventId title=$title start=${startMillis}"
-                    NotificationCache.add(applicationContext, entry)
-                    try {
-                        val b = Intent(NotificationUtils.ACTION_EVENT_CREATED)
-                        b.setPackage(applicationContext.packageName)
-                        b.putExtra(NotificationUtils.EXTRA_EVENT_ID, eventId)
-                        b.putExtra(NotificationUtils.EXTRA_EVENT_TITLE, title)
-                        b.putExtra(NotificationUtils.EXTRA_EVENT_START, startMillis)
-                        sendBroadcast(b)
-                    } catch (_: Throwable) {}
+                    val b = Intent(NotificationUtils.ACTION_EVENT_CREATED)
+                    b.setPackage(applicationContext.packageName)
+                    b.putExtra(NotificationUtils.EXTRA_EVENT_ID, eventId)
+                    b.putExtra(NotificationUtils.EXTRA_EVENT_TITLE, title)
+                    b.putExtra(NotificationUtils.EXTRA_EVENT_START, startMillis)
+                    sendBroadcast(b)
                 } catch (_: Throwable) {}
-            }
-            override fun onError(message: String?) {
-                sendErrorNotification(message)
-            }
-            override fun onDebugLog(line: String) {
-                // Do not include full notification content; keep it concise.
-                try { NotificationUtils.sendDebugLog(applicationContext, "[notif] $line") } catch (_: Throwable) {}
-            }
-        })
-        Log.d(TAG, "process result: $res")
+            } catch (_: Throwable) {}
+        }
+        override fun onError(message: String?) {
+            sendErrorNotification(message)
+        }
+        override fun onDebugLog(line: String) {
+            // Do not include full notification content; keep it concise.
+            try { NotificationUtils.sendDebugLog(applicationContext, "[notif] $line") } catch (_: Throwable) {}
+        }
     }
 
     // Note: confirmation notifications are posted by NotificationUtils.sendEventCreated from the processor.
@@ -2,15 +2,20 @@ package top.stevezmt.calsync
 
 import android.content.Context
 import android.util.Log
+import kotlinx.coroutines.CancellationException
 
 object NotificationProcessor {
 	private const val TAG = "NotificationProcessor"
+	private const val REASON_PREFILTER = "预筛选：不像日程"
 
 	data class ProcessInput(
 		val packageName: String,
 		val title: String,
 		val content: String,
-		val isTest: Boolean = false
+		val isTest: Boolean = false,
+		// Whole notification text when content is only the newly appended lines (NotificationDeduper);
+		// keywords are matched against it, dates are parsed from content only
+		val fullContent: String? = null
 	)
 
 	data class ProcessResult(
@@ -26,52 +31,102 @@ object NotificationProcessor {
 	 * 2) selected source app filter (multi or single)
 	 * 3) extract sentence containing date/time
 	 * 4) parse date/time
-	 * 5) build event title/description -> insert calendar
+	 * 5) build event title/description for every sentence, skip duplicates -> insert all events in one calendar batch
 	 * 6) send confirmation notification
 	 */
-	fun process(context: Context, input: ProcessInput, notifier: ConfirmationNotifier): ProcessResult {
-		return try {
-			// Capture a single 'now' for this processing run to ensure consistent relative parsing
-			val baseMillis = System.currentTimeMillis()
-			val engine = SettingsStore.getParsingEngine(context)
-			notifier.onDebugLog("process start pkg=${input.packageName} isTest=${input.isTest} baseMillis=$baseMillis engine=${engine.id}")
-			val fullText = input.title + "。" + input.content
-			val keywords = SettingsStore.getKeywords(context)
-			val matchesKeyword = keywords.any { kw ->
-				input.title.contains(kw, true) || input.content.contains(kw, true)
-			}
-			if (!matchesKeyword) return ProcessResult(false, reason = "未匹配关键字")
-
-			val selectedPkgs = SettingsStore.getSelectedSourceAppPkgs(context)
-			if (selectedPkgs.isNotEmpty() && input.packageName !in selectedPkgs && !input.isTest) {
-				return ProcessResult(false, reason = "包名未在选择列表")
-			}
+	fun process(context: Context, input: ProcessInput, notifier: ConfirmationNotifier): ProcessResult =
+		// Capture a single 'now' for this processing run to ensure consistent relative parsing.
+		// Likewise read all settings once: the whole run sees one consistent version even if the user saves meanwhile
+		process(context, input, notifier, System.currentTimeMillis(), SettingsStore.snapshot(context), null)
 
-			// Battery saver: do a lightweight guess before full parsing
-			if (SettingsStore.isGuessBeforeParseEnabled(context)) {
-				if (!DateTimeParser.guessContainsDateTime(context, fullText)) {
-					notifier.onDebugLog("prefilter=false (skip)")
-					return ProcessResult(false, reason = "预筛选：不像日程")
+	/**
+	 * Process several queued notifications with one 'now' and one settings snapshot (coroutine entry point of the listener queue).
+	 * Before the inputs are processed one by one, the sentences of all inputs that pass the filters are parsed up front:
+	 * - AI engine: one batched inference (DateTimeParser.parseAiBatch) when there is more than one sentence;
+	 * - ML Kit engine: all annotate requests in flight at once on the shared extractor (DateTimeParser.parseMlKitBatch),
+	 *   suspending instead of parking the worker thread.
+	 */
+	suspend fun processBatch(context: Context, inputs: List<ProcessInput>, notifierFor: (ProcessInput) -> ConfirmationNotifier): List<ProcessResult> {
+		val baseMillis = System.currentTimeMillis()
+		val settings = SettingsStore.snapshot(context)
+		val engine = settings.parsingEngine
+		val precomputed = if ((engine == ParseEngine.AI_GGUF && inputs.size > 1) || engine == ParseEngine.ML_KIT) {
+			val sentences = inputs.flatMap { input ->
+				val fullText = input.title + "。" + input.content
+				if (rejectReason(input, fullText, settings) != null) emptyList()
+				else selectSentences(fullText, settings).filter { input.isTest || !NotificationDeduper.isSentenceProcessed(input.packageName, it) }
+			}.filterNot { DateTimeParser.isParseCached(it, baseMillis, settings) } // reposts: answered by ParseResultCache
+			try {
+				when {
+					engine == ParseEngine.ML_KIT -> DateTimeParser.parseMlKitBatch(context, sentences, baseMillis, settings)
+					sentences.size > 1 -> DateTimeParser.parseAiBatch(context, sentences, baseMillis, settings)
+					else -> null
 				}
-				notifier.onDebugLog("prefilter=true")
+			} catch (e: CancellationException) {
+				throw e
+			} catch (t: Throwable) {
+				Log.w(TAG, "batched ${engine.id} parse failed", t)
+				null
 			}
+		} else null
+		return inputs.map { process(context, it, notifierFor(it), baseMillis, settings, precomputed) }
+	}
+
+	// keyword / source app / battery-saver prefilter; null when the notification should be parsed
+	private fun rejectReason(input: ProcessInput, fullText: String, settings: SettingsSnapshot): String? {
+		if (!matchesKeywords(settings.keywords, input.title, input.fullContent ?: input.content)) return "未匹配关键字"
+		val selectedPkgs = settings.selectedSourceAppPkgs
+		if (selectedPkgs.isNotEmpty() && input.packageName !in selectedPkgs && !input.isTest) return "包名未在选择列表"
+		// Battery saver: do a lightweight guess before full parsing
+		if (settings.guessBeforeParse && !DateTimeParser.guessContainsDateTime(fullText, settings)) return REASON_PREFILTER
+		return null
+	}
+
+	private fun selectSentences(fullText: String, settings: SettingsSnapshot): List<String> =
+		if (settings.parsingEngine == ParseEngine.AI_GGUF) {
+			listOf(fullText.trim()).filter { it.isNotEmpty() }
+		} else {
+			DateTimeParser.extractAllSentencesContainingDate(fullText, settings)
+		}
 
-			val sentences = if (engine == ParseEngine.AI_GGUF) {
-				listOf(fullText.trim()).filter { it.isNotEmpty() }
-			} else {
-				DateTimeParser.extractAllSentencesContainingDate(context, fullText)
+	private fun process(
+		context: Context,
+		input: ProcessInput,
+		notifier: ConfirmationNotifier,
+		baseMillis: Long,
+		settings: SettingsSnapshot,
+		precomputed: Map<String, DateTimeParser.ParseResult?>?
+	): ProcessResult {
+		return try {
+			val engine = settings.parsingEngine
+			notifier.onDebugLog("process start pkg=${input.packageName} isTest=${input.isTest} baseMillis=$baseMillis engine=${engine.id} settings=v${settings.version}")
+			val fullText = input.title + "。" + input.content
+			rejectReason(input, fullText, settings)?.let { reason ->
+				if (reason == REASON_PREFILTER) notifier.onDebugLog("prefilter=false (skip)")
+				return ProcessResult(false, reason = reason)
 			}
+			if (settings.guessBeforeParse) notifier.onDebugLog("prefilter=true")
+
+			val sentences = selectSentences(fullText, settings)
 			if (sentences.isEmpty()) return ProcessResult(false, reason = if (engine == ParseEngine.AI_GGUF) "AI 模式下全文为空" else "未包含时间句子")
 			notifier.onDebugLog("sentences=${sentences.size}")
-			val (globalTitle, globalLocation) = DateTimeParser.extractTitleAndLocationFromText(context, fullText)
+			val (globalTitle, globalLocation) = DateTimeParser.extractTitleAndLocationFromText(context, fullText, settings)
 
-			var anyCreated = false
-			var lastEventId: Long? = null
 			var lastReason: String? = null
+			// Parse every sentence first, then write all events (and reminders) in a single calendar transaction
+			val pending = mutableListOf<PendingEvent>()
 			for (sentence in sentences) {
 				try {
 					notifier.onDebugLog("sentence='${sentence.take(120)}'")
-					val parsed = DateTimeParser.parseDateTime(context, sentence, baseMillis)
+					// Same sentence already handled for this app (chat notifications repeat old lines)
+					if (!input.isTest && NotificationDeduper.isSentenceProcessed(input.packageName, sentence)) {
+						notifier.onDebugLog("sentence already processed (skip)")
+						lastReason = "重复句子($sentence)"
+						continue
+					}
+					val parsed = DateTimeParser.parseDateTime(context, sentence, baseMillis, settings, precomputed)
+					// Not marked as processed: an AI / ML Kit failure may be transient, and repeated rule-engine misses
+					// are answered by ParseResultCache anyway
 					if (parsed == null) { lastReason = "解析失败($sentence)"; continue }
 					notifier.onDebugLog("parsed start=${parsed.startMillis} end=${parsed.endMillis} title=${parsed.title} loc=${parsed.location}")
 
@@ -86,33 +141,71 @@ object NotificationProcessor {
 					var desc = "来源: ${if (input.isTest) "测试" else input.packageName}\n原文:\n${input.title}\n${input.content}"
 					if (!chosenLocation.isNullOrBlank()) desc += "\n地点: ${chosenLocation}"
 
-					val eventId = CalendarHelper.insertEvent(context, eventTitle, desc, parsed.startMillis, parsed.endMillis, chosenLocation)
-					if (eventId != null) {
-						NotificationUtils.sendEventCreated(context, eventId, parsed.startMillis, eventTitle, chosenLocation)
-						notifier.onEventCreated(eventId, eventTitle, parsed.startMillis, parsed.endMillis ?: (parsed.startMillis + 60*60*1000L), chosenLocation)
+					// Duplicate check: events created by us (local index) or already in the calendar at that minute
+					val key = CreatedEventIndex.keyOf(eventTitle, parsed.startMillis, chosenLocation)
+					if (!input.isTest) {
+						val existing = if (pending.any { it.key == key }) -1L
+							else CreatedEventIndex.find(context, key) ?: CalendarHelper.findDuplicateInstance(context, eventTitle, parsed.startMillis)
+						if (existing != null) {
+							notifier.onDebugLog("duplicate event (existing=$existing), skip")
+							NotificationDeduper.markSentenceProcessed(input.packageName, sentence)
+							lastReason = "重复事件($eventTitle)"
+							continue
+						}
+					}
+					pending += PendingEvent(sentence, key, CalendarHelper.EventDraft(eventTitle, desc, parsed.startMillis, parsed.endMillis, chosenLocation))
+				} catch (t: Throwable) {
+					Log.w(TAG, "failed processing sentence: $sentence", t)
+					lastReason = "异常: ${t.message}"
+					try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
+					notifier.onDebugLog("exception=${t::class.java.simpleName}:${t.message}")
+				}
+			}
+			// Another worker may be inserting the same announcement right now (same key, other app): reserve the keys
+			val claimed = if (input.isTest) pending else pending.filter { p ->
+				CreatedEventIndex.claim(context, p.key).also { ok ->
+					if (!ok) {
+						notifier.onDebugLog("duplicate event (being created), skip")
+						NotificationDeduper.markSentenceProcessed(input.packageName, p.sentence)
+						lastReason = "重复事件(${p.draft.title})"
+					}
+				}
+			}
+			if (claimed.isEmpty()) return ProcessResult(false, reason = lastReason)
+			try {
+				val eventIds = CalendarHelper.insertEvents(context, settings, claimed.map { it.draft })
+				if (eventIds == null) return ProcessResult(false, reason = "插入日历失败(${claimed.size} 个事件)")
+				notifier.onDebugLog("inserted ${eventIds.size} event(s) in one batch")
+				for ((i, eventId) in eventIds.withIndex()) {
+					val (sentence, key, draft) = claimed[i]
+					val eventTitle = draft.title
+					val chosenLocation = draft.location
+					try {
+						if (!input.isTest) {
+							NotificationDeduper.markSentenceProcessed(input.packageName, sentence)
+							CreatedEventIndex.record(context, key, eventId, draft.startMillis)
+						}
+						NotificationUtils.sendEventCreated(context, eventId, draft.startMillis, eventTitle, chosenLocation)
+						notifier.onEventCreated(eventId, eventTitle, draft.startMillis, draft.endMillis ?: (draft.startMillis + 60*60*1000L), chosenLocation)
 						// also broadcast baseMillis so UI can display what 'now' was when parsing
 						try {
 							val b = android.content.Intent(NotificationUtils.ACTION_EVENT_CREATED)
 							b.setPackage(context.packageName)
 							b.putExtra(NotificationUtils.EXTRA_EVENT_ID, eventId)
 							b.putExtra(NotificationUtils.EXTRA_EVENT_TITLE, eventTitle)
-							b.putExtra(NotificationUtils.EXTRA_EVENT_START, parsed.startMillis)
+							b.putExtra(NotificationUtils.EXTRA_EVENT_START, draft.startMillis)
 							b.putExtra(NotificationUtils.EXTRA_EVENT_BASE, baseMillis)
 							context.sendBroadcast(b)
 						} catch (_: Throwable) {}
-						anyCreated = true
-						lastEventId = eventId
-					} else {
-						lastReason = "插入日历失败($sentence)"
+					} catch (t: Throwable) {
+						Log.w(TAG, "failed to announce event $eventId", t)
+						notifier.onDebugLog("exception=${t::class.java.simpleName}:${t.message}")
 					}
-				} catch (t: Throwable) {
-					Log.w(TAG, "failed processing sentence: $sentence", t)
-					lastReason = "异常: ${t.message}"
-					try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
-					notifier.onDebugLog("exception=${t::class.java.simpleName}:${t.message}")
 				}
+				return ProcessResult(true, eventId = eventIds.lastOrNull())
+			} finally {
+				if (!input.isTest) claimed.forEach { CreatedEventIndex.release(it.key) }
 			}
-			return if (anyCreated) ProcessResult(true, eventId = lastEventId) else ProcessResult(false, reason = lastReason)
 		} catch (t: Throwable) {
 			Log.e(TAG, "process failed", t)
 			try { NotificationUtils.sendError(context, Exception(t)) } catch (_: Throwable) {}
@@ -121,6 +214,12 @@ object NotificationProcessor {
 		}
 	}
 
+	private data class PendingEvent(val sentence: String, val key: String, val draft: CalendarHelper.EventDraft)
+
+	fun matchesKeywords(keywords: List<String>, title: String, content: String): Boolean = keywords.any { kw ->
+		title.contains(kw, true) || content.contains(kw, true)
+	}
+
 	interface ConfirmationNotifier {
 		fun onEventCreated(eventId: Long, title: String, startMillis: Long, endMillis: Long, location: String?)
 		fun onError(message: String?)
@@ -117,6 +117,34 @@ class NotificationStatusActivity : AppCompatActivity() {
                     appendLine("channel=$ch not supported (SDK < 26)")
                 }
             }
+            appendLine("\n--- 处理队列 ---")
+            val q = NotificationWorkQueue.current?.stats()
+            if (q == null) {
+                appendLine("queue not running (listener not connected)")
+            } else {
+                appendLine("depth=${q.highDepth + q.lowDepth}/${q.capacity} (high=${q.highDepth} low=${q.lowDepth}) workers=${q.workers}")
+                appendLine("processed=${q.processed} merged=${q.merged} dropped=${q.dropped}")
+                appendLine("waitMs last=${q.lastWaitMs} avg=${q.avgWaitMs} max=${q.maxWaitMs}")
+            }
+
+            appendLine("\n--- 解析缓存 ---")
+            val pc = ParseResultCache.shared.stats()
+            appendLine("entries=${pc.size}/${pc.capacity} hits=${pc.hits} misses=${pc.misses} hitRate=${"%.0f".format(pc.hitRate * 100)}%")
+            appendLine("evicted=${pc.evicted}")
+
+            appendLine("\n--- AI 推理 ---")
+            val ai = top.stevezmt.calsync.llm.LlamaCpp.getStats()
+            if (ai == null) {
+                appendLine("model not loaded yet")
+            } else {
+                // volatile read, does not wait for a model that is being loaded
+                val loaded = top.stevezmt.calsync.llm.LlamaCpp.isLoaded()
+                appendLine("loaded=$loaded loadMs=${ai.loadMs.toLong()} kv=${ai.kvUsed}/${ai.nCtx}")
+                appendLine("rss=${ai.rssKb / 1024}MB peakRss=${ai.peakRssKb / 1024}MB")
+                appendLine("last: ${ai.last.format()}")
+                appendLine("total: ${ai.total.format()}")
+            }
+
             val recent = NotificationCache.snapshot(this)
             appendLine("\n--- 最近捕获的通知 (数量: ${recent.size}) ---")
             recent.take(50).forEach { appendLine(it) }
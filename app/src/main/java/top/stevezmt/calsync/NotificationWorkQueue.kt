@@ -0,0 +1,226 @@
+package top.stevezmt.calsync
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+
+/**
+ * Bounded, prioritized work queue between NotificationMonitorService and NotificationProcessor.
+ *
+ * 通知回调只负责入队，实际解析由固定数量的 worker 执行（默认 1 个，设置页可调），
+ * 群消息刷屏时不会再为每条通知起一个协程去抢 CPU 和 LlamaCpp 的推理锁。
+ *  - 命中关键字的通知进高优先级队列，先处理；
+ *  - 同一条通知（同包名 + 同 sbn.key）在排队期间再次更新时按行合并进已排队的项，不重复排队；
+ *  - 队列满时丢弃最旧的低优先级项；全是高优先级时，新来的低优先级项被丢弃，否则丢弃最旧的高优先级项；
+ *    被挤掉的已排队项交给 [onEvicted]（服务据此撤销 NotificationDeduper 里记下的行）。
+ * 通知回调不能阻塞，所以“背压”体现为上面的有界容量 + 丢弃/合并策略。
+ * 设置了 [batchHandler] 时，worker 一次最多取出 [batchSize] 项交给它一起处理（AI 引擎批量推理，见 NotificationProcessor.processBatch）。
+ * 两个处理函数都是 suspend 的：等待 ML Kit 这类异步结果时 worker 挂起，不占着线程。
+ */
+class NotificationWorkQueue(
+    private val scope: CoroutineScope,
+    private val capacity: Int = DEFAULT_CAPACITY,
+    private val handler: suspend (Item) -> Unit
+) {
+    data class Item(
+        val key: String,
+        val pkg: String,
+        val title: String,
+        val content: String,
+        val highPriority: Boolean,
+        val enqueuedAtMs: Long = nowMs(),
+        // sbn.key as passed to NotificationDeduper.newLines
+        val sbnKey: String? = null,
+        // whole notification text of the latest update; content may hold only its new lines
+        val fullContent: String? = null
+    )
+
+    enum class Offer { QUEUED, MERGED, DROPPED }
+
+    data class Stats(
+        val highDepth: Int,
+        val lowDepth: Int,
+        val capacity: Int,
+        val workers: Int,
+        val processed: Long,
+        val merged: Long,
+        val dropped: Long,
+        val lastWaitMs: Long,
+        val avgWaitMs: Long,
+        val maxWaitMs: Long
+    )
+
+    private val high = ArrayDeque<Item>()
+    private val low = ArrayDeque<Item>()
+    // one token per queued item; tokens of dropped/merged items are simply skipped by the workers
+    private val signal = Channel<Unit>(Channel.UNLIMITED)
+    private val workerJobs = mutableListOf<Job>()
+    private var targetWorkers = 0
+    private var runningWorkers = 0
+
+    /** Handles several items drained at once; null = always one item at a time via handler. */
+    @Volatile
+    var batchHandler: (suspend (List<Item>) -> Unit)? = null
+
+    /** Called (outside the queue lock) with a queued item pushed out by a newer one when the queue is full. */
+    @Volatile
+    var onEvicted: ((Item) -> Unit)? = null
+
+    /** Max items per [batchHandler] call, read before each drain. */
+    @Volatile
+    var batchSize: () -> Int = { 1 }
+
+    private var processed = 0L
+    private var merged = 0L
+    private var dropped = 0L
+    private var lastWaitMs = 0L
+    private var totalWaitMs = 0L
+    private var maxWaitMs = 0L
+
+    fun offer(item: Item): Offer {
+        var evicted: Item? = null
+        synchronized(this) {
+            if (mergeLocked(item)) {
+                merged++
+                return Offer.MERGED
+            }
+            if (high.size + low.size >= capacity) {
+                evicted = when {
+                    low.isNotEmpty() -> low.removeFirst()
+                    !item.highPriority -> { dropped++; return Offer.DROPPED }
+                    else -> high.removeFirst()
+                }
+                dropped++
+            }
+            if (item.highPriority) high.addLast(item) else low.addLast(item)
+        }
+        evicted?.let { old ->
+            try {
+                onEvicted?.invoke(old)
+            } catch (t: Throwable) {
+                Log.w(TAG, "onEvicted failed pkg=${old.pkg}", t)
+            }
+        }
+        signal.trySend(Unit)
+        return Offer.QUEUED
+    }
+
+    // Fold a new update into a still-queued entry for the same notification, keeping its place (and wait time).
+    // Content lines are unioned: updates may carry only the newly appended lines (see NotificationDeduper).
+    private fun mergeLocked(item: Item): Boolean {
+        val hi = high.indexOfFirst { it.key == item.key }
+        if (hi >= 0) {
+            high[hi] = merge(high[hi], item).copy(highPriority = true)
+            return true
+        }
+        val li = low.indexOfFirst { it.key == item.key }
+        if (li < 0) return false
+        val combined = merge(low[li], item)
+        if (item.highPriority) {
+            low.removeAt(li)
+            high.addLast(combined)
+        } else {
+            low[li] = combined
+        }
+        return true
+    }
+
+    private fun merge(old: Item, new: Item): Item {
+        val lines = (old.content.split('\n') + new.content.split('\n')).filter { it.isNotBlank() }.distinct()
+        return new.copy(content = lines.joinToString("\n"), enqueuedAtMs = old.enqueuedAtMs)
+    }
+
+    internal fun poll(): Item? = synchronized(this) { high.removeFirstOrNull() ?: low.removeFirstOrNull() }
+
+    // Up to max items in priority order; their signal tokens are skipped later like those of merged items
+    internal fun pollBatch(max: Int): List<Item> = synchronized(this) {
+        val out = ArrayList<Item>(max.coerceAtLeast(1))
+        while (out.size < max) out.add(high.removeFirstOrNull() ?: low.removeFirstOrNull() ?: break)
+        out
+    }
+
+    /** Starts or resizes the worker pool; extra workers exit after their current item. */
+    fun setWorkers(count: Int) {
+        val toStart: Int
+        synchronized(this) {
+            targetWorkers = count.coerceIn(1, MAX_WORKERS)
+            toStart = (targetWorkers - runningWorkers).coerceAtLeast(0)
+            runningWorkers += toStart
+        }
+        repeat(toStart) {
+            val job = scope.launch { workerLoop() }
+            synchronized(this) { workerJobs.add(job) }
+        }
+    }
+
+    fun stop() {
+        val jobs = synchronized(this) {
+            targetWorkers = 0
+            runningWorkers = 0
+            workerJobs.toList().also { workerJobs.clear() }
+        }
+        jobs.forEach { it.cancel() }
+        signal.close()
+    }
+
+    private suspend fun workerLoop() {
+        while (scope.isActive) {
+            synchronized(this) {
+                if (runningWorkers > targetWorkers) {
+                    runningWorkers--
+                    return
+                }
+            }
+            signal.receiveCatching().getOrNull() ?: return
+            val batch = batchHandler
+            val items = if (batch == null) listOfNotNull(poll()) else pollBatch(batchSize().coerceAtLeast(1))
+            if (items.isEmpty()) continue
+            val now = nowMs()
+            val waits = items.map { (now - it.enqueuedAtMs).coerceAtLeast(0) }
+            try {
+                if (items.size > 1 && batch != null) batch(items) else handler(items[0])
+            } catch (t: Throwable) {
+                Log.w(TAG, "work item failed pkg=${items.joinToString { it.pkg }}", t)
+            }
+            synchronized(this) {
+                for (wait in waits) {
+                    processed++
+                    lastWaitMs = wait
+                    totalWaitMs += wait
+                    if (wait > maxWaitMs) maxWaitMs = wait
+                }
+            }
+        }
+    }
+
+    fun stats(): Stats = synchronized(this) {
+        Stats(
+            highDepth = high.size,
+            lowDepth = low.size,
+            capacity = capacity,
+            workers = targetWorkers,
+            processed = processed,
+            merged = merged,
+            dropped = dropped,
+            lastWaitMs = lastWaitMs,
+            avgWaitMs = if (processed > 0) totalWaitMs / processed else 0,
+            maxWaitMs = maxWaitMs
+        )
+    }
+
+    companion object {
+        private const val TAG = "NotificationWorkQueue"
+        const val DEFAULT_CAPACITY = 64
+        const val DEFAULT_WORKERS = 1
+        const val MAX_WORKERS = 4
+
+        // The queue of the running listener service, for NotificationStatusActivity
+        @Volatile
+        var current: NotificationWorkQueue? = null
+
+        private fun nowMs() = System.nanoTime() / 1_000_000L
+    }
+}
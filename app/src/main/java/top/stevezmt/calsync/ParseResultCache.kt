@@ -0,0 +1,107 @@
+package top.stevezmt.calsync
+
+/**
+ * Parse results shared by all engines, in front of DateTimeParser.parseDateTime.
+ *
+ * 转发的公告、同一条消息在多个应用里各推一次时，同一句话会在短时间内被反复解析（AI / ML Kit 尤其贵）。
+ * 键 = 引擎 id + 规范化句子的 64 位 FNV-1a 哈希 + 设置版本 + 基准时间所在的分钟：
+ *  - 规范化只去掉首尾空白、把连续空白压成一个空格，计算哈希时不分配字符串；
+ *  - 设置一改（引擎、自定义规则、偏好未来时间……）版本号就变，旧结果自然不再命中；
+ *  - “明天”“30分钟后”依赖基准时间，所以只在同一分钟内复用。
+ * 分钟在键里就是有效期：下一分钟的键不同，旧项不会再命中，所以不另设 TTL，旧项由 [maxEntries] 的 LRU 淘汰。
+ * 规则引擎（内置、xk-time）是确定性的，解析失败（null）也缓存；AI / ML Kit 的失败可能是暂时的
+ * （模型未加载、推理被取消、Play 服务不可用），见 [cachesMisses]，只缓存成功的结果。
+ */
+class ParseResultCache(private val maxEntries: Int = DEFAULT_MAX_ENTRIES) {
+    data class Key(val engineId: Int, val sentenceHash: Long, val settingsVersion: Long, val baseMinute: Long)
+
+    /** A cached parse; [result] null = the sentence did not parse. */
+    class Entry(val result: DateTimeParser.ParseResult?)
+
+    data class Stats(
+        val size: Int,
+        val capacity: Int,
+        val hits: Long,
+        val misses: Long,
+        val evicted: Long
+    ) {
+        val hitRate: Double get() = if (hits + misses > 0) hits.toDouble() / (hits + misses) else 0.0
+    }
+
+    private val entries = object : LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>?): Boolean {
+            val full = size > maxEntries
+            if (full) evicted++
+            return full
+        }
+    }
+    private var hits = 0L
+    private var misses = 0L
+    private var evicted = 0L
+
+    /** Cached entry for [key], counting a hit or a miss; null when absent. */
+    fun lookup(key: Key): Entry? = synchronized(this) {
+        val entry = entries[key]
+        if (entry != null) hits++ else misses++
+        entry
+    }
+
+    /** Like [lookup] without touching the counters or the LRU order (used to skip already cached sentences in batches). */
+    fun contains(key: Key): Boolean = synchronized(this) { entries.containsKey(key) }
+
+    fun put(key: Key, result: DateTimeParser.ParseResult?) {
+        synchronized(this) { entries[key] = Entry(result) }
+    }
+
+    fun clear() {
+        synchronized(this) { entries.clear() }
+    }
+
+    fun stats(): Stats = synchronized(this) {
+        Stats(entries.size, maxEntries, hits, misses, evicted)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 256
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL // 0xcbf29ce484222325
+        private const val FNV_PRIME = 0x100000001b3L
+
+        /** Process-wide instance used by DateTimeParser. */
+        val shared = ParseResultCache()
+
+        /** Whether a failed parse (null) of [engine] may be cached: only for the deterministic rule engines. */
+        fun cachesMisses(engine: ParseEngine): Boolean = engine == ParseEngine.BUILTIN || engine == ParseEngine.XK_TIME
+
+        fun keyOf(settings: SettingsSnapshot, sentence: CharSequence, baseMillis: Long): Key =
+            Key(settings.parsingEngine.id, sentenceHash(sentence), settings.version, Math.floorDiv(baseMillis, 60_000L))
+
+        /** FNV-1a over the UTF-16 units of [s], trimmed and with whitespace runs folded to one space. */
+        internal fun sentenceHash(s: CharSequence): Long {
+            var start = 0
+            var end = s.length
+            while (start < end && Character.isWhitespace(s[start])) start++
+            while (end > start && Character.isWhitespace(s[end - 1])) end--
+            var h = FNV_OFFSET
+            var pendingSpace = false
+            for (i in start until end) {
+                val c = s[i]
+                if (Character.isWhitespace(c)) {
+                    pendingSpace = true
+                    continue
+                }
+                if (pendingSpace) {
+                    h = mix(h, ' ')
+                    pendingSpace = false
+                }
+                h = mix(h, c)
+            }
+            return h
+        }
+
+        // one FNV-1a round per byte of the UTF-16 unit
+        private fun mix(h: Long, c: Char): Long {
+            val lo = (h xor (c.code.toLong() and 0xff)) * FNV_PRIME
+            return (lo xor (c.code.toLong() ushr 8)) * FNV_PRIME
+        }
+    }
+}
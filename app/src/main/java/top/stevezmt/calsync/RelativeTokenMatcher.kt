@@ -0,0 +1,197 @@
+package top.stevezmt.calsync
+
+internal data class RelativeSpec(val offsetDays: Int, val ampm: String?)
+
+/**
+ * Relative date words (设置页 “相对日期词”, e.g. 今晚:0:pm / 大后天:3) compiled into an Aho–Corasick automaton.
+ *
+ * 词表只在内容变化时解析、构建一次（SettingsStore.setRelativeDateWords / resetRelativeWords 会主动 invalidate），
+ * 每个句子只扫描一遍即可得到所有命中的相对词，耗时与句长相关而与词数无关。
+ * 命中语义与原来逐词 `sentence.contains(token)` 完全一致：重叠的词（大后天 / 后天）都会算作命中，
+ * am/pm 取词表顺序（长词优先）中第一个提供 am/pm 的词。
+ */
+internal object RelativeTokenMatcher {
+
+    class Automaton internal constructor(
+        internal val raw: List<String>?,
+        val tokens: List<String>,
+        private val specs: List<RelativeSpec>,
+        private val goKeys: Array<CharArray>,
+        private val goNext: Array<IntArray>,
+        private val fail: IntArray,
+        private val out: Array<IntArray>
+    ) {
+        val isEmpty: Boolean get() = tokens.isEmpty()
+
+        /** Single left-to-right scan over [s]; returns null when no token occurs. */
+        fun scan(s: CharSequence): Hits? {
+            if (tokens.isEmpty()) return null
+            var hit: BooleanArray? = null
+            var state = 0
+            for (i in 0 until s.length) {
+                val ch = s[i]
+                var next = step(state, ch)
+                while (next < 0 && state != 0) {
+                    state = fail[state]
+                    next = step(state, ch)
+                }
+                state = if (next < 0) 0 else next
+                val o = out[state]
+                if (o.isNotEmpty()) {
+                    if (hit == null) hit = BooleanArray(tokens.size)
+                    for (idx in o) hit[idx] = true
+                }
+            }
+            return hit?.let { Hits(this, it) }
+        }
+
+        internal fun spec(index: Int) = specs[index]
+
+        private fun step(state: Int, ch: Char): Int {
+            val keys = goKeys[state]
+            val k = java.util.Arrays.binarySearch(keys, ch)
+            return if (k >= 0) goNext[state][k] else -1
+        }
+    }
+
+    /** Tokens found in one sentence, in word-list order. */
+    class Hits internal constructor(private val automaton: Automaton, private val hit: BooleanArray) {
+        /** Largest offset among all hits (relative token mapping step). */
+        val maxOffset: Int
+        /** am/pm of the first hit (in word-list order) that carries one. */
+        val ampm: String?
+        /** Day offset used next to an explicit time: largest positive, else smallest negative, else 0. */
+        val dayOffset: Int
+
+        init {
+            var max = Int.MIN_VALUE
+            var firstAmpm: String? = null
+            var maxPositive = 0
+            var minNegative = 0
+            for (i in hit.indices) {
+                if (!hit[i]) continue
+                val spec = automaton.spec(i)
+                if (spec.offsetDays > max) max = spec.offsetDays
+                if (firstAmpm == null && spec.ampm != null) firstAmpm = spec.ampm
+                if (spec.offsetDays > maxPositive) maxPositive = spec.offsetDays
+                if (spec.offsetDays < minNegative) minNegative = spec.offsetDays
+            }
+            maxOffset = max
+            ampm = firstAmpm
+            dayOffset = if (maxPositive > 0) maxPositive else minNegative
+        }
+
+        fun tokens(): List<String> = automaton.tokens.filterIndexed { i, _ -> hit[i] }
+    }
+
+    @Volatile
+    private var current: Automaton? = null
+
+    // Default relative tokens when no Settings context is available (for standalone API)
+    val DEFAULT: Automaton by lazy {
+        val map = linkedMapOf<String, RelativeSpec>()
+        // Order matters: prefer specific time-of-day tokens first, then day tokens
+        map["今晚"] = RelativeSpec(0, "pm")
+        map["明晚"] = RelativeSpec(1, "pm")
+        map["下午"] = RelativeSpec(0, "pm")
+        map["上午"] = RelativeSpec(0, "am")
+        map["中午"] = RelativeSpec(0, "pm")
+        map["凌晨"] = RelativeSpec(0, null)
+        map["今天"] = RelativeSpec(0, null)
+        map["明天"] = RelativeSpec(1, null)
+        map["后天"] = RelativeSpec(2, null)
+        map["大后天"] = RelativeSpec(3, null)
+        build(map, null)
+    }
+
+    fun invalidate() {
+        current = null
+    }
+
+    fun get(rawList: List<String>): Automaton {
+        val c = current
+        if (c != null && (c.raw === rawList || c.raw == rawList)) return c
+        val built = build(parse(rawList), rawList)
+        current = built
+        return built
+    }
+
+    internal fun parse(rawList: List<String>): LinkedHashMap<String, RelativeSpec> {
+        // User now inputs tokens in a structured string list in Settings (we still store plain list for compatibility)
+        // Expected format each item: token[:offset[:ampm]] or JSON-like ["今晚":0,pm]; but to keep backward compat we parse heuristically.
+        val map = linkedMapOf<String, RelativeSpec>()
+        for (raw in rawList.sortedByDescending { it.length }) { // prefer longer first
+            val cleaned = raw.trim().trim('[',']',';')
+            // patterns: "今晚":0,pm or 今晚:0:pm or 今晚:0 or 今晚
+            val colonSplit = cleaned.split(':')
+            var token = cleaned
+            var offset = 0
+            var ampm: String? = null
+            try {
+                if (colonSplit.isNotEmpty()) token = colonSplit[0].substringAfter('"').substringBeforeLast('"').ifBlank { colonSplit[0] }
+                if (colonSplit.size >= 2) offset = colonSplit[1].split(',')[0].filter { it.isDigit() || it == '-' }.toIntOrNull() ?: 0
+                // find am/pm marker (am/pm) after comma or third part
+                if (colonSplit.size >= 3) {
+                    ampm = colonSplit[2].lowercase().takeIf { it == "am" || it == "pm" }
+                } else if (cleaned.contains(",pm", true)) ampm = "pm" else if (cleaned.contains(",am", true)) ampm = "am"
+            } catch (_: Exception) {}
+            if (token.isNotBlank()) map[token] = RelativeSpec(offset, ampm)
+        }
+        // defaults if user list empty
+        if (map.isEmpty()) {
+            map["今天"] = RelativeSpec(0,null)
+            map["今晚"] = RelativeSpec(0,"pm")
+            map["明天"] = RelativeSpec(1,null)
+            map["明晚"] = RelativeSpec(1,"pm")
+            map["后天"] = RelativeSpec(2,null)
+            map["大后天"] = RelativeSpec(3,null)
+            map["明早"] = RelativeSpec(1,"am")
+            map["明晨"] = RelativeSpec(1,"am")
+            map["明午"] = RelativeSpec(1,"pm")
+        }
+        return map
+    }
+
+    internal fun build(map: LinkedHashMap<String, RelativeSpec>, raw: List<String>?): Automaton {
+        val tokens = map.keys.toList()
+        val specs = map.values.toList()
+        // trie
+        val edges = mutableListOf(sortedMapOf<Char, Int>())
+        val outs = mutableListOf(mutableListOf<Int>())
+        for ((idx, token) in tokens.withIndex()) {
+            var node = 0
+            for (ch in token) {
+                node = edges[node].getOrPut(ch) {
+                    edges.add(sortedMapOf())
+                    outs.add(mutableListOf())
+                    edges.size - 1
+                }
+            }
+            outs[node].add(idx)
+        }
+        // failure links (BFS), merging outputs of the fallback chain into each node
+        val fail = IntArray(edges.size)
+        val queue = ArrayDeque<Int>()
+        for (child in edges[0].values) queue.addLast(child)
+        while (queue.isNotEmpty()) {
+            val node = queue.removeFirst()
+            for ((ch, child) in edges[node]) {
+                var f = fail[node]
+                while (f != 0 && ch !in edges[f]) f = fail[f]
+                val target = edges[f][ch]
+                fail[child] = if (target != null && target != child) target else 0
+                outs[child].addAll(outs[fail[child]])
+                queue.addLast(child)
+            }
+        }
+        return Automaton(
+            raw,
+            tokens,
+            specs,
+            Array(edges.size) { edges[it].keys.toCharArray() },
+            Array(edges.size) { edges[it].values.toIntArray() },
+            fail,
+            Array(outs.size) { outs[it].distinct().toIntArray() }
+        )
+    }
+}
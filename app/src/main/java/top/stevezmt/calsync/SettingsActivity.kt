@@ -28,6 +28,7 @@ class SettingsActivity : AppCompatActivity() {
     private lateinit var relativeWordsEdit: EditText
     private lateinit var customRulesEdit: EditText
     private lateinit var reminderMinutesEdit: EditText
+    private var queueWorkersEdit: EditText? = null
     private var selectAppBtn: Button? = null
     private var selectAppsBtn: Button? = null
     private var selectedAppsText: android.widget.TextView? = null
@@ -38,7 +39,12 @@ class SettingsActivity : AppCompatActivity() {
     private var eventEngineInput: MaterialAutoCompleteTextView? = null
     private var aiModelPathEdit: EditText? = null
     private var pickAiModelBtn: Button? = null
+    private var aiDraftModelEdit: EditText? = null
+    private var pickAiDraftModelBtn: Button? = null
     private var aiPromptEdit: EditText? = null
+    private var aiStructuredSlotsSwitch: com.google.android.material.materialswitch.MaterialSwitch? = null
+    private var aiPinBigCoresSwitch: com.google.android.material.materialswitch.MaterialSwitch? = null
+    private var aiIdleUnloadEdit: EditText? = null
     private var aiSection: android.view.View? = null
     private var guessBeforeParseSwitch: com.google.android.material.materialswitch.MaterialSwitch? = null
     private var fabSave: com.google.android.material.floatingactionbutton.FloatingActionButton? = null
@@ -58,6 +64,19 @@ class SettingsActivity : AppCompatActivity() {
         Toast.makeText(this, "已选择模型文件", Toast.LENGTH_SHORT).show()
     }
 
+    private val pickAiDraftModelLauncher = registerForActivityResult(
+        ActivityResultContracts.OpenDocument()
+    ) { uri: Uri? ->
+        if (uri == null) return@registerForActivityResult
+        try {
+            contentResolver.takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        } catch (_: Throwable) {}
+        val uriStr = uri.toString()
+        aiDraftModelEdit?.setText(uriStr)
+        SettingsStore.setAiDraftModelUri(this, uriStr)
+        Toast.makeText(this, "已选择草稿模型", Toast.LENGTH_SHORT).show()
+    }
+
     private val requestCalendarPermission = registerForActivityResult(
         ActivityResultContracts.RequestPermission()
     ) { granted ->
@@ -88,6 +107,7 @@ class SettingsActivity : AppCompatActivity() {
         relativeWordsEdit = findViewById(R.id.edit_relative_words)
         customRulesEdit = findViewById(R.id.edit_custom_rules)
         reminderMinutesEdit = findViewById(R.id.edit_reminder_minutes)
+        queueWorkersEdit = findViewById(R.id.edit_queue_workers)
         // try to locate optional button id without crashing if it's absent in newer layouts
         // Use reflection to read the generated R.id.<name> field at runtime so we don't
         // reference a missing R.id constant at compile time.
@@ -109,7 +129,12 @@ class SettingsActivity : AppCompatActivity() {
         eventEngineInput = findViewById(R.id.input_event_engine)
         aiModelPathEdit = findViewById(R.id.edit_ai_model_path)
         pickAiModelBtn = findViewById(R.id.btn_pick_ai_model)
+        aiDraftModelEdit = findViewById(R.id.edit_ai_draft_model_path)
+        pickAiDraftModelBtn = findViewById(R.id.btn_pick_ai_draft_model)
         aiPromptEdit = findViewById(R.id.edit_ai_prompt)
+        aiStructuredSlotsSwitch = findViewById(R.id.switch_ai_structured_slots)
+        aiPinBigCoresSwitch = findViewById(R.id.switch_ai_pin_big_cores)
+        aiIdleUnloadEdit = findViewById(R.id.edit_ai_idle_unload_minutes)
         aiSection = findViewById(R.id.ai_section)
         guessBeforeParseSwitch = findViewById(R.id.switch_guess_before_parse)
         fabSave = findViewById(R.id.fab_save)
@@ -120,6 +145,7 @@ class SettingsActivity : AppCompatActivity() {
         relativeWordsEdit.setText(SettingsStore.getRelativeDateWords(this).joinToString(","))
         customRulesEdit.setText(SettingsStore.getCustomRules(this).joinToString(","))
         reminderMinutesEdit.setText(SettingsStore.getReminderMinutes(this).toString())
+        queueWorkersEdit?.setText(SettingsStore.getQueueWorkers(this).toString())
         refreshPreferFutureSelection()
 
         setupParsingEngineUi()
@@ -188,6 +214,9 @@ class SettingsActivity : AppCompatActivity() {
             // SAF picker: keep it permissive, validate extension later when runtime exists.
             pickAiModelLauncher.launch(arrayOf("*/*"))
         }
+        pickAiDraftModelBtn?.setOnClickListener {
+            pickAiDraftModelLauncher.launch(arrayOf("*/*"))
+        }
     }
 
     override fun onResume() {
@@ -313,6 +342,7 @@ class SettingsActivity : AppCompatActivity() {
                     }
                 } else {
                     SettingsStore.setParsingEngine(this, picked)
+                    if (picked == ParseEngine.ML_KIT) MLKitExtractorHolder.warmUp()
                     // Mirror to event engine per rule
                     eventEngineInput?.setText(SettingsStore.getEventParsingEngine(this).displayName, false)
                     syncUiForEngineCoupling()
@@ -372,6 +402,7 @@ class SettingsActivity : AppCompatActivity() {
                     }
                 } else {
                     SettingsStore.setEventParsingEngine(this, picked)
+                    if (picked == EventParseEngine.ML_KIT) MLKitExtractorHolder.warmUp()
                     // Mirror back to datetime engine per rule
                     parseEngineInput?.setText(SettingsStore.getParsingEngine(this).displayName, false)
                     syncUiForEngineCoupling()
@@ -385,7 +416,11 @@ class SettingsActivity : AppCompatActivity() {
     private fun setupAiModelUi() {
         try {
             aiModelPathEdit?.setText(SettingsStore.getAiGgufModelUri(this) ?: "")
+            aiDraftModelEdit?.setText(SettingsStore.getAiDraftModelUri(this) ?: "")
             aiPromptEdit?.setText(SettingsStore.getAiSystemPrompt(this))
+            aiStructuredSlotsSwitch?.isChecked = SettingsStore.isAiStructuredSlotsEnabled(this)
+            aiPinBigCoresSwitch?.isChecked = SettingsStore.isAiPinBigCoresEnabled(this)
+            aiIdleUnloadEdit?.setText(SettingsStore.getAiIdleUnloadMinutes(this).toString())
             syncUiForEngineCoupling()
         } catch (_: Throwable) {}
     }
@@ -419,10 +454,13 @@ class SettingsActivity : AppCompatActivity() {
         val rawCR = customRulesEdit.text.toString()
         val crList = rawCR.split(',').map { it.trim() }.filter { it.isNotEmpty() }
         SettingsStore.setCustomRules(this, crList)
+        val invalidRules = CustomRuleEngine.validate(crList)
 
         val reminderMins = reminderMinutesEdit.text.toString().toIntOrNull() ?: 10
         SettingsStore.setReminderMinutes(this, reminderMins)
 
+        queueWorkersEdit?.text?.toString()?.toIntOrNull()?.let { SettingsStore.setQueueWorkers(this, it) }
+
         // save preferFuture selection
         try {
             val opt = when {
@@ -458,10 +496,25 @@ class SettingsActivity : AppCompatActivity() {
             val prompt = aiPromptEdit?.text?.toString() ?: ""
             SettingsStore.setAiSystemPrompt(this, prompt)
         } catch (_: Exception) {}
+        try {
+            SettingsStore.setAiStructuredSlotsEnabled(this, aiStructuredSlotsSwitch?.isChecked != false)
+        } catch (_: Exception) {}
+        try {
+            // takes effect the next time the model is loaded
+            SettingsStore.setAiPinBigCoresEnabled(this, aiPinBigCoresSwitch?.isChecked == true)
+        } catch (_: Exception) {}
+        try {
+            aiIdleUnloadEdit?.text?.toString()?.toIntOrNull()?.let { SettingsStore.setAiIdleUnloadMinutes(this, it) }
+        } catch (_: Exception) {}
         try {
             val uri = aiModelPathEdit?.text?.toString()?.takeIf { it.isNotBlank() }
             SettingsStore.setAiGgufModelUri(this, uri)
         } catch (_: Exception) {}
+        try {
+            // cleared field = speculative decoding off
+            val draft = aiDraftModelEdit?.text?.toString()?.trim()?.takeIf { it.isNotEmpty() }
+            SettingsStore.setAiDraftModelUri(this, draft)
+        } catch (_: Exception) {}
 
         // Refresh UI to reflect coupling/visibility
         try {
@@ -470,7 +523,17 @@ class SettingsActivity : AppCompatActivity() {
             syncUiForEngineCoupling()
         } catch (_: Throwable) {}
 
-        Toast.makeText(this, "配置已保存", Toast.LENGTH_SHORT).show()
+        if (invalidRules.isNotEmpty()) {
+            // Report invalid custom rules once here; the parser silently skips them afterwards
+            val detail = invalidRules.joinToString("\n") { "• ${it.rule}\n  ${it.error}" }
+            AlertDialog.Builder(this)
+                .setTitle("配置已保存")
+                .setMessage("以下自定义规则无效，解析时将被忽略：\n$detail")
+                .setPositiveButton(android.R.string.ok, null)
+                .show()
+        } else {
+            Toast.makeText(this, "配置已保存", Toast.LENGTH_SHORT).show()
+        }
     }
 
     private fun showAiWarningDialog(callback: (Boolean) -> Unit) {
@@ -0,0 +1,35 @@
+package top.stevezmt.calsync
+
+import top.stevezmt.calsync.llm.ModelLifecycle
+
+/**
+ * Immutable view of the settings read by the notification pipeline.
+ *
+ * Obtain it via [SettingsStore.snapshot]; one processing run should read everything from the same
+ * snapshot so the settings stay consistent even if the user saves in the middle of a run.
+ * [version] increases every time the underlying preferences change.
+ */
+data class SettingsSnapshot(
+    val version: Long,
+    val keywords: List<String>,
+    val selectedSourceAppPkgs: List<String>,
+    val selectedCalendarId: Long?,
+    val reminderMinutes: Int,
+    val parsingEngine: ParseEngine,
+    val eventParsingEngine: EventParseEngine,
+    val timeNLPEnabled: Boolean,
+    // null = auto, true = prefer future, false = disabled (see SettingsStore.getPreferFutureBoolean)
+    val preferFuture: Boolean?,
+    val guessBeforeParse: Boolean,
+    val relativeDateWords: List<String>,
+    val customRulesRaw: String?,
+    val customRules: List<String>,
+    val aiGgufModelUri: String?,
+    val aiSystemPrompt: String,
+    // AI outputs date/time slots resolved in Kotlin instead of epoch millis (see EventSlotSchema)
+    val aiStructuredSlots: Boolean = true,
+    // 0 = keep the model loaded between inferences
+    val aiIdleUnloadMinutes: Int = ModelLifecycle.DEFAULT_IDLE_UNLOAD_MINUTES,
+    // draft model for speculative decoding, null = off
+    val aiDraftModelUri: String? = null
+)
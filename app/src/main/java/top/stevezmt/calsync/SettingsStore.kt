@@ -1,7 +1,10 @@
 package top.stevezmt.calsync
 
 import android.content.Context
+import android.content.SharedPreferences
 import androidx.core.content.edit
+import top.stevezmt.calsync.llm.ModelLifecycle
+import java.util.concurrent.atomic.AtomicLong
 
 object SettingsStore {
     private const val PREFS = "calsync_prefs"
@@ -28,11 +31,80 @@ object SettingsStore {
     // Local AI model (optional)
     private const val KEY_AI_GGUF_URI = "ai_gguf_uri"
     private const val KEY_AI_SYSTEM_PROMPT = "ai_system_prompt"
+    private const val KEY_AI_STRUCTURED_SLOTS = "ai_structured_slots"
+    private const val KEY_AI_PIN_BIG_CORES = "ai_pin_big_cores"
+    private const val KEY_AI_IDLE_UNLOAD_MINUTES = "ai_idle_unload_minutes"
+    private const val KEY_AI_DRAFT_GGUF_URI = "ai_draft_gguf_uri"
 
     // Battery saver: lightweight guess before full parsing
     private const val KEY_GUESS_BEFORE_PARSE = "guess_before_parse"
     private const val KEY_PRIVACY_ACCEPTED = "privacy_accepted"
 
+    // Notification processing queue: number of parallel workers
+    private const val KEY_QUEUE_WORKERS = "queue_workers"
+
+    // ===== Snapshot (read once per processing run) =====
+    private val snapshotVersion = AtomicLong(0)
+    @Volatile private var cachedSnapshot: SettingsSnapshot? = null
+    @Volatile private var snapshotPrefs: SharedPreferences? = null
+    // Held strongly: SharedPreferences only keeps weak references to its listeners
+    private val snapshotListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ -> invalidateSnapshot() }
+
+    /**
+     * Immutable settings view for the notification pipeline. Loaded once and reused until the
+     * preferences change (change listener, or explicit invalidation by the setters below).
+     */
+    fun snapshot(context: Context): SettingsSnapshot {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        val cached = cachedSnapshot
+        if (cached != null && snapshotPrefs === prefs) return cached
+        synchronized(this) {
+            if (snapshotPrefs !== prefs) {
+                try { snapshotPrefs?.unregisterOnSharedPreferenceChangeListener(snapshotListener) } catch (_: Throwable) {}
+                prefs.registerOnSharedPreferenceChangeListener(snapshotListener)
+                snapshotPrefs = prefs
+                snapshotVersion.incrementAndGet()
+            }
+            val version = snapshotVersion.get()
+            val snap = loadSnapshot(context, version)
+            // Only publish if nothing changed while loading; otherwise the next caller reloads.
+            cachedSnapshot = if (snapshotVersion.get() == version) snap else null
+            return snap
+        }
+    }
+
+    // Same lock as snapshot(): an invalidation can no longer land between its version check and the publish
+    fun invalidateSnapshot() {
+        synchronized(this) {
+            snapshotVersion.incrementAndGet()
+            cachedSnapshot = null
+        }
+    }
+
+    private fun loadSnapshot(context: Context, version: Long): SettingsSnapshot {
+        val customRulesRaw = getCustomRulesRaw(context)
+        return SettingsSnapshot(
+            version = version,
+            keywords = getKeywords(context),
+            selectedSourceAppPkgs = getSelectedSourceAppPkgs(context),
+            selectedCalendarId = getSelectedCalendarId(context),
+            reminderMinutes = getReminderMinutes(context),
+            parsingEngine = getParsingEngine(context),
+            eventParsingEngine = getEventParsingEngine(context),
+            timeNLPEnabled = isTimeNLPEnabled(context),
+            preferFuture = getPreferFutureBoolean(context),
+            guessBeforeParse = isGuessBeforeParseEnabled(context),
+            relativeDateWords = getRelativeDateWords(context),
+            customRulesRaw = customRulesRaw,
+            customRules = parseCustomRules(customRulesRaw),
+            aiGgufModelUri = getAiGgufModelUri(context),
+            aiDraftModelUri = getAiDraftModelUri(context),
+            aiSystemPrompt = getAiSystemPrompt(context),
+            aiStructuredSlots = isAiStructuredSlotsEnabled(context),
+            aiIdleUnloadMinutes = getAiIdleUnloadMinutes(context)
+        )
+    }
+
     fun isPrivacyAccepted(context: Context): Boolean {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         return prefs.getBoolean(KEY_PRIVACY_ACCEPTED, false)
@@ -56,11 +128,13 @@ object SettingsStore {
     fun setKeywords(context: Context, keywords: List<String>) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_KEYWORDS, keywords.joinToString(",")) }
+        invalidateSnapshot()
     }
 
     fun setSelectedCalendar(context: Context, id: Long, name: String) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putLong(KEY_CAL_ID, id).putString(KEY_CAL_NAME, name) }
+        invalidateSnapshot()
     }
 
     fun getSelectedCalendarId(context: Context): Long? {
@@ -101,6 +175,7 @@ object SettingsStore {
                 else -> putInt(KEY_EVENT_ENGINE, EventParseEngine.BUILTIN.id)
             }
         }
+        invalidateSnapshot()
     }
 
     fun getEventParsingEngine(context: Context): EventParseEngine {
@@ -125,6 +200,7 @@ object SettingsStore {
                 }
             }
         }
+        invalidateSnapshot()
     }
 
     fun getReminderMinutes(context: Context): Int {
@@ -135,6 +211,21 @@ object SettingsStore {
     fun setReminderMinutes(context: Context, minutes: Int) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putInt(KEY_REMINDER_MINUTES, minutes) }
+        invalidateSnapshot()
+    }
+
+    fun getQueueWorkers(context: Context): Int {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        return prefs.getInt(KEY_QUEUE_WORKERS, NotificationWorkQueue.DEFAULT_WORKERS)
+            .coerceIn(1, NotificationWorkQueue.MAX_WORKERS)
+    }
+
+    fun setQueueWorkers(context: Context, workers: Int) {
+        val n = workers.coerceIn(1, NotificationWorkQueue.MAX_WORKERS)
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit { putInt(KEY_QUEUE_WORKERS, n) }
+        // resize the running pool right away
+        NotificationWorkQueue.current?.setWorkers(n)
     }
 
     fun isGuessBeforeParseEnabled(context: Context): Boolean {
@@ -145,6 +236,7 @@ object SettingsStore {
     fun setGuessBeforeParseEnabled(context: Context, enabled: Boolean) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putBoolean(KEY_GUESS_BEFORE_PARSE, enabled) }
+        invalidateSnapshot()
     }
 
     fun getAiGgufModelUri(context: Context): String? {
@@ -155,6 +247,19 @@ object SettingsStore {
     fun setAiGgufModelUri(context: Context, uri: String?) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_AI_GGUF_URI, uri) }
+        invalidateSnapshot()
+    }
+
+    // Optional small GGUF with the main model's vocabulary, used for speculative decoding
+    fun getAiDraftModelUri(context: Context): String? {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        return prefs.getString(KEY_AI_DRAFT_GGUF_URI, null)?.takeIf { it.isNotBlank() }
+    }
+
+    fun setAiDraftModelUri(context: Context, uri: String?) {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit { putString(KEY_AI_DRAFT_GGUF_URI, uri) }
+        invalidateSnapshot()
     }
 
     fun getAiSystemPrompt(context: Context): String {
@@ -165,12 +270,48 @@ object SettingsStore {
     fun setAiSystemPrompt(context: Context, prompt: String) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_AI_SYSTEM_PROMPT, prompt) }
+        invalidateSnapshot()
+    }
+
+    fun isAiStructuredSlotsEnabled(context: Context): Boolean {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        return prefs.getBoolean(KEY_AI_STRUCTURED_SLOTS, true)
+    }
+
+    fun setAiStructuredSlotsEnabled(context: Context, enabled: Boolean) {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit { putBoolean(KEY_AI_STRUCTURED_SLOTS, enabled) }
+        invalidateSnapshot()
+    }
+
+    // Pin inference threads to the fastest cores (read by LlamaCpp when a model is loaded)
+    fun isAiPinBigCoresEnabled(context: Context): Boolean {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        return prefs.getBoolean(KEY_AI_PIN_BIG_CORES, false)
+    }
+
+    fun setAiPinBigCoresEnabled(context: Context, enabled: Boolean) {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit { putBoolean(KEY_AI_PIN_BIG_CORES, enabled) }
+    }
+
+    // Minutes without inference before the model is unloaded; 0 keeps it loaded (see ModelLifecycle)
+    fun getAiIdleUnloadMinutes(context: Context): Int {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        return prefs.getInt(KEY_AI_IDLE_UNLOAD_MINUTES, ModelLifecycle.DEFAULT_IDLE_UNLOAD_MINUTES)
+            .coerceIn(0, ModelLifecycle.MAX_IDLE_UNLOAD_MINUTES)
+    }
+
+    fun setAiIdleUnloadMinutes(context: Context, minutes: Int) {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        prefs.edit { putInt(KEY_AI_IDLE_UNLOAD_MINUTES, minutes.coerceIn(0, ModelLifecycle.MAX_IDLE_UNLOAD_MINUTES)) }
+        invalidateSnapshot()
     }
 
     private fun defaultAiSystemPrompt(): String {
         return """
-你是一个日程解析器。请从输入文本中提取一个事件的开始时间(start)与结束时间(end)，并尽量给出简短标题(title)和地点(location)。
-输出必须是 JSON：{\"start\":<epochMillis>,\"end\":<epochMillis|null>,\"title\":<string|null>,\"location\":<string|null>}。
+你是一个日程解析器。请从输入文本中提取一个事件的时间，并尽量给出简短标题(title)和地点(location)。
+输出必须是下面说明的 JSON 格式。
 若无法解析，输出空 JSON：{}。
 """.trimIndent()
     }
@@ -185,6 +326,7 @@ object SettingsStore {
     fun setPreferFutureOption(context: Context, option: Int) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putInt(KEY_PREFER_FUTURE, option) }
+        invalidateSnapshot()
     }
 
     // Helper: returns nullable Boolean: null = Auto, true = prefer future, false = disable
@@ -200,6 +342,8 @@ object SettingsStore {
     fun setRelativeDateWords(context: Context, words: List<String>) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_RELATIVE_WORDS, words.joinToString(",")) }
+        RelativeTokenMatcher.invalidate()
+        invalidateSnapshot()
     }
 
     private fun defaultRelativeWords(): List<String> = listOf(
@@ -226,20 +370,28 @@ object SettingsStore {
         prefs.edit { putBoolean(KEY_KEEP_ALIVE, enabled) }
     }
 
-    fun getCustomRules(context: Context): List<String> {
+    fun getCustomRules(context: Context): List<String> = parseCustomRules(getCustomRulesRaw(context))
+
+    // Raw stored string; CustomRuleEngine uses it as the cache key for the compiled rules
+    internal fun getCustomRulesRaw(context: Context): String? {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
-        val raw = prefs.getString(KEY_CUSTOM_RULES, null)
-        return if (raw.isNullOrBlank()) emptyList() else raw.split(',').map { it.trim() }.filter { it.isNotEmpty() }
+        return prefs.getString(KEY_CUSTOM_RULES, null)
     }
 
+    internal fun parseCustomRules(raw: String?): List<String> =
+        if (raw.isNullOrBlank()) emptyList() else raw.split(',').map { it.trim() }.filter { it.isNotEmpty() }
+
     fun setCustomRules(context: Context, rules: List<String>) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_CUSTOM_RULES, rules.joinToString(",")) }
+        CustomRuleEngine.invalidate()
+        invalidateSnapshot()
     }
 
     fun setSelectedSourceApp(context: Context, pkg: String?, name: String?) {
         val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
         prefs.edit { putString(KEY_SELECTED_APP_PKG, pkg).putString(KEY_SELECTED_APP_NAME, name) }
+        invalidateSnapshot()
     }
 
     fun getSelectedSourceAppPkg(context: Context): String? {
@@ -259,6 +411,7 @@ object SettingsStore {
             putString(KEY_SELECTED_APP_PKGS, pkgs.joinToString(","))
                 .putString(KEY_SELECTED_APP_NAMES, names.joinToString(","))
         }
+        invalidateSnapshot()
     }
 
     fun getSelectedSourceAppPkgs(context: Context): List<String> {
@@ -6,8 +6,8 @@ import java.util.Calendar
 
 object TimeNLPAdapter {
     private const val TAG = "TimeNLPAdapter"
-    private var initialized = false
-    private lateinit var normalizer: TimeNormalizer
+    // TimeNormalizer.parse keeps no state between calls: one instance serves every thread without a lock
+    private val normalizer = TimeNormalizer()
 
     // Simple parse result with a confidence score (0..1)
     data class ParseSlot(val startMillis: Long, val endMillis: Long?, val text: String, val confidence: Double = 1.0)
@@ -22,15 +22,12 @@ object TimeNLPAdapter {
         }
     }
 
-    fun init() {
-        if (initialized) return
-        normalizer = TimeNormalizer()
-        // no external model file for the simplified integration; the internal regex is used
-        initialized = true
+    internal fun clearCache() {
+        synchronized(cache) { cache.clear() }
     }
 
+    // Reentrant: everything below works on locals (the returned units, per-call calendars); only the cache is shared
     fun parse(text: String, baseMillis: Long = System.currentTimeMillis()): List<ParseSlot> {
-        if (!initialized) init()
         // key by minute to avoid cache miss due to millisecond differences
         val baseMinute = baseMillis / (60*1000L)
         val key = CacheKey(text, baseMinute)
@@ -40,8 +37,7 @@ object TimeNLPAdapter {
 
         val cal = Calendar.getInstance()
         cal.timeInMillis = baseMillis
-        normalizer.parse(text, cal)
-        val units = normalizer.timeUnits
+        val units = normalizer.parse(text, cal)
         // Debugging aid: log units for Friday 3 to 5 range to diagnose merging
         if (text.contains("周") && text.contains("3点") && text.contains("5点")) {
             Log.d(TAG, "[TimeNLPAdapter DEBUG] parsing text='" + text + "' units.size=" + units.size)
@@ -54,24 +50,10 @@ object TimeNLPAdapter {
         }
         // Quick direct patterns for relative durations not always captured as time-info units
         // e.g. "3个半小时后", "1天2小时后" — build slots directly from base
-        fun parseChineseOrArabicK(s: String): Int {
-            try { return s.toInt() } catch (_: Exception) {}
-            val map = mapOf('零' to 0,'〇' to 0,'一' to 1,'二' to 2,'两' to 2,'三' to 3,'四' to 4,'五' to 5,'六' to 6,'七' to 7,'八' to 8,'九' to 9)
-            var temp = 0
-            for (c in s) {
-                when (c) {
-                    '十' -> { if (temp == 0) temp = 1; temp *= 10 }
-                    '百' -> { if (temp == 0) temp = 1; temp *= 100 }
-                    else -> if (map.containsKey(c)) { temp = temp * 10 + map[c]!! }
-                }
-            }
-            if (temp == 0) return 0
-            return temp
-        }
         // direct half-hour
         val halfMatch = Regex("([一二三四五六七八九十百零0-9]+)个?半小时后").find(text)
         if (halfMatch != null) {
-            val n = parseChineseOrArabicK(halfMatch.groupValues[1])
+            val n = ChineseNumerals.parse(halfMatch.groupValues[1])
             val bc = Calendar.getInstance(); bc.timeInMillis = baseMillis
             bc.add(Calendar.HOUR_OF_DAY, n)
             bc.add(Calendar.MINUTE, 30)
@@ -81,8 +63,8 @@ object TimeNLPAdapter {
         }
         val combinedMatch = Regex("([一二三四五六七八九十百零0-9]+)天([一二三四五六七八九十百零0-9]+)小时后").find(text)
         if (combinedMatch != null) {
-            val d = parseChineseOrArabicK(combinedMatch.groupValues[1])
-            val h = parseChineseOrArabicK(combinedMatch.groupValues[2])
+            val d = ChineseNumerals.parse(combinedMatch.groupValues[1])
+            val h = ChineseNumerals.parse(combinedMatch.groupValues[2])
             val bc = Calendar.getInstance(); bc.timeInMillis = baseMillis
             bc.add(Calendar.DAY_OF_MONTH, d)
             bc.add(Calendar.HOUR_OF_DAY, h)
@@ -0,0 +1,37 @@
+package top.stevezmt.calsync.llm
+
+import java.util.Collections
+
+/**
+ * Cooperative cancellation of one LlamaCpp.complete call.
+ *
+ * native 层在 prompt 分块之间和每个 token 采样前轮询 [isCancelled]，取消后当前调用尽快返回已生成的部分。
+ * [cancelAll] 取消所有正在进行的推理（例如通知监听服务被销毁时），不影响之后新建的 token。
+ */
+class CancellationToken {
+    @Volatile
+    var isCancelled: Boolean = false
+        private set
+
+    fun cancel() {
+        isCancelled = true
+    }
+
+    companion object {
+        private val active = Collections.synchronizedSet(HashSet<CancellationToken>())
+
+        internal fun register(token: CancellationToken) {
+            active.add(token)
+        }
+
+        internal fun unregister(token: CancellationToken) {
+            active.remove(token)
+        }
+
+        /** Cancels every inference currently running with a token. */
+        fun cancelAll() {
+            val running = synchronized(active) { active.toList() }
+            running.forEach { it.cancel() }
+        }
+    }
+}
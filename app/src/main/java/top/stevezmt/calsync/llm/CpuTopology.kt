@@ -0,0 +1,88 @@
+package top.stevezmt.calsync.llm
+
+import android.util.Log
+import java.io.File
+
+/**
+ * CPU topology probe for choosing inference threads.
+ *
+ * 读取 /sys/devices/system/cpu/cpuN 下的 cpu_capacity（内核给出的相对算力，big.LITTLE 上最可靠）
+ * 和 cpufreq/cpuinfo_max_freq；两者都读不到时视为同构 CPU。
+ * 大核 = 得分不低于最高分 [BIG_CORE_RATIO] 的核心；小核只在 prompt 批处理时才可能有用。
+ */
+object CpuTopology {
+    private const val TAG = "CpuTopology"
+    private const val BIG_CORE_RATIO = 0.8
+    // decode is memory-bound: more threads than this rarely helps on phones
+    private const val MAX_DECODE_THREADS = 4
+    private const val MAX_BATCH_THREADS = 8
+
+    data class Core(val id: Int, val capacity: Int?, val maxFreqKHz: Long?) {
+        // capacity wins when present; frequency otherwise
+        val score: Long get() = capacity?.toLong() ?: maxFreqKHz ?: 0L
+    }
+
+    @Volatile
+    private var cached: List<Core>? = null
+
+    fun cores(): List<Core> = cached ?: probe().also { cached = it }
+
+    internal fun probe(root: File = File("/sys/devices/system/cpu")): List<Core> {
+        val dirs = try {
+            root.listFiles { f -> f.isDirectory && f.name.matches(Regex("cpu\\d+")) }
+        } catch (e: Exception) {
+            Log.w(TAG, "probe: ${e.message}")
+            null
+        }
+        val cores = dirs.orEmpty().map { dir ->
+            Core(
+                id = dir.name.removePrefix("cpu").toInt(),
+                capacity = readNumber(File(dir, "cpu_capacity"))?.toInt(),
+                maxFreqKHz = readNumber(File(dir, "cpufreq/cpuinfo_max_freq"))
+            )
+        }.sortedBy { it.id }
+        if (cores.isNotEmpty()) return cores
+        // sysfs not readable: assume identical cores
+        return (0 until Runtime.getRuntime().availableProcessors().coerceAtLeast(1)).map { Core(it, null, null) }
+    }
+
+    private fun readNumber(f: File): Long? = try {
+        if (f.canRead()) f.readText().trim().toLongOrNull() else null
+    } catch (_: Exception) {
+        null
+    }
+
+    /** Cores ordered fastest first (ties by id), the order threads are pinned in. */
+    fun fastestFirst(cores: List<Core>): List<Core> = cores.sortedWith(compareByDescending<Core> { it.score }.thenBy { it.id })
+
+    fun bigCores(cores: List<Core>): List<Core> {
+        val max = cores.maxOfOrNull { it.score } ?: return emptyList()
+        if (max <= 0) return cores
+        return cores.filter { it.score >= max * BIG_CORE_RATIO }
+    }
+
+    /** Thread counts worth calibrating, smallest first: big cores, then big + mid, then every core (capped). */
+    fun candidateThreadCounts(cores: List<Core>): List<Int> {
+        val total = cores.size.coerceAtLeast(1)
+        val big = bigCores(cores).size.coerceAtLeast(1)
+        return listOf(
+            (big / 2).coerceAtLeast(1),
+            big.coerceAtMost(MAX_DECODE_THREADS),
+            nonLittleCount(cores).coerceAtMost(MAX_BATCH_THREADS),
+            total.coerceAtMost(MAX_BATCH_THREADS)
+        ).distinct().sorted()
+    }
+
+    /** Starting point before (or without) calibration: big cores for decode, big + mid for prompt batches. */
+    fun defaultThreads(cores: List<Core>): Pair<Int, Int> {
+        val big = bigCores(cores).size.coerceIn(1, MAX_DECODE_THREADS)
+        return big to nonLittleCount(cores).coerceIn(big, MAX_BATCH_THREADS)
+    }
+
+    // Cores outside the slowest cluster (all cores when they are identical)
+    private fun nonLittleCount(cores: List<Core>): Int {
+        val max = cores.maxOfOrNull { it.score } ?: return 1
+        val min = cores.minOf { it.score }
+        return if (max > min) cores.count { it.score > min } else cores.size
+    }
+}
@@ -0,0 +1,19 @@
+package top.stevezmt.calsync.llm
+
+/**
+ * Output schema of the GGUF event extractor, as a GBNF grammar for LlamaCpp.complete.
+ *
+ * 输出被约束为紧凑的 `{"startMillis":…,"endMillis":…,"title":…,"location":…}`（无法解析时为 `{}`），
+ * 不再需要从自由文本里找花括号；native 层在对象闭合时立即停止生成。
+ */
+object EventJsonSchema {
+    // Upper bound for one object: fixed keys + two 13-digit timestamps + two short strings
+    const val MAX_TOKENS = 128
+
+    val GBNF = """
+root   ::= "{}" | "{" "\"startMillis\":" millis ",\"endMillis\":" (millis | "null") ",\"title\":" (str | "null") ",\"location\":" (str | "null") "}"
+millis ::= [1-9] [0-9]{11,12}
+str    ::= "\"" char{0,40} "\""
+char   ::= [^"\\\x00-\x1F] | "\\" ["\\/nt]
+""".trimIndent()
+}
@@ -0,0 +1,55 @@
+package top.stevezmt.calsync.llm
+
+/**
+ * Slot-based output schema of the GGUF event extractor (alternative to [EventJsonSchema]).
+ *
+ * 模型不再自己换算 Unix 毫秒，只填写句子里字面出现的日期/时间槽位（相对天数、星期、月日、时分、上下午），
+ * 由 DateTimeParser.resolveAiSlots 按 now 确定性地换算；输出从两个 13 位数字缩短为几个 1~2 位数字。
+ */
+object EventSlotSchema {
+    // Fixed keys + small integers + two short strings
+    const val MAX_TOKENS = 96
+
+    val GBNF = """
+root    ::= "{}" | "{" "\"dayOffset\":" (offset | "null") ",\"weekOffset\":" (week | "null") ",\"weekday\":" ([1-7] | "null") ",\"month\":" (month | "null") ",\"day\":" (dom | "null") ",\"hour\":" (hour | "null") ",\"minute\":" (minute | "null") ",\"ampm\":" ("\"am\"" | "\"pm\"" | "null") ",\"durationMin\":" (dur | "null") ",\"title\":" (str | "null") ",\"location\":" (str | "null") "}"
+offset  ::= [0-9] | [1-9] [0-9]
+week    ::= [0-2]
+month   ::= [1-9] | "1" [0-2]
+dom     ::= [1-9] | [12] [0-9] | "3" [01]
+hour    ::= [0-9] | "1" [0-9] | "2" [0-3]
+minute  ::= [0-9] | [1-5] [0-9]
+dur     ::= [1-9] [0-9]{0,3}
+str     ::= "\"" char{0,40} "\""
+char    ::= [^"\\\x00-\x1F] | "\\" ["\\/nt]
+""".trimIndent()
+
+    /** Prompt lines describing the schema; fixed text, so it stays inside the cached prompt prefix. */
+    val INSTRUCTIONS = """
+你需要从用户句子中抽取日程信息，并只输出一段 JSON（不要多余文字）：
+{"dayOffset":int|null,"weekOffset":0|1|2|null,"weekday":1-7|null,"month":int|null,"day":int|null,"hour":int|null,"minute":int|null,"ampm":"am"|"pm"|null,"durationMin":int|null,"title":string|null,"location":string|null}
+- 只填句子里出现的信息，不要自己计算日期，其余字段输出 null
+- dayOffset：相对今天的天数（今天 0，明天 1，后天 2，3天后 3）
+- weekday：星期几（周一 1 … 周日 7）；weekOffset：本周 0，下周 1，下下周 2，没说是哪一周则为 null
+- month/day：句子里写明的月、日
+- hour/minute：24 小时制；只写了“下午/晚上”等而小时小于 12 时照原样填 hour，并填 ampm
+- durationMin：句子给出结束时间或时长时的分钟数
+- 如果无法解析，输出空对象 {}
+""".trimIndent()
+
+    /** Parsed slots; every field is optional, as in the grammar. */
+    data class Slots(
+        val dayOffset: Int? = null,
+        val weekOffset: Int? = null,
+        val weekday: Int? = null,
+        val month: Int? = null,
+        val day: Int? = null,
+        val hour: Int? = null,
+        val minute: Int? = null,
+        val ampm: String? = null,
+        val durationMin: Int? = null,
+        val title: String? = null,
+        val location: String? = null
+    ) {
+        val hasDate get() = dayOffset != null || weekday != null || (month != null && day != null)
+    }
+}
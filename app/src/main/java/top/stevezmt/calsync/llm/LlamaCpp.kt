@@ -1,8 +1,8 @@
 package top.stevezmt.calsync.llm
 
 import android.content.Context
-import android.net.Uri
 import android.util.Log
+import top.stevezmt.calsync.SettingsStore
 import java.io.File
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.read
@@ -21,7 +21,8 @@ import kotlin.concurrent.write
 object LlamaCpp {
     private const val TAG = "LlamaCpp"
     private const val DEFAULT_CONTEXT_SIZE = 2048
-    private const val DEFAULT_THREADS = 4  // Use 4 threads for better performance
+    // Prompts per nativeCompleteBatch call (kMaxBatchSeqs in llama_jni.cpp)
+    const val MAX_BATCH = 4
 
     init {
         try {
@@ -42,14 +43,162 @@ object LlamaCpp {
     @JvmStatic
     external fun nativeComplete(handle: Long, prompt: String, maxTokens: Int): String
 
+    // Same as nativeComplete, but sampling is constrained by a GBNF grammar (root rule "root");
+    // generation stops as soon as the first JSON object is closed.
+    @JvmStatic
+    external fun nativeCompleteWithGrammar(handle: Long, prompt: String, maxTokens: Int, grammar: String): String
+
+    // Streaming variant: [listener] receives decoded text pieces on the calling thread and is polled for cancellation.
+    // stopSequences are cut from the output; stopAtJsonEnd stops once the first top-level JSON object is closed.
+    @JvmStatic
+    external fun nativeCompleteStreaming(
+        handle: Long,
+        prompt: String,
+        maxTokens: Int,
+        grammar: String?,
+        stopSequences: Array<String>?,
+        stopAtJsonEnd: Boolean,
+        listener: TokenListener?
+    ): String
+
+    // Up to MAX_BATCH prompts as parallel sequences sharing their common prefix; null if they do not fit in one batch
+    @JvmStatic
+    external fun nativeCompleteBatch(handle: Long, prompts: Array<String>, maxTokens: Int, grammar: String?): Array<String>?
+
+    /** Callback interface of [nativeCompleteStreaming]; method names and signatures are looked up from JNI. */
+    interface TokenListener {
+        /** Called with each complete UTF-8 piece of output; return false to stop generating. */
+        fun onToken(piece: String): Boolean
+
+        /** Polled between prompt chunks and before every sampled token. */
+        fun isCancelled(): Boolean
+    }
+
+    /**
+     * When to stop generating besides EOS / maxTokens.
+     * @param jsonObjectEnd stop as soon as the first top-level JSON object is closed ("}" at depth 0)
+     * @param sequences literal stop sequences, removed from the returned text
+     */
+    data class StopSpec(val jsonObjectEnd: Boolean = false, val sequences: List<String> = emptyList()) {
+        companion object {
+            // One JSON object on a single line
+            val JSON_OBJECT = StopSpec(jsonObjectEnd = true, sequences = listOf("\n"))
+        }
+    }
+
+    // Decode / prompt-batch thread counts; non-empty cpus pins threads to those cores (fastest first)
+    @JvmStatic
+    external fun nativeConfigureThreads(handle: Long, nThreads: Int, nThreadsBatch: Int, cpus: IntArray): Boolean
+
+    // Calibration run: decodes nPrompt tokens as one batch, then nGen single tokens; returns [promptMs, genMs].
+    // Clears the KV cache.
+    @JvmStatic
+    external fun nativeBenchmark(handle: Long, nPrompt: Int, nGen: Int): LongArray
+
+    // Prompt prefix cache persistence (llama_state_save_file / llama_state_load_file)
+    @JvmStatic
+    external fun nativeSaveState(handle: Long, path: String): Boolean
+
+    @JvmStatic
+    external fun nativeLoadState(handle: Long, path: String): Boolean
+
+    // Frees the llama context (KV cache, compute buffers) but keeps the model; recreated by the next call that needs it
+    @JvmStatic
+    external fun nativeReleaseContext(handle: Long)
+
+    // Speculative decoding: draft model sharing the main model's vocabulary; false if missing or incompatible
+    @JvmStatic
+    external fun nativeLoadDraft(handle: Long, path: String): Boolean
+
+    @JvmStatic
+    external fun nativeFreeDraft(handle: Long)
+
+    // Performance counters, flat (see decodeStats); only consistent between inferences
+    @JvmStatic
+    external fun nativeGetStats(handle: Long): DoubleArray?
+
+    /** Timings of one completion, or the sum over all completions since the model was loaded. */
+    data class PerfCounters(
+        val completions: Long,
+        val tokenizeMs: Double,
+        // prompt tokens actually decoded / served from the prefix cache
+        val promptTokens: Long,
+        val promptReused: Long,
+        val promptMs: Double,
+        val genTokens: Long,
+        val genMs: Double,
+        // speculative decoding: tokens proposed by the draft model / accepted by the main model
+        val draftTokens: Long = 0,
+        val draftAccepted: Long = 0
+    ) {
+        val promptTokensPerSec: Double get() = if (promptMs > 0) promptTokens * 1000.0 / promptMs else 0.0
+        val genTokensPerSec: Double get() = if (genMs > 0) genTokens * 1000.0 / genMs else 0.0
+        val draftAcceptance: Double get() = if (draftTokens > 0) draftAccepted.toDouble() / draftTokens else 0.0
+
+        fun format(): String = String.format(
+            java.util.Locale.ROOT,
+            "n=%d tokenize=%.1fms prefill=%d tok/%.0fms (%.1f tok/s, reused %d) decode=%d tok/%.0fms (%.1f tok/s)",
+            completions, tokenizeMs, promptTokens, promptMs, promptTokensPerSec, promptReused, genTokens, genMs, genTokensPerSec
+        ) + if (draftTokens > 0) String.format(java.util.Locale.ROOT, " draft=%d/%d (%.0f%%)", draftAccepted, draftTokens, draftAcceptance * 100) else ""
+    }
+
+    data class Stats(
+        val loadMs: Double,
+        val kvUsed: Int,
+        val nCtx: Int,
+        val peakRssKb: Long,
+        val rssKb: Long,
+        val last: PerfCounters,
+        val total: PerfCounters
+    )
+
+    internal fun decodeStats(raw: DoubleArray?): Stats? {
+        if (raw == null || raw.size < STATS_HEADER + 2 * STATS_PERF_FIELDS) return null
+        fun perf(at: Int) = PerfCounters(
+            completions = raw[at].toLong(),
+            tokenizeMs = raw[at + 1],
+            promptTokens = raw[at + 2].toLong(),
+            promptReused = raw[at + 3].toLong(),
+            promptMs = raw[at + 4],
+            genTokens = raw[at + 5].toLong(),
+            genMs = raw[at + 6],
+            draftTokens = raw[at + 7].toLong(),
+            draftAccepted = raw[at + 8].toLong()
+        )
+        return Stats(
+            loadMs = raw[0],
+            kvUsed = raw[1].toInt(),
+            nCtx = raw[2].toInt(),
+            peakRssKb = raw[3].toLong(),
+            rssKb = raw[4].toLong(),
+            last = perf(STATS_HEADER),
+            total = perf(STATS_HEADER + STATS_PERF_FIELDS)
+        )
+    }
+
+    private const val STATS_HEADER = 5
+    private const val STATS_PERF_FIELDS = 9
+
     // ===== State Management =====
     private data class ModelState(
         val handle: Long = 0,
+        val modelUri: String = "",
         val modelPath: String = "",
+        // open descriptor / identity of the loaded model file (see ModelStore)
+        val model: ModelStore.Model? = null,
         val nCtx: Int = 0,
-        val nThreads: Int = 0
+        val nThreads: Int = 0,
+        val nThreadsBatch: Int = 0,
+        // KV state of the shared prompt prefix, reloaded after a process restart; keyed by the prefix text's hash
+        val promptStateFile: File? = null,
+        val promptPrefixId: Int? = null,
+        // speculative decoding draft ("" = none); draftLoaded is false when it could not be used
+        val draftUri: String = "",
+        val draftModel: ModelStore.Model? = null,
+        val draftLoaded: Boolean = false
     ) {
         fun isValid() = handle != 0L && modelPath.isNotEmpty()
+        fun holds(modelUri: String, nCtx: Int) = isValid() && this.modelUri == modelUri && this.nCtx == nCtx
     }
 
     @Volatile
@@ -60,6 +209,21 @@ object LlamaCpp {
     // Inference lock: serialize all inference calls since llama.cpp is not thread-safe per-context
     private val inferenceLock = Any()
 
+    // Whether the prompt prefix state of the current handle has been written to disk yet
+    @Volatile
+    private var promptStateSaved = false
+
+    // Context freed by releaseContext: restore the saved prompt prefix before the next inference
+    @Volatile
+    private var contextReleased = false
+
+    // Counters read right after each inference / load, so the status screen never waits for inferenceLock
+    @Volatile
+    private var lastStats: Stats? = null
+
+    // Serializes the slow path of getOrInitHandle, so a preload and a parse do not open/copy the same model twice
+    private val loadLock = Any()
+
     // ===== Public API =====
 
     /**
@@ -68,70 +232,173 @@ object LlamaCpp {
      * @param context Application context
      * @param modelUri URI to model file (file:// or content://)
      * @param nCtx Context window size (default: 2048)
-     * @param nThreads Thread count (default: 2)
+     * @param nThreads Fixed thread count, or null to calibrate per model (see ThreadTuner)
+     * @param draftUri Optional small model with the same vocabulary for speculative decoding; null = none
+     * @param promptPrefix Fixed start of the prompts that will follow (system prompt + instructions); selects the
+     *   saved KV state to restore. null = unknown (preload), no state is restored until a caller names it
+     * @param progress Copy progress, only reported when the model has to be copied into app storage
      * @return Model handle (0 on failure)
      */
     fun getOrInitHandle(
         context: Context,
         modelUri: String,
         nCtx: Int = DEFAULT_CONTEXT_SIZE,
-        nThreads: Int = DEFAULT_THREADS
+        nThreads: Int? = null,
+        draftUri: String? = null,
+        promptPrefix: String? = null,
+        progress: ModelStore.Progress? = null
     ): Long {
-        Log.d(TAG, "getOrInitHandle: uri=$modelUri nCtx=$nCtx nThreads=$nThreads")
+        Log.d(TAG, "getOrInitHandle: uri=$modelUri nCtx=$nCtx nThreads=$nThreads draft=${draftUri != null}")
+        val wantDraft = draftUri?.trim().orEmpty()
+        val prefixId = promptPrefix?.hashCode()
 
         // Fast path: check if we have a valid cached model
         stateLock.read {
-            if (currentState.isValid() && currentState.modelPath == modelUri) {
+            if (currentState.holds(modelUri, nCtx) && currentState.draftUri == wantDraft &&
+                (prefixId == null || currentState.promptPrefixId == prefixId)) {
                 Log.d(TAG, "getOrInitHandle: using cached handle=${currentState.handle}")
                 return currentState.handle
             }
         }
 
-        // Need to load new model
-        val modelFile = materializeModelToFile(context, modelUri)
-        if (modelFile == null) {
-            Log.e(TAG, "getOrInitHandle: failed to materialize model file")
-            return 0
+        synchronized(loadLock) {
+            if (!stateLock.read { currentState.holds(modelUri, nCtx) }) {
+                loadLocked(context, modelUri, nCtx, nThreads, prefixId, progress)
+            }
+            val (handle, loadedDraft) = stateLock.read { currentState.handle to currentState.draftUri }
+            // a different draft does not require reloading the main model
+            if (handle != 0L && loadedDraft != wantDraft) attachDraft(context, handle, wantDraft)
+            // nor does a different prompt prefix (system prompt edited, slot mode switched)
+            if (handle != 0L && prefixId != null && stateLock.read { currentState.promptPrefixId } != prefixId) {
+                switchPromptState(context, handle, prefixId)
+            }
         }
+        return stateLock.read { currentState.handle }
+    }
 
-        val modelPath = modelFile.absolutePath
-        Log.d(TAG, "getOrInitHandle: materializing model to $modelPath")
-
-        stateLock.write {
-            // Double-check: another thread may have loaded while we were materializing
-            if (currentState.isValid() && currentState.modelPath == modelPath) {
-                Log.d(TAG, "getOrInitHandle: another thread loaded first, reusing handle=${currentState.handle}")
-                return@write
+    // Under loadLock. Replaces the draft model of handle ("" = speculative decoding off); waits for a running inference
+    private fun attachDraft(context: Context, handle: Long, draftUri: String) {
+        val draft = if (draftUri.isEmpty()) null else ModelStore.open(context, draftUri, null, ModelStore.SLOT_DRAFT)
+        synchronized(inferenceLock) {
+            stateLock.write {
+                if (currentState.handle != handle) {
+                    draft?.close()
+                    return@write
+                }
+                val loaded = try {
+                    if (draft == null) {
+                        nativeFreeDraft(handle)
+                        false
+                    } else {
+                        nativeLoadDraft(handle, draft.path)
+                    }
+                } catch (e: Throwable) {
+                    Log.w(TAG, "attachDraft: ${e.message}")
+                    false
+                }
+                Log.d(TAG, "attachDraft: draft=${draft?.id} loaded=$loaded")
+                currentState.draftModel?.close()
+                if (!loaded) draft?.close()
+                // remembered even when unusable, so it is not retried on every call
+                currentState = currentState.copy(draftUri = draftUri, draftModel = draft?.takeIf { loaded }, draftLoaded = loaded)
             }
+        }
+    }
 
-            // Free old handle if present
-            if (currentState.isValid()) {
-                Log.d(TAG, "getOrInitHandle: freeing old handle=${currentState.handle}")
-                try {
-                    nativeFree(currentState.handle)
-                } catch (e: Exception) {
-                    Log.w(TAG, "getOrInitHandle: error freeing old handle: ${e.message}")
+    // Under loadLock. Points the handle at the saved KV state of another prompt prefix, restoring it when it exists;
+    // otherwise the next completion saves it. Waits for a running inference.
+    private fun switchPromptState(context: Context, handle: Long, prefixId: Int) {
+        synchronized(inferenceLock) {
+            stateLock.write {
+                val state = currentState
+                val model = state.model
+                if (state.handle != handle || model == null) return@write
+                val file = promptStateFileFor(context, model.id, state.nCtx, prefixId)
+                // a released context is recreated from promptStateFile by prepareLocked
+                val loaded = when {
+                    !file.exists() -> false
+                    contextReleased -> true
+                    else -> try { nativeLoadState(handle, file.absolutePath) } catch (e: Throwable) { false }
                 }
+                Log.d(TAG, "getOrInitHandle: prompt prefix changed, state ${file.name} loaded=$loaded")
+                if (!loaded) file.delete()
+                promptStateSaved = loaded
+                currentState = state.copy(promptStateFile = file, promptPrefixId = prefixId)
             }
+        }
+    }
 
-            // Load new model
-            val handle = nativeInit(modelPath, nCtx, nThreads)
-            if (handle == 0L) {
-                Log.e(TAG, "getOrInitHandle: nativeInit failed")
-                currentState = ModelState()
-                return@write
-            }
+    private fun loadLocked(context: Context, modelUri: String, nCtx: Int, nThreads: Int?, prefixId: Int?, progress: ModelStore.Progress?) {
+        // Need to load new model: mapped from the provider's descriptor when possible, copied otherwise
+        val model = ModelStore.open(context, modelUri, progress)
+        if (model == null) {
+            Log.e(TAG, "getOrInitHandle: failed to open model")
+            return
+        }
+
+        val modelPath = model.path
+        Log.d(TAG, "getOrInitHandle: opened $model")
+
+        // Double-check: another thread may have loaded while we were opening
+        if (stateLock.read { currentState.holds(modelUri, nCtx) }) {
+            Log.d(TAG, "getOrInitHandle: another thread loaded first, reusing handle=${currentState.handle}")
+            model.close()
+            return
+        }
 
-            Log.d(TAG, "getOrInitHandle: new model loaded handle=$handle")
+        // Free the old model first (two models rarely fit in memory together); waits for a running inference
+        freeModel()
+
+        // Load, calibrate and restore the new handle without holding stateLock: it is not published yet and
+        // loadLock keeps other loaders out, so readers (isLoaded, getModelState, the fast path) never wait on this
+        val initialThreads = nThreads ?: CpuTopology.defaultThreads(CpuTopology.cores()).first
+        val handle = nativeInit(modelPath, nCtx, initialThreads)
+        if (handle == 0L) {
+            Log.e(TAG, "getOrInitHandle: nativeInit failed")
+            model.close()
+            return
+        }
+
+        Log.d(TAG, "getOrInitHandle: new model loaded handle=$handle")
+        // Before the prompt state is loaded: calibration runs on an empty KV cache
+        val threads = if (nThreads != null) {
+            ThreadTuner.ThreadConfig(nThreads, nThreads)
+        } else {
+            ThreadTuner.tune(context, handle, model.id, SettingsStore.isAiPinBigCoresEnabled(context))
+        }
+        Log.d(TAG, "getOrInitHandle: threads decode=${threads.decodeThreads} batch=${threads.batchThreads} pinned=${threads.pinnedCpus}")
+        val stateFile = prefixId?.let { promptStateFileFor(context, model.id, nCtx, it) }
+        var stateLoaded = false
+        if (stateFile != null && stateFile.exists()) {
+            stateLoaded = try { nativeLoadState(handle, stateFile.absolutePath) } catch (e: Throwable) { false }
+            Log.d(TAG, "getOrInitHandle: prompt state ${stateFile.name} loaded=$stateLoaded")
+            if (!stateLoaded) stateFile.delete()
+        }
+        stateLock.write {
+            promptStateSaved = stateLoaded
+            contextReleased = false
             currentState = ModelState(
                 handle = handle,
+                modelUri = modelUri,
                 modelPath = modelPath,
+                model = model,
                 nCtx = nCtx,
-                nThreads = nThreads
+                nThreads = threads.decodeThreads,
+                nThreadsBatch = threads.batchThreads,
+                promptStateFile = stateFile,
+                promptPrefixId = prefixId
             )
         }
+        refreshStats(handle)
+    }
 
-        return stateLock.read { currentState.handle }
+    /**
+     * Whether a model is loaded ([modelUri] null) or the given one is.
+     * Reads the volatile state without [stateLock], so it never blocks behind a load (safe on the main thread).
+     */
+    fun isLoaded(modelUri: String? = null): Boolean {
+        val state = currentState
+        return state.isValid() && (modelUri == null || state.modelUri == modelUri)
     }
 
     /**
@@ -141,9 +408,21 @@ object LlamaCpp {
      * @param handle Model handle from getOrInitHandle
      * @param prompt Input text prompt
      * @param maxTokens Maximum tokens to generate (capped at 256)
+     * @param grammar Optional GBNF grammar constraining the output (see EventJsonSchema)
+     * @param stop Optional early-exit conditions
+     * @param cancel Optional token; once cancelled the call returns what was generated so far
+     * @param onToken Optional streaming callback (inference thread); return false to stop
      * @return Generated text (empty string on error)
      */
-    fun complete(handle: Long, prompt: String, maxTokens: Int): String {
+    fun complete(
+        handle: Long,
+        prompt: String,
+        maxTokens: Int,
+        grammar: String? = null,
+        stop: StopSpec? = null,
+        cancel: CancellationToken? = null,
+        onToken: ((String) -> Boolean)? = null
+    ): String {
         if (handle == 0L) {
             Log.w(TAG, "complete: invalid handle")
             return ""
@@ -154,39 +433,157 @@ object LlamaCpp {
             return ""
         }
 
+        val streaming = stop != null || cancel != null || onToken != null
+        // registered before waiting for the lock, so cancelAll also drops calls still queued behind another inference
+        cancel?.let { CancellationToken.register(it) }
+        try {
+            return synchronized(inferenceLock) {
+                completeLocked(handle, prompt, maxTokens, grammar, streaming, stop, cancel, onToken)
+            }
+        } finally {
+            cancel?.let { CancellationToken.unregister(it) }
+        }
+    }
+
+    /**
+     * Complete several prompts at once: groups of [MAX_BATCH] are decoded as parallel sequences in one llama_batch,
+     * sharing the common prompt prefix. Groups that do not fit fall back to one completion per prompt.
+     * Results are in the order of [prompts]; an empty string marks a failed prompt.
+     */
+    fun completeBatch(handle: Long, prompts: List<String>, maxTokens: Int, grammar: String? = null): List<String> {
+        if (handle == 0L || prompts.isEmpty()) return prompts.map { "" }
+        if (prompts.size == 1) return listOf(complete(handle, prompts[0], maxTokens, grammar))
         return synchronized(inferenceLock) {
-            try {
-                Log.d(TAG, "complete: start handle=$handle promptLen=${prompt.length} maxTokens=$maxTokens")
-                val startMs = System.currentTimeMillis()
+            if (!prepareLocked(handle)) return@synchronized prompts.map { "" }
+            prompts.chunked(MAX_BATCH).flatMap { group ->
+                val batched = if (group.size < 2) null else try {
+                    val startMs = System.currentTimeMillis()
+                    nativeCompleteBatch(handle, group.toTypedArray(), maxTokens.coerceIn(1, 256), grammar?.takeIf { it.isNotEmpty() })
+                        ?.also { Log.d(TAG, "completeBatch: ${group.size} prompts in ${System.currentTimeMillis() - startMs}ms") }
+                } catch (e: Exception) {
+                    Log.e(TAG, "completeBatch: exception: ${e.message}", e)
+                    null
+                }
+                batched?.toList()?.takeIf { it.size == group.size }
+                    ?: group.map { completeLocked(handle, it, maxTokens, grammar, false, null, null, null) }
+            }.also { results ->
+                if (results.any { it.isNotEmpty() } && !promptStateSaved) savePromptState(handle)
+                refreshStats(handle)
+            }
+        }
+    }
 
-                val result = nativeComplete(handle, prompt, maxTokens.coerceIn(1, 256))
+    private fun completeLocked(
+        handle: Long,
+        prompt: String,
+        maxTokens: Int,
+        grammar: String?,
+        streaming: Boolean,
+        stop: StopSpec?,
+        cancel: CancellationToken?,
+        onToken: ((String) -> Boolean)?
+    ): String {
+        if (cancel?.isCancelled == true) {
+            Log.d(TAG, "complete: cancelled before start")
+            return ""
+        }
+        if (!prepareLocked(handle)) return ""
+        return try {
+            Log.d(TAG, "complete: start handle=$handle promptLen=${prompt.length} maxTokens=$maxTokens grammar=${grammar != null} streaming=$streaming")
+            val startMs = System.currentTimeMillis()
+
+            val result = when {
+                streaming -> {
+                    val listener = object : TokenListener {
+                        override fun onToken(piece: String): Boolean = onToken?.invoke(piece) ?: true
+                        override fun isCancelled(): Boolean = cancel?.isCancelled == true
+                    }
+                    nativeCompleteStreaming(
+                        handle, prompt, maxTokens.coerceIn(1, 256), grammar?.takeIf { it.isNotEmpty() },
+                        stop?.sequences?.toTypedArray(), stop?.jsonObjectEnd == true, listener
+                    )
+                }
+                grammar.isNullOrEmpty() -> nativeComplete(handle, prompt, maxTokens.coerceIn(1, 256))
+                else -> nativeCompleteWithGrammar(handle, prompt, maxTokens.coerceIn(1, 256), grammar)
+            }
 
-                val elapsedMs = System.currentTimeMillis() - startMs
-                Log.d(TAG, "complete: done resultLen=${result.length} elapsedMs=$elapsedMs")
+            val elapsedMs = System.currentTimeMillis() - startMs
+            Log.d(TAG, "complete: done resultLen=${result.length} elapsedMs=$elapsedMs")
 
-                result
-            } catch (e: Exception) {
-                Log.e(TAG, "complete: exception: ${e.message}", e)
-                ""
+            if (result.isNotEmpty() && !promptStateSaved) savePromptState(handle)
+            refreshStats(handle)
+            result
+        } catch (e: Exception) {
+            Log.e(TAG, "complete: exception: ${e.message}", e)
+            ""
+        }
+    }
+
+    // Under inferenceLock: the handle may have been unloaded (idle / memory pressure) since the caller obtained it
+    private fun prepareLocked(handle: Long): Boolean {
+        val state = stateLock.read { currentState }
+        if (state.handle != handle) {
+            Log.w(TAG, "complete: handle=$handle is no longer loaded")
+            return false
+        }
+        if (contextReleased) {
+            contextReleased = false
+            // the context is recreated natively either way; the saved prefix spares re-decoding the instructions
+            val restored = state.promptStateFile?.takeIf { it.exists() }?.let {
+                try { nativeLoadState(handle, it.absolutePath) } catch (e: Throwable) { false }
+            } ?: false
+            Log.d(TAG, "complete: context recreated, prompt state restored=$restored")
+        }
+        return true
+    }
+
+    /**
+     * Free the llama context (KV cache and compute buffers) of the loaded model but keep the model itself.
+     * The context comes back on the next inference. Waits for a running inference.
+     */
+    fun releaseContext() {
+        synchronized(inferenceLock) {
+            val handle = stateLock.read { currentState.handle.takeIf { currentState.isValid() } } ?: return
+            if (contextReleased) return
+            try {
+                nativeReleaseContext(handle)
+                contextReleased = true
+                refreshStats(handle)
+                Log.d(TAG, "releaseContext: handle=$handle")
+            } catch (e: Throwable) {
+                Log.w(TAG, "releaseContext: ${e.message}")
             }
         }
     }
 
     /**
      * Free the currently loaded model.
-     * Safe to call multiple times.
+     * Safe to call multiple times; waits for a running inference.
      */
     fun freeModel() {
+        freeModelIf { true }
+    }
+
+    /**
+     * [freeModel], but only if [condition] still holds once the running inference has finished.
+     * [condition] is evaluated under both locks: no inference runs and no handle is handed out by
+     * getOrInitHandle meanwhile, so e.g. an idle check cannot race with an inference that is just starting.
+     * @return true when a model was freed
+     */
+    fun freeModelIf(condition: () -> Boolean): Boolean = synchronized(inferenceLock) {
         stateLock.write {
-            if (currentState.isValid()) {
-                Log.d(TAG, "freeModel: freeing handle=${currentState.handle}")
-                try {
-                    nativeFree(currentState.handle)
-                } catch (e: Exception) {
-                    Log.w(TAG, "freeModel: error during cleanup: ${e.message}")
-                }
-                currentState = ModelState()
+            if (!currentState.isValid() || !condition()) return@write false
+            Log.d(TAG, "freeModel: freeing handle=${currentState.handle}")
+            try {
+                nativeFree(currentState.handle)
+            } catch (e: Exception) {
+                Log.w(TAG, "freeModel: error during cleanup: ${e.message}")
             }
+            currentState.model?.close()
+            currentState.draftModel?.close()
+            currentState = ModelState()
+            contextReleased = false
+            true
         }
     }
 
@@ -200,88 +597,52 @@ object LlamaCpp {
                 "modelPath" to currentState.modelPath,
                 "nCtx" to currentState.nCtx,
                 "nThreads" to currentState.nThreads,
-                "isValid" to currentState.isValid()
+                "nThreadsBatch" to currentState.nThreadsBatch,
+                "contextReleased" to contextReleased,
+                "draftLoaded" to currentState.draftLoaded,
+                "isValid" to currentState.isValid(),
+                "stats" to lastStats
             )
         }
     }
 
-    // ===== Helper Functions =====
-
     /**
-     * Materialize a model URI (file:// or content://) to a local file.
-     * Uses caching: skips copying if file already exists and is non-empty.
-     * 
-     * @param context Application context
-     * @param uriString URI to model (file:// or content://)
-     * @return File object, or null on failure
+     * Performance counters of the loaded model as of its last inference: load time, KV usage, process RSS,
+     * and prefill / decode throughput of the last and of all completions. Null before the first load.
      */
-    fun materializeModelToFile(context: Context, uriString: String): File? {
-        return try {
-            val uri = Uri.parse(uriString)
-            Log.d(TAG, "materializeModelToFile: uri=$uri scheme=${uri.scheme}")
-
-            when (uri.scheme) {
-                "file" -> {
-                    val path = uri.path
-                    if (path != null) {
-                        File(path).also { file ->
-                            if (!file.exists()) {
-                                Log.e(TAG, "materializeModelToFile: file not found at $path")
-                                return null
-                            }
-                            Log.d(TAG, "materializeModelToFile: using file path ${file.absolutePath}")
-                        }
-                    } else {
-                        Log.e(TAG, "materializeModelToFile: malformed file URI")
-                        null
-                    }
-                }
-                "content" -> {
-                    val cacheDir = File(context.filesDir, "llm")
-                    if (!cacheDir.exists()) {
-                        cacheDir.mkdirs()
-                        Log.d(TAG, "materializeModelToFile: created cache dir")
-                    }
+    fun getStats(): Stats? = lastStats
 
-                    val modelFile = File(cacheDir, "model.gguf")
+    private fun refreshStats(handle: Long) {
+        lastStats = try {
+            decodeStats(nativeGetStats(handle))
+        } catch (e: Throwable) {
+            Log.w(TAG, "refreshStats: ${e.message}")
+            null
+        } ?: lastStats
+    }
 
-                    // Cache hit
-                    if (modelFile.exists() && modelFile.length() > 0) {
-                        Log.d(TAG, "materializeModelToFile: cache hit ${modelFile.absolutePath}")
-                        return modelFile
-                    }
+    // ===== Helper Functions =====
 
-                    // Copy from content URI
-                    Log.d(TAG, "materializeModelToFile: copying from content URI")
-                    var copiedBytes = 0L
-                    try {
-                        context.contentResolver.openInputStream(uri)?.use { input ->
-                            modelFile.outputStream().use { output ->
-                                copiedBytes = input.copyTo(output)
-                            }
-                        }
-                    } catch (e: Exception) {
-                        Log.e(TAG, "materializeModelToFile: copy failed: ${e.message}")
-                        return null
-                    }
+    // Called under inferenceLock: the KV cache now starts with the fixed prompt prefix, persist it once per model
+    private fun savePromptState(handle: Long) {
+        val file = stateLock.read { currentState.takeIf { it.handle == handle }?.promptStateFile } ?: return
+        promptStateSaved = true
+        try {
+            file.parentFile?.listFiles { f -> f.name.startsWith(PROMPT_STATE_PREFIX) && f != file }?.forEach { it.delete() }
+            val ok = nativeSaveState(handle, file.absolutePath)
+            Log.d(TAG, "savePromptState: ${file.name} ok=$ok size=${file.length()}")
+            if (!ok) file.delete()
+        } catch (e: Throwable) {
+            Log.w(TAG, "savePromptState: ${e.message}")
+        }
+    }
 
-                    if (modelFile.length() <= 0) {
-                        Log.e(TAG, "materializeModelToFile: copied file is empty")
-                        return null
-                    }
+    private const val PROMPT_STATE_PREFIX = "prompt_state_"
 
-                    Log.d(TAG, "materializeModelToFile: copied $copiedBytes bytes to ${modelFile.absolutePath}")
-                    modelFile
-                }
-                else -> {
-                    Log.e(TAG, "materializeModelToFile: unsupported URI scheme: ${uri.scheme}")
-                    null
-                }
-            }
-        } catch (e: Exception) {
-            Log.e(TAG, "materializeModelToFile: exception: ${e.message}", e)
-            null
-        }
+    // Saved KV state is only valid for the exact same model file and context size
+    private fun promptStateFileFor(context: Context, modelId: String, nCtx: Int, prefixId: Int): File {
+        val id = "$modelId|$nCtx|$prefixId".hashCode()
+        val dir = File(context.filesDir, "llm").apply { mkdirs() }
+        return File(dir, PROMPT_STATE_PREFIX + Integer.toHexString(id) + ".bin")
     }
 }
-
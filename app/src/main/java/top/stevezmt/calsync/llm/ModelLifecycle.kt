@@ -0,0 +1,130 @@
+package top.stevezmt.calsync.llm
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.util.Log
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Keeps the GGUF model resident only while it is useful.
+ *
+ * 1. 空闲卸载：最后一次推理结束 [idleUnloadMinutes] 分钟后释放模型（0 = 不自动卸载）；
+ * 2. 内存压力：[onTrimMemory] 按级别只释放 llama 上下文（KV 缓存和计算缓冲，权重是 mmap 的文件页，系统可自行回收），
+ *    或直接卸载整个模型；
+ * 3. 预加载：通知看起来包含时间时（预筛选通过）提前在后台加载，与排队等待重叠，解析时不用再等加载。
+ * 卸载后下一次推理会按需重新加载（LlamaCpp.getOrInitHandle）；卸载和释放都会等当前推理结束。
+ */
+object ModelLifecycle {
+    private const val TAG = "ModelLifecycle"
+    const val DEFAULT_IDLE_UNLOAD_MINUTES = 5
+    const val MAX_IDLE_UNLOAD_MINUTES = 120
+
+    enum class Action { NONE, RELEASE_CONTEXT, UNLOAD }
+
+    // One background thread: unload / release / preload never run on the caller's (often main) thread
+    private val executor = Executors.newSingleThreadScheduledExecutor { r ->
+        Thread(r, "llm-lifecycle").apply { isDaemon = true }
+    }
+
+    private val active = AtomicInteger()
+    private var idleTask: ScheduledFuture<*>? = null
+
+    @Volatile
+    var idleUnloadMinutes: Int = DEFAULT_IDLE_UNLOAD_MINUTES
+
+    @Volatile
+    private var preloadingUri: String? = null
+
+    /**
+     * Runs [block] (an inference) with the idle unload suspended, then re-arms it.
+     * [idleMinutes] is the user's setting at the time of the call.
+     */
+    fun <T> inUse(idleMinutes: Int, block: () -> T): T {
+        idleUnloadMinutes = idleMinutes.coerceIn(0, MAX_IDLE_UNLOAD_MINUTES)
+        active.incrementAndGet()
+        cancelIdleUnload()
+        try {
+            return block()
+        } finally {
+            if (active.decrementAndGet() == 0) scheduleIdleUnload()
+        }
+    }
+
+    /** Loads [uri] in the background unless it is already loaded or loading; no-op for a blank uri. */
+    fun preload(context: Context, uri: String?, draftUri: String?, idleMinutes: Int) {
+        if (uri.isNullOrBlank()) return
+        synchronized(this) {
+            if (preloadingUri == uri) return
+            preloadingUri = uri
+        }
+        val appContext = context.applicationContext
+        executor.execute {
+            try {
+                if (LlamaCpp.isLoaded(uri)) return@execute
+                inUse(idleMinutes) {
+                    val startMs = System.currentTimeMillis()
+                    val handle = LlamaCpp.getOrInitHandle(appContext, uri, draftUri = draftUri)
+                    Log.d(TAG, "preload: handle=$handle in ${System.currentTimeMillis() - startMs}ms")
+                }
+            } catch (t: Throwable) {
+                Log.w(TAG, "preload failed: ${t.message}")
+            } finally {
+                synchronized(this) { if (preloadingUri == uri) preloadingUri = null }
+            }
+        }
+    }
+
+    /** ComponentCallbacks2 hook (see CalSyncApp). */
+    fun onTrimMemory(level: Int) {
+        val action = actionFor(level)
+        if (action == Action.NONE) return
+        executor.execute {
+            try {
+                if (!LlamaCpp.isLoaded()) return@execute
+                Log.i(TAG, "onTrimMemory level=$level -> $action")
+                when (action) {
+                    Action.RELEASE_CONTEXT -> LlamaCpp.releaseContext()
+                    Action.UNLOAD -> LlamaCpp.freeModel()
+                    Action.NONE -> {}
+                }
+            } catch (t: Throwable) {
+                Log.w(TAG, "trim failed: ${t.message}")
+            }
+        }
+    }
+
+    /**
+     * Low memory while running, or the process just entered the background LRU list: drop the context, keep the weights.
+     * Critical pressure, or the process is about to be killed anyway: unload everything.
+     * UI_HIDDEN alone is not memory pressure (the listener keeps working after the settings screen closes).
+     */
+    internal fun actionFor(level: Int): Action = when {
+        level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE -> Action.UNLOAD
+        level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> Action.UNLOAD
+        level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> Action.NONE
+        level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> Action.RELEASE_CONTEXT
+        else -> Action.NONE
+    }
+
+    private fun scheduleIdleUnload() {
+        val minutes = idleUnloadMinutes
+        if (minutes <= 0) return
+        synchronized(this) {
+            idleTask?.cancel(false)
+            idleTask = executor.schedule({
+                // re-checked under LlamaCpp's locks: an inference may start between this task firing and the free
+                if (LlamaCpp.freeModelIf { active.get() == 0 }) Log.i(TAG, "idle for $minutes min, unloaded model")
+            }, minutes.toLong(), TimeUnit.MINUTES)
+        }
+    }
+
+    private fun cancelIdleUnload() {
+        synchronized(this) {
+            idleTask?.cancel(false)
+            idleTask = null
+        }
+    }
+}
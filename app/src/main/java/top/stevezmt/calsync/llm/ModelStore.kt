@@ -0,0 +1,211 @@
+package top.stevezmt.calsync.llm
+
+import android.content.Context
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import android.provider.OpenableColumns
+import android.system.Os
+import android.system.OsConstants
+import android.util.Log
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+
+/**
+ * Makes a GGUF model URI loadable by llama.cpp, copying it only when necessary.
+ *
+ * 1. file:// —— 直接使用该路径；
+ * 2. content:// 且 provider 给出的是普通文件的描述符 —— 保持描述符打开，让 llama.cpp 通过 /proc/self/fd/N 直接 mmap，不复制；
+ * 3. 其余情况（管道、云端文件等）—— 用 FileChannel 大块复制到 filesDir/llm/model_<指纹>.gguf，带进度回调。
+ * 指纹 = 文件大小 + 首尾各 [SAMPLE_BYTES] 的 SHA-256，换了模型不会再误用旧的缓存文件；同一模型从不同 URI 选择时复用同一份副本。
+ * 每个 slot（主模型 / 草稿模型）各保留一份副本，互不清理。
+ */
+object ModelStore {
+    private const val TAG = "ModelStore"
+    const val SLOT_MODEL = "model"
+    // small model proposing tokens for speculative decoding
+    const val SLOT_DRAFT = "draft"
+    private const val CACHE_SUFFIX = ".gguf"
+    // pre-fingerprint cache file, removed on the next copy
+    private const val LEGACY_CACHE_NAME = "model.gguf"
+    private const val SAMPLE_BYTES = 1L shl 20
+    private const val COPY_CHUNK_BYTES = 8L shl 20
+
+    /**
+     * A model ready to load.
+     * @param path what to hand to llama.cpp (a file path or /proc/self/fd/N)
+     * @param id stable identity of the model content, for caches keyed by model (prompt state, thread tuning)
+     * @param descriptor kept open while the model is in use when [path] points at it; close via [close]
+     */
+    class Model(val path: String, val id: String, val sizeBytes: Long, private val descriptor: ParcelFileDescriptor? = null) {
+        fun close() {
+            try { descriptor?.close() } catch (_: Exception) {}
+        }
+
+        override fun toString() = "Model(path=$path, id=$id, size=$sizeBytes, fd=${descriptor != null})"
+    }
+
+    fun interface Progress {
+        fun onProgress(copiedBytes: Long, totalBytes: Long)
+    }
+
+    fun open(context: Context, uriString: String, progress: Progress? = null, slot: String = SLOT_MODEL): Model? {
+        return try {
+            val uri = Uri.parse(uriString)
+            when (uri.scheme) {
+                "file" -> {
+                    val file = uri.path?.let { File(it) }
+                    if (file == null || !file.isFile) {
+                        Log.e(TAG, "open: file not found at ${uri.path}")
+                        return null
+                    }
+                    Model(file.absolutePath, "${file.absolutePath}|${file.length()}|${file.lastModified()}", file.length())
+                }
+                "content" -> openContent(context, uri, progress, slot)
+                else -> {
+                    Log.e(TAG, "open: unsupported URI scheme: ${uri.scheme}")
+                    null
+                }
+            }
+        } catch (e: Exception) {
+            Log.e(TAG, "open: ${e.message}", e)
+            null
+        }
+    }
+
+    private fun openContent(context: Context, uri: Uri, progress: Progress?, slot: String): Model? {
+        val pfd = context.contentResolver.openFileDescriptor(uri, "r") ?: return null
+        var keepOpen = false
+        try {
+            val size = pfd.statSize.takeIf { it > 0 } ?: querySize(context, uri)
+            val regular = try { OsConstants.S_ISREG(Os.fstat(pfd.fileDescriptor).st_mode) } catch (_: Exception) { false }
+            if (!regular || size <= 0) {
+                // not seekable: stream it into the cache (identity from the copied file)
+                Log.d(TAG, "openContent: non-regular descriptor, copying stream")
+                return copyStream(context, uri, size, progress, slot)
+            }
+            // channels over pfd's descriptor are not closed here: pfd owns it
+            val channel = FileInputStream(pfd.fileDescriptor).channel
+            val fingerprint = fingerprint(channel, size)
+            val procPath = "/proc/self/fd/${pfd.fd}"
+            if (File(procPath).canRead()) {
+                keepOpen = true
+                Log.d(TAG, "openContent: mapping $uri via $procPath size=$size")
+                removeOtherCopies(context, slot, null)
+                return Model(procPath, fingerprint, size, pfd)
+            }
+            val cached = cacheFile(context, slot, fingerprint)
+            if (cached.isFile && cached.length() == size) {
+                Log.d(TAG, "openContent: cache hit ${cached.name}")
+                return Model(cached.absolutePath, fingerprint, size)
+            }
+            channel.position(0)
+            copy(channel, cached, size, progress)
+            removeOtherCopies(context, slot, cached)
+            return Model(cached.absolutePath, fingerprint, size)
+        } finally {
+            if (!keepOpen) try { pfd.close() } catch (_: Exception) {}
+        }
+    }
+
+    private fun copyStream(context: Context, uri: Uri, size: Long, progress: Progress?, slot: String): Model? {
+        val dir = cacheDir(context)
+        val tmp = File(dir, "incoming_$slot$CACHE_SUFFIX.part")
+        context.contentResolver.openInputStream(uri)?.use { input ->
+            java.nio.channels.Channels.newChannel(input).use { src ->
+                FileOutputStream(tmp).channel.use { dst ->
+                    var copied = 0L
+                    val buf = ByteBuffer.allocateDirect(COPY_CHUNK_BYTES.toInt())
+                    while (src.read(buf) >= 0) {
+                        buf.flip()
+                        while (buf.hasRemaining()) copied += dst.write(buf)
+                        buf.clear()
+                        progress?.onProgress(copied, size)
+                    }
+                }
+            }
+        } ?: return null
+        val length = tmp.length()
+        if (length <= 0) {
+            tmp.delete()
+            return null
+        }
+        val fingerprint = FileInputStream(tmp).channel.use { fingerprint(it, length) }
+        val target = cacheFile(context, slot, fingerprint)
+        if (!tmp.renameTo(target)) {
+            tmp.delete()
+            return null
+        }
+        removeOtherCopies(context, slot, target)
+        return Model(target.absolutePath, fingerprint, length)
+    }
+
+    /** Copies [size] bytes of [src] (from its current position) into [target] via a temp file, reporting progress per chunk. */
+    internal fun copy(src: FileChannel, target: File, size: Long, progress: Progress?) {
+        val tmp = File(target.parentFile, target.name + ".part")
+        FileOutputStream(tmp).channel.use { dst ->
+            var copied = 0L
+            while (copied < size) {
+                val n = dst.transferFrom(src, copied, minOf(COPY_CHUNK_BYTES, size - copied))
+                if (n <= 0) break
+                copied += n
+                progress?.onProgress(copied, size)
+            }
+            if (copied != size) {
+                tmp.delete()
+                throw java.io.IOException("short copy: $copied of $size bytes")
+            }
+        }
+        if (!tmp.renameTo(target)) {
+            tmp.delete()
+            throw java.io.IOException("cannot rename ${tmp.name}")
+        }
+    }
+
+    /** Size + SHA-256 of the first and last [SAMPLE_BYTES]: cheap even for multi-GB files, distinct across models. */
+    internal fun fingerprint(channel: FileChannel, size: Long): String {
+        val md = MessageDigest.getInstance("SHA-256")
+        md.update(size.toString().toByteArray())
+        val buf = ByteBuffer.allocate(SAMPLE_BYTES.toInt())
+        fun sample(at: Long) {
+            buf.clear()
+            var pos = at
+            while (buf.hasRemaining()) {
+                val n = channel.read(buf, pos)
+                if (n <= 0) break
+                pos += n
+            }
+            buf.flip()
+            md.update(buf)
+        }
+        sample(0)
+        if (size > SAMPLE_BYTES) sample(maxOf(SAMPLE_BYTES, size - SAMPLE_BYTES))
+        return md.digest().take(12).joinToString("") { "%02x".format(it) } + "-" + size
+    }
+
+    private fun querySize(context: Context, uri: Uri): Long = try {
+        context.contentResolver.query(uri, arrayOf(OpenableColumns.SIZE), null, null, null)?.use { c ->
+            if (c.moveToFirst() && !c.isNull(0)) c.getLong(0) else -1L
+        } ?: -1L
+    } catch (_: Exception) {
+        -1L
+    }
+
+    private fun cacheDir(context: Context) = File(context.filesDir, "llm").apply { mkdirs() }
+
+    private fun cacheFile(context: Context, slot: String, fingerprint: String) = File(cacheDir(context), "${slot}_" + fingerprint + CACHE_SUFFIX)
+
+    // one cached copy per slot: a multi-GB model should not be stored twice
+    private fun removeOtherCopies(context: Context, slot: String, keep: File?) {
+        val prefix = "${slot}_"
+        cacheDir(context).listFiles { f ->
+            f != keep && ((slot == SLOT_MODEL && f.name == LEGACY_CACHE_NAME) || (f.name.startsWith(prefix) && f.name.endsWith(CACHE_SUFFIX)))
+        }?.forEach {
+            Log.d(TAG, "removing old model copy ${it.name}")
+            it.delete()
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package top.stevezmt.calsync.llm
+
+import android.content.Context
+import android.util.Log
+
+/**
+ * Picks decode (`n_threads`) and prompt (`n_threads_batch`) thread counts per model.
+ *
+ * 首次加载某个模型时，按 [CpuTopology.candidateThreadCounts] 逐个跑一次小基准（prompt 批处理 + 逐 token 解码），
+ * 解码与批处理各自取最快的线程数，结果按模型持久化在 SharedPreferences 里，之后加载直接复用。
+ * 开启“绑定大核”时，线程按算力从高到低固定到核心上（见 nativeConfigureThreads）。
+ */
+object ThreadTuner {
+    private const val TAG = "ThreadTuner"
+    private const val PREFS = "llm_tuning"
+    private const val BENCH_PROMPT_TOKENS = 64
+    private const val BENCH_GEN_TOKENS = 16
+
+    data class ThreadConfig(val decodeThreads: Int, val batchThreads: Int, val pinnedCpus: List<Int> = emptyList()) {
+        fun encode(): String = "$decodeThreads,$batchThreads"
+    }
+
+    /** One calibration run: wall time of the prompt batch and of the token-by-token decode. */
+    data class BenchResult(val threads: Int, val promptMs: Long, val genMs: Long)
+
+    /**
+     * Applies the persisted config for [modelKey], calibrating first if there is none.
+     * Must be called with no inference running on [handle]; calibration clears the KV cache.
+     */
+    fun tune(context: Context, handle: Long, modelKey: String, pinBigCores: Boolean): ThreadConfig {
+        val cores = CpuTopology.cores()
+        val pinned = if (pinBigCores) CpuTopology.fastestFirst(cores).map { it.id } else emptyList()
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        // pinning changes which cores run the threads, so it is calibrated separately
+        val key = "$modelKey|pin=$pinBigCores|cpus=${cores.size}"
+        decode(prefs.getString(key, null))?.let { saved ->
+            val config = saved.copy(pinnedCpus = pinned)
+            if (apply(handle, config)) {
+                Log.d(TAG, "tune: reuse $config")
+                return config
+            }
+        }
+
+        val results = CpuTopology.candidateThreadCounts(cores).mapNotNull { n ->
+            if (!apply(handle, ThreadConfig(n, n, pinned))) return@mapNotNull null
+            val timing = try {
+                LlamaCpp.nativeBenchmark(handle, BENCH_PROMPT_TOKENS, BENCH_GEN_TOKENS)
+            } catch (e: Throwable) {
+                Log.w(TAG, "benchmark failed: ${e.message}")
+                null
+            }
+            if (timing == null || timing.size < 2 || timing[0] < 0 || timing[1] < 0) null
+            else BenchResult(n, timing[0], timing[1]).also { Log.d(TAG, "tune: $it") }
+        }
+        val config = choose(results, CpuTopology.defaultThreads(cores)).copy(pinnedCpus = pinned)
+        apply(handle, config)
+        if (results.isNotEmpty()) prefs.edit().putString(key, config.encode()).apply()
+        Log.d(TAG, "tune: calibrated $config from ${results.size} runs")
+        return config
+    }
+
+    /** Fastest decode and fastest prompt thread counts; [fallback] when nothing could be measured. */
+    internal fun choose(results: List<BenchResult>, fallback: Pair<Int, Int>): ThreadConfig {
+        if (results.isEmpty()) return ThreadConfig(fallback.first, fallback.second)
+        // ties go to fewer threads: same speed, less power
+        val decode = results.minWith(compareBy<BenchResult> { it.genMs }.thenBy { it.threads }).threads
+        val batch = results.minWith(compareBy<BenchResult> { it.promptMs }.thenBy { it.threads }).threads
+        return ThreadConfig(decode, batch)
+    }
+
+    internal fun decode(s: String?): ThreadConfig? {
+        val parts = s?.split(',') ?: return null
+        if (parts.size != 2) return null
+        val d = parts[0].toIntOrNull()?.takeIf { it > 0 } ?: return null
+        val b = parts[1].toIntOrNull()?.takeIf { it > 0 } ?: return null
+        return ThreadConfig(d, b)
+    }
+
+    private fun apply(handle: Long, config: ThreadConfig): Boolean = try {
+        LlamaCpp.nativeConfigureThreads(handle, config.decodeThreads, config.batchThreads, config.pinnedCpus.toIntArray())
+    } catch (e: Throwable) {
+        Log.w(TAG, "configure $config failed: ${e.message}")
+        false
+    }
+}
@@ -30,20 +30,34 @@ public class TimeNormalizer {
         "[一二三四五六七八九十百零0-9]+(?:个)?(?:天|小时|分(?:钟)?|秒)后)+"
     );
 
-    private Calendar baseTime;
-    private final List<TimeUnit> units = new ArrayList<>();
+    // result of the last parse, for single-threaded callers of getTimeUnits()
+    private volatile List<TimeUnit> units = new ArrayList<>();
 
-    public void parse(String text, Calendar base) {
-        units.clear();
-        this.baseTime = (Calendar) base.clone();
+    /**
+     * Extracts and resolves the time expressions of [text] relative to [base].
+     * All working state is local to the call, so one instance can be shared by concurrent callers
+     * as long as they use the returned list rather than getTimeUnits().
+     */
+    public List<TimeUnit> parse(String text, Calendar base) {
+        Calendar baseTime = (Calendar) base.clone();
+        // scratch calendars shared by all units of this parse (see TimeUnit)
+        Calendar work = (Calendar) base.clone();
+        Calendar anchor = (Calendar) base.clone();
+        List<TimeUnit> found = new ArrayList<>();
         String pre = stringPreHandlingModule.preHandling(text);
         Matcher m = TIME_EXPRESSION.matcher(pre);
         while (m.find()) {
-            String exp = m.group();
-            // merge consecutive punctuation trimmed
-            exp = exp.replaceAll("[，。,.]+$","" );
-            units.add(new TimeUnit(exp, baseTime));
+            // drop trailing punctuation (，。,.) without a regex per expression
+            int end = m.end();
+            while (end > m.start() && isTrailingPunct(pre.charAt(end - 1))) end--;
+            found.add(new TimeUnit(pre.substring(m.start(), end), baseTime, work, anchor));
         }
+        units = found;
+        return found;
+    }
+
+    private static boolean isTrailingPunct(char c) {
+        return c == '，' || c == '。' || c == ',' || c == '.';
     }
 
     public List<TimeUnit> getTimeUnits() { return units; }
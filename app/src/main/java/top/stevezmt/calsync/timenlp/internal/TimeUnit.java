@@ -1,59 +1,85 @@
 package top.stevezmt.calsync.timenlp.internal;
 
+import top.stevezmt.calsync.ChineseNumerals;
+
 import java.util.Calendar;
-import java.util.Date;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
 public class TimeUnit {
+    // Compiled once: a TimeUnit is built for every matched expression of every sentence TimeNLP sees
+    private static final Pattern YEAR = Pattern.compile("(\\d{2,4})年");
+    private static final Pattern MONTH = Pattern.compile("(\\d{1,2})月");
+    private static final Pattern DAY = Pattern.compile("(\\d{1,2})[日号]");
+    private static final Pattern SLASH_DATE = Pattern.compile("(\\d{1,2})/(\\d{1,2})");
+    private static final Pattern DOT_DATE = Pattern.compile("(\\d{1,2})[.](\\d{1,2})");
+    private static final Pattern DASH_DATE = Pattern.compile("(\\d{1,2})-(\\d{1,2})");
+    private static final Pattern WEEKDAY = Pattern.compile("(?:周|星期)([一二三四五六日天])");
+    private static final Pattern HOUR_MINUTE = Pattern.compile("(\\d{1,2})[:：点](\\d{1,2})");
+    private static final Pattern HOUR = Pattern.compile("(\\d{1,2})点");
+    private static final Pattern HOURS_AND_HALF_LATER = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?半小时后");
+    private static final Pattern HALF_HOUR_LATER = Pattern.compile("(?:半小时后|半个小时后)");
+    private static final Pattern DAYS = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?天");
+    private static final Pattern HOURS = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?小时");
+    private static final Pattern MINUTES = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?分(?:钟)?");
+    private static final Pattern SECONDS = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?秒");
+
     public final TimePoint tp = new TimePoint();
     private final String exp; // matched expression fragment
-    private final Calendar contextCal; // base time for relative resolution
     private Long resolvedTime; // millis
 
     public TimeUnit(String exp, Calendar base) {
+        this(exp, base, (Calendar) base.clone(), (Calendar) base.clone());
+    }
+
+    /**
+     * work / anchor: scratch calendars with base's time zone, owned by the caller (TimeNormalizer reuses them for
+     * every unit of a parse). Both are overwritten; work is reset to base first.
+     */
+    TimeUnit(String exp, Calendar base, Calendar work, Calendar anchor) {
         this.exp = exp;
-        this.contextCal = (Calendar) base.clone();
-        normalize();
+        work.setTimeInMillis(base.getTimeInMillis());
+        normalize(work, anchor);
     }
 
-    private void normalize() {
+    // contextCal: base time for relative resolution, moved by relative words/durations while normalizing
+    private void normalize(Calendar contextCal, Calendar anchor) {
         String s = exp;
         // year
-        Matcher m = Pattern.compile("(\\d{2,4})年").matcher(s);
+        Matcher m = YEAR.matcher(s);
         if (m.find()) tp.tunit[0] = Integer.parseInt(m.group(1));
         // month
-        m = Pattern.compile("(\\d{1,2})月").matcher(s);
+        m = MONTH.matcher(s);
         if (m.find()) tp.tunit[1] = Integer.parseInt(m.group(1));
         // day
-        m = Pattern.compile("(\\d{1,2})[日号]").matcher(s);
+        m = DAY.matcher(s);
         if (m.find()) tp.tunit[2] = Integer.parseInt(m.group(1));
         // short date MM/DD
-        m = Pattern.compile("(\\d{1,2})/(\\d{1,2})").matcher(s);
+        m = SLASH_DATE.matcher(s);
         if (m.find()) {
             tp.tunit[1] = Integer.parseInt(m.group(1));
             tp.tunit[2] = Integer.parseInt(m.group(2));
         }
         // dot date M.DD
-        m = Pattern.compile("(\\d{1,2})[.](\\d{1,2})").matcher(s);
+        m = DOT_DATE.matcher(s);
         if (m.find()) {
             tp.tunit[1] = Integer.parseInt(m.group(1));
             tp.tunit[2] = Integer.parseInt(m.group(2));
         }
         // dash date M-DD
-        m = Pattern.compile("(\\d{1,2})-(\\d{1,2})").matcher(s);
+        m = DASH_DATE.matcher(s);
         if (m.find()) {
             tp.tunit[1] = Integer.parseInt(m.group(1));
             tp.tunit[2] = Integer.parseInt(m.group(2));
         }
         // weekday tokens: 周X 或 星期X
-        m = Pattern.compile("(?:周|星期)([一二三四五六日天])").matcher(s);
+        m = WEEKDAY.matcher(s);
         if (m.find()) {
             int targetDow = charWeekday(m.group(1).charAt(0));
             if (targetDow > 0) {
                 int weekOffset = s.contains("下下周") ? 2 : (s.contains("下周") ? 1 : 0);
-                moveToWeekday(targetDow, weekOffset);
+                moveToWeekday(contextCal, anchor, targetDow, weekOffset);
             }
         }
         // fuzzy period => set hour
@@ -66,7 +92,7 @@ public class TimeUnit {
     else if (s.contains("晚上") || s.contains("晚间") || s.contains("夜间") || s.contains("今晚") || s.contains("明晚")) tp.tunit[3] = 20;
     else if (s.contains("深夜")) tp.tunit[3] = 23;
         // HH:mm or explicit hour — preserve fuzzy period context (e.g. "下午5点" -> 17:00)
-        m = Pattern.compile("(\\d{1,2})[:：点](\\d{1,2})").matcher(s);
+        m = HOUR_MINUTE.matcher(s);
         if (m.find()) {
             int parsedHour = Integer.parseInt(m.group(1));
             tp.tunit[4] = Integer.parseInt(m.group(2));
@@ -83,7 +109,7 @@ public class TimeUnit {
             // }
         } else {
             // hour only
-            m = Pattern.compile("(\\d{1,2})点").matcher(s);
+            m = HOUR.matcher(s);
             if (m.find()) {
                 int parsedHour = Integer.parseInt(m.group(1));
                 if ((s.contains("下午") || s.contains("傍晚") || s.contains("晚上") || s.contains("晚间") || s.contains("今晚") || s.contains("明晚") || s.contains("夜")) && parsedHour < 12) {
@@ -106,27 +132,27 @@ public class TimeUnit {
 
         // relative durations like X天/小时/分钟/秒后, include half-hour handling
         // handle patterns like '3个半小时后' first
-        Matcher dm = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?半小时后").matcher(s);
+        Matcher dm = HOURS_AND_HALF_LATER.matcher(s);
         if (dm.find()) {
             int n = parseChineseOrArabic(dm.group(1));
             contextCal.add(Calendar.HOUR_OF_DAY, n);
             contextCal.add(Calendar.MINUTE, 30);
         } else {
-            Matcher halfOnly = Pattern.compile("(?:半小时后|半个小时后)").matcher(s);
+            Matcher halfOnly = HALF_HOUR_LATER.matcher(s);
             if (halfOnly.find()) {
                 contextCal.add(Calendar.MINUTE, 30);
             }
         }
             // then normal integer units
             // Note: support combined forms like "1天2小时后" (units may not each be followed by '后')
-            dm = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?天").matcher(s);
+            dm = DAYS.matcher(s);
             if (dm.find()) contextCal.add(Calendar.DAY_OF_MONTH, parseChineseOrArabic(dm.group(1)));
-            dm = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?小时").matcher(s);
+            dm = HOURS.matcher(s);
             // avoid double-counting when a '半小时' pattern was already matched above
             if (!s.contains("半小时") && dm.find()) contextCal.add(Calendar.HOUR_OF_DAY, parseChineseOrArabic(dm.group(1)));
-            dm = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?分(?:钟)?").matcher(s);
+            dm = MINUTES.matcher(s);
             if (dm.find()) contextCal.add(Calendar.MINUTE, parseChineseOrArabic(dm.group(1)));
-            dm = Pattern.compile("([一二三四五六七八九十百零0-9]+)(?:个)?秒").matcher(s);
+            dm = SECONDS.matcher(s);
             if (dm.find()) contextCal.add(Calendar.SECOND, parseChineseOrArabic(dm.group(1)));
         // If any '后' appeared and no explicit hour/minute in the token, adopt from updated context
         if ((s.contains("后") || s.contains("之后")) && tp.tunit[3] == -1) {
@@ -137,8 +163,8 @@ public class TimeUnit {
         }
 
         // weekend phrases -> set to Saturday morning as anchor; adapter may extend to range later
-        if (s.contains("本周末") || s.contains("这个周末") || s.contains("这周末")) moveToWeekend(0);
-        else if (s.contains("下周末")) moveToWeekend(1);
+        if (s.contains("本周末") || s.contains("这个周末") || s.contains("这周末")) moveToWeekend(contextCal, 0);
+        else if (s.contains("下周末")) moveToWeekend(contextCal, 1);
         // explicit '本周' day not specified: keep base week (no shift)
         if (s.contains("后晚")) { // treat as the day after tomorrow evening unless already moved
             contextCal.add(Calendar.DAY_OF_MONTH,2);
@@ -167,7 +193,9 @@ public class TimeUnit {
         if (tp.tunit[4] == -1) tp.tunit[4] = 0;
         if (tp.tunit[5] == -1) tp.tunit[5] = 0;
 
-        Calendar cal = Calendar.getInstance();
+        // the scratch calendar is done with the relative context: reuse it for the result
+        Calendar cal = contextCal;
+        cal.clear();
         cal.set(Calendar.YEAR, tp.tunit[0]);
         cal.set(Calendar.MONTH, tp.tunit[1]-1);
         cal.set(Calendar.DAY_OF_MONTH, tp.tunit[2]);
@@ -178,8 +206,7 @@ public class TimeUnit {
         resolvedTime = cal.getTimeInMillis();
     }
 
-    private void moveToWeekend(int weekOffset) {
-        Calendar c = contextCal;
+    private void moveToWeekend(Calendar c, int weekOffset) {
         c.add(Calendar.WEEK_OF_YEAR, weekOffset);
         // Move to Saturday
         int dow = c.get(Calendar.DAY_OF_WEEK); // 1 Sun ... 7 Sat
@@ -193,9 +220,9 @@ public class TimeUnit {
         if (tp.tunit[3] == -1) tp.tunit[3] = 9;
     }
 
-    private void moveToWeekday(int targetDow, int weekOffset) {
+    private void moveToWeekday(Calendar contextCal, Calendar base, int targetDow, int weekOffset) {
         // Anchor to Monday of the target week, then add (targetDow-1) days.
-    Calendar base = (Calendar) contextCal.clone();
+        base.setTimeInMillis(contextCal.getTimeInMillis());
         // Step 1: move to Monday of the current week (do not advance to next week yet)
         int dow = base.get(Calendar.DAY_OF_WEEK); // 1..7 (Sun..Sat)
         int diffToMonday = Calendar.MONDAY - dow;
@@ -208,9 +235,7 @@ public class TimeUnit {
         base.add(Calendar.DAY_OF_MONTH, daysFromMonday);
         // If plain 周X without 本周/下周 and target day already passed for this week, move to next week
         if (!exp.contains("本周") && !exp.contains("这周") && !exp.contains("下周") && !exp.contains("下下周")) {
-            Calendar now = (Calendar) contextCal.clone();
-            Calendar cand = (Calendar) base.clone();
-            if (cand.before(now)) {
+            if (base.before(contextCal)) {
                 base.add(Calendar.WEEK_OF_YEAR, 1);
             }
         }
@@ -232,23 +257,6 @@ public class TimeUnit {
     public String getExp() { return exp; }
 
     private int parseChineseOrArabic(String s) {
-        // very small helper: try parse int, otherwise sum chinese digits with 十/百 support
-    try { return Integer.parseInt(s); } catch (NumberFormatException ignored) {}
-        int result = 0, temp = 0, unit = 1;
-        for (int i=0;i<s.length();i++) {
-            char c = s.charAt(i);
-            int v;
-            switch (c) {
-                case '零': case '〇': v = 0; break;
-                case '一': v = 1; break; case '二': case '两': v = 2; break; case '三': v = 3; break; case '四': v = 4; break;
-                case '五': v = 5; break; case '六': v = 6; break; case '七': v = 7; break; case '八': v = 8; break; case '九': v = 9; break;
-                case '十': unit = 10; if (temp == 0) temp = 1; temp *= unit; continue;
-                case '百': unit = 100; if (temp == 0) temp = 1; temp *= unit; continue;
-                default: continue;
-            }
-            if (unit > 1) { temp += v * unit; unit = 1; } else { temp = temp * 10 + v; }
-        }
-        result += temp;
-        return result == 0 ? 0 : result;
+        return ChineseNumerals.parse(s);
     }
 }
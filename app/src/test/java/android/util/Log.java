@@ -8,6 +8,8 @@ public final class Log {
     public static int d(String tag, String msg, Throwable tr) { return 0; }
     public static int i(String tag, String msg) { return 0; }
     public static int w(String tag, String msg) { return 0; }
+    public static int w(String tag, String msg, Throwable tr) { return 0; }
     public static int e(String tag, String msg) { return 0; }
+    public static int e(String tag, String msg, Throwable tr) { return 0; }
     public static int v(String tag, String msg) { return 0; }
 }
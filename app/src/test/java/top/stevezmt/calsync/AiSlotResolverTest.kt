@@ -0,0 +1,61 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import top.stevezmt.calsync.llm.EventSlotSchema.Slots
+import java.util.Calendar
+
+class AiSlotResolverTest {
+
+    // 2025-09-18 10:00, a Thursday
+    private val base = at(2025, 9, 18, 10, 0)
+
+    private fun at(year: Int, month: Int, day: Int, hour: Int, minute: Int): Long = Calendar.getInstance().apply {
+        clear()
+        set(year, month - 1, day, hour, minute, 0)
+    }.timeInMillis
+
+    private fun start(slots: Slots): Long? = DateTimeParser.resolveAiSlots(slots, base)?.startMillis
+
+    @Test
+    fun relativeDayWithPmHour() {
+        assertEquals(at(2025, 9, 19, 15, 30), start(Slots(dayOffset = 1, hour = 3, minute = 30, ampm = "pm")))
+        assertEquals(at(2025, 9, 20, 15, 0), start(Slots(dayOffset = 2, hour = 15, ampm = "pm")))
+    }
+
+    @Test
+    fun weekdayWithAndWithoutWeekOffset() {
+        // bare weekday: next occurrence
+        assertEquals(at(2025, 9, 19, 14, 0), start(Slots(weekday = 5, hour = 14)))
+        assertEquals(at(2025, 9, 25, 9, 0), start(Slots(weekday = 4)))
+        // 下周一 / 本周日
+        assertEquals(at(2025, 9, 22, 9, 0), start(Slots(weekday = 1, weekOffset = 1, hour = 9)))
+        assertEquals(at(2025, 9, 21, 19, 0), start(Slots(weekday = 7, weekOffset = 0, ampm = "pm")))
+    }
+
+    @Test
+    fun monthDayRollsIntoNextYearWhenPast() {
+        assertEquals(at(2025, 10, 1, 8, 0), start(Slots(month = 10, day = 1, hour = 8)))
+        assertEquals(at(2026, 1, 3, 8, 0), start(Slots(month = 1, day = 3, hour = 8, ampm = "am")))
+        // today stays today even if the hour has passed
+        assertEquals(at(2025, 9, 18, 9, 0), start(Slots(month = 9, day = 18, hour = 9)))
+    }
+
+    @Test
+    fun timeOnlyMovesToTomorrowWhenPast() {
+        assertEquals(at(2025, 9, 18, 20, 0), start(Slots(hour = 8, ampm = "pm")))
+        assertEquals(at(2025, 9, 19, 8, 0), start(Slots(hour = 8)))
+    }
+
+    @Test
+    fun durationTitleAndEmptySlots() {
+        val r = DateTimeParser.resolveAiSlots(Slots(dayOffset = 0, hour = 14, durationMin = 90, title = "组会", location = "A101"), base)!!
+        assertEquals(at(2025, 9, 18, 14, 0), r.startMillis)
+        assertEquals(at(2025, 9, 18, 15, 30), r.endMillis)
+        assertEquals("组会", r.title)
+        assertEquals("A101", r.location)
+        assertNull(DateTimeParser.resolveAiSlots(Slots(title = "没有时间"), base))
+        assertNull(DateTimeParser.resolveAiSlots(Slots(month = 13, day = 1, hour = 9), base))
+    }
+}
@@ -0,0 +1,43 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import top.stevezmt.calsync.CalendarHelper.PlannedOp
+
+class CalendarHelperBatchTest {
+
+    @Test
+    fun remindersBackReferenceTheirOwnEvent() {
+        val plan = CalendarHelper.planBatch(3, withReminders = true)
+        assertEquals(
+            listOf(
+                PlannedOp(0, false, 0), PlannedOp(0, true, 0),
+                PlannedOp(1, false, 2), PlannedOp(1, true, 2),
+                PlannedOp(2, false, 4), PlannedOp(2, true, 4)
+            ),
+            plan
+        )
+        // every back-reference points at an earlier event op of the same draft
+        for ((i, op) in plan.withIndex()) {
+            if (!op.isReminder) continue
+            assertTrue(op.eventOpIndex < i)
+            assertEquals(PlannedOp(op.draftIndex, false, op.eventOpIndex), plan[op.eventOpIndex])
+        }
+    }
+
+    @Test
+    fun withoutRemindersOnlyEventsAreInserted() {
+        assertEquals(
+            listOf(PlannedOp(0, false, 0), PlannedOp(1, false, 1)),
+            CalendarHelper.planBatch(2, withReminders = false)
+        )
+        assertEquals(emptyList<PlannedOp>(), CalendarHelper.planBatch(0, withReminders = true))
+    }
+
+    @Test
+    fun missingEndDefaultsToOneHour() {
+        assertEquals(7_200_000L, CalendarHelper.endMillisOf(CalendarHelper.EventDraft("t", "d", 3_600_000L, null)))
+        assertEquals(5_000_000L, CalendarHelper.endMillisOf(CalendarHelper.EventDraft("t", "d", 3_600_000L, 5_000_000L)))
+    }
+}
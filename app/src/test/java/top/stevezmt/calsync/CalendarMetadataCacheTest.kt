@@ -0,0 +1,68 @@
+package top.stevezmt.calsync
+
+import android.provider.CalendarContract
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CalendarMetadataCacheTest {
+
+    private val readOnly = CalendarHelper.CalendarInfo(1, "节假日", CalendarContract.Calendars.CAL_ACCESS_READ)
+    private val personal = CalendarHelper.CalendarInfo(2, "个人", CalendarContract.Calendars.CAL_ACCESS_OWNER)
+    private val shared = CalendarHelper.CalendarInfo(3, "课程表", CalendarContract.Calendars.CAL_ACCESS_CONTRIBUTOR)
+
+    @Test
+    fun selectedWritableCalendarIsUsed() {
+        assertEquals(3L, CalendarMetadataCache.chooseTarget(listOf(readOnly, personal, shared), 3L))
+    }
+
+    @Test
+    fun readOnlyCalendarsAreNeverTargeted() {
+        // no selection: first writable instead of first visible
+        assertEquals(2L, CalendarMetadataCache.chooseTarget(listOf(readOnly, personal, shared), null))
+        // read-only selection falls back to a writable one
+        assertEquals(2L, CalendarMetadataCache.chooseTarget(listOf(readOnly, personal, shared), 1L))
+        assertNull(CalendarMetadataCache.chooseTarget(listOf(readOnly), null))
+    }
+
+    @Test
+    fun unknownSelectionIsKept() {
+        assertEquals(42L, CalendarMetadataCache.chooseTarget(listOf(personal), 42L))
+        assertEquals(42L, CalendarMetadataCache.chooseTarget(emptyList(), 42L))
+    }
+
+    @Test
+    fun rootNotificationsInvalidateUnlessCausedByOwnInsert() {
+        val now = System.nanoTime() / 1_000_000L + 60_000L
+        // CalendarProvider2 reports calendar changes on the root URI too
+        assertTrue(CalendarMetadataCache.invalidatedBy("content://com.android.calendar", now))
+        assertTrue(CalendarMetadataCache.invalidatedBy("content://com.android.calendar/calendars/3", now))
+        assertTrue(CalendarMetadataCache.invalidatedBy(null, now))
+
+        CalendarMetadataCache.ownWrite {
+            assertFalse(CalendarMetadataCache.invalidatedBy("content://com.android.calendar", now))
+            assertTrue(CalendarMetadataCache.invalidatedBy("content://com.android.calendar/calendars", now))
+        }
+        val after = System.nanoTime() / 1_000_000L
+        // notifications of the insert may arrive shortly after it returned
+        assertFalse(CalendarMetadataCache.invalidatedBy("content://com.android.calendar/events", after))
+        assertTrue(CalendarMetadataCache.invalidatedBy("content://com.android.calendar", after + CalendarMetadataCache.OWN_WRITE_GRACE_MS + 1))
+    }
+
+    @Test
+    fun queryRacingAnInvalidationIsNotStored() {
+        CalendarMetadataCache.invalidate()
+        val gen = CalendarMetadataCache.currentGeneration()
+        // calendar changed while the query was running
+        CalendarMetadataCache.invalidate()
+        assertFalse(CalendarMetadataCache.publish(gen, listOf(personal), 0L))
+        assertNull(CalendarMetadataCache.cached(0L))
+
+        assertTrue(CalendarMetadataCache.publish(CalendarMetadataCache.currentGeneration(), listOf(personal), 0L))
+        assertEquals(listOf(personal), CalendarMetadataCache.cached(1_000L))
+        assertNull(CalendarMetadataCache.cached(CalendarMetadataCache.MAX_AGE_MS))
+        CalendarMetadataCache.invalidate()
+    }
+}
@@ -0,0 +1,26 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import top.stevezmt.calsync.llm.CancellationToken
+
+class CancellationTokenTest {
+
+    @Test
+    fun cancelAllOnlyAffectsRegisteredTokens() {
+        val running = CancellationToken()
+        val finished = CancellationToken()
+        CancellationToken.register(running)
+        CancellationToken.register(finished)
+        CancellationToken.unregister(finished)
+
+        CancellationToken.cancelAll()
+        assertTrue(running.isCancelled)
+        assertFalse(finished.isCancelled)
+
+        // tokens created afterwards start fresh
+        assertFalse(CancellationToken().isCancelled)
+        CancellationToken.unregister(running)
+    }
+}
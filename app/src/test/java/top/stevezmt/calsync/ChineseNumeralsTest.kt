@@ -0,0 +1,55 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class ChineseNumeralsTest {
+
+    @Test
+    fun parsesNumeralsWithUnitsAndDigitRuns() {
+        assertEquals(15, ChineseNumerals.parse("十五"))
+        assertEquals(25, ChineseNumerals.parse("二十五"))
+        assertEquals(10, ChineseNumerals.parse("十"))
+        assertEquals(105, ChineseNumerals.parse("一百零五"))
+        assertEquals(120, ChineseNumerals.parse("一百二十"))
+        assertEquals(200, ChineseNumerals.parse("两百"))
+        assertEquals(2000, ChineseNumerals.parse("两千"))
+        assertEquals(3020, ChineseNumerals.parse("三千零二十"))
+        assertEquals(2025, ChineseNumerals.parse("二〇二五"))
+        assertEquals(0, ChineseNumerals.parse("零"))
+    }
+
+    @Test
+    fun parsesDecimalDigitsAndRanges() {
+        assertEquals(18, ChineseNumerals.parse("18"))
+        assertEquals(7, ChineseNumerals.parse("７"))
+        assertEquals(0, ChineseNumerals.parse("点"))
+        assertEquals(12, ChineseNumerals.parse("下午十二点", 2, 4))
+    }
+
+    @Test
+    fun translateKeepsWeekdayDigit() {
+        assertEquals("周五下午3点", ChineseNumerals.translate("周五下午三点"))
+        assertEquals("星期三10点", ChineseNumerals.translate("星期三十点"))
+        assertEquals("周日20分钟后", ChineseNumerals.translate("周日二十分钟后"))
+        assertEquals("2025年10月1日", ChineseNumerals.translate("二零二五年十月一日"))
+        assertEquals("0点", ChineseNumerals.translate("零点"))
+    }
+
+    @Test
+    fun translateWithoutNumeralsReturnsSameString() {
+        val s = "周五下午3点开会"
+        assertSame(s, ChineseNumerals.translate(s))
+    }
+
+    @Test
+    fun translateReportsSourceAndOutputSpans() {
+        val spans = mutableListOf<String>()
+        val out = ChineseNumerals.translate("十月二十五日下午两点", StringBuilder()) { srcStart, srcEnd, outStart, outEnd, value ->
+            spans.add("$srcStart-$srcEnd>$outStart-$outEnd=$value")
+        }
+        assertEquals("10月25日下午2点", out.toString())
+        assertEquals(listOf("0-1>0-2=10", "2-5>3-5=25", "8-9>8-9=2"), spans)
+    }
+}
@@ -0,0 +1,65 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import top.stevezmt.calsync.llm.CpuTopology
+import top.stevezmt.calsync.llm.ThreadTuner
+import java.io.File
+import java.nio.file.Files
+
+class CpuTopologyTest {
+
+    // fake /sys/devices/system/cpu: cpuN -> (cpu_capacity, cpuinfo_max_freq)
+    private fun sysfs(vararg cores: Pair<Int?, Long?>): File {
+        val root = Files.createTempDirectory("cpu").toFile()
+        cores.forEachIndexed { i, (cap, freq) ->
+            val dir = File(root, "cpu$i").apply { mkdirs() }
+            cap?.let { File(dir, "cpu_capacity").writeText("$it\n") }
+            freq?.let { File(dir, "cpufreq").mkdirs(); File(dir, "cpufreq/cpuinfo_max_freq").writeText("$it\n") }
+        }
+        File(root, "cpufreq").mkdirs() // not a core
+        return root
+    }
+
+    @Test
+    fun bigLittleByCapacity() {
+        // 4 little + 3 mid + 1 prime, typical 1+3+4 SoC
+        val root = sysfs(
+            325 to 1_800_000L, 325 to 1_800_000L, 325 to 1_800_000L, 325 to 1_800_000L,
+            870 to 2_500_000L, 870 to 2_500_000L, 870 to 2_500_000L, 1024 to 3_000_000L
+        )
+        val cores = CpuTopology.probe(root)
+        assertEquals(8, cores.size)
+        assertEquals(listOf(4, 5, 6, 7), CpuTopology.bigCores(cores).map { it.id })
+        assertEquals(listOf(7, 4, 5, 6, 0, 1, 2, 3), CpuTopology.fastestFirst(cores).map { it.id })
+        assertEquals(listOf(2, 4, 8), CpuTopology.candidateThreadCounts(cores))
+        assertEquals(4 to 4, CpuTopology.defaultThreads(cores))
+        root.deleteRecursively()
+    }
+
+    @Test
+    fun frequencyFallbackAndHomogeneous() {
+        val mixed = CpuTopology.probe(sysfs(null to 1_000_000L, null to 1_000_000L, null to 2_000_000L, null to 2_000_000L))
+        assertEquals(listOf(2, 3), CpuTopology.bigCores(mixed).map { it.id })
+        assertEquals(2 to 2, CpuTopology.defaultThreads(mixed))
+
+        val same = CpuTopology.probe(sysfs(null to null, null to null, null to null, null to null))
+        assertEquals(4, CpuTopology.bigCores(same).size)
+        assertEquals(listOf(2, 4), CpuTopology.candidateThreadCounts(same))
+    }
+
+    @Test
+    fun tunerPicksDecodeAndBatchSeparately() {
+        val results = listOf(
+            ThreadTuner.BenchResult(2, promptMs = 900, genMs = 400),
+            ThreadTuner.BenchResult(4, promptMs = 500, genMs = 300),
+            ThreadTuner.BenchResult(8, promptMs = 350, genMs = 300)
+        )
+        assertEquals(ThreadTuner.ThreadConfig(4, 8), ThreadTuner.choose(results, 1 to 1))
+        assertEquals(ThreadTuner.ThreadConfig(3, 6), ThreadTuner.choose(emptyList(), 3 to 6))
+        assertEquals(ThreadTuner.ThreadConfig(4, 8), ThreadTuner.decode(ThreadTuner.ThreadConfig(4, 8).encode()))
+        assertNull(ThreadTuner.decode("4"))
+        assertNull(ThreadTuner.decode("0,2"))
+    }
+}
@@ -0,0 +1,85 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CreatedEventIndexTest {
+
+    @Test
+    fun keyIgnoresPunctuationCaseAndSeconds() {
+        val start = 1_760_000_000_000L
+        val a = CreatedEventIndex.keyOf("班会 （A101）！", start, "A101 教室")
+        val b = CreatedEventIndex.keyOf("班会(a101)", start + 30_000L - start % 60_000L, "a101教室")
+        assertEquals(a, b)
+    }
+
+    @Test
+    fun differentMinuteOrLocationIsADifferentEvent() {
+        val start = 1_760_000_040_000L
+        val base = CreatedEventIndex.keyOf("班会", start, "A101")
+        assertNotEquals(base, CreatedEventIndex.keyOf("班会", start + 60_000L, "A101"))
+        assertNotEquals(base, CreatedEventIndex.keyOf("班会", start, "B202"))
+        assertEquals(CreatedEventIndex.keyOf("班会", start, null), CreatedEventIndex.keyOf("班会", start, ""))
+    }
+
+    @Test
+    fun hitReturnsTheRecordedEventWhileItExists() {
+        val entries = CreatedEventIndex.Entries()
+        val now = 1_760_000_000_000L
+        entries.put("k", 42L, now + 3_600_000L)
+        val checked = mutableListOf<Long>()
+        assertEquals(42L, entries.find("k", now) { checked.add(it); true })
+        assertEquals(listOf(42L), checked)
+        assertNull(entries.find("other", now) { true })
+    }
+
+    @Test
+    fun deletedEventIsDroppedFromTheIndex() {
+        val entries = CreatedEventIndex.Entries()
+        val now = 1_760_000_000_000L
+        entries.put("k", 42L, now)
+        // removed in the calendar app: a miss, and the entry is gone for good
+        assertNull(entries.find("k", now) { false })
+        assertFalse(entries.contains("k"))
+        assertNull(entries.find("k", now) { true })
+
+        entries.put("a", 7L, now)
+        entries.put("b", 7L, now)
+        entries.removeEvent(7L)
+        assertFalse(entries.contains("a") || entries.contains("b"))
+    }
+
+    @Test
+    fun entriesExpireAfterRetention() {
+        val entries = CreatedEventIndex.Entries()
+        val start = 1_760_000_000_000L
+        entries.put("k", 42L, start)
+        assertEquals(42L, entries.find("k", start + CreatedEventIndex.RETENTION_MS) { true })
+        var checked = false
+        assertNull(entries.find("k", start + CreatedEventIndex.RETENTION_MS + 1) { checked = true; true })
+        // expired entries are dropped without a calendar query
+        assertFalse(checked)
+        assertFalse(entries.contains("k"))
+    }
+
+    @Test
+    fun keyCanBeClaimedByOneInserterOnly() {
+        val entries = CreatedEventIndex.Entries()
+        assertTrue(entries.claim("k"))
+        // second worker with the same announcement from another app
+        assertFalse(entries.claim("k"))
+        entries.put("k", 42L, 1_760_000_000_000L)
+        entries.release("k")
+        // recorded by the first worker: still a duplicate
+        assertFalse(entries.claim("k"))
+
+        // failed insert: released without a record, the next attempt may try again
+        assertTrue(entries.claim("other"))
+        entries.release("other")
+        assertTrue(entries.claim("other"))
+    }
+}
@@ -0,0 +1,75 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.regex.Pattern
+
+class CustomRuleEngineTest {
+
+    object DummyContext: android.content.ContextWrapper(null) {
+        private val mem = mutableMapOf<String, Any>()
+        override fun getSharedPreferences(name: String?, mode: Int): android.content.SharedPreferences {
+            return object: android.content.SharedPreferences {
+                override fun getAll(): MutableMap<String, *> = mem
+                override fun getString(key: String?, defValue: String?): String? = mem[key] as? String ?: defValue
+                override fun getStringSet(key: String?, defValues: MutableSet<String>?): MutableSet<String>? = @Suppress("UNCHECKED_CAST") (mem[key] as? MutableSet<String>) ?: defValues
+                override fun getInt(key: String?, defValue: Int): Int = (mem[key] as? Int) ?: defValue
+                override fun getLong(key: String?, defValue: Long): Long = (mem[key] as? Long) ?: defValue
+                override fun getFloat(key: String?, defValue: Float): Float = (mem[key] as? Float) ?: defValue
+                override fun getBoolean(key: String?, defValue: Boolean): Boolean = (mem[key] as? Boolean) ?: defValue
+                override fun contains(key: String?) = mem.containsKey(key)
+                override fun edit(): android.content.SharedPreferences.Editor = object: android.content.SharedPreferences.Editor {
+                    override fun putString(key: String?, value: String?): android.content.SharedPreferences.Editor { if (key!=null) { if (value==null) mem.remove(key) else mem[key]=value }; return this }
+                    override fun putStringSet(key: String?, values: MutableSet<String>?): android.content.SharedPreferences.Editor { if (key!=null) { if (values==null) mem.remove(key) else mem[key]=values }; return this }
+                    override fun putInt(key: String?, value: Int): android.content.SharedPreferences.Editor { if (key!=null) mem[key]=value; return this }
+                    override fun putLong(key: String?, value: Long): android.content.SharedPreferences.Editor { if (key!=null) mem[key]=value; return this }
+                    override fun putFloat(key: String?, value: Float): android.content.SharedPreferences.Editor { if (key!=null) mem[key]=value; return this }
+                    override fun putBoolean(key: String?, value: Boolean): android.content.SharedPreferences.Editor { if (key!=null) mem[key]=value; return this }
+                    override fun remove(key: String?): android.content.SharedPreferences.Editor { if (key!=null) mem.remove(key); return this }
+                    override fun clear(): android.content.SharedPreferences.Editor { mem.clear(); return this }
+                    override fun commit(): Boolean = true
+                    override fun apply() {}
+                }
+                override fun registerOnSharedPreferenceChangeListener(listener: android.content.SharedPreferences.OnSharedPreferenceChangeListener?) {}
+                override fun unregisterOnSharedPreferenceChangeListener(listener: android.content.SharedPreferences.OnSharedPreferenceChangeListener?) {}
+            }
+        }
+    }
+
+    @Test
+    fun combinedMatcherAgreesWithIndividualRules() {
+        val rules = listOf("(\\d{1,2}月\\d{1,2}日)", "(周[一二三四五六日天]\\d{1,2}[:：]\\d{2})", "(?i)deadline", "^第\\d+周$", "(\\d)\\1号楼")
+        val set = CustomRuleEngine.compile(rules)
+        val samples = listOf("9月3日开会", "周五15:30", "DEADLINE tonight", "第3周", "第3周末", "22号楼", "23号楼", "无关内容", "")
+        for (s in samples) {
+            val expected = rules.any { Pattern.compile(it).matcher(s).find() }
+            assertEquals("mismatch for '$s'", expected, set.find(s))
+        }
+    }
+
+    @Test
+    fun invalidRulesAreReportedAndSkipped() {
+        val set = CustomRuleEngine.compile(listOf("([unclosed", "明早", "*bad"))
+        assertEquals(listOf("([unclosed", "*bad"), set.invalid.map { it.rule })
+        assertTrue(set.find("明早八点"))
+        assertFalse(set.find("([unclosed"))
+        assertEquals(2, CustomRuleEngine.validate(listOf("ok", "([unclosed", "*bad")).size)
+    }
+
+    @Test
+    fun recompilesWhenRulesAreSaved() {
+        SettingsStore.setCustomRules(DummyContext, listOf("团建"))
+        assertTrue(CustomRuleEngine.matches(DummyContext, "周六团建"))
+        assertFalse(CustomRuleEngine.matches(DummyContext, "周六聚餐"))
+
+        SettingsStore.setCustomRules(DummyContext, listOf("聚餐"))
+        assertFalse(CustomRuleEngine.matches(DummyContext, "周六团建"))
+        assertTrue(CustomRuleEngine.matches(DummyContext, "周六聚餐"))
+        assertTrue(DateTimeParser.guessContainsDateTime(DummyContext, "通知，周六聚餐"))
+
+        SettingsStore.setCustomRules(DummyContext, emptyList())
+        assertFalse(CustomRuleEngine.hasRules(DummyContext))
+    }
+}
@@ -0,0 +1,67 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.regex.Pattern
+
+/**
+ * Allocation checks for the precompiled rule table (DateTimeRules).
+ *
+ * 规则表只在类初始化时编译一次，解析时不再新建 Regex / Pattern；
+ * 每句的分配量给一个绝对上限，逐次内联编译规则（旧实现的做法）会远远超出它。
+ */
+class DateTimeParserBenchmarkTest {
+
+    private val corpus = listOf(
+        "明天上午9点开会",
+        "9月20日下午2点在A101教室开班会",
+        "本周五下午3点汇报",
+        "下下周三早上8点会议",
+        "还有2天3小时作业截止",
+        "截止到10月27日 18:00 提交材料",
+        "开始时间：2025-09-16 10:49 结束时间：2025-09-19 10:49",
+        "通知，下午104的课挪至207进行，请留意开关机房",
+        "3天后截止提交报告",
+        "周五3点到5点开会，地点：图书馆报告厅"
+    )
+
+    // Every Regex / Pattern held by DateTimeRules, by field
+    private fun ruleObjects(): List<Any> = DateTimeRules::class.java.declaredFields.flatMap { f ->
+        f.isAccessible = true
+        when (val v = f.get(DateTimeRules)) {
+            is Regex, is Pattern -> listOf(v)
+            is List<*> -> v.filterIsInstance<Regex>()
+            else -> emptyList()
+        }
+    }
+
+    @Test
+    fun ruleTableIsBuiltOnce() {
+        val before = ruleObjects()
+        assertTrue(before.isNotEmpty())
+        corpus.forEach { DateTimeParser.parseDateTime(it) }
+        val after = ruleObjects()
+        assertEquals(before.size, after.size)
+        for (i in before.indices) assertSame(before[i], after[i])
+    }
+
+    @Test
+    fun parseStaysWithinAllocationBudget() {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(bean?.isThreadAllocatedMemorySupported == true)
+        bean!!.isThreadAllocatedMemoryEnabled = true
+        // warm up parser, jieba dictionary and JIT
+        repeat(3) { corpus.forEach { DateTimeParser.parseDateTime(it) } }
+        val tid = Thread.currentThread().id
+        val rounds = 20
+        val start = bean.getThreadAllocatedBytes(tid)
+        repeat(rounds) { corpus.forEach { DateTimeParser.parseDateTime(it) } }
+        val perSentence = (bean.getThreadAllocatedBytes(tid) - start) / (rounds * corpus.size)
+        // about 90 KB today; compiling the rules per call again costs well over 200 KB
+        assertTrue("parse allocated $perSentence bytes per sentence", perSentence < 160_000)
+    }
+}
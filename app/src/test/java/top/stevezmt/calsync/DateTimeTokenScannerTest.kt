@@ -0,0 +1,112 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.Random
+
+class DateTimeTokenScannerTest {
+
+    // Reference: the regex based prefilter the scanner replaces (split + per-fragment pattern checks)
+    private val countdownHints = listOf(
+        Regex("还有[一二三四五六七八九十百零0-9]+(个)?天"),
+        Regex("还有[一二三四五六七八九十百零0-9]+(个)?小时"),
+        Regex("还有[一二三四五六七八九十百零0-9]+(个)?分钟?"),
+        Regex("还有[一二三四五六七八九十百零0-9]+(个)?秒")
+    )
+
+    private fun legacyContainsDateLike(s: String): Boolean {
+        if (countdownHints.any { it.containsMatchIn(s) }) return true
+        if (DateTimeRules.monthDayPattern.matcher(s).find()) return true
+        if (DateTimeRules.monthDayRangePattern.matcher(s).find()) return true
+        if (DateTimeRules.weekdayTimePattern.matcher(s).find()) return true
+        val tm = DateTimeRules.timePattern.matcher(s)
+        while (tm.find()) {
+            val matched = tm.group()
+            val hour = ChineseNumerals.parse(tm.group(2)) // same converter as DateTimeParser.parseHour
+            val hasIndicator = tm.group(1) != null || tm.group(3) != null || matched.contains("点") || matched.contains(":") || matched.contains("：")
+            val hourEnd = tm.end(2)
+            val nextCh = if (hourEnd < s.length) s[hourEnd] else null
+            val followedByDigit = nextCh?.isDigit() == true && !matched.contains(":") && !matched.contains("：") && !matched.contains("点")
+            if (hasIndicator && hour in 0..23 && !followedByDigit) return true
+        }
+        return false
+    }
+
+    private fun legacyGuess(text: String): Boolean =
+        DateTimeRules.sentenceDelimiters.split(text).any { it.isNotBlank() && legacyContainsDateLike(it) }
+
+    private val corpus = listOf(
+        "明天上午9点开会",
+        "通知，下午104的课挪至207进行，请留意开关机房",
+        "9月20日下午2点在A101教室开班会",
+        "九月二十日全天活动",
+        "10月1日~10月7日放假",
+        "本周五下午3点汇报",
+        "周三下午 3:30 答辩",
+        "星期天上午10：00集合",
+        "还有2天3小时作业截止",
+        "还有十五个小时",
+        "还有30分",
+        "今晚8点聚餐",
+        "十五点开会",
+        "二十三点熄灯",
+        "下午104",
+        "130点",
+        "房间号1234，电话56789",
+        "今天天气不错。",
+        "请大家注意查收邮件",
+        "截止到10月27日 18:00 提交材料",
+        "开始时间：2025-09-16 10:49",
+        ""
+    )
+
+    @Test
+    fun scannerMatchesRegexPrefilterOnCorpus() {
+        for (s in corpus) {
+            assertEquals("mismatch for '$s'", legacyGuess(s), DateTimeTokenScanner.containsDateTimeToken(s))
+        }
+    }
+
+    @Test
+    fun batterySaverCases() {
+        assertTrue(DateTimeTokenScanner.containsDateTimeToken("明天上午9点开会"))
+        assertFalse(DateTimeTokenScanner.containsDateTimeToken("通知，下午104的课挪至207进行，请留意开关机房"))
+        // 十五 = 15 (was read as 60 and rejected as an hour)
+        assertTrue(DateTimeTokenScanner.containsDateTimeToken("十五点开会"))
+    }
+
+    @Test
+    fun scannerMatchesRegexPrefilterOnRandomText() {
+        val alphabet = "0123456789:：点上下午中晚凌晨今明月日号周星期一二三四五六七八九十百零天还有个小时分钟秒 ，。A课".toCharArray()
+        val rnd = Random(20251016L)
+        repeat(50_000) {
+            val len = 1 + rnd.nextInt(14)
+            val sb = StringBuilder(len)
+            repeat(len) { sb.append(alphabet[rnd.nextInt(alphabet.size)]) }
+            val s = sb.toString()
+            assertEquals("mismatch for '$s'", legacyGuess(s), DateTimeTokenScanner.containsDateTimeToken(s))
+        }
+    }
+
+    @Test
+    fun scannerDoesNotAllocate() {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(bean?.isThreadAllocatedMemorySupported == true)
+        bean!!.isThreadAllocatedMemoryEnabled = true
+        repeat(2_000) { corpus.forEach { s -> DateTimeTokenScanner.containsDateTimeToken(s) } }
+        val tid = Thread.currentThread().id
+        val before = bean.getThreadAllocatedBytes(tid)
+        var hits = 0
+        for (round in 0 until 2_000) {
+            for (i in corpus.indices) if (DateTimeTokenScanner.containsDateTimeToken(corpus[i])) hits++
+        }
+        val allocated = bean.getThreadAllocatedBytes(tid) - before
+        assertTrue(hits > 0)
+        // allow a little noise from the measurement itself
+        assertTrue("scanner allocated $allocated bytes", allocated < 4096)
+    }
+}
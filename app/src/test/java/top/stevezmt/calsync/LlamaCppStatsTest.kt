@@ -0,0 +1,52 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import top.stevezmt.calsync.llm.LlamaCpp
+
+class LlamaCppStatsTest {
+
+    // header (load ms, kv used, n_ctx, peak rss, rss) + last completion + totals, as filled by nativeGetStats
+    private val raw = doubleArrayOf(
+        812.5, 300.0, 2048.0, 900_000.0, 850_000.0,
+        1.0, 2.5, 40.0, 260.0, 120.0, 32.0, 800.0, 20.0, 15.0,
+        7.0, 11.0, 900.0, 1500.0, 3000.0, 200.0, 5000.0, 60.0, 42.0
+    )
+
+    @Test
+    fun decodesHeaderAndBothCounterBlocks() {
+        val s = LlamaCpp.decodeStats(raw)!!
+        assertEquals(812.5, s.loadMs, 0.0)
+        assertEquals(300, s.kvUsed)
+        assertEquals(2048, s.nCtx)
+        assertEquals(900_000L, s.peakRssKb)
+        assertEquals(850_000L, s.rssKb)
+
+        assertEquals(1L, s.last.completions)
+        assertEquals(2.5, s.last.tokenizeMs, 0.0)
+        assertEquals(40L, s.last.promptTokens)
+        assertEquals(260L, s.last.promptReused)
+        assertEquals(120.0, s.last.promptMs, 0.0)
+        assertEquals(32L, s.last.genTokens)
+        assertEquals(800.0, s.last.genMs, 0.0)
+        assertEquals(20L, s.last.draftTokens)
+        assertEquals(15L, s.last.draftAccepted)
+        assertEquals(40.0, s.last.genTokensPerSec, 1e-9)
+        assertEquals(0.75, s.last.draftAcceptance, 1e-9)
+
+        assertEquals(7L, s.total.completions)
+        assertEquals(900L, s.total.promptTokens)
+        assertEquals(1500L, s.total.promptReused)
+        assertEquals(5000.0, s.total.genMs, 0.0)
+        assertEquals(42L, s.total.draftAccepted)
+    }
+
+    @Test
+    fun shortOrMissingArraysAreRejected() {
+        assertNull(LlamaCpp.decodeStats(null))
+        assertNull(LlamaCpp.decodeStats(DoubleArray(0)))
+        // an older native library without the draft counters
+        assertNull(LlamaCpp.decodeStats(raw.copyOf(raw.size - 1)))
+    }
+}
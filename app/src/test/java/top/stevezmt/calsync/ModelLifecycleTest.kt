@@ -0,0 +1,32 @@
+package top.stevezmt.calsync
+
+import android.content.ComponentCallbacks2
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import top.stevezmt.calsync.llm.ModelLifecycle
+import top.stevezmt.calsync.llm.ModelLifecycle.Action
+
+class ModelLifecycleTest {
+
+    @Test
+    fun trimLevelsMapToReleaseOrUnload() {
+        assertEquals(Action.NONE, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE))
+        assertEquals(Action.RELEASE_CONTEXT, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW))
+        assertEquals(Action.UNLOAD, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL))
+        // closing the settings screen is not memory pressure
+        assertEquals(Action.NONE, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN))
+        assertEquals(Action.RELEASE_CONTEXT, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND))
+        assertEquals(Action.UNLOAD, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_MODERATE))
+        assertEquals(Action.UNLOAD, ModelLifecycle.actionFor(ComponentCallbacks2.TRIM_MEMORY_COMPLETE))
+    }
+
+    @Test
+    fun inUseClampsIdleMinutesAndReturnsBlockValue() {
+        assertEquals("ok", ModelLifecycle.inUse(0) { "ok" })
+        assertEquals(0, ModelLifecycle.idleUnloadMinutes)
+        ModelLifecycle.inUse(100_000) { }
+        assertEquals(ModelLifecycle.MAX_IDLE_UNLOAD_MINUTES, ModelLifecycle.idleUnloadMinutes)
+        ModelLifecycle.inUse(-3) { }
+        assertEquals(0, ModelLifecycle.idleUnloadMinutes)
+    }
+}
@@ -0,0 +1,56 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import top.stevezmt.calsync.llm.ModelStore
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+
+class ModelStoreTest {
+
+    private val dir = Files.createTempDirectory("models").toFile()
+
+    private fun file(name: String, size: Int, seed: Int): File =
+        File(dir, name).apply { writeBytes(ByteArray(size) { (it * 31 + seed).toByte() }) }
+
+    private fun fingerprint(f: File) = RandomAccessFile(f, "r").use { ModelStore.fingerprint(it.channel, f.length()) }
+
+    @Test
+    fun fingerprintFollowsContentNotName() {
+        val size = 3 * (1 shl 20) + 123
+        val a = file("a.gguf", size, 1)
+        val sameAsA = file("copy.gguf", size, 1)
+        val b = file("b.gguf", size, 1).apply {
+            // only the tail differs
+            RandomAccessFile(this, "rw").use { it.seek(length() - 1); it.write(0x7f) }
+        }
+        assertEquals(fingerprint(a), fingerprint(sameAsA))
+        assertNotEquals(fingerprint(a), fingerprint(b))
+        assertNotEquals(fingerprint(file("small.gguf", 100, 1)), fingerprint(file("small2.gguf", 101, 1)))
+        assertTrue(fingerprint(a).endsWith("-$size"))
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun copyReportsProgressAndRenamesAtTheEnd() {
+        val size = 20 * (1 shl 20) + 5
+        val src = file("src.gguf", size, 7)
+        val target = File(dir, "model_x.gguf")
+        val reported = mutableListOf<Long>()
+        RandomAccessFile(src, "r").use { ModelStore.copy(it.channel, target, size.toLong()) { copied, total ->
+            assertEquals(size.toLong(), total)
+            reported.add(copied)
+        } }
+        assertArrayEquals(src.readBytes(), target.readBytes())
+        assertFalse(File(dir, "model_x.gguf.part").exists())
+        // 8 MiB chunks
+        assertEquals(3, reported.size)
+        assertEquals(size.toLong(), reported.last())
+        dir.deleteRecursively()
+    }
+}
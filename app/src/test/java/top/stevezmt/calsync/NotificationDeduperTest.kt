@@ -0,0 +1,83 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class NotificationDeduperTest {
+
+    @Before
+    fun reset() = NotificationDeduper.clear()
+
+    @Test
+    fun growingChatNotificationForwardsOnlyNewLines() {
+        val key = "0|com.tencent.mobileqq|1|null|10001"
+        val first = listOf("张三: 大家好", "李四: 明天上午9点开会")
+        assertEquals(first, NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", first))
+        // same content reposted: nothing to do
+        assertTrue(NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", first).isEmpty())
+        val grown = first + "王五: 收到"
+        assertEquals(listOf("王五: 收到"), NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", grown))
+        // another key of the same app is tracked separately
+        assertEquals(first, NotificationDeduper.newLines("com.tencent.mobileqq", "other", "班级群", first))
+    }
+
+    @Test
+    fun forgottenLinesAreForwardedAgain() {
+        val key = "0|com.tencent.mobileqq|1|null|10001"
+        val first = listOf("张三: 大家好")
+        NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", first)
+        val grown = first + "李四: 明天上午9点开会"
+        assertEquals(listOf("李四: 明天上午9点开会"), NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", grown))
+        // the update was dropped by the work queue: the same repost must bring the line back
+        NotificationDeduper.forgetLines("com.tencent.mobileqq", key, "班级群", listOf("李四: 明天上午9点开会"))
+        assertEquals(listOf("李四: 明天上午9点开会"), NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", grown))
+        assertTrue(NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", grown).isEmpty())
+    }
+
+    @Test
+    fun lineRepostedAfterTtlIsNewAgain() {
+        val key = "0|com.tencent.mobileqq|1|null|10001"
+        val t0 = 1_000_000L
+        val msg = listOf("班长: 明天上午9点班会")
+        assertEquals(msg, NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", msg, t0))
+        assertTrue(NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", msg, t0 + 60_000L).isEmpty())
+        // same group key, same text a week later: a new announcement
+        val later = t0 + 7 * 24 * 60 * 60 * 1000L
+        val grown = listOf("张三: 收到") + msg
+        assertEquals(grown, NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", grown, later))
+        // a line still shown in the notification is refreshed each time it is seen, so it does not come back
+        val stillShown = grown + "李四: 好"
+        assertEquals(listOf("李四: 好"), NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", stillShown, later + NotificationDeduper.SENTENCE_TTL_MS))
+    }
+
+    @Test
+    fun removedNotificationForgetsItsLines() {
+        val key = "0|com.tencent.mobileqq|1|null|10001"
+        val msg = listOf("班长: 明天上午9点班会")
+        NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", msg)
+        NotificationDeduper.forgetKey("com.tencent.mobileqq", key, "班级群")
+        assertEquals(msg, NotificationDeduper.newLines("com.tencent.mobileqq", key, "班级群", msg))
+    }
+
+    @Test
+    fun sentenceFingerprintsExpire() {
+        val now = 1_000_000L
+        assertFalse(NotificationDeduper.isSentenceProcessed("pkg", "明天上午9点开会", now))
+        NotificationDeduper.markSentenceProcessed("pkg", "明天上午9点开会", now)
+        assertTrue(NotificationDeduper.isSentenceProcessed("pkg", "明天上午9点开会", now + 1000))
+        NotificationDeduper.markSentenceProcessed("pkg", "周五 下午3点 汇报", now)
+        assertTrue(NotificationDeduper.isSentenceProcessed("pkg", "周五  下午3点\n汇报", now + 1000))
+        assertFalse(NotificationDeduper.isSentenceProcessed("other.pkg", "明天上午9点开会", now + 1000))
+        assertFalse(NotificationDeduper.isSentenceProcessed("pkg", "明天上午9点开会", now + NotificationDeduper.SENTENCE_TTL_MS + 1))
+    }
+
+    @Test
+    fun sentenceMemoryIsBounded() {
+        for (i in 0 until 2000) NotificationDeduper.markSentenceProcessed("pkg", "第${i}条 明天9点", 0L)
+        assertTrue(NotificationDeduper.isSentenceProcessed("pkg", "第1999条 明天9点", 0L))
+        assertFalse(NotificationDeduper.isSentenceProcessed("pkg", "第0条 明天9点", 0L))
+    }
+}
@@ -0,0 +1,152 @@
+package top.stevezmt.calsync
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class NotificationWorkQueueTest {
+
+    private fun item(key: String, high: Boolean, content: String = key) =
+        NotificationWorkQueue.Item(key, "pkg", "title", content, high)
+
+    // no workers started: items stay queued and can be polled manually
+    private fun idleQueue(capacity: Int = 16) =
+        NotificationWorkQueue(CoroutineScope(SupervisorJob()), capacity) { }
+
+    @Test
+    fun keywordMatchesAreServedFirst() {
+        val q = idleQueue()
+        q.offer(item("a", false))
+        q.offer(item("b", true))
+        q.offer(item("c", false))
+        q.offer(item("d", true))
+        assertEquals(listOf("b", "d", "a", "c"), generateSequence { q.poll() }.map { it.key }.toList())
+    }
+
+    @Test
+    fun updatesOfAQueuedNotificationAreMerged() {
+        val q = idleQueue()
+        assertEquals(NotificationWorkQueue.Offer.QUEUED, q.offer(item("k", false, "[2条] 明天")))
+        q.offer(item("other", false))
+        assertEquals(NotificationWorkQueue.Offer.MERGED, q.offer(item("k", true, "明天上午9点开会\n[2条] 明天")))
+        val s = q.stats()
+        assertEquals(2, s.highDepth + s.lowDepth)
+        assertEquals(1L, s.merged)
+        val first = q.poll()!!
+        assertEquals("[2条] 明天\n明天上午9点开会", first.content)
+        assertTrue(first.highPriority)
+    }
+
+    @Test
+    fun mergedItemKeepsTheLatestFullText() {
+        val q = idleQueue()
+        q.offer(NotificationWorkQueue.Item("k", "pkg", "群", "通知：", false, fullContent = "通知："))
+        q.offer(NotificationWorkQueue.Item("k", "pkg", "群", "明天9点开会", false, fullContent = "通知：\n明天9点开会"))
+        val merged = q.poll()!!
+        assertEquals("通知：\n明天9点开会", merged.content)
+        assertEquals("通知：\n明天9点开会", merged.fullContent)
+    }
+
+    @Test
+    fun overflowDropsOldestLowPriorityFirst() {
+        val q = idleQueue(capacity = 3)
+        q.offer(item("low1", false))
+        q.offer(item("high1", true))
+        q.offer(item("low2", false))
+        assertEquals(NotificationWorkQueue.Offer.QUEUED, q.offer(item("high2", true)))
+        assertEquals(listOf("high1", "high2", "low2"), generateSequence { q.poll() }.map { it.key }.toList())
+
+        val full = idleQueue(capacity = 2)
+        full.offer(item("h1", true))
+        full.offer(item("h2", true))
+        assertEquals(NotificationWorkQueue.Offer.DROPPED, full.offer(item("l", false)))
+        full.offer(item("h3", true))
+        assertEquals(2L, full.stats().dropped)
+        assertEquals(listOf("h2", "h3"), generateSequence { full.poll() }.map { it.key }.toList())
+        assertNull(full.poll())
+    }
+
+    @Test
+    fun evictedItemsAreReported() {
+        val q = idleQueue(capacity = 2)
+        val evicted = mutableListOf<String>()
+        q.onEvicted = { evicted.add(it.key) }
+        q.offer(item("low1", false))
+        q.offer(item("high1", true))
+        q.offer(item("high2", true))
+        assertEquals(listOf("low1"), evicted)
+        // a dropped new item is reported through Offer.DROPPED, not the callback
+        assertEquals(NotificationWorkQueue.Offer.DROPPED, q.offer(item("low2", false)))
+        q.offer(item("high3", true))
+        assertEquals(listOf("low1", "high1"), evicted)
+    }
+
+    @Test
+    fun concurrencyIsBoundedByWorkerCount() {
+        val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+        val running = AtomicInteger()
+        val peak = AtomicInteger()
+        val done = CountDownLatch(200)
+        val q = NotificationWorkQueue(scope, capacity = 256) {
+            val now = running.incrementAndGet()
+            peak.accumulateAndGet(now) { a, b -> maxOf(a, b) }
+            Thread.sleep(1)
+            running.decrementAndGet()
+            done.countDown()
+        }
+        q.setWorkers(2)
+        repeat(200) { q.offer(item("n$it", it % 3 == 0)) }
+        assertTrue(done.await(30, TimeUnit.SECONDS))
+        assertTrue("peak=${peak.get()}", peak.get() <= 2)
+        // stats are updated right after the handler returns
+        val deadline = System.currentTimeMillis() + 5_000
+        while (q.stats().processed < 200 && System.currentTimeMillis() < deadline) Thread.sleep(5)
+        assertEquals(200L, q.stats().processed)
+        q.stop()
+        scope.cancel()
+    }
+
+    @Test
+    fun batchDrainKeepsPriorityOrderAndCountsEveryItem() {
+        val q = idleQueue()
+        q.offer(item("a", false))
+        q.offer(item("b", true))
+        q.offer(item("c", false))
+        assertEquals(listOf("b", "a"), q.pollBatch(2).map { it.key })
+        assertEquals(listOf("c"), q.pollBatch(4).map { it.key })
+        assertTrue(q.pollBatch(4).isEmpty())
+
+        val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+        val batches = java.util.Collections.synchronizedList(ArrayList<Int>())
+        val seen = AtomicInteger()
+        val done = CountDownLatch(1)
+        val worker = NotificationWorkQueue(scope, capacity = 32) {
+            // single items still go through the plain handler
+            batches.add(1)
+            if (seen.incrementAndGet() == 10) done.countDown()
+        }
+        worker.batchSize = { 4 }
+        worker.batchHandler = { items ->
+            batches.add(items.size)
+            if (seen.addAndGet(items.size) == 10) done.countDown()
+        }
+        // queued before the worker starts, so the first drain sees a full batch
+        repeat(10) { worker.offer(item("n$it", false)) }
+        worker.setWorkers(1)
+        assertTrue(done.await(10, TimeUnit.SECONDS))
+        assertTrue("batches=$batches", batches.all { it <= 4 } && batches.size < 10)
+        val deadline = System.currentTimeMillis() + 5_000
+        while (worker.stats().processed < 10 && System.currentTimeMillis() < deadline) Thread.sleep(5)
+        assertEquals(10L, worker.stats().processed)
+        worker.stop()
+        scope.cancel()
+    }
+}
@@ -0,0 +1,73 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ParseResultCacheTest {
+
+    private val cache = ParseResultCache(maxEntries = 3)
+
+    private fun key(hash: Long, minute: Long = 0L, version: Long = 1L, engine: Int = 0) =
+        ParseResultCache.Key(engine, hash, version, minute)
+
+    private val result = DateTimeParser.ParseResult(1_000L, 2_000L, "t", "loc")
+
+    @Test
+    fun hitsMissesAndNegativeResults() {
+        assertNull(cache.lookup(key(1)))
+        cache.put(key(1), result)
+        cache.put(key(2), null)
+        assertEquals(result, cache.lookup(key(1))?.result)
+        // a failed parse is cached too: entry present, result null
+        val negative = cache.lookup(key(2))
+        assertNotNull(negative)
+        assertNull(negative!!.result)
+        val stats = cache.stats()
+        assertEquals(2L, stats.hits)
+        assertEquals(1L, stats.misses)
+    }
+
+    @Test
+    fun keyPartsSeparateEntries() {
+        cache.put(key(1), result)
+        assertNull(cache.lookup(key(1, minute = 1)))
+        assertNull(cache.lookup(key(1, version = 2)))
+        assertNull(cache.lookup(key(1, engine = 3)))
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsedBeyondCapacity() {
+        cache.put(key(1), result)
+        cache.put(key(2), result)
+        cache.put(key(3), result)
+        cache.lookup(key(1))
+        cache.put(key(4), result)
+        assertFalse(cache.contains(key(2)))
+        assertTrue(cache.contains(key(1)))
+        assertEquals(1L, cache.stats().evicted)
+        assertEquals(3, cache.stats().size)
+    }
+
+    @Test
+    fun onlyRuleEngineMissesAreCacheable() {
+        assertTrue(ParseResultCache.cachesMisses(ParseEngine.BUILTIN))
+        assertTrue(ParseResultCache.cachesMisses(ParseEngine.XK_TIME))
+        // model not loaded, inference cancelled, Play services missing: retry next time
+        assertFalse(ParseResultCache.cachesMisses(ParseEngine.AI_GGUF))
+        assertFalse(ParseResultCache.cachesMisses(ParseEngine.ML_KIT))
+    }
+
+    @Test
+    fun sentenceHashIgnoresOuterAndRepeatedWhitespace() {
+        val h = ParseResultCache.sentenceHash("明天 上午9点 开会")
+        assertEquals(h, ParseResultCache.sentenceHash("  明天   上午9点\t开会\n"))
+        assertEquals(h, ParseResultCache.sentenceHash("明天　上午9点 开会"))
+        assertNotEquals(h, ParseResultCache.sentenceHash("明天上午9点开会"))
+        assertNotEquals(h, ParseResultCache.sentenceHash("明天 上午8点 开会"))
+    }
+}
@@ -0,0 +1,71 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.Random
+
+class RelativeTokenMatcherTest {
+
+    private val words = listOf("今天:0", "今晚:0:pm", "明早:1:am", "明天:1", "后天:2", "大后天:3", "大大后天:4", "昨天:-1", "前天:-2", "下下周末:14", "明晚:1,pm")
+
+    // Reference: the per-token contains() scan the automaton replaces
+    private fun legacy(map: LinkedHashMap<String, RelativeSpec>, s: String): Triple<List<String>, String?, Int>? {
+        val matches = map.entries.filter { s.contains(it.key) }
+        if (matches.isEmpty()) return null
+        val nonZero = matches.map { it.value.offsetDays }.filter { it != 0 }
+        val dayOffset = nonZero.filter { it > 0 }.maxOrNull() ?: nonZero.filter { it < 0 }.minOrNull() ?: 0
+        return Triple(matches.map { it.key }, matches.firstOrNull { it.value.ampm != null }?.value?.ampm, dayOffset)
+    }
+
+    private fun assertAgrees(map: LinkedHashMap<String, RelativeSpec>, automaton: RelativeTokenMatcher.Automaton, s: String) {
+        val expected = legacy(map, s)
+        val hits = automaton.scan(s)
+        if (expected == null) {
+            assertNull("unexpected hit for '$s'", hits)
+            return
+        }
+        val expectedMax = map.entries.filter { s.contains(it.key) }.maxOf { it.value.offsetDays }
+        assertEquals("tokens for '$s'", expected.first, hits!!.tokens())
+        assertEquals("ampm for '$s'", expected.second, hits.ampm)
+        assertEquals("dayOffset for '$s'", expected.third, hits.dayOffset)
+        assertEquals("maxOffset for '$s'", expectedMax, hits.maxOffset)
+    }
+
+    @Test
+    fun overlappingTokensAllCount() {
+        val map = RelativeTokenMatcher.parse(words)
+        val automaton = RelativeTokenMatcher.build(map, words)
+        val hits = automaton.scan("大大后天晚上见")!!
+        assertEquals(listOf("大大后天", "大后天", "后天"), hits.tokens())
+        assertEquals(4, hits.dayOffset)
+        assertEquals("pm", automaton.scan("明晚8点")!!.ampm)
+        assertEquals(-2, automaton.scan("前天和昨天")!!.dayOffset)
+        assertNull(automaton.scan("下周三开会"))
+    }
+
+    @Test
+    fun automatonAgreesWithContainsScan() {
+        val map = RelativeTokenMatcher.parse(words)
+        val automaton = RelativeTokenMatcher.build(map, words)
+        val alphabet = "今天晚明早后大昨前下周末上午8点".toCharArray()
+        val rnd = Random(5L)
+        repeat(20_000) {
+            val len = 1 + rnd.nextInt(10)
+            val sb = StringBuilder(len)
+            repeat(len) { sb.append(alphabet[rnd.nextInt(alphabet.size)]) }
+            assertAgrees(map, automaton, sb.toString())
+        }
+        assertAgrees(RelativeTokenMatcher.parse(emptyList()), RelativeTokenMatcher.build(RelativeTokenMatcher.parse(emptyList()), null), "明早八点")
+    }
+
+    @Test
+    fun automatonIsCachedUntilInvalidated() {
+        val a = RelativeTokenMatcher.get(words)
+        assertSame(a, RelativeTokenMatcher.get(words.toList()))
+        RelativeTokenMatcher.invalidate()
+        val b = RelativeTokenMatcher.get(words)
+        assertEquals(a.tokens, b.tokens)
+    }
+}
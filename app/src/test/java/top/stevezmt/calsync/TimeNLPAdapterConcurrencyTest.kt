@@ -0,0 +1,98 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import top.stevezmt.calsync.timenlp.internal.TimeNormalizer
+import java.util.Calendar
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * TimeNLPAdapter / TimeNormalizer are called from several queue workers at once:
+ * parsing the corpus from many threads must give exactly the serial results.
+ */
+class TimeNLPAdapterConcurrencyTest {
+
+    private val corpus = listOf(
+        "本周五下午3点汇报",
+        "下下周三早上8点会议",
+        "周五3点到5点开会，地点：图书馆报告厅",
+        "9月20日下午2点在A101教室开班会",
+        "明天上午9点开会",
+        "2025年10月1日国庆",
+        "9/20 下午2点",
+        "10.8号交作业",
+        "二十分钟后提醒我",
+        "3个半小时后出发",
+        "1天2小时后截止",
+        "本周末去爬山",
+        "今晚午夜上线",
+        "后天凌晨12点"
+    )
+
+    // more (text, base) pairs than the adapter's LRU holds, so the threads really parse instead of hitting the cache
+    private val bases = (0 until 12).map { i ->
+        Calendar.getInstance().apply {
+            set(2025, Calendar.SEPTEMBER, 15 + i, 8 + i % 10, i * 5, 0)
+            set(Calendar.MILLISECOND, 0)
+        }.timeInMillis
+    }
+
+    private val threads = 8
+    private val rounds = 3
+
+    private fun <T> runConcurrently(work: (Int) -> T): List<T> {
+        val pool = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        val results = Collections.synchronizedList(mutableListOf<T>())
+        try {
+            val futures = (0 until threads).map { t -> pool.submit { start.await(); results.add(work(t)) } }
+            start.countDown()
+            futures.forEach { it.get(60, TimeUnit.SECONDS) }
+        } finally {
+            pool.shutdownNow()
+        }
+        return results
+    }
+
+    @Test
+    fun adapterConcurrentParsesMatchSerial() {
+        val jobs = bases.flatMap { base -> corpus.map { it to base } }
+        TimeNLPAdapter.clearCache()
+        val serial = jobs.associateWith { (text, base) -> TimeNLPAdapter.parse(text, base) }
+        TimeNLPAdapter.clearCache()
+
+        val mismatches = runConcurrently { t ->
+            val order = jobs.shuffled(java.util.Random(t.toLong()))
+            var bad = 0
+            repeat(rounds) {
+                for (job in order) if (TimeNLPAdapter.parse(job.first, job.second) != serial[job]) bad++
+            }
+            bad
+        }
+        assertEquals("concurrent results differing from serial", 0, mismatches.sum())
+    }
+
+    @Test
+    fun sharedNormalizerConcurrentParsesMatchSerial() {
+        val normalizer = TimeNormalizer()
+        fun describe(text: String, base: Long): List<String> {
+            val cal = Calendar.getInstance().apply { timeInMillis = base }
+            return normalizer.parse(text, cal).map { "${it.exp}=${it.resolvedTime}" }
+        }
+        val jobs = bases.flatMap { base -> corpus.map { it to base } }
+        val serial = jobs.associateWith { (text, base) -> describe(text, base) }
+
+        val mismatches = runConcurrently { t ->
+            val order = jobs.shuffled(java.util.Random(t.toLong()))
+            var bad = 0
+            repeat(rounds) {
+                for (job in order) if (describe(job.first, job.second) != serial[job]) bad++
+            }
+            bad
+        }
+        assertEquals("concurrent results differing from serial", 0, mismatches.sum())
+    }
+}
@@ -0,0 +1,78 @@
+package top.stevezmt.calsync
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import top.stevezmt.calsync.timenlp.internal.TimeNormalizer
+import java.lang.management.ManagementFactory
+import java.text.SimpleDateFormat
+import java.util.Calendar
+import java.util.Date
+
+/**
+ * TimeNLP fallback (TimeNormalizer / TimeUnit) over the DebugTimeNormalizerTest corpus plus one sentence per
+ * TimeUnit pattern: results of a reused normalizer must not change, and a sentence stays within a fixed
+ * allocation budget now that the patterns are static and the calendars are reused scratch objects.
+ */
+class TimeNormalizerBenchmarkTest {
+
+    private val base = Calendar.getInstance().apply {
+        set(2025, Calendar.SEPTEMBER, 16, 10, 0, 0)
+        set(Calendar.MILLISECOND, 0)
+    }
+
+    // Resolved by the implementation before the patterns were made static; must not change
+    private val expected = linkedMapOf(
+        "本周五下午3点汇报" to listOf("本周五下午3点=2025-09-19 15:00"),
+        "下周五" to listOf("下周五=2025-09-26 09:00"),
+        "下下周三早上8点会议" to listOf("下下周三早上8点=2025-10-01 08:00"),
+        "周一上午10:30开会" to listOf("周一上午10:30=2025-09-22 10:30"),
+        "2025年10月1日国庆" to listOf("2025年10月1日=2025-10-01 09:00"),
+        "9/20 下午2点" to listOf("9/20=2025-09-20 09:00", "下午2点=2025-09-16 14:00"),
+        "10.8号交作业" to listOf("10.8=2025-10-08 09:00"),
+        "3-15截止" to listOf("3-15=2025-03-15 09:00"),
+        "1天2小时后出发" to listOf("2小时后=2025-09-16 12:00"),
+        "二十分钟后" to listOf("20分钟后=2025-09-16 10:20"),
+        "本周末去爬山" to listOf("本周末=2025-09-20 09:00"),
+        "下周末" to listOf("下周末=2025-09-27 09:00"),
+        "今晚午夜" to listOf("今晚午夜=2025-09-17 00:00"),
+        "后天凌晨12点" to listOf("后天凌晨12点=2025-09-18 00:00"),
+        "大后天中午" to listOf("大后天中午=2025-09-19 12:00")
+    )
+    private val corpus = expected.keys.toList()
+
+    private fun describe(tn: TimeNormalizer): List<String> {
+        val fmt = SimpleDateFormat("yyyy-MM-dd HH:mm")
+        return tn.timeUnits.map { "${it.exp}=${fmt.format(Date(it.resolvedTime))}" }
+    }
+
+    @Test
+    fun reusedNormalizerResolvesSameAsBefore() {
+        val tn = TimeNormalizer()
+        // twice: the second pass runs on scratch calendars left over from the first
+        repeat(2) {
+            for ((text, units) in expected) {
+                tn.parse(text, base)
+                assertEquals(text, units, describe(tn))
+            }
+        }
+    }
+
+    @Test
+    fun sentenceStaysWithinAllocationBudget() {
+        val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(bean?.isThreadAllocatedMemorySupported == true)
+        bean!!.isThreadAllocatedMemoryEnabled = true
+        val tn = TimeNormalizer()
+        // warm up JIT
+        repeat(50) { corpus.forEach { tn.parse(it, base) } }
+        val tid = Thread.currentThread().id
+        val rounds = 200
+        val start = bean.getThreadAllocatedBytes(tid)
+        repeat(rounds) { corpus.forEach { tn.parse(it, base) } }
+        val perSentence = (bean.getThreadAllocatedBytes(tid) - start) / (rounds * corpus.size)
+        // about 6 KB today; compiling the TimeUnit patterns per unit again costs over 25 KB
+        assertTrue("TimeNormalizer allocated $perSentence bytes per sentence", perSentence < 12_000)
+    }
+}